@@ -0,0 +1,150 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import ac.il.bgu.qa.services.NotificationService;
+import ac.il.bgu.qa.services.ReviewService;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A library populated with in-memory stand-ins of its services, shared by the benchmarks.
+ * The review and notification stand-ins fail at a configurable rate, so the retry and error paths of
+ * {@link Library} are measured as well as the happy path.
+ */
+final class BenchmarkCatalog {
+
+    // The reviews every book gets.
+    private static final List<String> REVIEWS = Arrays.asList("Great read.", "Could not put it down.", "Too long.");
+
+    final InMemoryDatabaseService databaseService;
+    final Library library;
+    // The canonical ISBNs of the books in the catalog, in insertion order.
+    final String[] ISBNs;
+    // The Ids of the registered users.
+    final String[] userIds;
+
+    /**
+     * Constructs a new catalog.
+     *
+     * @param books       The number of books to add.
+     * @param users       The number of users to register.
+     * @param failureRate The probability that a review fetch or a notification attempt fails.
+     */
+    BenchmarkCatalog(int books, int users, double failureRate) {
+        this.databaseService = new InMemoryDatabaseService(books, users);
+        this.library = new Library(databaseService, new FlakyReviewService(failureRate));
+        this.ISBNs = new String[books];
+        this.userIds = new String[users];
+        NotificationService notificationService = new FlakyNotificationService(failureRate);
+        for (int i = 0; i < books; i++) {
+            ISBNs[i] = isbn(i);
+            library.addBook(new Book(ISBNs[i], "Title " + i, "Author Name"));
+        }
+        for (int i = 0; i < users; i++) {
+            userIds[i] = userId(i);
+            library.registerUser(new User("User " + i, userIds[i], notificationService));
+        }
+    }
+
+    // A random ISBN out of the first bound books of the catalog.
+    String randomISBN(int bound) {
+        return ISBNs[ThreadLocalRandom.current().nextInt(Math.min(bound, ISBNs.length))];
+    }
+
+    String randomUserId() {
+        return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+    }
+
+    /**
+     * Discards everything written to {@link System#out} and {@link System#err}, so the benchmarks measure
+     * the library rather than the console. The paths that fail print a line on every failure.
+     *
+     * @return The console streams to hand to {@link #restoreConsole(PrintStream[])}.
+     */
+    static PrintStream[] silenceConsole() {
+        PrintStream[] console = {System.out, System.err};
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(discard);
+        System.setErr(discard);
+        return console;
+    }
+
+    /**
+     * Puts back the console streams replaced by {@link #silenceConsole()}.
+     *
+     * @param console The streams returned by {@link #silenceConsole()}.
+     */
+    static void restoreConsole(PrintStream[] console) {
+        System.setOut(console[0]);
+        System.setErr(console[1]);
+    }
+
+    /**
+     * Builds the n-th ISBN-13 of the 978 prefix, with a valid check digit.
+     *
+     * @param n A number below one billion.
+     * @return The ISBN.
+     */
+    static String isbn(long n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Builds the n-th 12 digit user Id.
+     *
+     * @param n A number below one trillion.
+     * @return The user Id.
+     */
+    static String userId(long n) {
+        return String.format("%012d", n);
+    }
+
+    // Fails a fetch with the given probability, otherwise returns a fixed list of reviews.
+    static final class FlakyReviewService implements ReviewService {
+        private final double failureRate;
+
+        FlakyReviewService(double failureRate) {
+            this.failureRate = failureRate;
+        }
+
+        @Override
+        public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                throw new ReviewException("Review service failed!");
+            }
+            return REVIEWS;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Fails an attempt with the given probability, otherwise drops the message.
+    static final class FlakyNotificationService implements NotificationService {
+        private final double failureRate;
+
+        FlakyNotificationService(double failureRate) {
+            this.failureRate = failureRate;
+        }
+
+        @Override
+        public void notifyUser(String userId, String message) throws NotificationException {
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                throw new NotificationException("Notification service failed!");
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.NoReviewsFoundException;
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded benchmarks of the hot paths of {@link Library}.
+ * Every benchmark runs against catalogs of several sizes and with several failure rates of the review and
+ * notification services. The console is silenced while they run, so the failure paths do not measure printing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int catalogSize;
+
+    @Param({"0.0", "0.1"})
+    public double failureRate;
+
+    // The number of books the addBook benchmark adds in every iteration.
+    private static final int ADD_BATCH = 10_000;
+
+    private BenchmarkCatalog catalog;
+    private Book newBook;
+    private PrintStream[] console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = new BenchmarkCatalog(catalogSize, 1000, failureRate);
+        newBook = new Book(BenchmarkCatalog.isbn(0), "A Title", "Jean-Luc O'Neil Jr.");
+        console = BenchmarkCatalog.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCatalog.restoreConsole(console);
+    }
+
+    /**
+     * A fresh catalog for every iteration of the addBook benchmark, with the books it adds built up front,
+     * so the catalog does not grow from one iteration to the next.
+     */
+    @State(Scope.Thread)
+    public static class AddBookState {
+        // The ISBNs of the books added, past the end of the catalog.
+        private String[] ISBNs;
+        private Library library;
+        private Book[] books;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUpTrial(LibraryBenchmark benchmark) {
+            ISBNs = new String[ADD_BATCH];
+            for (int i = 0; i < ADD_BATCH; i++) {
+                ISBNs[i] = BenchmarkCatalog.isbn(benchmark.catalogSize + i);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void setUpIteration(LibraryBenchmark benchmark) {
+            library = new BenchmarkCatalog(benchmark.catalogSize, 1, benchmark.failureRate).library;
+            books = new Book[ADD_BATCH];
+            for (int i = 0; i < ADD_BATCH; i++) {
+                books[i] = new Book(ISBNs[i], "A Title", "Author Name");
+            }
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public long validateNewBook() {
+        return Library.validateNewBook(newBook);
+    }
+
+    // Every iteration adds exactly ADD_BATCH books to a fresh catalog and is timed as a whole.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10, batchSize = ADD_BATCH)
+    @Measurement(iterations = 20, batchSize = ADD_BATCH)
+    public void addBook(AddBookState state) {
+        state.library.addBook(state.books[state.next++]);
+    }
+
+    @Benchmark
+    public void addExistingBook(Blackhole blackhole) {
+        try {
+            catalog.library.addBook(new Book(catalog.randomISBN(catalogSize), "A Title", "Author Name"));
+        } catch (IllegalArgumentException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void borrowAndReturnBook() {
+        String ISBN = catalog.randomISBN(catalogSize);
+        catalog.library.borrowBook(ISBN, catalog.randomUserId());
+        catalog.library.returnBook(ISBN);
+    }
+
+    @Benchmark
+    public Book getBookByISBN() {
+        return catalog.library.getBookByISBN(catalog.randomISBN(catalogSize), catalog.randomUserId());
+    }
+
+    @Benchmark
+    public void notifyUserWithBookReviews(Blackhole blackhole) {
+        try {
+            catalog.library.notifyUserWithBookReviews(catalog.randomISBN(catalogSize), catalog.randomUserId());
+        } catch (ReviewServiceUnavailableException | NoReviewsFoundException | NotificationException e) {
+            blackhole.consume(e);
+        }
+    }
+}
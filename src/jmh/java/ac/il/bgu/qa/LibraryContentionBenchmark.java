@@ -0,0 +1,96 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.BookAlreadyBorrowedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi threaded benchmarks of {@link Library} sharing a single catalog.
+ * Every thread works on a hot set of books: a small hot set makes threads race for the same books,
+ * while a hot set as large as the catalog only contends on the database itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryContentionBenchmark {
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    @Param({"16", "100000"})
+    public int hotBooks;
+
+    @Param({"0.0", "0.1"})
+    public double failureRate;
+
+    private BenchmarkCatalog catalog;
+    private PrintStream[] console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = new BenchmarkCatalog(catalogSize, 1000, failureRate);
+        console = BenchmarkCatalog.silenceConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCatalog.restoreConsole(console);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrowAndReturnBook(Blackhole blackhole) {
+        borrowAndReturn(blackhole);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public void readWriteGetBookByISBN(Blackhole blackhole) {
+        try {
+            blackhole.consume(catalog.library.getBookByISBN(catalog.randomISBN(hotBooks), catalog.randomUserId()));
+        } catch (BookAlreadyBorrowedException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void readWriteBorrowAndReturnBook(Blackhole blackhole) {
+        borrowAndReturn(blackhole);
+    }
+
+    // Borrows a hot book and returns it, unless another thread has borrowed it first.
+    private void borrowAndReturn(Blackhole blackhole) {
+        String ISBN = catalog.randomISBN(hotBooks);
+        try {
+            catalog.library.borrowBook(ISBN, catalog.randomUserId());
+        } catch (BookAlreadyBorrowedException e) {
+            blackhole.consume(e);
+            return;
+        }
+        catalog.library.returnBook(ISBN);
+    }
+}
@@ -0,0 +1,366 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.events.EventBus;
+import ac.il.bgu.qa.events.LibraryEvent;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryOperation;
+import ac.il.bgu.qa.services.AsyncDatabaseService;
+import ac.il.bgu.qa.services.AsyncNotificationService;
+import ac.il.bgu.qa.services.AsyncReviewService;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A non-blocking counterpart of {@link Library}.
+ * Every operation returns at once with a future, and steps that do not depend on each other run concurrently,
+ * such as the book and user lookups. Each future completes exceptionally with the same exception the matching
+ * {@link Library} method would have thrown, including the validation errors, checked in the same order.
+ * Like {@link Library}, it keeps metrics, a loan ledger and a change stream of the operations made through it.
+ */
+public class AsyncLibrary {
+
+    // Number of attempts to send a notification, as in Library.
+    private static final int NOTIFICATION_ATTEMPTS = 5;
+
+    // Service to interact with the database
+    private final AsyncDatabaseService databaseService;
+
+    // Service to fetch reviews for a book
+    private final AsyncReviewService reviewService;
+
+    // Runs the blocking notification services of users that are not asynchronous themselves
+    private final Executor notificationExecutor;
+
+    // Latencies, exceptions and notification retries of every operation
+    private final LibraryMetrics metrics;
+
+    // Current loans by book and by user, of the books borrowed through this library
+    private final LoanLedger loanLedger = new LoanLedger();
+
+    // Stream of the changes made through this library
+    private final EventBus eventBus = new EventBus(Library.DEFAULT_EVENT_CAPACITY);
+
+    // Time a borrowed book may be kept before it is overdue, in milliseconds
+    private volatile long loanPeriodMillis = Library.DEFAULT_LOAN_PERIOD.toMillis();
+
+    /**
+     * Constructs a new AsyncLibrary.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the notification services of users that do not implement
+     *                             {@link AsyncNotificationService} themselves.
+     */
+    public AsyncLibrary(AsyncDatabaseService databaseService, AsyncReviewService reviewService, Executor notificationExecutor) {
+        this(databaseService, reviewService, notificationExecutor, new LibraryMetrics());
+    }
+
+    /**
+     * Constructs a new AsyncLibrary that records its metrics into given metrics, for example those of a {@link Library}.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the notification services of users that do not implement
+     *                             {@link AsyncNotificationService} themselves.
+     * @param metrics              The metrics to record latencies, exceptions and notification retries in.
+     */
+    public AsyncLibrary(AsyncDatabaseService databaseService, AsyncReviewService reviewService, Executor notificationExecutor,
+                        LibraryMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Invalid metrics.");
+        }
+        this.databaseService = databaseService;
+        this.reviewService = reviewService;
+        this.notificationExecutor = notificationExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Retrieves the metrics of the library, recorded as each future completes.
+     *
+     * @return The metrics of the library.
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Retrieves the loan ledger of the library, kept up to date by its borrowing and returning methods.
+     *
+     * @return The loan ledger of the library.
+     */
+    public LoanLedger getLoanLedger() {
+        return loanLedger;
+    }
+
+    /**
+     * Retrieves the change stream of the library. Every book borrowed and returned through this library
+     * is published to it once the database has recorded it.
+     *
+     * @return The event bus of the library.
+     */
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Retrieves the time a borrowed book may be kept before it is overdue.
+     *
+     * @return The loan period.
+     */
+    public Duration getLoanPeriod() {
+        return Duration.ofMillis(loanPeriodMillis);
+    }
+
+    /**
+     * Sets the time a borrowed book may be kept before it is overdue.
+     * Loans recorded from now on are due this long after they were made; earlier loans keep their due date.
+     *
+     * @param loanPeriod The loan period.
+     */
+    public void setLoanPeriod(Duration loanPeriod) {
+        if (loanPeriod == null || loanPeriod.isNegative() || loanPeriod.isZero()) {
+            throw new IllegalArgumentException("Invalid loan period.");
+        }
+        loanPeriodMillis = loanPeriod.toMillis();
+    }
+
+    /**
+     * Borrows a book for a user. The book and the user are looked up concurrently.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return A future that completes once the loan is recorded.
+     */
+    public CompletableFuture<Void> borrowBook(String ISBN, String userId) {
+        long start = metrics.start();
+        String key;
+        try {
+            key = Library.requireValidISBN(ISBN);
+        } catch (IllegalArgumentException e) {
+            return measured(LibraryOperation.BORROW_BOOK, start, CompletableFuture.failedFuture(e));
+        }
+
+        // The user is only looked up if the user Id is valid, but the book is looked up in any case,
+        // since a missing book is reported before an invalid user Id.
+        boolean validUserId = userId != null && UserIdCodec.isValid(userId);
+        CompletableFuture<Book> book = databaseService.getBookByISBN(key);
+        CompletableFuture<User> user = validUserId
+                ? databaseService.getUserById(userId)
+                : CompletableFuture.completedFuture(null);
+        return measured(LibraryOperation.BORROW_BOOK, start, book.thenCombine(user, (foundBook, foundUser) -> {
+            // If no book is found for the given ISBN, throw an exception.
+            if (foundBook == null) {
+                throw LibraryErrors.bookNotFound();
+            }
+
+            // Validate the user Id's format (should be a 12-digit number).
+            if (!validUserId) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
+
+            // If the user Id does not correspond to a registered user, throw an exception.
+            if (foundUser == null) {
+                throw LibraryErrors.userNotRegistered();
+            }
+
+            // Mark the book as borrowed in a single atomic transition.
+            if (foundBook.isBorrowed() || !foundBook.tryBorrow()) {
+                throw LibraryErrors.bookAlreadyBorrowed();
+            }
+            return foundBook;
+        }).thenCompose(borrowed -> {
+            // Record the loan in the ledger and in the database while the book is held.
+            boolean inLedger = loanLedger.recordLoan(key, userId, borrowed.getCopies(),
+                    System.currentTimeMillis() + loanPeriodMillis);
+            return databaseService.borrowBook(key, userId).whenComplete((recorded, e) -> {
+                // If the database rejects the loan, release the book again and take back only this loan.
+                if (e != null) {
+                    if (inLedger) {
+                        loanLedger.cancelLoan(key, userId);
+                    }
+                    borrowed.tryReturn();
+                } else {
+                    eventBus.publish(LibraryEvent.Type.BOOK_BORROWED, key, userId);
+                }
+            });
+        }));
+    }
+
+    /**
+     * Returns a previously borrowed book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return A future that completes once the return is recorded.
+     */
+    public CompletableFuture<Void> returnBook(String ISBN) {
+        long start = metrics.start();
+        String key;
+        try {
+            key = Library.requireValidISBN(ISBN);
+        } catch (IllegalArgumentException e) {
+            return measured(LibraryOperation.RETURN_BOOK, start, CompletableFuture.failedFuture(e));
+        }
+
+        return measured(LibraryOperation.RETURN_BOOK, start, databaseService.getBookByISBN(key).thenCompose(book -> {
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (book == null) {
+                throw LibraryErrors.bookNotFound();
+            }
+
+            // If no copy of the book is borrowed, throw an exception.
+            if (!Library.isOnLoan(book)) {
+                throw LibraryErrors.bookNotBorrowed();
+            }
+
+            // Claim the copy back atomically, then update the database. If the database rejects the return,
+            // borrow the copy again; otherwise close the earliest loan.
+            if (!book.tryReturn()) {
+                throw LibraryErrors.bookNotBorrowed();
+            }
+            return databaseService.returnBook(key).whenComplete((recorded, e) -> {
+                if (e != null) {
+                    book.tryBorrow();
+                } else {
+                    String borrowerId = loanLedger.recordReturn(key);
+                    eventBus.publish(LibraryEvent.Type.BOOK_RETURNED, key, borrowerId);
+                }
+            });
+        }));
+    }
+
+    /**
+     * Notifies a user with the reviews of a specified book.
+     * The book and the user are looked up concurrently; the reviews are fetched once both are found.
+     *
+     * @param ISBN   The ISBN of the book whose reviews are to be sent.
+     * @param userId The Id of the user to whom the reviews are to be sent.
+     * @return A future that completes once the notification is sent.
+     */
+    public CompletableFuture<Void> notifyUserWithBookReviews(String ISBN, String userId) {
+        long start = metrics.start();
+        String key;
+        try {
+            key = Library.requireValidISBN(ISBN);
+            requireValidUserId(userId);
+        } catch (IllegalArgumentException e) {
+            return measured(LibraryOperation.NOTIFY_USER_WITH_BOOK_REVIEWS, start, CompletableFuture.failedFuture(e));
+        }
+
+        CompletableFuture<Book> book = databaseService.getBookByISBN(key);
+        CompletableFuture<User> user = databaseService.getUserById(userId);
+        return measured(LibraryOperation.NOTIFY_USER_WITH_BOOK_REVIEWS, start, book.thenCombine(user, (foundBook, foundUser) -> {
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (foundBook == null) {
+                throw LibraryErrors.bookNotFound();
+            }
+
+            // If the user is not found in the database, throw an exception.
+            if (foundUser == null) {
+                throw LibraryErrors.userNotRegistered();
+            }
+            return foundUser;
+        }).thenCompose(foundUser -> reviewService.getReviewsForBook(key).handle((reviews, e) -> {
+            // If there's an issue fetching the reviews, throw a service unavailable exception.
+            if (e != null) {
+                if (unwrap(e) instanceof ReviewException) {
+                    throw new ReviewServiceUnavailableException("Review service unavailable!");
+                }
+                throw new CompletionException(unwrap(e));
+            }
+
+            // Construct the notification message containing the book's title and a bounded digest of its reviews.
+            // If no reviews are found or the review list is empty, throw an exception.
+            String message = reviews == null ? null : ReviewDigest.of(book.join().getTitle(), reviews.iterator());
+            if (message == null) {
+                throw new NoReviewsFoundException("No reviews found!");
+            }
+            return message;
+        }).thenCompose(message -> send(foundUser, message, 1))));
+    }
+
+    /**
+     * Fetches a book by its ISBN and notifies the user with its reviews.
+     * The notification is optional and runs in the background; the future completes as soon as the book is found.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be fetched.
+     * @param userId The Id of the user to be notified with the book's reviews.
+     * @return A future of the book with the given ISBN.
+     */
+    public CompletableFuture<Book> getBookByISBN(String ISBN, String userId) {
+        long start = metrics.start();
+        String key;
+        try {
+            key = Library.requireValidISBN(ISBN);
+            requireValidUserId(userId);
+        } catch (IllegalArgumentException e) {
+            return measured(LibraryOperation.GET_BOOK_BY_ISBN, start, CompletableFuture.failedFuture(e));
+        }
+
+        return measured(LibraryOperation.GET_BOOK_BY_ISBN, start, databaseService.getBookByISBN(key).thenApply(book -> {
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (book == null) {
+                throw LibraryErrors.bookNotFound();
+            }
+
+            // If the book is already borrowed, throw an exception.
+            if (book.isBorrowed()) {
+                throw LibraryErrors.bookWasAlreadyBorrowed();
+            }
+
+            // Attempt to notify the user with the book's reviews without waiting for it.
+            notifyUserWithBookReviews(key, userId).whenComplete((sent, e) -> {
+                if (e != null) {
+                    System.out.println("Notification failed!");
+                }
+            });
+            return book;
+        }));
+    }
+
+    // Sends a notification, retrying failed attempts up to the same limit as Library.
+    private CompletableFuture<Void> send(User user, String message, int attempt) {
+        AsyncNotificationService notificationService =
+                AsyncNotificationService.of(user.getNotificationService(), notificationExecutor);
+        return notificationService.notifyUser(user.getId(), message).exceptionallyCompose(e -> {
+            Throwable cause = unwrap(e);
+            if (!(cause instanceof NotificationException)) {
+                return CompletableFuture.failedFuture(cause);
+            } else if (attempt >= NOTIFICATION_ATTEMPTS) {
+                return CompletableFuture.failedFuture(new NotificationException("Notification failed!"));
+            }
+            metrics.recordNotificationRetry();
+            System.err.println("Notification failed! Retrying attempt " + attempt + "/" + NOTIFICATION_ATTEMPTS);
+            return send(user, message, attempt + 1);
+        });
+    }
+
+    // Records the latency of an operation, and its exception if it fails, once its future completes.
+    private <T> CompletableFuture<T> measured(LibraryOperation operation, long start, CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> {
+            if (e != null) {
+                metrics.recordException(unwrap(e));
+            }
+            metrics.record(operation, start);
+        });
+    }
+
+    private static void requireValidUserId(String userId) {
+        // Validate the user Id format (should be a 12-digit number).
+        if (userId == null || !UserIdCodec.isValid(userId)) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+    }
+
+    // Strips the wrapper a failed stage adds around the exception that failed it.
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
@@ -0,0 +1,118 @@
+package ac.il.bgu.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the per-book outcomes of a batch borrow or return, in the order the ISBNs were given.
+ */
+public class BatchResult {
+
+    // The ISBNs as given by the caller.
+    private final List<String> ISBNs;
+    // The outcome of each ISBN, at the same index.
+    private final List<LoanOutcome> outcomes;
+    // The database error that failed the batch write, if any.
+    private RuntimeException failure;
+
+    /**
+     * Constructs a new, empty BatchResult.
+     *
+     * @param expectedSize The number of ISBNs in the batch.
+     */
+    BatchResult(int expectedSize) {
+        this.ISBNs = new ArrayList<>(expectedSize);
+        this.outcomes = new ArrayList<>(expectedSize);
+    }
+
+    // Records the outcome of the next ISBN and returns its index.
+    int add(String ISBN, LoanOutcome outcome) {
+        ISBNs.add(ISBN);
+        outcomes.add(outcome);
+        return outcomes.size() - 1;
+    }
+
+    // Replaces the outcome at an index.
+    void set(int index, LoanOutcome outcome) {
+        outcomes.set(index, outcome);
+    }
+
+    // Records the database error that failed the batch write.
+    void setFailure(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * Retrieves the number of ISBNs in the batch.
+     *
+     * @return The size of the batch.
+     */
+    public int size() {
+        return ISBNs.size();
+    }
+
+    /**
+     * Retrieves the ISBNs of the batch.
+     *
+     * @return The ISBNs as given by the caller, in order.
+     */
+    public List<String> getISBNs() {
+        return Collections.unmodifiableList(ISBNs);
+    }
+
+    /**
+     * Retrieves the outcomes of the batch.
+     *
+     * @return The outcome of each ISBN, at the same index as in {@link #getISBNs()}.
+     */
+    public List<LoanOutcome> getOutcomes() {
+        return Collections.unmodifiableList(outcomes);
+    }
+
+    /**
+     * Retrieves the outcome of an ISBN. If the ISBN appears more than once, the first outcome is returned.
+     *
+     * @param ISBN The ISBN as given by the caller.
+     * @return The outcome of the ISBN, or null if it is not part of the batch.
+     */
+    public LoanOutcome getOutcome(String ISBN) {
+        int index = ISBNs.indexOf(ISBN);
+        return index < 0 ? null : outcomes.get(index);
+    }
+
+    /**
+     * Counts the ISBNs that ended with an outcome.
+     *
+     * @param outcome The outcome to count.
+     * @return The number of ISBNs with that outcome.
+     */
+    public int count(LoanOutcome outcome) {
+        int count = 0;
+        for (LoanOutcome o : outcomes) {
+            if (o == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether every book in the batch was borrowed or returned.
+     *
+     * @return true if all outcomes are {@link LoanOutcome#SUCCESS}, otherwise false.
+     */
+    public boolean isAllSucceeded() {
+        return count(LoanOutcome.SUCCESS) == outcomes.size();
+    }
+
+    /**
+     * Retrieves the database error that failed the batch write.
+     * Books whose write was lost this way have the outcome {@link LoanOutcome#FAILED}.
+     *
+     * @return The database error, or null if the write succeeded.
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+}
@@ -1,7 +1,18 @@
 package ac.il.bgu.qa;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * Represents a book with its essential details and borrowing status.
+ * A book may stand for several identical copies of the same title, and is borrowed one copy at a time.
+ * Borrowing and returning are lock-free compare-and-set transitions, so the book is safe to share between
+ * threads and no more borrowers than there are copies can win it.
+ * <p>
+ * The available copies of a title with several copies are split over cells, each on its own cache line.
+ * A thread claims and releases copies in the cell it maps to, and only visits the other cells when that one is
+ * empty or full, so hundreds of concurrent checkouts of a popular title rarely touch the same counter.
  */
 public class Book {
     // The International Standard Book Number (ISBN) uniquely identifying the book.
@@ -10,21 +21,72 @@ public class Book {
     private final String title;
     // The name of the author of the book.
     private final String author;
-    // Status to check if the book is currently borrowed or not.
-    private boolean isBorrowed;
+    // The number of copies of the book.
+    private final int copies;
+    // Whether the single copy of the book is available (1) or borrowed (0). Only changed through AVAILABLE.
+    // Unused for books with several copies.
+    private volatile int available;
+    // The available copies of a book with several copies, one cell every CELL_STRIDE slots, or null.
+    private final AtomicIntegerArray cells;
+    // The number of copies each cell holds when none is borrowed.
+    private final int[] cellCapacities;
+
+    // Number of int slots from one cell to the next, so that every cell has a cache line of its own.
+    private static final int CELL_STRIDE = 16;
+    // Maximum number of cells of a book, enough for every processor to have its own.
+    private static final int MAX_CELLS = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2));
+
+    // Handle for the atomic compare-and-set transitions of available.
+    private static final VarHandle AVAILABLE;
+
+    static {
+        try {
+            AVAILABLE = MethodHandles.lookup().findVarHandle(Book.class, "available", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     /**
-     * Constructs a new Book object.
+     * Constructs a new Book object with a single copy.
      *
      * @param ISBN   The International Standard Book Number (ISBN) of the book.
      * @param title  The title of the book.
      * @param author The author of the book.
      */
     public Book(String ISBN, String title, String author) {
+        this(ISBN, title, author, 1);
+    }
+
+    /**
+     * Constructs a new Book object with several identical copies, none of them borrowed.
+     *
+     * @param ISBN   The International Standard Book Number (ISBN) of the book.
+     * @param title  The title of the book.
+     * @param author The author of the book.
+     * @param copies The number of copies of the book.
+     */
+    public Book(String ISBN, String title, String author, int copies) {
+        if (copies < 1) {
+            throw new IllegalArgumentException("Invalid number of copies.");
+        }
         this.ISBN = ISBN;
         this.title = title;
         this.author = author;
-        this.isBorrowed = false;
+        this.copies = copies;
+        if (copies == 1) {
+            this.available = 1;
+            this.cells = null;
+            this.cellCapacities = null;
+        } else {
+            int cellCount = Math.min(copies, MAX_CELLS);
+            this.cells = new AtomicIntegerArray(cellCount * CELL_STRIDE);
+            this.cellCapacities = new int[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                cellCapacities[i] = copies / cellCount + (i < copies % cellCount ? 1 : 0);
+                cells.set(i * CELL_STRIDE, cellCapacities[i]);
+            }
+        }
     }
 
     // Getter methods
@@ -56,36 +118,120 @@ public class Book {
         return author;
     }
 
+    /**
+     * Retrieves the number of copies of the book.
+     *
+     * @return The number of copies.
+     */
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * Retrieves the number of copies that are not borrowed.
+     * Under concurrent borrowing the result is a snapshot that may already be out of date.
+     *
+     * @return The number of available copies.
+     */
+    public int getAvailableCopies() {
+        if (cells == null) {
+            return available;
+        }
+        int sum = 0;
+        for (int i = 0; i < cellCapacities.length; i++) {
+            sum += cells.get(i * CELL_STRIDE);
+        }
+        return sum;
+    }
+
     /**
      * Checks the borrowing status of the book.
      *
-     * @return true if the book is borrowed, otherwise false.
+     * @return true if every copy of the book is borrowed, otherwise false.
      */
     public boolean isBorrowed() {
-        return isBorrowed;
+        return getAvailableCopies() == 0;
+    }
+
+    /**
+     * Checks whether any copy of the book is borrowed.
+     * For a book with a single copy this is the same as {@link #isBorrowed()}.
+     *
+     * @return true if at least one copy is borrowed, otherwise false.
+     */
+    public boolean hasBorrowedCopies() {
+        return getAvailableCopies() < copies;
+    }
+
+    /**
+     * Atomically claims an available copy of the book.
+     *
+     * @return true if this call borrowed a copy, false if every copy was already borrowed.
+     */
+    public boolean tryBorrow() {
+        if (cells == null) {
+            return AVAILABLE.compareAndSet(this, 1, 0);
+        }
+        int home = homeCell();
+        for (int i = 0; i < cellCapacities.length; i++) {
+            int cell = (home + i) % cellCapacities.length;
+            int index = cell * CELL_STRIDE;
+            int count;
+            while ((count = cells.get(index)) > 0) {
+                if (cells.compareAndSet(index, count, count - 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
-     * Marks the book as borrowed.
-     * Throws an exception if the book is already borrowed.
+     * Atomically releases a borrowed copy of the book.
+     *
+     * @return true if this call returned a copy, false if no copy was borrowed.
+     */
+    public boolean tryReturn() {
+        if (cells == null) {
+            return AVAILABLE.compareAndSet(this, 0, 1);
+        }
+        int home = homeCell();
+        for (int i = 0; i < cellCapacities.length; i++) {
+            int cell = (home + i) % cellCapacities.length;
+            int index = cell * CELL_STRIDE;
+            int count;
+            while ((count = cells.get(index)) < cellCapacities[cell]) {
+                if (cells.compareAndSet(index, count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks a copy of the book as borrowed.
+     * Throws an exception if every copy is already borrowed, including when concurrent borrowers won them first.
      */
     public void borrow() {
-        if (!isBorrowed) {
-            isBorrowed = true;
-        } else {
+        if (!tryBorrow()) {
             throw new IllegalStateException("Book is already borrowed!");
         }
     }
 
     /**
-     * Marks the book as returned/not borrowed.
-     * Throws an exception if the book was not previously borrowed.
+     * Marks a copy of the book as returned/not borrowed.
+     * Throws an exception if no copy was previously borrowed, including when a concurrent return won it first.
      */
     public void returnBook() {
-        if (isBorrowed) {
-            isBorrowed = false;
-        } else {
+        if (!tryReturn()) {
             throw new IllegalStateException("ac.il.bgu.qa.Book wasn't borrowed!");
         }
     }
+
+    // The cell the current thread claims and releases copies in first.
+    private int homeCell() {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & 0x7FFFFFFF) % cellCapacities.length;
+    }
 }
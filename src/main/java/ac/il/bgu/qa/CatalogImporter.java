@@ -0,0 +1,312 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.util.LongLongHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Imports a catalog of books from a CSV file into the database.
+ * Each line holds one book as {@code ISBN,title,author}. Fields that contain commas or quotes are
+ * double-quoted, with quotes inside doubled, and an optional header line starting with {@code ISBN} is skipped.
+ * <p>
+ * The file is streamed in fixed-size chunks. While one chunk is parsed and validated in parallel on a
+ * fork-join pool, the next one is read, so memory stays bounded by two chunks whatever the catalog size.
+ * Each validated chunk is checked for duplicates with one database lookup and added with one database write.
+ * Chunks are written in order, so a book listed in an earlier chunk is already in the database when a later one
+ * is checked, and only the packed ISBNs of the current chunk are kept to find duplicates within it.
+ * The report keeps the number of rejected records by reason but only the first few of the records themselves.
+ */
+public class CatalogImporter {
+
+    // Default number of records read, validated and written together.
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    // Default number of rejected records kept in the report.
+    public static final int DEFAULT_MAX_REJECTED_SAMPLES = 1000;
+
+    // Number of records below which a parse task stops splitting.
+    private static final int PARSE_THRESHOLD = 256;
+
+    // Service to interact with the database
+    private final DatabaseService databaseService;
+    // Pool the records are validated on
+    private final ForkJoinPool pool;
+    // Number of records per chunk
+    private final int chunkSize;
+    // Number of rejected records kept in the report
+    private final int maxRejectedSamples;
+
+    /**
+     * Constructs a new CatalogImporter that validates on the common fork-join pool.
+     *
+     * @param databaseService The database the books are added to.
+     */
+    public CatalogImporter(DatabaseService databaseService) {
+        this(databaseService, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new CatalogImporter.
+     *
+     * @param databaseService The database the books are added to.
+     * @param pool            The pool the records are validated on.
+     * @param chunkSize       The number of records read, validated and written together.
+     */
+    public CatalogImporter(DatabaseService databaseService, ForkJoinPool pool, int chunkSize) {
+        this(databaseService, pool, chunkSize, DEFAULT_MAX_REJECTED_SAMPLES);
+    }
+
+    /**
+     * Constructs a new CatalogImporter that keeps a given number of rejected records in its reports.
+     *
+     * @param databaseService    The database the books are added to.
+     * @param pool               The pool the records are validated on.
+     * @param chunkSize          The number of records read, validated and written together.
+     * @param maxRejectedSamples The number of rejected records kept in a report; the rest are only counted.
+     */
+    public CatalogImporter(DatabaseService databaseService, ForkJoinPool pool, int chunkSize, int maxRejectedSamples) {
+        if (databaseService == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (pool == null) {
+            throw new IllegalArgumentException("Invalid pool.");
+        } else if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size.");
+        } else if (maxRejectedSamples < 0) {
+            throw new IllegalArgumentException("Invalid number of rejected samples.");
+        }
+        this.databaseService = databaseService;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxRejectedSamples = maxRejectedSamples;
+    }
+
+    /**
+     * Imports a UTF-8 catalog file.
+     *
+     * @param file The catalog file.
+     * @return The number of books added and the records that were rejected.
+     * @throws IOException If the file cannot be read.
+     */
+    public ImportReport importCatalog(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importCatalog(reader);
+        }
+    }
+
+    /**
+     * Imports a catalog from a character stream. The reader is not closed.
+     * A record is rejected with the same message {@link Library#addBook(Book)} would throw for it,
+     * "Book already exists." if its ISBN is already in the database or earlier in the catalog,
+     * or "Invalid record." if it does not have exactly three fields.
+     *
+     * @param reader The catalog.
+     * @return The number of books added and the records that were rejected.
+     * @throws IOException If the catalog cannot be read.
+     */
+    public ImportReport importCatalog(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        ImportReport report = new ImportReport(maxRejectedSamples);
+        LongLongHashMap seen = new LongLongHashMap(chunkSize);
+        long[] lineNumber = {0};
+
+        // Validate each chunk while the next one is read.
+        ForkJoinTask<Row[]> pending = submit(readChunk(lines, lineNumber));
+        while (pending != null) {
+            ForkJoinTask<Row[]> following = submit(readChunk(lines, lineNumber));
+            store(pending.join(), seen, report);
+            pending = following;
+        }
+        return report;
+    }
+
+    // Reads up to one chunk of records, skipping blank lines and a leading header.
+    private Chunk readChunk(BufferedReader lines, long[] lineNumber) throws IOException {
+        Chunk chunk = new Chunk(chunkSize);
+        String line;
+        while (chunk.size < chunkSize && (line = lines.readLine()) != null) {
+            long number = ++lineNumber[0];
+            if (line.isBlank() || (number == 1 && isHeader(line))) {
+                continue;
+            }
+            chunk.lineNumbers[chunk.size] = number;
+            chunk.lines[chunk.size++] = line;
+        }
+        return chunk;
+    }
+
+    private ForkJoinTask<Row[]> submit(Chunk chunk) {
+        if (chunk.size == 0) {
+            return null;
+        }
+        Row[] rows = new Row[chunk.size];
+        return pool.submit(new ParseTask(chunk, rows, 0, rows.length));
+    }
+
+    // Rejects duplicates of a validated chunk and adds the remaining books with one database write.
+    private void store(Row[] rows, LongLongHashMap seen, ImportReport report) {
+        // Reject books listed earlier in the chunk and collect the rest for one database lookup,
+        // which also finds the books of earlier chunks.
+        seen.clear();
+        List<String> keys = new ArrayList<>(rows.length);
+        for (Row row : rows) {
+            if (row.reason == null) {
+                if (seen.putIfAbsent(row.key, row.lineNumber) != LongLongHashMap.NO_VALUE) {
+                    row.reason = "Book already exists.";
+                } else {
+                    keys.add(ISBNCodec.toString(row.key));
+                }
+            }
+        }
+        Map<String, Book> existing = keys.isEmpty() ? Map.of() : databaseService.getBooksByISBN(keys);
+
+        // Reject books already in the database and add the rest.
+        Map<String, Book> added = new LinkedHashMap<>();
+        for (Row row : rows) {
+            if (row.reason == null) {
+                String ISBN = ISBNCodec.toString(row.key);
+                if (existing.containsKey(ISBN)) {
+                    row.reason = "Book already exists.";
+                } else {
+                    added.put(ISBN, row.book);
+                }
+            }
+            if (row.reason != null) {
+                report.addRejected(row.lineNumber, row.line, row.reason);
+            }
+        }
+        if (!added.isEmpty()) {
+            databaseService.addBooks(added);
+            report.addImported(added.size());
+        }
+    }
+
+    // Parses and validates one record.
+    private static Row parse(long lineNumber, String line) {
+        Row row = new Row(lineNumber, line);
+        List<String> fields = splitFields(line);
+        if (fields == null || fields.size() != 3) {
+            row.reason = "Invalid record.";
+            return row;
+        }
+        Book book = new Book(fields.get(0), fields.get(1), fields.get(2));
+        try {
+            row.key = Library.validateNewBook(book);
+            row.book = book;
+        } catch (IllegalArgumentException e) {
+            row.reason = e.getMessage();
+        }
+        return row;
+    }
+
+    private static boolean isHeader(String line) {
+        List<String> fields = splitFields(line);
+        return fields != null && !fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase("ISBN");
+    }
+
+    /**
+     * Splits one CSV line into its fields.
+     *
+     * @param line The line to split.
+     * @return The fields of the line, or null if a quoted field is not terminated.
+     */
+    static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Parses a range of a chunk into the shared rows, splitting it in halves until it is small enough.
+    private static final class ParseTask extends RecursiveTask<Row[]> {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized.
+        private final transient Chunk chunk;
+        private final transient Row[] rows;
+        private final int from;
+        private final int to;
+
+        ParseTask(Chunk chunk, Row[] rows, int from, int to) {
+            this.chunk = chunk;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Row[] compute() {
+            if (to - from <= PARSE_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    rows[i] = parse(chunk.lineNumbers[i], chunk.lines[i]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(chunk, rows, from, middle), new ParseTask(chunk, rows, middle, to));
+            }
+            return rows;
+        }
+    }
+
+    // Records read together, with their line numbers.
+    private static final class Chunk {
+        final long[] lineNumbers;
+        final String[] lines;
+        int size;
+
+        Chunk(int capacity) {
+            this.lineNumbers = new long[capacity];
+            this.lines = new String[capacity];
+        }
+    }
+
+    // One record of a chunk: either a valid book with its packed ISBN, or the reason it was rejected.
+    private static final class Row {
+        final long lineNumber;
+        final String line;
+        Book book;
+        long key;
+        String reason;
+
+        Row(long lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ac.il.bgu.qa;
+
+/**
+ * Validates, normalizes and packs ISBN-13 numbers.
+ * A packed ISBN is its 13 digits read as one decimal number, so it always fits in a primitive long.
+ * All checks run in a single pass over the input and allocate nothing.
+ */
+public final class ISBNCodec {
+
+    // Returned by pack() when the input is not a valid ISBN-13. Packed keys are never negative.
+    public static final long INVALID = -1L;
+
+    // Number of digits in an ISBN-13.
+    public static final int LENGTH = 13;
+
+    private ISBNCodec() {
+    }
+
+    /**
+     * Validates an ISBN-13 and packs its digits into a long.
+     * Hyphens are ignored, any other non-digit character makes the ISBN invalid.
+     *
+     * @param isbn The International Standard Book Number to be packed.
+     * @return The packed ISBN, or {@link #INVALID} if the input is not a valid ISBN-13.
+     */
+    public static long pack(CharSequence isbn) {
+        // A null ISBN is never valid.
+        if (isbn == null) {
+            return INVALID;
+        }
+
+        long key = 0;
+        int digits = 0;
+        int sum = 0;
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+
+            // Hyphens are only separators and are skipped.
+            if (c == '-') {
+                continue;
+            }
+
+            // Reject non-digits and anything longer than 13 digits.
+            if (c < '0' || c > '9' || digits == LENGTH) {
+                return INVALID;
+            }
+
+            // Odd position numbers are multiplied by 1, even position numbers by 3.
+            // The 13th digit is the check digit and is not part of the sum.
+            int digit = c - '0';
+            if (digits < LENGTH - 1) {
+                sum += (digits & 1) == 0 ? digit : digit * 3;
+            }
+            key = key * 10 + digit;
+            digits++;
+        }
+
+        if (digits != LENGTH) {
+            return INVALID;
+        }
+
+        // The check digit brings the weighted sum up to the next multiple of 10.
+        int checkDigit = (10 - sum % 10) % 10;
+        return checkDigit == key % 10 ? key : INVALID;
+    }
+
+    /**
+     * Validates if input is of type ISBN-13.
+     *
+     * @param isbn The International Standard Book Number to be validated.
+     * @return true if valid, false otherwise.
+     */
+    public static boolean isValid(CharSequence isbn) {
+        return pack(isbn) != INVALID;
+    }
+
+    /**
+     * Formats a packed ISBN as its 13 digit canonical form, without hyphens.
+     *
+     * @param key A packed ISBN as returned by {@link #pack(CharSequence)}.
+     * @return The 13 digit string of the ISBN.
+     */
+    public static String toString(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid ISBN key.");
+        }
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Returns the canonical form of an ISBN that was already packed.
+     * An input that is already 13 plain digits is returned as is, so the common case allocates nothing.
+     *
+     * @param isbn The ISBN as given by the caller.
+     * @param key  The packed form of that same ISBN.
+     * @return The 13 digit string of the ISBN.
+     */
+    public static String canonical(String isbn, long key) {
+        return isbn.length() == LENGTH ? isbn : toString(key);
+    }
+}
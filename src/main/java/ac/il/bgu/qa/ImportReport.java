@@ -0,0 +1,80 @@
+package ac.il.bgu.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the outcome of a catalog import: how many books were added and which records were rejected.
+ * Every rejected record is counted, but only the first ones are kept, so a report stays small whatever the catalog.
+ */
+public class ImportReport {
+
+    // The number of books added to the database.
+    private long imported;
+    // The number of rejected records.
+    private long rejectedCount;
+    // The number of rejected records by reason, in the order the reasons first appeared.
+    private final Map<String, Long> rejectedCounts = new LinkedHashMap<>();
+    // The number of rejected records kept.
+    private final int maxRejectedSamples;
+    // The first rejected records, in the order of the catalog file.
+    private final List<RejectedRecord> rejected = new ArrayList<>();
+
+    // Constructs a report that keeps up to the given number of rejected records.
+    ImportReport(int maxRejectedSamples) {
+        this.maxRejectedSamples = maxRejectedSamples;
+    }
+
+    // Counts books added to the database.
+    void addImported(int count) {
+        imported += count;
+    }
+
+    // Counts a rejected record, keeping it if there is still room.
+    void addRejected(long lineNumber, String line, String reason) {
+        rejectedCount++;
+        rejectedCounts.merge(reason, 1L, Long::sum);
+        if (rejected.size() < maxRejectedSamples) {
+            rejected.add(new RejectedRecord(lineNumber, line, reason));
+        }
+    }
+
+    /**
+     * Retrieves the number of books added to the database.
+     *
+     * @return The number of imported books.
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * Retrieves the number of rejected records, including those not kept in {@link #getRejected()}.
+     *
+     * @return The number of rejected records.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Retrieves the number of rejected records for every reason.
+     *
+     * @return The number of rejected records by reason, such as "Invalid ISBN.".
+     */
+    public Map<String, Long> getRejectedCounts() {
+        return Collections.unmodifiableMap(rejectedCounts);
+    }
+
+    /**
+     * Retrieves the first rejected records.
+     *
+     * @return Up to the importer's sample limit of rejected records, in the order of the catalog file.
+     */
+    public List<RejectedRecord> getRejected() {
+        return Collections.unmodifiableList(rejected);
+    }
+}
@@ -1,26 +1,215 @@
 package ac.il.bgu.qa;
 
 import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.events.EventBus;
+import ac.il.bgu.qa.events.LibraryEvent;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryOperation;
+import ac.il.bgu.qa.search.CatalogIndex;
+import ac.il.bgu.qa.search.SearchPage;
 import ac.il.bgu.qa.services.DatabaseService;
 import ac.il.bgu.qa.services.ReviewService;
+import ac.il.bgu.qa.services.StreamingReviewService;
+import ac.il.bgu.qa.util.BloomFilter;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 /**
  * Represents a library which manages a collection of books and users.
+ * The library keeps no mutable state of its own apart from its loan period, {@link LibraryMetrics}, {@link CatalogIndex},
+ * {@link LoanLedger} and {@link EventBus}, which are thread-safe, and borrowing state lives in each {@link Book},
+ * so it can be shared between threads without any external locking as long as its services allow it.
  */
 public class Library {
 
+    // Number of change events kept for subscribers of the event bus
+    public static final int DEFAULT_EVENT_CAPACITY = 4096;
+
+    // Time a borrowed book may be kept unless another loan period is set
+    public static final Duration DEFAULT_LOAN_PERIOD = Duration.ofDays(14);
+
     // Service to interact with the database
     private final DatabaseService databaseService;
 
     // Service to fetch reviews for a book
     private final ReviewService reviewService;
 
+    // Delivers notifications in the background, or null if notifications are sent synchronously
+    private final NotificationDispatcher notificationDispatcher;
+
+    // Latencies, exceptions and notification retries of every operation
+    private final LibraryMetrics metrics;
+
+    // Title and author index of the books added through this library
+    private final CatalogIndex catalogIndex = new CatalogIndex();
+
+    // Current loans by book and by user, of the books borrowed through this library and those loaded from the database
+    private final LoanLedger loanLedger = new LoanLedger();
+
+    // Stream of the changes made through this library
+    private final EventBus eventBus = new EventBus(DEFAULT_EVENT_CAPACITY);
+
+    // Time a borrowed book may be kept before it is overdue, in milliseconds
+    private volatile long loanPeriodMillis = DEFAULT_LOAN_PERIOD.toMillis();
+
+    // Filters of the ISBNs and user Ids in the database, or null while lookups always go to the database.
+    private volatile MembershipFilters membershipFilters;
+
     // Constructor for Library, initializes both services
     public Library(DatabaseService databaseService, ReviewService reviewService) {
+        this(databaseService, reviewService, null);
+    }
+
+    /**
+     * Constructs a Library that sends the review notifications of {@link #getBookByISBN(String, String)}
+     * in the background instead of on the caller's thread.
+     *
+     * @param databaseService        Service to interact with the database.
+     * @param reviewService          Service to fetch reviews for a book.
+     * @param notificationDispatcher Delivers notifications in the background, or null to send them synchronously.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, NotificationDispatcher notificationDispatcher) {
+        this(databaseService, reviewService, notificationDispatcher, new LibraryMetrics());
+    }
+
+    /**
+     * Constructs a Library that records its metrics into given metrics, for example ones shared by several libraries.
+     *
+     * @param databaseService        Service to interact with the database.
+     * @param reviewService          Service to fetch reviews for a book.
+     * @param notificationDispatcher Delivers notifications in the background, or null to send them synchronously.
+     * @param metrics                The metrics to record latencies, exceptions and notification retries in.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, NotificationDispatcher notificationDispatcher,
+                   LibraryMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Invalid metrics.");
+        }
         this.databaseService = databaseService;
         this.reviewService = reviewService;
+        this.notificationDispatcher = notificationDispatcher;
+        this.metrics = metrics;
+
+        // Pick up the loans the database kept from before, with their due dates, if it can list them.
+        if (databaseService != null) {
+            loanLedger.load(databaseService);
+        }
+    }
+
+    /**
+     * Retrieves the metrics of the library: the latency of every operation, the number of exceptions of every type
+     * it threw and the number of notification retries.
+     *
+     * @return The metrics of the library.
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Retrieves the title and author index of the library.
+     * Books added through {@link #addBook(Book)} are indexed automatically;
+     * books that were already in the database can be indexed with {@link CatalogIndex#addAll(Iterable)}.
+     *
+     * @return The catalog index of the library.
+     */
+    public CatalogIndex getCatalogIndex() {
+        return catalogIndex;
+    }
+
+    /**
+     * Retrieves the loan ledger of the library: who borrowed every book, and which books every user has.
+     * It starts with the loans the database lists, if it can, and is kept up to date by the borrowing and
+     * returning methods of this library. A database that {@link DatabaseService#storesDueDates() stores due dates}
+     * is given the due date of every loan, so they survive a restart.
+     *
+     * @return The loan ledger of the library.
+     */
+    public LoanLedger getLoanLedger() {
+        return loanLedger;
+    }
+
+    /**
+     * Retrieves the change stream of the library. Every book added, user registered, book borrowed and
+     * book returned through this library is published to it once the database has recorded it.
+     *
+     * @return The event bus of the library.
+     */
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Retrieves the time a borrowed book may be kept before it is overdue.
+     *
+     * @return The loan period.
+     */
+    public Duration getLoanPeriod() {
+        return Duration.ofMillis(loanPeriodMillis);
+    }
+
+    /**
+     * Sets the time a borrowed book may be kept before it is overdue.
+     * Loans recorded from now on are due this long after they were made; earlier loans keep their due date.
+     *
+     * @param loanPeriod The loan period.
+     */
+    public void setLoanPeriod(Duration loanPeriod) {
+        if (loanPeriod == null || loanPeriod.isNegative() || loanPeriod.isZero()) {
+            throw new IllegalArgumentException("Invalid loan period.");
+        }
+        loanPeriodMillis = loanPeriod.toMillis();
+    }
+
+    /**
+     * Builds Bloom filters of the ISBNs and user Ids in the database, after which lookups of books and users
+     * the filters rule out are answered without reading the database. This spares the database the lookups
+     * that only prove absence, such as those of {@link #addBook(Book)} and {@link #registerUser(User)}, and
+     * those of ISBNs and user Ids that were never added.
+     * <p>
+     * The filters are filled and kept up to date by the database itself, through
+     * {@link DatabaseService#trackKeys}, so books and users added in any other way, for example by a
+     * {@link CatalogImporter} or by the clients of a {@link ac.il.bgu.qa.services.DatabaseServer}, reach them
+     * before they can be found. A database that cannot track its keys, such as a remote one whose other
+     * clients it cannot see, gets no filters, as a miss could not be trusted. Calling this method again
+     * resizes the filters.
+     *
+     * @param expectedBooks     The number of books the filter of ISBNs is sized for.
+     * @param expectedUsers     The number of users the filter of user Ids is sized for.
+     * @param falsePositiveRate The rate of absent books and users still looked up in the database.
+     * @return true if the filters are in use, false if the database cannot track its keys.
+     */
+    public synchronized boolean enableMembershipFilters(long expectedBooks, long expectedUsers,
+                                                        double falsePositiveRate) {
+        BloomFilter books = new BloomFilter(expectedBooks, falsePositiveRate);
+        BloomFilter users = new BloomFilter(expectedUsers, falsePositiveRate);
+        Runnable stopTracking = databaseService.trackKeys(books::add, users::add);
+        if (stopTracking == null) {
+            return false;
+        }
+        replaceMembershipFilters(new MembershipFilters(books, users, stopTracking));
+        return true;
+    }
+
+    /**
+     * Stops using the membership filters, so every lookup goes to the database again.
+     */
+    public synchronized void disableMembershipFilters() {
+        replaceMembershipFilters(null);
+    }
+
+    // Installs new filters, or none, and stops the database from updating the old ones.
+    private void replaceMembershipFilters(MembershipFilters filters) {
+        MembershipFilters previous = membershipFilters;
+        membershipFilters = filters;
+        if (previous != null) {
+            previous.stopTracking.run();
+        }
     }
 
     /**
@@ -29,68 +218,70 @@ public class Library {
      * @param book The book to be added.
      */
     public void addBook(Book book) {
+        long start = metrics.start();
+        try {
+            // Validate the book object's properties, packing its ISBN on the way.
+            long ISBNKey = validateNewBook(book);
+
+            // The database is always keyed by the canonical 13 digit form of the ISBN.
+            String ISBN = ISBNCodec.canonical(book.getISBN(), ISBNKey);
+
+            // If book already exists in the database, throw exception
+            if (findBook(ISBN) != null)
+                throw new IllegalArgumentException("Book already exists.");
+
+            // If all checks pass, add the book to the database and make it searchable.
+            databaseService.addBook(ISBN, book);
+            catalogIndex.add(book);
+            eventBus.publish(LibraryEvent.Type.BOOK_ADDED, ISBN, null);
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.ADD_BOOK, start);
+        }
+    }
+
+    /**
+     *  Validates the properties of a book that is about to be added to the collection.
+     *
+     *  @param book The book to be validated.
+     *  @return The packed ISBN of the book.
+     *  @throws IllegalArgumentException If the book is invalid, with a message naming the invalid property.
+    */
+    static long validateNewBook(Book book) {
         // Multiple checks to validate the book object's properties
         if (book == null) {
             throw new IllegalArgumentException("Invalid book.");
-        } else if (!isISBNValid(book.getISBN())){
+        }
+
+        // Validate and pack the ISBN in a single pass.
+        long ISBNKey = ISBNCodec.pack(book.getISBN());
+        if (ISBNKey == ISBNCodec.INVALID) {
             throw new IllegalArgumentException("Invalid ISBN.");
         } else if (book.getTitle() == null || book.getTitle().equals("")) {
             throw new IllegalArgumentException("Invalid title.");
         } else if (!isAuthorValid(book.getAuthor())) {
             throw new IllegalArgumentException("Invalid author.");
-        } else if (book.isBorrowed()) {
+        } else if (book.isBorrowed() || book.hasBorrowedCopies()) {
             throw new IllegalArgumentException("Book with invalid borrowed state.");
         }
-
-        // If book already exists in the database, throw exception
-        if (databaseService.getBookByISBN(book.getISBN()) != null)
-            throw new IllegalArgumentException("Book already exists.");
-
-        // If all checks pass, add the book to the database
-        databaseService.addBook(book.getISBN(), book);
+        return ISBNKey;
     }
 
     /**
-     *  Validates if input is of type ISBN-13.
+     *  Validates an ISBN-13 and returns the key used for it in the database.
      *
-     *  @param isbn The International Standard Book Number to be validated.
-     *  @return true if valid, false otherwise.
+     *  @param ISBN The International Standard Book Number to be validated.
+     *  @return The canonical 13 digit form of the ISBN.
+     *  @throws IllegalArgumentException If the ISBN is not a valid ISBN-13.
     */
-    private boolean isISBNValid(String isbn) {
-        // Check if the ISBN is null, return false if it is
-        if (isbn == null) {
-            return false;
-        }
-
-        // Remove any hyphen characters from the ISBN for standardization
-        isbn = isbn.replaceAll("-", "");
-
-        // Check if the sanitized ISBN is of length 13 and if contains only digits
-        if (isbn.length() != 13 || !isbn.matches("\\d+")) {
-            return false;
-        }
-
-        // Calculate the sum based on the ISBN-13 rules:
-        // Odd position numbers are multiplied by 1
-        // Even position numbers are multiplied by 3
-        int sum = 0;
-        for (int i = 0; i < 12; i++) {
-            int digit = Integer.parseInt(String.valueOf(isbn.charAt(i)));
-            if (i % 2 == 0) {
-                sum += digit;
-            } else {
-                sum += digit * 3;
-            }
-        }
-
-        // Calculate the check digit
-        int checkDigit = 10 - (sum % 10);
-        if (checkDigit == 10) {
-            checkDigit = 0;
+    static String requireValidISBN(String ISBN) {
+        long ISBNKey = ISBNCodec.pack(ISBN);
+        if (ISBNKey == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
         }
-
-        // Check if the calculated check digit matches the last digit of the ISBN
-        return checkDigit == Integer.parseInt(String.valueOf(isbn.charAt(12)));
+        return ISBNCodec.canonical(ISBN, ISBNKey);
     }
 
     /**
@@ -99,7 +290,7 @@ public class Library {
      *  @param name The name of the author.
      *  @return true if valid, false otherwise.
     */
-    private boolean isAuthorValid(String name) {
+    private static boolean isAuthorValid(String name) {
         /*
          * Three key criteria for a valid author name:
          * 1) The name should only consist of alphabetic characters, hyphens, spaces, dots, and apostrophes.
@@ -139,30 +330,61 @@ public class Library {
     }
 
 
+    /**
+     * Searches the library's collection by title and author.
+     * A book matches if its title or author contains every word of the query, where the last word may be
+     * incomplete, so the search can run on every keystroke.
+     *
+     * @param query    The words to search for.
+     * @param page     The page of results to return, starting at 0.
+     * @param pageSize The maximum number of results per page.
+     * @return The requested page of matching books, best match first.
+     */
+    public SearchPage search(String query, int page, int pageSize) {
+        long start = metrics.start();
+        try {
+            return catalogIndex.search(query, page, pageSize);
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.SEARCH, start);
+        }
+    }
+
     /**
      * Registers a user with the library.
      *
      * @param user The user to be registered.
      */
     public void registerUser(User user) {
-        // Multiple checks to validate the user object's properties.
-        if (user == null) {
-            throw new IllegalArgumentException("Invalid user.");
-        } else if (user.getId() == null || !user.getId().matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
-        } else if (user.getName() == null || user.getName().equals("")) {
-            throw new IllegalArgumentException("Invalid user name.");
-        } else if (user.getNotificationService() == null) {
-            throw new IllegalArgumentException("Invalid notification service.");
-        }
+        long start = metrics.start();
+        try {
+            // Multiple checks to validate the user object's properties.
+            if (user == null) {
+                throw new IllegalArgumentException("Invalid user.");
+            } else if (user.getId() == null || !UserIdCodec.isValid(user.getId())) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            } else if (user.getName() == null || user.getName().equals("")) {
+                throw new IllegalArgumentException("Invalid user name.");
+            } else if (user.getNotificationService() == null) {
+                throw new IllegalArgumentException("Invalid notification service.");
+            }
 
-        // Before registering, check if a user with the given Id already exists.
-        // If such a user is found, throw an exception.
-        if (databaseService.getUserById(user.getId()) != null)
-            throw new IllegalArgumentException("User already exists.");
+            // Before registering, check if a user with the given Id already exists.
+            // If such a user is found, throw an exception.
+            if (findUser(user.getId()) != null)
+                throw new IllegalArgumentException("User already exists.");
 
-        // If all checks have passed, call the database service to register the user.
-        databaseService.registerUser(user.getId(), user);
+            // If all checks have passed, call the database service to register the user.
+            databaseService.registerUser(user.getId(), user);
+            eventBus.publish(LibraryEvent.Type.USER_REGISTERED, null, user.getId());
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.REGISTER_USER, start);
+        }
     }
 
 
@@ -173,146 +395,648 @@ public class Library {
      * @param userId The Id of the user borrowing the book.
      */
     public void borrowBook(String ISBN, String userId) {
+        long start = metrics.start();
+        try {
+            LoanOutcome outcome = borrow(ISBN, userId);
+            if (outcome != LoanOutcome.SUCCESS) {
+                throw failure(outcome);
+            }
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.BORROW_BOOK, start);
+        }
+    }
 
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+    /**
+     * Borrows a book for a user, reporting an expected failure as an outcome instead of an exception.
+     * This is meant for high volume callers, such as self-service kiosks, for which a book that is already
+     * borrowed is routine.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return The outcome of the loan. {@link LoanOutcome#FAILED} if the database failed to record it.
+     */
+    public LoanOutcome tryBorrowBook(String ISBN, String userId) {
+        long start = metrics.start();
+        try {
+            return borrow(ISBN, userId);
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            return LoanOutcome.FAILED;
+        } finally {
+            metrics.record(LibraryOperation.BORROW_BOOK, start);
         }
+    }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+    /**
+     * Borrows a book for a user.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return The outcome of the loan. Only a failure of the database is thrown.
+     */
+    private LoanOutcome borrow(String ISBN, String userId) {
 
-        // If no book is found for the given ISBN, throw an exception.
+        // Validate the ISBN and normalize it to its database key.
+        long ISBNKey = ISBNCodec.pack(ISBN);
+        if (ISBNKey == ISBNCodec.INVALID) {
+            return LoanOutcome.INVALID_ISBN;
+        }
+        ISBN = ISBNCodec.canonical(ISBN, ISBNKey);
+
+        // Retrieve the book associated with the ISBN from the database.
+        Book book = findBook(ISBN);
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            return LoanOutcome.BOOK_NOT_FOUND;
         }
 
         // Validate the user Id's format (should be a 12-digit number).
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
+        if (userId == null || !UserIdCodec.isValid(userId)) {
+            return LoanOutcome.INVALID_USER_ID;
         }
 
         // Check if the user Id's corresponds to a registered user in the database.
-        // If not, throw an exception indicating the user is not registered.
-        if (databaseService.getUserById(userId) == null) {
-            throw new UserNotRegisteredException("User not found!");
+        if (findUser(userId) == null) {
+            return LoanOutcome.USER_NOT_REGISTERED;
         }
 
-        // If the book is already borrowed, throw an exception.
+        // Check that a copy of the book is still available.
         if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book is already borrowed!");
+            return LoanOutcome.ALREADY_BORROWED;
         }
 
-        // Mark the book as borrowed.
-        book.borrow();
+        // Claim a copy of the book. This is a single atomic transition,
+        // so if concurrent borrowers won the last copies since the check above, only they succeed.
+        try {
+            book.borrow();
+        } catch (IllegalStateException e) {
+            return LoanOutcome.ALREADY_BORROWED;
+        }
 
-        // Record the borrowing transaction in the database by associating the book's ISBN with the user's Id.
-        databaseService.borrowBook(ISBN, userId);
+        // Record the borrowing transaction in the ledger and in the database by associating the book's ISBN
+        // with the user's Id. Both happen while the book is held, so they never touch another borrower's loan.
+        // If the database rejects it, release the book again so it does not stay borrowed by nobody,
+        // and take back only the loan recorded here, not an earlier copy the same user holds.
+        long dueDate = dueDate();
+        boolean recorded = loanLedger.recordLoan(ISBN, userId, book.getCopies(), dueDate);
+        try {
+            if (databaseService.storesDueDates()) {
+                databaseService.borrowBook(ISBN, userId, dueDate);
+            } else {
+                databaseService.borrowBook(ISBN, userId);
+            }
+        } catch (RuntimeException e) {
+            if (recorded) {
+                loanLedger.cancelLoan(ISBN, userId);
+            }
+            book.returnBook();
+            throw e;
+        }
+        eventBus.publish(LibraryEvent.Type.BOOK_BORROWED, ISBN, userId);
+        return LoanOutcome.SUCCESS;
     }
 
     /**
      * Returns a previously borrowed book.
+     * For a book with several copies, the loan closed in the {@link #getLoanLedger() loan ledger} is its earliest;
+     * {@link #returnBook(String, String)} closes the loan of the returning user instead.
      *
      * @param ISBN The International Standard Book Number of the book.
      */
     public void returnBook(String ISBN) {
-        
-        // Validate the ISBN. If it's not valid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+        returnBook(ISBN, null);
+    }
+
+    /**
+     * Returns a copy of a book previously borrowed by a user.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user returning the book, or null if unknown.
+     */
+    public void returnBook(String ISBN, String userId) {
+        long start = metrics.start();
+        try {
+            LoanOutcome outcome = giveBack(ISBN, userId);
+            if (outcome != LoanOutcome.SUCCESS) {
+                throw failure(outcome);
+            }
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.RETURN_BOOK, start);
         }
+    }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+    /**
+     * Returns a previously borrowed book, reporting an expected failure as an outcome instead of an exception.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The outcome of the return. {@link LoanOutcome#FAILED} if the database failed to record it.
+     */
+    public LoanOutcome tryReturnBook(String ISBN) {
+        long start = metrics.start();
+        try {
+            return giveBack(ISBN, null);
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            return LoanOutcome.FAILED;
+        } finally {
+            metrics.record(LibraryOperation.RETURN_BOOK, start);
+        }
+    }
 
-        // If no book is found for the given ISBN, throw a book not found exception.
+    /**
+     * Returns a previously borrowed book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user returning the book, or null if unknown.
+     * @return The outcome of the return. Only a failure of the database is thrown.
+     */
+    private LoanOutcome giveBack(String ISBN, String userId) {
+
+        // Validate the ISBN and normalize it to its database key.
+        long ISBNKey = ISBNCodec.pack(ISBN);
+        if (ISBNKey == ISBNCodec.INVALID) {
+            return LoanOutcome.INVALID_ISBN;
+        }
+        ISBN = ISBNCodec.canonical(ISBN, ISBNKey);
+
+        // Retrieve the book associated with the ISBN from the database.
+        Book book = findBook(ISBN);
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            return LoanOutcome.BOOK_NOT_FOUND;
+        }
+
+        // Validate the user Id's format, if one is given.
+        if (userId != null && !UserIdCodec.isValid(userId)) {
+            return LoanOutcome.INVALID_USER_ID;
         }
 
-        // Check if the book is currently borrowed. If not, it means it was never borrowed
-        // or it has already been returned, therefore throw an exception.
-        if (!book.isBorrowed()) {
-            throw new BookNotBorrowedException("Book wasn't borrowed!");
+        // Check if a copy of the book is currently borrowed. If not, it means it was never borrowed
+        // or it has already been returned.
+        if (!isOnLoan(book)) {
+            return LoanOutcome.NOT_BORROWED;
         }
 
-        // Change the status of the book to not borrowed.
-        book.returnBook();
+        // A named user must hold a copy of the book; only an anonymous return closes the earliest loan.
+        // The ledger only knows the loans made through this library since it started, so a loan it lacks is
+        // looked up in the database, if the database tracks its borrowers.
+        if (userId != null && !loanLedger.getBorrowerIds(ISBN).contains(userId)) {
+            List<String> borrowerIds = databaseService.getBorrowerIds(ISBN);
+            if (borrowerIds == null || !borrowerIds.contains(userId)) {
+                return LoanOutcome.NOT_BORROWED;
+            }
+        }
+
+        // Claim the copy back. This is a single atomic transition,
+        // so if concurrent returns won the last copies out since the check above, only they succeed.
+        try {
+            book.returnBook();
+        } catch (IllegalStateException e) {
+            return LoanOutcome.NOT_BORROWED;
+        }
+
+        // Update the database to reflect the returned copy, in the user's name if known.
+        // If the database rejects it, borrow the copy again so it does not stay returned with the loan still open.
+        try {
+            if (userId != null) {
+                databaseService.returnBook(ISBN, userId);
+            } else {
+                databaseService.returnBook(ISBN);
+            }
+        } catch (BookNotBorrowedException e) {
+            book.tryBorrow();
+            return LoanOutcome.NOT_BORROWED;
+        } catch (RuntimeException e) {
+            book.tryBorrow();
+            throw e;
+        }
 
-        // Update the database to reflect the returned status of the book.
-        databaseService.returnBook(ISBN);
+        // Close the loan in the ledger now that the copy is back.
+        if (userId != null) {
+            loanLedger.recordReturn(ISBN, userId);
+        } else {
+            userId = loanLedger.recordReturn(ISBN);
+        }
+        eventBus.publish(LibraryEvent.Type.BOOK_RETURNED, ISBN, userId);
+        return LoanOutcome.SUCCESS;
     }
 
     /**
-     * Notifies a user with the reviews of a specified book.
+     * Creates the exception {@link #borrowBook(String, String)} and {@link #returnBook(String)} throw for an outcome.
+     * The expected failures come from {@link LibraryErrors}, so they skip the stack trace when it is switched off.
+     *
+     * @param outcome An outcome other than {@link LoanOutcome#SUCCESS}.
+     * @return The exception to throw.
+     */
+    private static RuntimeException failure(LoanOutcome outcome) {
+        switch (outcome) {
+            case INVALID_ISBN:
+                return new IllegalArgumentException("Invalid ISBN.");
+            case INVALID_USER_ID:
+                return new IllegalArgumentException("Invalid user Id.");
+            case BOOK_NOT_FOUND:
+                return LibraryErrors.bookNotFound();
+            case USER_NOT_REGISTERED:
+                return LibraryErrors.userNotRegistered();
+            case ALREADY_BORROWED:
+                return LibraryErrors.bookAlreadyBorrowed();
+            case NOT_BORROWED:
+                return LibraryErrors.bookNotBorrowed();
+            default:
+                throw new IllegalArgumentException("Unexpected outcome " + outcome + ".");
+        }
+    }
+
+    /**
+     * Borrows several books for one user, as at a checkout desk.
+     * The user is validated and looked up once, the books are fetched and recorded in one database call each,
+     * and every book gets its own outcome instead of the whole batch failing on the first problem.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books.
+     * @param userId The Id of the user borrowing the books.
+     * @return The outcome of every ISBN, in the given order.
+     */
+    public BatchResult borrowBooks(Collection<String> ISBNs, String userId) {
+        long start = metrics.start();
+        try {
+            // Validate the ISBN list. If it's missing, throw an exception.
+            if (ISBNs == null) {
+                throw new IllegalArgumentException("Invalid ISBN list.");
+            }
+
+            // Validate the user Id's format (should be a 12-digit number).
+            // If it's invalid, throw an exception.
+            if (userId == null || !UserIdCodec.isValid(userId)) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
+
+            // Check once that the user Id corresponds to a registered user in the database.
+            if (findUser(userId) == null) {
+                throw LibraryErrors.userNotRegistered();
+            }
+
+            // Validate every ISBN and fetch all the valid ones at once.
+            BatchResult result = new BatchResult(ISBNs.size());
+            String[] keys = validateBatch(ISBNs, result);
+            Map<String, Book> books = findBooks(nonNull(keys));
+
+            // Claim every available book. Each claim is a single atomic transition on the book.
+            List<String> claimedKeys = new ArrayList<>();
+            List<Book> claimedBooks = new ArrayList<>();
+            List<Integer> claimedIndexes = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) {
+                    continue;
+                }
+                Book book = books.get(keys[i]);
+                if (book == null) {
+                    result.set(i, LoanOutcome.BOOK_NOT_FOUND);
+                } else if (book.isBorrowed() || !book.tryBorrow()) {
+                    result.set(i, LoanOutcome.ALREADY_BORROWED);
+                } else {
+                    claimedKeys.add(keys[i]);
+                    claimedBooks.add(book);
+                    claimedIndexes.add(i);
+                }
+            }
+
+            // Record all the claimed books in the database at once.
+            // If the database rejects the batch, release the books again and report them as failed.
+            if (!claimedKeys.isEmpty()) {
+                long dueDate = dueDate();
+                boolean[] recorded = new boolean[claimedKeys.size()];
+                for (int j = 0; j < claimedKeys.size(); j++) {
+                    recorded[j] = loanLedger.recordLoan(claimedKeys.get(j), userId, claimedBooks.get(j).getCopies(), dueDate);
+                }
+                try {
+                    if (databaseService.storesDueDates()) {
+                        databaseService.borrowBooks(claimedKeys, userId, dueDate);
+                    } else {
+                        databaseService.borrowBooks(claimedKeys, userId);
+                    }
+                } catch (RuntimeException e) {
+                    for (int j = 0; j < claimedBooks.size(); j++) {
+                        if (recorded[j]) {
+                            loanLedger.cancelLoan(claimedKeys.get(j), userId);
+                        }
+                        claimedBooks.get(j).tryReturn();
+                        result.set(claimedIndexes.get(j), LoanOutcome.FAILED);
+                    }
+                    result.setFailure(e);
+                    return result;
+                }
+                for (String key : claimedKeys) {
+                    eventBus.publish(LibraryEvent.Type.BOOK_BORROWED, key, userId);
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.BORROW_BOOKS, start);
+        }
+    }
+
+    /**
+     * Returns several previously borrowed books, as from a drop box.
+     * The books are fetched and recorded in one database call each,
+     * and every book gets its own outcome instead of the whole batch failing on the first problem.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books.
+     * @return The outcome of every ISBN, in the given order.
+     */
+    public BatchResult returnBooks(Collection<String> ISBNs) {
+        long start = metrics.start();
+        try {
+            // Validate the ISBN list. If it's missing, throw an exception.
+            if (ISBNs == null) {
+                throw new IllegalArgumentException("Invalid ISBN list.");
+            }
+
+            // Validate every ISBN and fetch all the valid ones at once.
+            BatchResult result = new BatchResult(ISBNs.size());
+            String[] keys = validateBatch(ISBNs, result);
+            Map<String, Book> books = findBooks(nonNull(keys));
+
+            // Claim back a copy of every borrowed book. Each claim is a single atomic transition on the book,
+            // so a book listed twice gets two copies back only if two are still out.
+            List<String> returnedKeys = new ArrayList<>();
+            List<Book> returnedBooks = new ArrayList<>();
+            List<Integer> returnedIndexes = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) {
+                    continue;
+                }
+                Book book = books.get(keys[i]);
+                if (book == null) {
+                    result.set(i, LoanOutcome.BOOK_NOT_FOUND);
+                } else if (!isOnLoan(book) || !book.tryReturn()) {
+                    result.set(i, LoanOutcome.NOT_BORROWED);
+                } else {
+                    returnedKeys.add(keys[i]);
+                    returnedBooks.add(book);
+                    returnedIndexes.add(i);
+                }
+            }
+
+            if (returnedKeys.isEmpty()) {
+                return result;
+            }
+
+            // Update the database for all the claimed copies at once.
+            // If the database rejects the batch, borrow the copies again and report them as failed.
+            try {
+                databaseService.returnBooks(returnedKeys);
+            } catch (RuntimeException e) {
+                for (int j = 0; j < returnedBooks.size(); j++) {
+                    returnedBooks.get(j).tryBorrow();
+                    result.set(returnedIndexes.get(j), LoanOutcome.FAILED);
+                }
+                result.setFailure(e);
+                return result;
+            }
+
+            // Close the loans in the ledger now that the copies are back.
+            for (String key : returnedKeys) {
+                String borrowerId = loanLedger.recordReturn(key);
+                eventBus.publish(LibraryEvent.Type.BOOK_RETURNED, key, borrowerId);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.RETURN_BOOKS, start);
+        }
+    }
+
+    // The due date of a loan made now, in epoch milliseconds.
+    private long dueDate() {
+        return System.currentTimeMillis() + loanPeriodMillis;
+    }
+
+    /**
+     *  Checks whether a copy of a book is borrowed.
+     *
+     *  @param book The book to be checked.
+     *  @return true if at least one copy of the book is borrowed, otherwise false.
+    */
+    static boolean isOnLoan(Book book) {
+        return book.isBorrowed() || book.hasBorrowedCopies();
+    }
+
+    /**
+     *  Validates every ISBN of a batch and records the invalid ones in the result.
+     *
+     *  @param ISBNs  The International Standard Book Numbers of the batch.
+     *  @param result The result to record an outcome for every ISBN in.
+     *  @return The canonical form of every valid ISBN, at its index in the batch, and null for invalid ones.
+    */
+    private static String[] validateBatch(Collection<String> ISBNs, BatchResult result) {
+        String[] keys = new String[ISBNs.size()];
+        int i = 0;
+        for (String ISBN : ISBNs) {
+            long ISBNKey = ISBNCodec.pack(ISBN);
+            if (ISBNKey == ISBNCodec.INVALID) {
+                result.add(ISBN, LoanOutcome.INVALID_ISBN);
+            } else {
+                keys[i] = ISBNCodec.canonical(ISBN, ISBNKey);
+                result.add(ISBN, LoanOutcome.SUCCESS);
+            }
+            i++;
+        }
+        return keys;
+    }
+
+    // Looks a book up by its canonical ISBN, unless the membership filter rules it out.
+    private Book findBook(String ISBN) {
+        MembershipFilters filters = membershipFilters;
+        if (filters != null && !filters.books.mightContain(ISBNCodec.pack(ISBN))) {
+            return null;
+        }
+        return databaseService.getBookByISBN(ISBN);
+    }
+
+    // Looks several books up by their canonical ISBNs, leaving out those the membership filter rules out.
+    private Map<String, Book> findBooks(List<String> ISBNs) {
+        MembershipFilters filters = membershipFilters;
+        if (filters != null) {
+            List<String> candidates = new ArrayList<>(ISBNs.size());
+            for (String ISBN : ISBNs) {
+                if (filters.books.mightContain(ISBNCodec.pack(ISBN))) {
+                    candidates.add(ISBN);
+                }
+            }
+            ISBNs = candidates;
+        }
+        return databaseService.getBooksByISBN(ISBNs);
+    }
+
+    // Looks a user up by a valid Id, unless the membership filter rules it out.
+    private User findUser(String userId) {
+        MembershipFilters filters = membershipFilters;
+        if (filters != null && !filters.users.mightContain(UserIdCodec.pack(userId))) {
+            return null;
+        }
+        return databaseService.getUserById(userId);
+    }
+
+    // Lists the non-null keys of a batch.
+    private static List<String> nonNull(String[] keys) {
+        List<String> list = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            if (key != null) {
+                list.add(key);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Validates the request and builds the notification with the reviews of a specified book.
      *
      * @param ISBN The ISBN of the book whose reviews are to be sent.
      * @param userId The Id of the user to whom the reviews are to be sent.
+     * @return The user to be notified and the notification message.
      */
-    public void notifyUserWithBookReviews(String ISBN, String userId) {
+    private ReviewNotification prepareReviewNotification(String ISBN, String userId) {
+        long stage = metrics.start();
 
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
-        }
+        // Validate the ISBN and normalize it to its database key. If it's invalid, throw an exception.
+        ISBN = requireValidISBN(ISBN);
 
         // Validate the user Id format (should be a 12-digit number).
         // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
+        if (userId == null || !UserIdCodec.isValid(userId)) {
             throw new IllegalArgumentException("Invalid user Id.");
         }
+        stage = metrics.lap(LibraryOperation.VALIDATION, stage);
 
         // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+        Book book = findBook(ISBN);
 
         // If no book is found for the given ISBN, throw a book not found exception.
         if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            throw LibraryErrors.bookNotFound();
         }
 
         // Retrieve the user associated with the user Id from the database.
-        User user = databaseService.getUserById(userId);
+        User user = findUser(userId);
 
         // If the user is not found in the database, throw an exception.
         if (user == null) {
-            throw new UserNotRegisteredException("User not found!");
+            throw LibraryErrors.userNotRegistered();
         }
+        stage = metrics.lap(LibraryOperation.DATABASE_LOOKUP, stage);
 
-        // Fetch the list of reviews for the specified book using the review service.
-        List<String> reviews;
+        // Fetch the reviews for the specified book using the review service, and build the notification
+        // message containing the book's title and a bounded digest of its reviews.
+        // A streaming review service is only read as far as the digest goes.
+        String notificationMessage;
         try {
-            reviews = reviewService.getReviewsForBook(ISBN);
+            if (reviewService instanceof StreamingReviewService) {
+                try (Stream<String> reviews = ((StreamingReviewService) reviewService).streamReviewsForBook(ISBN)) {
+                    notificationMessage = ReviewDigest.of(book.getTitle(), reviews.iterator());
+                }
+            } else {
+                List<String> reviews = reviewService.getReviewsForBook(ISBN);
+                notificationMessage = reviews == null ? null : ReviewDigest.of(book.getTitle(), reviews.iterator());
+            }
 
             // If no reviews are found or the review list is empty, throw an exception.
-            if (reviews == null || reviews.isEmpty()) {
+            if (notificationMessage == null) {
                 throw new NoReviewsFoundException("No reviews found!");
             }
         } catch (ReviewException e) {
             // If there's an issue fetching the reviews, throw a service unavailable exception.
             throw new ReviewServiceUnavailableException("Review service unavailable!");
         } finally {
-            // Always close the review service connection after attempting to fetch the reviews.
+            // Always close the review service after attempting to fetch the reviews.
+            // Pooled and caching review services keep their connections open across this call.
             reviewService.close();
+            metrics.record(LibraryOperation.REVIEW_FETCH, stage);
         }
 
-        // Construct the notification message containing the book's title and its reviews.
-        String notificationMessage = "Reviews for '" + book.getTitle() + "':\n" + String.join("\n", reviews);
+        return new ReviewNotification(user, notificationMessage);
+    }
 
-        // Attempt to send the notification to the user. If it fails, retry up to 5 times.
-        int retryCount = 0;
-        while (retryCount < 5) {
-            try {
-                user.sendNotification(notificationMessage);
-                return;
-            } catch (NotificationException e) {
-                retryCount++;
-                System.err.println("Notification failed! Retrying attempt " + retryCount + "/5");
+    /**
+     * Notifies a user with the reviews of a specified book.
+     * The notification holds the first 20 reviews, up to about 4000 characters, and says if more were left out.
+     * Reviews of a {@link StreamingReviewService} are only fetched as far as the notification goes.
+     *
+     * @param ISBN The ISBN of the book whose reviews are to be sent.
+     * @param userId The Id of the user to whom the reviews are to be sent.
+     */
+    public void notifyUserWithBookReviews(String ISBN, String userId) {
+        long start = metrics.start();
+        try {
+            // Validate the request, fetch the reviews and build the notification message.
+            ReviewNotification notification = prepareReviewNotification(ISBN, userId);
+            User user = notification.user;
+            String notificationMessage = notification.message;
+
+            // Attempt to send the notification to the user. If it fails, retry up to 5 times.
+            long sending = metrics.start();
+            int retryCount = 0;
+            while (retryCount < 5) {
+                try {
+                    user.sendNotification(notificationMessage);
+                    metrics.record(LibraryOperation.NOTIFICATION, sending);
+                    return;
+                } catch (NotificationException e) {
+                    retryCount++;
+                    // Only attempts that are followed by another one count as retried.
+                    if (retryCount < 5) {
+                        metrics.recordNotificationRetry();
+                    }
+                    System.err.println("Notification failed! Retrying attempt " + retryCount + "/5");
+                }
             }
+            metrics.record(LibraryOperation.NOTIFICATION, sending);
+
+            // If all retry attempts fail, throw a notification exception.
+            throw new NotificationException("Notification failed!");
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.NOTIFY_USER_WITH_BOOK_REVIEWS, start);
         }
+    }
 
-        // If all retry attempts fail, throw a notification exception.
-        throw new NotificationException("Notification failed!");
+    /**
+     * Notifies a user with the reviews of a specified book in the background.
+     * The lookups, the review fetch and the delivery with its retries all run on the notification dispatcher,
+     * so this method returns immediately.
+     *
+     * @param ISBN The ISBN of the book whose reviews are to be sent.
+     * @param userId The Id of the user to whom the reviews are to be sent.
+     * @return A future that completes when the notification is delivered, or completes exceptionally
+     *         with the exception {@link #notifyUserWithBookReviews(String, String)} would have thrown.
+     * @throws IllegalStateException If the library was constructed without a notification dispatcher.
+     */
+    public CompletableFuture<Void> notifyUserWithBookReviewsAsync(String ISBN, String userId) {
+        if (notificationDispatcher == null) {
+            throw new IllegalStateException("Asynchronous notifications are not enabled.");
+        }
+        try {
+            return CompletableFuture
+                    .supplyAsync(() -> prepareReviewNotification(ISBN, userId), notificationDispatcher.executor())
+                    .thenCompose(notification -> notificationDispatcher.dispatch(notification.user, notification.message))
+                    .whenComplete((delivered, e) -> {
+                        if (e != null) {
+                            metrics.recordException(e instanceof CompletionException ? e.getCause() : e);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new NotificationException("Notification queue is full!"));
+        }
     }
 
     /**
@@ -323,40 +1047,81 @@ public class Library {
      * @return       The book with the given ISBN if found, and notifies the user with its reviews.
      */
     public Book getBookByISBN(String ISBN, String userId) {
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
-        }
+        long start = metrics.start();
+        try {
+            // Validate the ISBN and normalize it to its database key. If it's invalid, throw an exception.
+            ISBN = requireValidISBN(ISBN);
 
-        // Validate the user Id format (should be a 12-digit number). 
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
-        }
+            // Validate the user Id format (should be a 12-digit number). 
+            // If it's invalid, throw an exception.
+            if (userId == null || !UserIdCodec.isValid(userId)) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
+            long stage = metrics.lap(LibraryOperation.VALIDATION, start);
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+            // Retrieve the book associated with the ISBN from the database.
+            Book book = findBook(ISBN);
+            metrics.record(LibraryOperation.DATABASE_LOOKUP, stage);
 
-        // If no book is found for the given ISBN, throw a book not found exception.
-        if (book == null) {
-            throw new BookNotFoundException("Book not found!");
-        }
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (book == null) {
+                throw LibraryErrors.bookNotFound();
+            }
 
-        // If the book is already borrowed, throw an exception.
-        if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book was already borrowed!");
+            // If the book is already borrowed, throw an exception.
+            if (book.isBorrowed()) {
+                throw LibraryErrors.bookWasAlreadyBorrowed();
+            }
+
+            // Attempt to notify the user with the book's reviews.
+            // This step is optional, so even if it fails, the book should still be returned.
+            // With a notification dispatcher it runs in the background and the book is returned right away.
+            if (notificationDispatcher != null) {
+                notifyUserWithBookReviewsAsync(ISBN, userId).whenComplete((delivered, e) -> {
+                    if (e != null) {
+                        System.out.println("Notification failed!");
+                    }
+                });
+            } else {
+                try {
+                    notifyUserWithBookReviews(ISBN, userId);
+                } catch (Exception e) {
+                    System.out.println("Notification failed!");
+                }
+            }
+
+            // Return the retrieved book.
+            return book;
+        } catch (RuntimeException e) {
+            metrics.recordException(e);
+            throw e;
+        } finally {
+            metrics.record(LibraryOperation.GET_BOOK_BY_ISBN, start);
         }
+    }
 
-        // Attempt to notify the user with the book's reviews.
-        // This step is optional, so even if it fails, the book should still be returned.
-        try {
-            notifyUserWithBookReviews(ISBN, userId);
-        } catch (Exception e) {
-            System.out.println("Notification failed!");
+    // The filters of the ISBNs and the user Ids in the database, which the database keeps up to date.
+    private static final class MembershipFilters {
+        final BloomFilter books;
+        final BloomFilter users;
+        // Stops the database from updating the filters.
+        final Runnable stopTracking;
+
+        MembershipFilters(BloomFilter books, BloomFilter users, Runnable stopTracking) {
+            this.books = books;
+            this.users = users;
+            this.stopTracking = stopTracking;
         }
+    }
+
+    // A notification ready to be sent and the user it is for.
+    private static final class ReviewNotification {
+        final User user;
+        final String message;
 
-        // Return the retrieved book.
-        return book;
+        ReviewNotification(User user, String message) {
+            this.user = user;
+            this.message = message;
+        }
     }
 }
-
@@ -0,0 +1,486 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.util.LongLongHashMap;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The current loans of a library, indexed both ways: the borrower of every borrowed book,
+ * and the borrowed books of every user.
+ * <p>
+ * ISBNs and user Ids are packed with {@link ISBNCodec} and {@link UserIdCodec}, and both indexes are
+ * open-addressing maps keyed by those longs. Looking up a borrower is a single probe. The loans of a user
+ * are kept in a small array, so listing them touches nothing else and a return scans only that user's loans.
+ * <p>
+ * A book with several copies may be on loan to several users at once. Its earliest borrower stays in the
+ * primitive index and the later ones are kept aside, so books with a single copy pay nothing for it.
+ * <p>
+ * Every loan may have a due date, kept next to the ISBN in the loans of its user.
+ * <p>
+ * Any number of lookups run concurrently; changes are serialized.
+ */
+public class LoanLedger {
+
+    /**
+     * The due date of a loan that has none.
+     */
+    public static final long NO_DUE_DATE = Long.MAX_VALUE;
+
+    // Packed user Id of the earliest borrower by packed ISBN.
+    private final LongLongHashMap borrowers = new LongLongHashMap();
+    // Packed user Ids of the later borrowers of books with several copies, by packed ISBN.
+    private final LongObjectHashMap<Loans> laterBorrowers = new LongObjectHashMap<>();
+    // Number of loans in laterBorrowers.
+    private int laterLoanCount;
+    // Loans by packed user Id.
+    private final LongObjectHashMap<Loans> loansByUser = new LongObjectHashMap<>();
+    // Guards all the indexes.
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Records that a user borrowed a book with a single copy.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return true if the loan was recorded, false if the book is already on loan.
+     */
+    public boolean recordLoan(String ISBN, String userId) {
+        return recordLoan(ISBN, userId, 1);
+    }
+
+    /**
+     * Records that a user borrowed a copy of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @param copies The number of copies of the book.
+     * @return true if the loan was recorded, false if every copy of the book is already on loan.
+     */
+    public boolean recordLoan(String ISBN, String userId, int copies) {
+        return recordLoan(ISBN, userId, copies, NO_DUE_DATE);
+    }
+
+    /**
+     * Records that a user borrowed a copy of a book until a due date.
+     *
+     * @param ISBN    The International Standard Book Number of the book.
+     * @param userId  The Id of the borrower.
+     * @param copies  The number of copies of the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds, or {@link #NO_DUE_DATE}.
+     * @return true if the loan was recorded, false if every copy of the book is already on loan.
+     */
+    public boolean recordLoan(String ISBN, String userId, int copies, long dueDate) {
+        if (dueDate < 0) {
+            throw new IllegalArgumentException("Invalid due date.");
+        }
+        long ISBNKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            if (copies < 1) {
+                return false;
+            } else if (borrowers.containsKey(ISBNKey)) {
+                Loans later = laterBorrowers.get(ISBNKey);
+                if (1 + (later == null ? 0 : later.size) >= copies) {
+                    return false;
+                }
+            }
+            addLoan(ISBNKey, userKey, dueDate);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds every loan a database can list, with its due date, for example to pick up the open loans after a
+     * restart. The loans are added as they are, without checking them against the copies of their books,
+     * so this is meant for a ledger that holds no loans yet.
+     *
+     * @param databaseService The database to read the loans from.
+     * @return true if every loan of the database was added, false if it cannot list all of its loans.
+     */
+    public boolean load(DatabaseService databaseService) {
+        long stamp = lock.writeLock();
+        try {
+            return databaseService.forEachLoan(this::addLoan);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records that a copy of a book was returned, without knowing by whom.
+     * The earliest of its loans is the one closed.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the user whose loan was closed, or null if the book was not on loan.
+     */
+    public String recordReturn(String ISBN) {
+        long ISBNKey = requireISBNKey(ISBN);
+        long stamp = lock.writeLock();
+        try {
+            long userKey = borrowers.get(ISBNKey);
+            if (userKey == LongLongHashMap.NO_VALUE) {
+                return null;
+            }
+            closeLoan(ISBNKey, userKey);
+            return UserIdCodec.toString(userKey);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records that a user returned a copy of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return true if the loan was closed, false if the user had no copy of the book on loan.
+     */
+    public boolean recordReturn(String ISBN, String userId) {
+        long ISBNKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            Loans loans = loansByUser.get(userKey);
+            if (loans == null || loans.indexOf(ISBNKey) < 0) {
+                return false;
+            }
+            closeLoan(ISBNKey, userKey);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes back the latest loan of a book to a user, for a borrowing that failed after it was recorded.
+     * Unlike {@link #recordReturn(String, String)}, an earlier loan of another copy to the same user stays open.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return true if a loan was taken back, false if the user had no copy of the book on loan.
+     */
+    boolean cancelLoan(String ISBN, String userId) {
+        long ISBNKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            Loans loans = loansByUser.get(userKey);
+            if (loans == null || loans.indexOf(ISBNKey) < 0) {
+                return false;
+            }
+            Loans later = laterBorrowers.get(ISBNKey);
+            if (later != null && later.lastIndexOf(userKey) >= 0) {
+                later.removeAt(later.lastIndexOf(userKey));
+                laterLoanCount--;
+                if (later.size == 0) {
+                    laterBorrowers.remove(ISBNKey);
+                }
+            } else if (later == null) {
+                borrowers.remove(ISBNKey);
+            } else {
+                borrowers.put(ISBNKey, later.removeFirst());
+                laterLoanCount--;
+                if (later.size == 0) {
+                    laterBorrowers.remove(ISBNKey);
+                }
+            }
+            loans.removeAt(loans.lastIndexOf(ISBNKey));
+            if (loans.size == 0) {
+                loansByUser.remove(userKey);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the current borrower of a book, the earliest one for a book with several copies on loan.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower, or null if the book is not on loan.
+     */
+    public String getBorrowerId(String ISBN) {
+        long ISBNKey = requireISBNKey(ISBN);
+        long userKey;
+        long stamp = lock.readLock();
+        try {
+            userKey = borrowers.get(ISBNKey);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return userKey == LongLongHashMap.NO_VALUE ? null : UserIdCodec.toString(userKey);
+    }
+
+    /**
+     * Retrieves every current borrower of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, in the order they borrowed the book.
+     */
+    public List<String> getBorrowerIds(String ISBN) {
+        long ISBNKey = requireISBNKey(ISBN);
+        long first;
+        long[] later;
+        long stamp = lock.readLock();
+        try {
+            first = borrowers.get(ISBNKey);
+            Loans loans = laterBorrowers.get(ISBNKey);
+            later = loans == null ? new long[0] : loans.toArray();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        List<String> userIds = new ArrayList<>(later.length + 1);
+        if (first != LongLongHashMap.NO_VALUE) {
+            userIds.add(UserIdCodec.toString(first));
+        }
+        for (long userKey : later) {
+            userIds.add(UserIdCodec.toString(userKey));
+        }
+        return userIds;
+    }
+
+    /**
+     * Retrieves the due date of a user's loan of a book.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the borrower.
+     * @return The due date in epoch milliseconds, or {@link #NO_DUE_DATE} if the loan has none
+     *         or the user has no copy of the book on loan.
+     */
+    public long getDueDate(String ISBN, String userId) {
+        return getDueDate(requireISBNKey(ISBN), requireUserKey(userId));
+    }
+
+    /**
+     * Retrieves the due date of a user's loan of a book, by packed keys.
+     *
+     * @param ISBNKey The ISBN of the book, packed with {@link ISBNCodec}.
+     * @param userKey The Id of the borrower, packed with {@link UserIdCodec}.
+     * @return The due date in epoch milliseconds, or {@link #NO_DUE_DATE} if the loan has none
+     *         or the user has no copy of the book on loan.
+     */
+    public long getDueDate(long ISBNKey, long userKey) {
+        long stamp = lock.readLock();
+        try {
+            Loans loans = loansByUser.get(userKey);
+            int index = loans == null ? -1 : loans.indexOf(ISBNKey);
+            return index < 0 ? NO_DUE_DATE : loans.values[index];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands every current loan to a procedure, by packed keys, without creating any object per loan.
+     * The procedure runs while the ledger is locked, so it must not change the ledger.
+     *
+     * @param procedure Receives the packed ISBN, the packed user Id and the due date of every loan.
+     */
+    public void forEachLoan(LoanProcedure procedure) {
+        long stamp = lock.readLock();
+        try {
+            loansByUser.forEach((userKey, loans) -> {
+                for (int i = 0; i < loans.size; i++) {
+                    procedure.apply(loans.keys[i], userKey, loans.values[i]);
+                }
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the books a user currently has on loan.
+     *
+     * @param userId The Id of the user.
+     * @return The ISBNs of the user's books, in the order they were borrowed.
+     */
+    public List<String> getLoans(String userId) {
+        long userKey = requireUserKey(userId);
+        long[] ISBNKeys;
+        long stamp = lock.readLock();
+        try {
+            Loans loans = loansByUser.get(userKey);
+            ISBNKeys = loans == null ? new long[0] : loans.toArray();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        List<String> ISBNs = new ArrayList<>(ISBNKeys.length);
+        for (long ISBNKey : ISBNKeys) {
+            ISBNs.add(ISBNCodec.toString(ISBNKey));
+        }
+        return ISBNs;
+    }
+
+    /**
+     * Retrieves the number of books a user currently has on loan.
+     *
+     * @param userId The Id of the user.
+     * @return The number of the user's books.
+     */
+    public int getLoanCount(String userId) {
+        long userKey = requireUserKey(userId);
+        long stamp = lock.readLock();
+        try {
+            Loans loans = loansByUser.get(userKey);
+            return loans == null ? 0 : loans.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of books on loan.
+     *
+     * @return The number of loans.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return borrowers.size() + laterLoanCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Adds a loan after the other loans of its book to every index. The caller holds the write lock.
+    private void addLoan(long ISBNKey, long userKey, long dueDate) {
+        if (borrowers.putIfAbsent(ISBNKey, userKey) != LongLongHashMap.NO_VALUE) {
+            Loans later = laterBorrowers.get(ISBNKey);
+            if (later == null) {
+                later = new Loans();
+                laterBorrowers.put(ISBNKey, later);
+            }
+            later.add(userKey, NO_DUE_DATE);
+            laterLoanCount++;
+        }
+        Loans loans = loansByUser.get(userKey);
+        if (loans == null) {
+            loans = new Loans();
+            loansByUser.put(userKey, loans);
+        }
+        loans.add(ISBNKey, dueDate);
+    }
+
+    // Removes one loan of a book to a user from every index. The caller holds the write lock.
+    private void closeLoan(long ISBNKey, long userKey) {
+        Loans later = laterBorrowers.get(ISBNKey);
+        if (borrowers.get(ISBNKey) == userKey) {
+            // The earliest borrower returned; the next one, if any, takes their place.
+            if (later == null) {
+                borrowers.remove(ISBNKey);
+            } else {
+                borrowers.put(ISBNKey, later.removeFirst());
+                laterLoanCount--;
+            }
+        } else {
+            later.remove(userKey);
+            laterLoanCount--;
+        }
+        if (later != null && later.size == 0) {
+            laterBorrowers.remove(ISBNKey);
+        }
+        Loans loans = loansByUser.get(userKey);
+        loans.remove(ISBNKey);
+        if (loans.size == 0) {
+            loansByUser.remove(userKey);
+        }
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+
+    /**
+     * Receives the loans of {@link #forEachLoan(LoanProcedure)}.
+     */
+    @FunctionalInterface
+    public interface LoanProcedure {
+        /**
+         * @param ISBNKey The ISBN of the book, packed with {@link ISBNCodec}.
+         * @param userKey The Id of the borrower, packed with {@link UserIdCodec}.
+         * @param dueDate The due date in epoch milliseconds, or {@link #NO_DUE_DATE}.
+         */
+        void apply(long ISBNKey, long userKey, long dueDate);
+    }
+
+    // Packed keys with a value each, in the order they were added: the ISBNs one user has on loan with their
+    // due dates, or the later borrowers of one book.
+    private static final class Loans {
+        long[] keys = new long[4];
+        long[] values = new long[4];
+        int size;
+
+        void add(long key, long value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size++] = value;
+        }
+
+        int indexOf(long key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int lastIndexOf(long key) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void remove(long key) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                removeAt(i);
+            }
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+        }
+
+        long removeFirst() {
+            long key = keys[0];
+            System.arraycopy(keys, 1, keys, 0, --size);
+            System.arraycopy(values, 1, values, 0, size);
+            return key;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(keys, size);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ac.il.bgu.qa;
+
+/**
+ * Represents the outcome of borrowing or returning a single book.
+ */
+public enum LoanOutcome {
+    // The book was borrowed or returned.
+    SUCCESS,
+    // The ISBN is not a valid ISBN-13.
+    INVALID_ISBN,
+    // The user Id is not a valid 12 digit Id.
+    INVALID_USER_ID,
+    // No book with the ISBN exists in the database.
+    BOOK_NOT_FOUND,
+    // No user with the Id is registered in the database.
+    USER_NOT_REGISTERED,
+    // The book is already borrowed.
+    ALREADY_BORROWED,
+    // The book is not borrowed.
+    NOT_BORROWED,
+    // The database failed to record the change.
+    FAILED
+}
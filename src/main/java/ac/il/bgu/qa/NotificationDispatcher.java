@@ -0,0 +1,192 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.NotificationException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers notifications to users in the background.
+ * Each notification is queued and sent on the delivery executor. A failed attempt is retried after an
+ * exponentially growing delay with random jitter, so a struggling notification service is not hammered,
+ * until the maximum number of attempts is reached.
+ * <p>
+ * By default deliveries run on a fixed pool of daemon threads with a bounded queue.
+ * Any other executor can be supplied instead, for example a virtual thread per task executor on Java 21.
+ */
+public class NotificationDispatcher implements AutoCloseable {
+
+    // Default number of attempts per notification, the same as the synchronous retry loop of Library.
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    // Runs the delivery attempts.
+    private final Executor executor;
+    // The executor this dispatcher created and must shut down, or null if it was supplied.
+    private final ExecutorService ownedExecutor;
+    // Waits out the delays between attempts.
+    private final ScheduledExecutorService scheduler;
+    // Maximum number of attempts per notification.
+    private final int maxAttempts;
+    // Delay before the first retry, in nanoseconds. Doubles with every retry.
+    private final long baseDelayNanos;
+    // Upper bound of the delay between attempts, in nanoseconds.
+    private final long maxDelayNanos;
+
+    /**
+     * Constructs a new NotificationDispatcher with a pool of daemon threads and default retry settings.
+     *
+     * @param threads       The number of delivery threads.
+     * @param queueCapacity The maximum number of notifications waiting for a thread.
+     */
+    public NotificationDispatcher(int threads, int queueCapacity) {
+        this(newPool(threads, queueCapacity), true, DEFAULT_MAX_ATTEMPTS, Duration.ofMillis(50), Duration.ofSeconds(5));
+    }
+
+    /**
+     * Constructs a new NotificationDispatcher on a given executor. The executor is not shut down by {@link #close()}.
+     *
+     * @param executor    The executor the deliveries run on.
+     * @param maxAttempts The maximum number of attempts per notification.
+     * @param baseDelay   The delay before the first retry. It doubles with every further retry.
+     * @param maxDelay    The upper bound of the delay between attempts.
+     */
+    public NotificationDispatcher(Executor executor, int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        this(executor, false, maxAttempts, baseDelay, maxDelay);
+    }
+
+    private NotificationDispatcher(Executor executor, boolean owned, int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor.");
+        } else if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid number of attempts.");
+        } else if (baseDelay == null || baseDelay.isNegative() || maxDelay == null || maxDelay.compareTo(baseDelay) < 0) {
+            throw new IllegalArgumentException("Invalid delay.");
+        }
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("notification-retry"));
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * Queues a notification for delivery and returns immediately.
+     *
+     * @param user    The user to be notified.
+     * @param message The content of the notification.
+     * @return A future that completes when the notification is delivered, or completes exceptionally with a
+     *         {@link NotificationException} when every attempt failed or the queue is full.
+     */
+    public CompletableFuture<Void> dispatch(User user, String message) {
+        if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        Delivery delivery = new Delivery(user, message);
+        submit(delivery);
+        return delivery.result;
+    }
+
+    // The executor deliveries run on, for work that should happen on the same threads before a dispatch.
+    Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Stops accepting retries and shuts down the delivery threads this dispatcher created.
+     * Notifications already running are allowed to finish.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void submit(Delivery delivery) {
+        try {
+            executor.execute(() -> attempt(delivery));
+        } catch (RejectedExecutionException e) {
+            delivery.result.completeExceptionally(new NotificationException("Notification queue is full!"));
+        }
+    }
+
+    // Sends the notification once and schedules a retry if it fails.
+    private void attempt(Delivery delivery) {
+        try {
+            delivery.user.sendNotification(delivery.message);
+            delivery.result.complete(null);
+        } catch (NotificationException e) {
+            int attempt = ++delivery.attempts;
+            if (attempt >= maxAttempts) {
+                delivery.result.completeExceptionally(new NotificationException("Notification failed!"));
+                return;
+            }
+            System.err.println("Notification failed! Retrying attempt " + attempt + "/" + maxAttempts);
+            try {
+                scheduler.schedule(() -> submit(delivery), delay(attempt), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException closed) {
+                delivery.result.completeExceptionally(new NotificationException("Notification failed!"));
+            }
+        } catch (RuntimeException e) {
+            delivery.result.completeExceptionally(e);
+        }
+    }
+
+    // Exponential backoff with equal jitter: half of the delay is fixed and half is random.
+    long delay(int attempt) {
+        long capped = baseDelayNanos;
+        for (int i = 1; i < attempt && capped < maxDelayNanos; i++) {
+            capped <<= 1;
+        }
+        capped = Math.min(capped, maxDelayNanos);
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+
+    private static ExecutorService newPool(int threads, int queueCapacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads.");
+        } else if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity.");
+        }
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), daemonThreads("notification"));
+    }
+
+    // Creates named daemon threads, so background work never keeps the JVM alive.
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // One queued notification and the number of attempts made so far.
+    private static final class Delivery {
+        final User user;
+        final String message;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        // Only touched by the single attempt running at a time.
+        volatile int attempts;
+
+        Delivery(User user, String message) {
+            this.user = user;
+            this.message = message;
+        }
+    }
+}
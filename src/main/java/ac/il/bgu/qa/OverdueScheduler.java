@@ -0,0 +1,411 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.NotificationException;
+import ac.il.bgu.qa.events.EventBus;
+import ac.il.bgu.qa.events.EventSubscription;
+import ac.il.bgu.qa.events.LibraryEvent;
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+import ac.il.bgu.qa.util.TimingWheel;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reminds users of loans that will soon be due and notifies them of loans that are overdue.
+ * <p>
+ * Every loan with a due date in the {@link LoanLedger} of a library has one timeout on a {@link TimingWheel}:
+ * first for its reminder, and once the reminder is sent, for its due date. Scheduling, cancelling and firing a
+ * loan take constant time however many loans there are, and only {@link #rebuild()} walks the whole ledger.
+ * <p>
+ * The scheduler follows the {@link EventBus} of the library: books borrowed since the last {@link #advance(long)}
+ * are scheduled and books returned are cancelled at the start of the next one. If it falls so far behind that
+ * events were dropped, it rebuilds from the ledger instead. It also rebuilds when it is constructed, so a
+ * scheduler created after a restart picks up every open loan the library loaded from its database, with the
+ * due date the database stored for it (see {@link LoanLedger#load(DatabaseService)}).
+ * <p>
+ * The notices fired by one advance are batched per user: each user gets a single notification listing all of
+ * their books, sent through a {@link NotificationDispatcher} in the background, or on the advancing thread
+ * without one. Every notice is also published to the event bus as {@link LibraryEvent.Type#LOAN_DUE_SOON} or
+ * {@link LibraryEvent.Type#LOAN_OVERDUE}.
+ */
+public class OverdueScheduler implements AutoCloseable {
+
+    // Default resolution of the due dates.
+    public static final Duration DEFAULT_TICK = Duration.ofMinutes(1);
+    // Default time before the due date the reminder is sent.
+    public static final Duration DEFAULT_REMINDER_LEAD = Duration.ofDays(2);
+
+    // Maximum number of events taken from the bus at once.
+    private static final int EVENT_BATCH = 1024;
+    // Formats due dates in notifications.
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneId.systemDefault());
+
+    // The loans and their due dates.
+    private final LoanLedger loanLedger;
+    // The change stream of the library, and the scheduler's position in it.
+    private final EventBus eventBus;
+    private final EventSubscription subscription;
+    // Service to look up the users and books of the notices.
+    private final DatabaseService databaseService;
+    // Delivers the notifications in the background, or null to send them on the advancing thread.
+    private final NotificationDispatcher notificationDispatcher;
+    // Time before the due date the reminder is sent, in milliseconds.
+    private final long reminderLeadMillis;
+    // Resolution of the due dates, in milliseconds.
+    private final long tickMillis;
+
+    // Guards the wheel, the timers and the time of the last advance.
+    private final Object lock = new Object();
+    // The pending reminders and due dates.
+    private TimingWheel<LoanTimer> wheel;
+    // The timer of every scheduled loan by packed ISBN, chained for books with several copies on loan.
+    private LongObjectHashMap<LoanTimer> timers;
+    // The time of the last advance, in epoch milliseconds, or 0 before the first.
+    private long lastAdvance;
+    // The number of events the subscription had dropped at the last advance.
+    private long droppedEvents;
+
+    // Runs advance every tick once started, or null.
+    private ScheduledExecutorService ticker;
+
+    // Statistics.
+    private final AtomicLong reminders = new AtomicLong();
+    private final AtomicLong overdueNotices = new AtomicLong();
+    private final AtomicLong failedDeliveries = new AtomicLong();
+
+    /**
+     * Constructs a new OverdueScheduler with the default tick and reminder lead, and schedules the open loans.
+     *
+     * @param library                The library whose loans are followed.
+     * @param databaseService        Service to look up the users and books of the notices.
+     * @param notificationDispatcher Delivers the notifications in the background, or null to send them synchronously.
+     */
+    public OverdueScheduler(Library library, DatabaseService databaseService, NotificationDispatcher notificationDispatcher) {
+        this(library, databaseService, notificationDispatcher, DEFAULT_REMINDER_LEAD, DEFAULT_TICK);
+    }
+
+    /**
+     * Constructs a new OverdueScheduler and schedules the open loans.
+     *
+     * @param library                The library whose loans are followed.
+     * @param databaseService        Service to look up the users and books of the notices.
+     * @param notificationDispatcher Delivers the notifications in the background, or null to send them synchronously.
+     * @param reminderLead           The time before the due date the reminder is sent. Zero sends no reminders.
+     * @param tick                   The resolution of the due dates: notices are sent up to one tick late.
+     */
+    public OverdueScheduler(Library library, DatabaseService databaseService, NotificationDispatcher notificationDispatcher,
+                            Duration reminderLead, Duration tick) {
+        if (library == null) {
+            throw new IllegalArgumentException("Invalid library.");
+        } else if (databaseService == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (reminderLead == null || reminderLead.isNegative()) {
+            throw new IllegalArgumentException("Invalid reminder lead.");
+        } else if (tick == null || tick.toMillis() < 1) {
+            throw new IllegalArgumentException("Invalid tick.");
+        }
+        this.loanLedger = library.getLoanLedger();
+        this.eventBus = library.getEventBus();
+        this.databaseService = databaseService;
+        this.notificationDispatcher = notificationDispatcher;
+        this.reminderLeadMillis = reminderLead.toMillis();
+        this.tickMillis = tick.toMillis();
+
+        // Subscribe before reading the ledger, so no loan made in between is missed.
+        this.subscription = eventBus.subscribe();
+        rebuild();
+    }
+
+    /**
+     * Starts advancing the scheduler every tick on a background daemon thread.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (ticker != null) {
+                return;
+            }
+            ticker = Executors.newSingleThreadScheduledExecutor(NotificationDispatcher.daemonThreads("overdue-scheduler"));
+            ticker.scheduleAtFixedRate(() -> {
+                try {
+                    advance(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // Keep ticking: the loans stay scheduled and the next tick tries again.
+                    System.err.println("Overdue scheduler failed! " + e);
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread started by {@link #start()}. The loans stay scheduled.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (ticker != null) {
+                ticker.shutdownNow();
+                ticker = null;
+            }
+        }
+    }
+
+    /**
+     * Catches up with the loans borrowed and returned since the last call, fires every reminder and due date
+     * that has passed, and notifies the users concerned, one notification per user.
+     *
+     * @param now The current time, in epoch milliseconds.
+     * @return The number of notices fired.
+     */
+    public int advance(long now) {
+        List<Notice> notices = new ArrayList<>();
+        synchronized (lock) {
+            followEvents();
+            wheel.advance(now, timer -> fire(timer, now, notices));
+            lastAdvance = Math.max(lastAdvance, now);
+        }
+        if (!notices.isEmpty()) {
+            deliver(notices);
+        }
+        return notices.size();
+    }
+
+    /**
+     * Drops every scheduled loan and schedules the open loans of the ledger again, for example after loans were
+     * loaded into it. Reminders whose time had already passed at the last advance are not sent again.
+     *
+     * @return The number of loans scheduled.
+     */
+    public int rebuild() {
+        synchronized (lock) {
+            droppedEvents = subscription.getDropped();
+            wheel = new TimingWheel<>(tickMillis, lastAdvance > 0 ? lastAdvance : System.currentTimeMillis());
+            timers = new LongObjectHashMap<>();
+            loanLedger.forEachLoan((ISBNKey, userKey, dueDate) -> {
+                if (dueDate != LoanLedger.NO_DUE_DATE) {
+                    schedule(ISBNKey, userKey, dueDate);
+                }
+            });
+            return wheel.size();
+        }
+    }
+
+    /**
+     * Retrieves the number of loans waiting for their reminder or due date.
+     *
+     * @return The number of scheduled loans.
+     */
+    public int getScheduledCount() {
+        synchronized (lock) {
+            return wheel.size();
+        }
+    }
+
+    /**
+     * Retrieves the number of reminders fired since the scheduler was created.
+     *
+     * @return The number of reminders.
+     */
+    public long getReminderCount() {
+        return reminders.get();
+    }
+
+    /**
+     * Retrieves the number of overdue notices fired since the scheduler was created.
+     *
+     * @return The number of overdue notices.
+     */
+    public long getOverdueCount() {
+        return overdueNotices.get();
+    }
+
+    /**
+     * Retrieves the number of notifications that could not be delivered.
+     *
+     * @return The number of failed notifications.
+     */
+    public long getFailedDeliveryCount() {
+        return failedDeliveries.get();
+    }
+
+    // Applies the loans borrowed and returned since the last call. The caller holds the lock.
+    private void followEvents() {
+        while (subscription.poll(EVENT_BATCH, this::apply) == EVENT_BATCH) {
+            // Keep draining.
+        }
+        if (subscription.getDropped() != droppedEvents) {
+            // Some loans or returns were missed, so the ledger is the only complete record left.
+            rebuild();
+        }
+    }
+
+    private void apply(LibraryEvent event) {
+        if (event.getType() == LibraryEvent.Type.BOOK_BORROWED) {
+            long ISBNKey = ISBNCodec.pack(event.getISBN());
+            long userKey = UserIdCodec.pack(event.getUserId());
+            long dueDate = loanLedger.getDueDate(ISBNKey, userKey);
+            if (dueDate != LoanLedger.NO_DUE_DATE && find(ISBNKey, userKey) == null) {
+                schedule(ISBNKey, userKey, dueDate);
+            }
+        } else if (event.getType() == LibraryEvent.Type.BOOK_RETURNED) {
+            // The returning user is not always known, so drop every timer of the book whose loan is closed.
+            long ISBNKey = ISBNCodec.pack(event.getISBN());
+            for (LoanTimer timer = timers.get(ISBNKey); timer != null; timer = timer.next) {
+                if (!isOpen(timer)) {
+                    wheel.cancel(timer.timeout);
+                    remove(timer);
+                }
+            }
+        }
+    }
+
+    // Schedules the reminder of a loan, or its due date if the reminder is past.
+    private void schedule(long ISBNKey, long userKey, long dueDate) {
+        LoanTimer timer = new LoanTimer(ISBNKey, userKey, dueDate);
+        long reminderDate = dueDate - reminderLeadMillis;
+        timer.reminded = reminderLeadMillis == 0 || reminderDate <= lastAdvance;
+        timer.timeout = wheel.schedule(timer.reminded ? dueDate : Math.max(0, reminderDate), timer);
+        timer.next = timers.get(ISBNKey);
+        timers.put(ISBNKey, timer);
+    }
+
+    // Handles an expired timeout. The caller holds the lock.
+    private void fire(LoanTimer timer, long now, List<Notice> notices) {
+        if (!isOpen(timer)) {
+            remove(timer);
+        } else if (!timer.reminded && timer.dueDate > now) {
+            notices.add(new Notice(timer, false));
+            timer.reminded = true;
+            timer.timeout = wheel.schedule(timer.dueDate, timer);
+        } else {
+            notices.add(new Notice(timer, true));
+            remove(timer);
+        }
+    }
+
+    // Whether the loan of a timer is still in the ledger with the same due date.
+    private boolean isOpen(LoanTimer timer) {
+        return loanLedger.getDueDate(timer.ISBNKey, timer.userKey) == timer.dueDate;
+    }
+
+    private LoanTimer find(long ISBNKey, long userKey) {
+        for (LoanTimer timer = timers.get(ISBNKey); timer != null; timer = timer.next) {
+            if (timer.userKey == userKey) {
+                return timer;
+            }
+        }
+        return null;
+    }
+
+    private void remove(LoanTimer timer) {
+        LoanTimer first = timers.get(timer.ISBNKey);
+        if (first == timer) {
+            if (timer.next == null) {
+                timers.remove(timer.ISBNKey);
+            } else {
+                timers.put(timer.ISBNKey, timer.next);
+            }
+            return;
+        }
+        for (LoanTimer previous = first; previous != null; previous = previous.next) {
+            if (previous.next == timer) {
+                previous.next = timer.next;
+                return;
+            }
+        }
+    }
+
+    // Sends one notification per user listing all of their notices, and publishes every notice.
+    private void deliver(List<Notice> notices) {
+        Map<Long, List<Notice>> byUser = new LinkedHashMap<>();
+        Set<String> ISBNs = new LinkedHashSet<>();
+        for (Notice notice : notices) {
+            byUser.computeIfAbsent(notice.userKey, key -> new ArrayList<>()).add(notice);
+            ISBNs.add(notice.ISBN);
+            if (notice.overdue) {
+                overdueNotices.incrementAndGet();
+            } else {
+                reminders.incrementAndGet();
+            }
+            eventBus.publish(notice.overdue ? LibraryEvent.Type.LOAN_OVERDUE : LibraryEvent.Type.LOAN_DUE_SOON,
+                    notice.ISBN, notice.userId);
+        }
+
+        // Fetch the titles of all the books at once.
+        Map<String, Book> books = databaseService.getBooksByISBN(ISBNs);
+        for (List<Notice> userNotices : byUser.values()) {
+            User user = databaseService.getUserById(userNotices.get(0).userId);
+            if (user == null) {
+                failedDeliveries.incrementAndGet();
+                continue;
+            }
+            String message = message(userNotices, books);
+            if (notificationDispatcher != null) {
+                notificationDispatcher.dispatch(user, message).whenComplete((sent, e) -> {
+                    if (e != null) {
+                        failedDeliveries.incrementAndGet();
+                    }
+                });
+            } else {
+                try {
+                    user.sendNotification(message);
+                } catch (NotificationException e) {
+                    failedDeliveries.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static String message(List<Notice> notices, Map<String, Book> books) {
+        StringBuilder message = new StringBuilder("Loans of your library:");
+        for (Notice notice : notices) {
+            Book book = books.get(notice.ISBN);
+            String date = DATE_FORMAT.format(Instant.ofEpochMilli(notice.dueDate));
+            message.append("\n'").append(book == null ? notice.ISBN : book.getTitle()).append("' ")
+                    .append(notice.overdue ? "is overdue since " : "is due on ").append(date).append('.');
+        }
+        return message.toString();
+    }
+
+    // The scheduled reminder or due date of one loan.
+    private static final class LoanTimer {
+        final long ISBNKey;
+        final long userKey;
+        final long dueDate;
+        // Whether the reminder was sent or skipped, so the timeout is for the due date.
+        boolean reminded;
+        TimingWheel.Timeout<LoanTimer> timeout;
+        // The next timer of the same book.
+        LoanTimer next;
+
+        LoanTimer(long ISBNKey, long userKey, long dueDate) {
+            this.ISBNKey = ISBNKey;
+            this.userKey = userKey;
+            this.dueDate = dueDate;
+        }
+    }
+
+    // A reminder or overdue notice waiting to be delivered.
+    private static final class Notice {
+        final String ISBN;
+        final String userId;
+        final long userKey;
+        final long dueDate;
+        final boolean overdue;
+
+        Notice(LoanTimer timer, boolean overdue) {
+            this.ISBN = ISBNCodec.toString(timer.ISBNKey);
+            this.userId = UserIdCodec.toString(timer.userKey);
+            this.userKey = timer.userKey;
+            this.dueDate = timer.dueDate;
+            this.overdue = overdue;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.services.NotificationService;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Encodes books and users in a compact, versioned binary format, straight to and from a {@link ByteBuffer}.
+ * <p>
+ * A record is a kind byte, a version byte, the length of the body and the body. Numbers are unsigned
+ * variable-length integers of seven bits per byte, so a packed ISBN takes six or seven bytes and a packed
+ * user Id six. A string is its UTF-8 length plus one, with 0 for null, followed by its bytes.
+ * <ul>
+ *     <li>A book body is its packed ISBN, title, author, number of copies and number of borrowed copies.</li>
+ *     <li>A user body is its packed Id, name and notification channel reference. The reference names the
+ *     user's {@link NotificationService}, which cannot be encoded itself and is resolved again on decoding.</li>
+ * </ul>
+ * The format evolves by appending fields to a body and raising its version, never by changing or removing a
+ * field. A decoder reads the fields it knows and skips the rest of the body, so it reads records of newer
+ * versions; fields missing from records of older versions get defaults.
+ * <p>
+ * Strings are encoded into the buffer character by character, and decoded straight from the backing array
+ * of a heap buffer, so no intermediate byte arrays are made for them.
+ */
+public final class RecordCodec {
+
+    // The kinds of records.
+    public static final byte BOOK = 1;
+    public static final byte USER = 2;
+
+    // The versions this codec writes.
+    private static final byte BOOK_VERSION = 1;
+    private static final byte USER_VERSION = 1;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Computes the exact size of the record of a book.
+     *
+     * @param book The book.
+     * @return The size in bytes.
+     */
+    public static int bookSize(Book book) {
+        return recordSize(bookBodySize(book));
+    }
+
+    /**
+     * Encodes a book at the position of a buffer, and advances the position past it.
+     * The borrowed copies are the copies of the book that are not available.
+     *
+     * @param book   The book. Its ISBN must be valid.
+     * @param buffer The buffer to write to.
+     * @throws BufferOverflowException If the record does not fit the buffer. The buffer is unchanged.
+     */
+    public static void encodeBook(Book book, ByteBuffer buffer) {
+        long key = ISBNCodec.pack(book.getISBN());
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        int bodySize = bookBodySize(book);
+        if (buffer.remaining() < recordSize(bodySize)) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(BOOK).put(BOOK_VERSION);
+        putVarLong(buffer, bodySize);
+        putVarLong(buffer, key);
+        putString(buffer, book.getTitle());
+        putString(buffer, book.getAuthor());
+        putVarLong(buffer, book.getCopies());
+        putVarLong(buffer, borrowedCopies(book));
+    }
+
+    /**
+     * Decodes a book at the position of a buffer, and advances the position past its record.
+     * The book is built with as many copies borrowed as were encoded.
+     *
+     * @param buffer The buffer to read from.
+     * @return The book.
+     * @throws IllegalArgumentException If the buffer does not hold a whole book record at its position.
+     */
+    public static Book decodeBook(ByteBuffer buffer) {
+        int end = beginRecord(buffer, BOOK);
+        String ISBN = ISBNCodec.toString(getVarLong(buffer, end));
+        String title = getString(buffer, end);
+        String author = getString(buffer, end);
+        int copies = (int) getVarLong(buffer, end);
+        long borrowedCopies = getVarLong(buffer, end);
+        if (copies < 1 || borrowedCopies > copies) {
+            throw new IllegalArgumentException("Invalid record.");
+        }
+        // Skip the fields of newer versions.
+        buffer.position(end);
+
+        Book book = new Book(ISBN, title, author, copies);
+        for (long i = 0; i < borrowedCopies; i++) {
+            book.tryBorrow();
+        }
+        return book;
+    }
+
+    /**
+     * Computes the exact size of the record of a user.
+     *
+     * @param user    The user.
+     * @param channel The reference of the user's notification channel, or null.
+     * @return The size in bytes.
+     */
+    public static int userSize(User user, String channel) {
+        return recordSize(userBodySize(user, channel));
+    }
+
+    /**
+     * Encodes a user at the position of a buffer, and advances the position past it.
+     *
+     * @param user    The user. Its Id must be valid.
+     * @param channel The reference of the user's notification channel, or null.
+     * @param buffer  The buffer to write to.
+     * @throws BufferOverflowException If the record does not fit the buffer. The buffer is unchanged.
+     */
+    public static void encodeUser(User user, String channel, ByteBuffer buffer) {
+        long key = UserIdCodec.pack(user.getId());
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        int bodySize = userBodySize(user, channel);
+        if (buffer.remaining() < recordSize(bodySize)) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(USER).put(USER_VERSION);
+        putVarLong(buffer, bodySize);
+        putVarLong(buffer, key);
+        putString(buffer, user.getName());
+        putString(buffer, channel);
+    }
+
+    /**
+     * Decodes a user at the position of a buffer, and advances the position past its record.
+     *
+     * @param buffer   The buffer to read from.
+     * @param channels Gives the notification service of a channel reference. It is not called for null.
+     * @return The user.
+     * @throws IllegalArgumentException If the buffer does not hold a whole user record at its position.
+     */
+    public static User decodeUser(ByteBuffer buffer, Function<String, NotificationService> channels) {
+        int end = beginRecord(buffer, USER);
+        String id = UserIdCodec.toString(getVarLong(buffer, end));
+        String name = getString(buffer, end);
+        String channel = getString(buffer, end);
+        // Skip the fields of newer versions.
+        buffer.position(end);
+        return new User(name, id, channel == null ? null : channels.apply(channel));
+    }
+
+    /**
+     * Reads the kind of the record at the position of a buffer, without moving the position.
+     *
+     * @param buffer The buffer to read from.
+     * @return {@link #BOOK}, {@link #USER}, or another value for an unknown kind.
+     */
+    public static byte kind(ByteBuffer buffer) {
+        return buffer.get(buffer.position());
+    }
+
+    private static int bookBodySize(Book book) {
+        long key = ISBNCodec.pack(book.getISBN());
+        return varLongSize(Math.max(0, key)) + stringSize(book.getTitle()) + stringSize(book.getAuthor())
+                + varLongSize(book.getCopies()) + varLongSize(borrowedCopies(book));
+    }
+
+    private static int userBodySize(User user, String channel) {
+        long key = UserIdCodec.pack(user.getId());
+        return varLongSize(Math.max(0, key)) + stringSize(user.getName()) + stringSize(channel);
+    }
+
+    private static int borrowedCopies(Book book) {
+        return Math.max(0, book.getCopies() - book.getAvailableCopies());
+    }
+
+    private static int recordSize(int bodySize) {
+        return 2 + varLongSize(bodySize) + bodySize;
+    }
+
+    // Checks the kind and version of a record and returns the position its body ends at.
+    private static int beginRecord(ByteBuffer buffer, byte kind) {
+        if (buffer.remaining() < 3 || buffer.get() != kind || buffer.get() < 1) {
+            throw new IllegalArgumentException("Invalid record.");
+        }
+        long bodySize = getVarLong(buffer, buffer.limit());
+        if (bodySize > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid record.");
+        }
+        return buffer.position() + (int) bodySize;
+    }
+
+    private static int varLongSize(long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Reads a variable-length integer that must end before a position.
+    private static long getVarLong(ByteBuffer buffer, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            if (buffer.position() >= end) {
+                break;
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid record.");
+    }
+
+    private static int stringSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varLongSize(length + 1L) + length;
+    }
+
+    // The length of the UTF-8 encoding of a string, with unpaired surrogates encoded as '?'.
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        putVarLong(buffer, utf8Length(value) + 1L);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // Reads a string that must end before a position, from the backing array when the buffer has one.
+    private static String getString(ByteBuffer buffer, int end) {
+        long length = getVarLong(buffer, end) - 1;
+        if (length < 0) {
+            return null;
+        } else if (length > end - buffer.position()) {
+            throw new IllegalArgumentException("Invalid record.");
+        }
+        int position = buffer.position();
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + position, (int) length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[(int) length];
+            buffer.get(position, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(position + (int) length);
+        return value;
+    }
+}
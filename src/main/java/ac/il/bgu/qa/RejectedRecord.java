@@ -0,0 +1,59 @@
+package ac.il.bgu.qa;
+
+/**
+ * Represents a catalog record that was rejected during an import.
+ */
+public class RejectedRecord {
+
+    // The 1-based line number of the record in the catalog file.
+    private final long lineNumber;
+    // The record as it appeared in the catalog file.
+    private final String line;
+    // The reason the record was rejected, using the same messages as Library.addBook.
+    private final String reason;
+
+    /**
+     * Constructs a new RejectedRecord object.
+     *
+     * @param lineNumber The 1-based line number of the record in the catalog file.
+     * @param line       The record as it appeared in the catalog file.
+     * @param reason     The reason the record was rejected.
+     */
+    public RejectedRecord(long lineNumber, String line, String reason) {
+        this.lineNumber = lineNumber;
+        this.line = line;
+        this.reason = reason;
+    }
+
+    /**
+     * Retrieves the line number of the record.
+     *
+     * @return The 1-based line number of the record in the catalog file.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Retrieves the record as it appeared in the catalog file.
+     *
+     * @return The raw line of the record.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Retrieves the reason the record was rejected.
+     *
+     * @return The validation message, such as "Invalid ISBN." or "Book already exists.".
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + lineNumber + ": " + reason + " " + line;
+    }
+}
@@ -0,0 +1,56 @@
+package ac.il.bgu.qa;
+
+import java.util.Iterator;
+
+/**
+ * Builds the bounded notification message with the reviews of a book.
+ * Reviews are read one at a time and only until the digest is full, so a book with many reviews costs no more
+ * than one with a digest's worth of them.
+ */
+final class ReviewDigest {
+
+    // Default maximum number of reviews in a digest.
+    static final int MAX_REVIEWS = 20;
+    // Default maximum length of a digest, in characters, not counting its heading and closing line.
+    static final int MAX_LENGTH = 4000;
+
+    // The line that ends a digest that left reviews out.
+    static final String MORE_REVIEWS = "(more reviews not shown)";
+
+    private ReviewDigest() {
+    }
+
+    /**
+     * Builds the notification message with the first reviews of a book: its title, then one review per line.
+     * If reviews are left out, the message ends with a line saying so. A single review longer than the maximum
+     * length is cut short.
+     *
+     * @param title   The title of the book.
+     * @param reviews The reviews of the book.
+     * @return The message, or null if the book has no reviews.
+     */
+    static String of(String title, Iterator<String> reviews) {
+        if (!reviews.hasNext()) {
+            return null;
+        }
+        StringBuilder message = new StringBuilder("Reviews for '").append(title).append("':");
+        int length = 0;
+        int count = 0;
+        while (reviews.hasNext()) {
+            if (count == MAX_REVIEWS) {
+                return message.append('\n').append(MORE_REVIEWS).toString();
+            }
+            String review = String.valueOf(reviews.next());
+            if (count > 0 && length + 1 + review.length() > MAX_LENGTH) {
+                return message.append('\n').append(MORE_REVIEWS).toString();
+            }
+            if (review.length() > MAX_LENGTH) {
+                review = review.substring(0, MAX_LENGTH - 1) + "\u2026";
+            }
+            message.append('\n').append(review);
+            length += 1 + review.length();
+            count++;
+        }
+        return message.toString();
+    }
+}
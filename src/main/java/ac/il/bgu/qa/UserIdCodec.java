@@ -0,0 +1,69 @@
+package ac.il.bgu.qa;
+
+/**
+ * Validates and packs 12 digit user Ids.
+ * A packed user Id is its 12 digits read as one decimal number, so it always fits in a primitive long.
+ * All checks run in a single pass over the input and allocate nothing.
+ */
+public final class UserIdCodec {
+
+    // Returned by pack() when the input is not a valid user Id. Packed keys are never negative.
+    public static final long INVALID = -1L;
+
+    // Number of digits in a user Id.
+    public static final int LENGTH = 12;
+
+    private UserIdCodec() {
+    }
+
+    /**
+     * Validates a user Id and packs its digits into a long.
+     *
+     * @param userId The Id of the user.
+     * @return The packed user Id, or {@link #INVALID} if the input is not exactly 12 digits.
+     */
+    public static long pack(CharSequence userId) {
+        // The Id must be exactly 12 characters long.
+        if (userId == null || userId.length() != LENGTH) {
+            return INVALID;
+        }
+
+        long key = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = userId.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    /**
+     * Validates the user Id's format (should be a 12-digit number).
+     *
+     * @param userId The Id of the user.
+     * @return true if valid, false otherwise.
+     */
+    public static boolean isValid(CharSequence userId) {
+        return pack(userId) != INVALID;
+    }
+
+    /**
+     * Formats a packed user Id as its 12 digit string.
+     *
+     * @param key A packed user Id as returned by {@link #pack(CharSequence)}.
+     * @return The 12 digit string of the user Id.
+     */
+    public static String toString(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid user Id key.");
+        }
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,89 @@
+package ac.il.bgu.qa.errors;
+
+/**
+ * Creates the exceptions a library throws for expected failures, such as a book that is already borrowed.
+ * <p>
+ * These failures are routine, so filling in a stack trace for each of them is wasted work.
+ * In stackless mode every method returns one preallocated exception without a stack trace instead of a new one.
+ * The shared exceptions cannot be changed: they keep no stack trace, no suppressed exceptions and no cause.
+ * <p>
+ * Stackless mode is off by default. It is switched on by the system property {@value #STACKLESS_PROPERTY}
+ * or by {@link #setStackless(boolean)}.
+ */
+public final class LibraryErrors {
+
+    /**
+     * The system property that switches stackless mode on when set to {@code true}.
+     */
+    public static final String STACKLESS_PROPERTY = "ac.il.bgu.qa.stacklessErrors";
+
+    private static final BookNotFoundException BOOK_NOT_FOUND =
+            new BookNotFoundException("Book not found!", false);
+    private static final UserNotRegisteredException USER_NOT_REGISTERED =
+            new UserNotRegisteredException("User not found!", false);
+    private static final BookAlreadyBorrowedException BOOK_ALREADY_BORROWED =
+            new BookAlreadyBorrowedException("Book is already borrowed!", false);
+    private static final BookAlreadyBorrowedException BOOK_WAS_ALREADY_BORROWED =
+            new BookAlreadyBorrowedException("Book was already borrowed!", false);
+    private static final BookNotBorrowedException BOOK_NOT_BORROWED =
+            new BookNotBorrowedException("Book wasn't borrowed!", false);
+
+    // Whether the shared exceptions are returned.
+    private static volatile boolean stackless = Boolean.getBoolean(STACKLESS_PROPERTY);
+
+    private LibraryErrors() {
+    }
+
+    /**
+     * Switches stackless mode on or off.
+     *
+     * @param enabled Whether expected failures are thrown without a stack trace.
+     */
+    public static void setStackless(boolean enabled) {
+        stackless = enabled;
+    }
+
+    /**
+     * Checks whether stackless mode is on.
+     *
+     * @return true if expected failures are thrown without a stack trace, false otherwise.
+     */
+    public static boolean isStackless() {
+        return stackless;
+    }
+
+    /**
+     * @return The exception for a book that is not in the database.
+     */
+    public static BookNotFoundException bookNotFound() {
+        return stackless ? BOOK_NOT_FOUND : new BookNotFoundException("Book not found!");
+    }
+
+    /**
+     * @return The exception for a user that is not registered.
+     */
+    public static UserNotRegisteredException userNotRegistered() {
+        return stackless ? USER_NOT_REGISTERED : new UserNotRegisteredException("User not found!");
+    }
+
+    /**
+     * @return The exception for borrowing a book that is already borrowed.
+     */
+    public static BookAlreadyBorrowedException bookAlreadyBorrowed() {
+        return stackless ? BOOK_ALREADY_BORROWED : new BookAlreadyBorrowedException("Book is already borrowed!");
+    }
+
+    /**
+     * @return The exception for fetching a book that was already borrowed.
+     */
+    public static BookAlreadyBorrowedException bookWasAlreadyBorrowed() {
+        return stackless ? BOOK_WAS_ALREADY_BORROWED : new BookAlreadyBorrowedException("Book was already borrowed!");
+    }
+
+    /**
+     * @return The exception for returning a book that is not borrowed.
+     */
+    public static BookNotBorrowedException bookNotBorrowed() {
+        return stackless ? BOOK_NOT_BORROWED : new BookNotBorrowedException("Book wasn't borrowed!");
+    }
+}
@@ -14,4 +14,15 @@ public class UserNotRegisteredException extends RuntimeException {
     public UserNotRegisteredException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new UserNotRegisteredException with the specified detail message, optionally without a stack trace.
+     * An exception without a stack trace is cheap to create and can be shared, see {@link LibraryErrors}.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace is captured.
+     */
+    public UserNotRegisteredException(String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace, writableStackTrace);
+    }
 }
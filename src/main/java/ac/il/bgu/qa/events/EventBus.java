@@ -0,0 +1,102 @@
+package ac.il.bgu.qa.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An in-process stream of {@link LibraryEvent}s held in a bounded ring buffer.
+ * <p>
+ * Publishing claims the next sequence number and writes the event into its slot; it takes no lock and never waits,
+ * so a slow subscriber cannot hold up the library. Every subscriber reads at its own cursor, in batches of the
+ * size it chooses. A subscriber that falls more than the capacity of the ring behind loses the overwritten events:
+ * it skips ahead to the oldest event still in the ring and counts what it missed.
+ */
+public class EventBus {
+
+    // The events by sequence number modulo the capacity.
+    private final AtomicReferenceArray<LibraryEvent> slots;
+    private final int mask;
+    // The next sequence number to be claimed.
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Constructs a new EventBus.
+     *
+     * @param capacity The number of events kept for subscribers, rounded up to a power of two.
+     */
+    public EventBus(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes an event.
+     *
+     * @param type   The kind of change.
+     * @param ISBN   The ISBN of the book that changed, or null.
+     * @param userId The Id of the user involved, or null.
+     * @return The published event.
+     */
+    public LibraryEvent publish(LibraryEvent.Type type, String ISBN, String userId) {
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid event type.");
+        }
+        long sequence = next.getAndIncrement();
+        LibraryEvent event = new LibraryEvent(sequence, System.currentTimeMillis(), type, ISBN, userId);
+        slots.set((int) sequence & mask, event);
+        return event;
+    }
+
+    /**
+     * Subscribes to the events published from now on.
+     *
+     * @return A subscription with its own cursor.
+     */
+    public EventSubscription subscribe() {
+        return new EventSubscription(this, next.get());
+    }
+
+    /**
+     * Subscribes to the oldest events still in the ring and everything published after them.
+     *
+     * @return A subscription with its own cursor.
+     */
+    public EventSubscription subscribeFromOldest() {
+        return new EventSubscription(this, Math.max(0, next.get() - capacity()));
+    }
+
+    /**
+     * Retrieves the number of events kept for subscribers.
+     *
+     * @return The capacity of the ring.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Retrieves the number of events published so far.
+     *
+     * @return The number of events, which is also the sequence number of the next one.
+     */
+    public long getPublishedCount() {
+        return next.get();
+    }
+
+    // The event in the slot of a sequence number; it may be an older or a newer one, or null.
+    LibraryEvent slot(long sequence) {
+        return slots.get((int) sequence & mask);
+    }
+
+    // The sequence number of the next event to be claimed.
+    long claimed() {
+        return next.get();
+    }
+}
@@ -0,0 +1,113 @@
+package ac.il.bgu.qa.events;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A subscriber's cursor into an {@link EventBus}.
+ * Events are delivered in sequence order and in batches bounded by the subscriber, which is its backpressure:
+ * it takes only as many events as it can handle at a time, and the bus keeps the rest until its ring wraps.
+ * <p>
+ * A subscription is meant to be read by a single thread.
+ */
+public class EventSubscription {
+
+    // The longest pause between checks while waiting for events, in nanoseconds.
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final EventBus bus;
+    // The sequence number of the next event to read.
+    private long cursor;
+    // The number of events overwritten before they were read.
+    private long dropped;
+
+    EventSubscription(EventBus bus, long cursor) {
+        this.bus = bus;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Reads the next events that are available, without waiting.
+     *
+     * @param maxEvents The maximum number of events to read.
+     * @param handler   Receives every event, in sequence order.
+     * @return The number of events read.
+     */
+    public int poll(int maxEvents, Consumer<? super LibraryEvent> handler) {
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("Invalid batch size.");
+        }
+        int read = 0;
+        while (read < maxEvents) {
+            LibraryEvent event = bus.slot(cursor);
+            if (event == null || event.getSequence() < cursor) {
+                // Not published yet. A later event may already be, but events are delivered in order.
+                break;
+            }
+            if (event.getSequence() > cursor) {
+                // The ring wrapped past the cursor: skip to the oldest event that can still be read.
+                long oldest = bus.claimed() - bus.capacity();
+                dropped += oldest - cursor;
+                cursor = oldest;
+                continue;
+            }
+            cursor++;
+            read++;
+            handler.accept(event);
+        }
+        return read;
+    }
+
+    /**
+     * Reads the next events that are available, without waiting.
+     *
+     * @param maxEvents The maximum number of events to read.
+     * @return The events read, in sequence order.
+     */
+    public List<LibraryEvent> poll(int maxEvents) {
+        List<LibraryEvent> events = new ArrayList<>();
+        poll(maxEvents, events::add);
+        return events;
+    }
+
+    /**
+     * Reads the next events, waiting up to a timeout for the first one.
+     *
+     * @param maxEvents The maximum number of events to read.
+     * @param timeout   How long to wait for an event.
+     * @return The events read, in sequence order; empty if none was published in time.
+     */
+    public List<LibraryEvent> poll(int maxEvents, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long park = 1_000;
+        List<LibraryEvent> events = poll(maxEvents);
+        while (events.isEmpty() && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(Math.min(park, Math.max(1, deadline - System.nanoTime())));
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+            events = poll(maxEvents);
+        }
+        return events;
+    }
+
+    /**
+     * Retrieves the number of events published but not yet read by this subscriber.
+     *
+     * @return The number of pending events.
+     */
+    public long getLag() {
+        return Math.max(0, bus.claimed() - cursor);
+    }
+
+    /**
+     * Retrieves the number of events this subscriber missed because the ring wrapped past it.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
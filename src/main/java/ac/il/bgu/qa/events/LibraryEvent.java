@@ -0,0 +1,90 @@
+package ac.il.bgu.qa.events;
+
+/**
+ * An immutable record of a change made by a {@link ac.il.bgu.qa.Library}, or of a loan coming due.
+ */
+public final class LibraryEvent {
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Type {
+        // A book was added to the catalog.
+        BOOK_ADDED,
+        // A user was registered.
+        USER_REGISTERED,
+        // A book was borrowed by a user.
+        BOOK_BORROWED,
+        // A book was returned.
+        BOOK_RETURNED,
+        // A loan will soon be due, published by an ac.il.bgu.qa.OverdueScheduler.
+        LOAN_DUE_SOON,
+        // A loan is past its due date, published by an ac.il.bgu.qa.OverdueScheduler.
+        LOAN_OVERDUE
+    }
+
+    private final long sequence;
+    private final long timestamp;
+    private final Type type;
+    private final String ISBN;
+    private final String userId;
+
+    LibraryEvent(long sequence, long timestamp, Type type, String ISBN, String userId) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.ISBN = ISBN;
+        this.userId = userId;
+    }
+
+    /**
+     * Retrieves the position of the event in the stream. Every event has the next sequence number of its bus.
+     *
+     * @return The sequence number, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Retrieves the time the event was published.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Retrieves the kind of change.
+     *
+     * @return The type of the event.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the ISBN of the book that changed.
+     *
+     * @return The ISBN, or null for {@link Type#USER_REGISTERED}.
+     */
+    public String getISBN() {
+        return ISBN;
+    }
+
+    /**
+     * Retrieves the Id of the user involved.
+     *
+     * @return The user Id, or null for {@link Type#BOOK_ADDED}, and for {@link Type#BOOK_RETURNED} when the
+     * borrower is not known.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + (ISBN == null ? "" : " " + ISBN) + (userId == null ? "" : " " + userId);
+    }
+}
@@ -0,0 +1,86 @@
+package ac.il.bgu.qa.metrics;
+
+/**
+ * An immutable snapshot of a {@link LatencyHistogram}.
+ * All latencies are in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+    // The number of latencies in every bucket.
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    HistogramSnapshot(long[] counts, long totalNanos, long maxNanos) {
+        long count = 0;
+        for (long bucket : counts) {
+            count += bucket;
+        }
+        this.counts = counts;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Retrieves the number of recorded latencies.
+     *
+     * @return The number of latencies.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Retrieves the mean latency.
+     *
+     * @return The mean latency, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Retrieves the highest recorded latency.
+     *
+     * @return The highest latency, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return maxNanos;
+    }
+
+    /**
+     * Retrieves a percentile of the recorded latencies.
+     * The result is the upper bound of the bucket the percentile falls into, but never above the highest latency.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency below or at which the given percentage of latencies fall, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100 || Double.isNaN(percentile)) {
+            throw new IllegalArgumentException("Invalid percentile.");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count
+                + " mean=" + Math.round(getMean()) + "ns"
+                + " p50=" + getPercentile(50) + "ns"
+                + " p99=" + getPercentile(99) + "ns"
+                + " max=" + maxNanos + "ns";
+    }
+}
@@ -0,0 +1,86 @@
+package ac.il.bgu.qa.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds.
+ * Latencies are counted in log-linear buckets: every power of two is split into 16 buckets of equal width,
+ * so every recorded latency is known to within about 6%, from one nanosecond up to over an hour.
+ * <p>
+ * Recording allocates nothing and takes no lock, so it can stay on in production.
+ * Latencies above the largest bucket are counted in the largest bucket.
+ */
+public class LatencyHistogram {
+
+    // Every power of two is split into 2^SUB_BUCKET_BITS buckets.
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // The highest power of two that has buckets of its own: 2^42 nanoseconds is over an hour.
+    static final int MAX_EXPONENT = 42;
+    // The highest latency that has a bucket of its own.
+    static final long MAX_TRACKED = (1L << (MAX_EXPONENT + 1)) - 1;
+    // The number of buckets.
+    static final int BUCKETS = index(MAX_TRACKED) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds. Negative latencies, as from a clock going back, count as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the latencies recorded so far.
+     * Latencies recorded while the snapshot is taken may or may not be part of it.
+     *
+     * @return The snapshot.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy, totalNanos.sum(), maxNanos.get());
+    }
+
+    // The bucket of a latency. Latencies below SUB_BUCKETS have a bucket each.
+    static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        nanos = Math.min(nanos, MAX_TRACKED);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The lowest latency counted in a bucket.
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    // The highest latency counted in a bucket.
+    static long highestValue(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+    }
+}
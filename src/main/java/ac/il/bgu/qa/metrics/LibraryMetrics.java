@@ -0,0 +1,111 @@
+package ac.il.bgu.qa.metrics;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a {@link ac.il.bgu.qa.Library}: the latency of every {@link LibraryOperation},
+ * the number of exceptions of every type it threw and the number of notification retries.
+ * <p>
+ * Recording allocates nothing once every exception type has been seen, and takes no lock,
+ * so the metrics are cheap enough to stay on in production.
+ */
+public class LibraryMetrics {
+
+    private static final LibraryOperation[] OPERATIONS = LibraryOperation.values();
+
+    // One histogram per operation, indexed by ordinal.
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final ConcurrentHashMap<Class<? extends Throwable>, LongAdder> exceptionCounts = new ConcurrentHashMap<>();
+    private final LongAdder notificationRetries = new LongAdder();
+
+    /**
+     * Constructs new empty metrics.
+     */
+    public LibraryMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return The start time, to be passed to {@link #record(LibraryOperation, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latency of an operation that started at a given time.
+     *
+     * @param operation The operation.
+     * @param start     The start time returned by {@link #start()}.
+     */
+    public void record(LibraryOperation operation, long start) {
+        latencies[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the latency of a stage that started at a given time, and starts timing the next stage.
+     *
+     * @param operation The stage that ended.
+     * @param start     The start time of the stage.
+     * @return The start time of the next stage.
+     */
+    public long lap(LibraryOperation operation, long start) {
+        long now = System.nanoTime();
+        latencies[operation.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Counts a thrown exception by its type.
+     *
+     * @param exception The exception.
+     */
+    public void recordException(Throwable exception) {
+        Class<? extends Throwable> type = exception.getClass();
+        LongAdder count = exceptionCounts.get(type);
+        if (count == null) {
+            count = exceptionCounts.computeIfAbsent(type, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Counts a failed notification attempt that is retried.
+     */
+    public void recordNotificationRetry() {
+        notificationRetries.increment();
+    }
+
+    /**
+     * Takes a snapshot of the metrics.
+     * Values recorded while the snapshot is taken may or may not be part of it.
+     *
+     * @return The snapshot.
+     */
+    public MetricsSnapshot snapshot() {
+        EnumMap<LibraryOperation, HistogramSnapshot> latencies = new EnumMap<>(LibraryOperation.class);
+        for (LibraryOperation operation : OPERATIONS) {
+            latencies.put(operation, this.latencies[operation.ordinal()].snapshot());
+        }
+        Map<Class<? extends Throwable>, Long> exceptionCounts = new HashMap<>();
+        this.exceptionCounts.forEach((type, count) -> exceptionCounts.put(type, count.sum()));
+        return new MetricsSnapshot(latencies, exceptionCounts, notificationRetries.sum());
+    }
+
+    /**
+     * Takes a snapshot of the metrics and passes it to a reporter.
+     *
+     * @param reporter The reporter.
+     */
+    public void report(MetricsReporter reporter) {
+        reporter.report(snapshot());
+    }
+}
@@ -0,0 +1,26 @@
+package ac.il.bgu.qa.metrics;
+
+/**
+ * The operations of a {@link ac.il.bgu.qa.Library} whose latency is measured.
+ * Besides the public methods themselves, the stages of a review notification are measured on their own,
+ * so a slow call can be attributed to the part of it that is slow.
+ */
+public enum LibraryOperation {
+    ADD_BOOK,
+    REGISTER_USER,
+    BORROW_BOOK,
+    RETURN_BOOK,
+    BORROW_BOOKS,
+    RETURN_BOOKS,
+    NOTIFY_USER_WITH_BOOK_REVIEWS,
+    GET_BOOK_BY_ISBN,
+    SEARCH,
+    // Validating the ISBN and the user Id of a request.
+    VALIDATION,
+    // Looking up the book and the user in the database.
+    DATABASE_LOOKUP,
+    // Fetching the reviews of a book, including closing the review service.
+    REVIEW_FETCH,
+    // Sending a notification, including every retry.
+    NOTIFICATION
+}
@@ -0,0 +1,27 @@
+package ac.il.bgu.qa.metrics;
+
+import java.io.PrintStream;
+
+/**
+ * Receives snapshots of the metrics of a library, to log them or to export them to a monitoring system.
+ */
+@FunctionalInterface
+public interface MetricsReporter {
+
+    /**
+     * Reports a snapshot of the metrics.
+     *
+     * @param snapshot The snapshot.
+     */
+    void report(MetricsSnapshot snapshot);
+
+    /**
+     * Creates a reporter that prints every snapshot to a stream.
+     *
+     * @param out The stream to print to.
+     * @return The reporter.
+     */
+    static MetricsReporter printingTo(PrintStream out) {
+        return snapshot -> out.println(snapshot);
+    }
+}
@@ -0,0 +1,75 @@
+package ac.il.bgu.qa.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of {@link LibraryMetrics}.
+ */
+public class MetricsSnapshot {
+
+    private final Map<LibraryOperation, HistogramSnapshot> latencies;
+    private final Map<Class<? extends Throwable>, Long> exceptionCounts;
+    private final long notificationRetries;
+
+    MetricsSnapshot(EnumMap<LibraryOperation, HistogramSnapshot> latencies,
+                    Map<Class<? extends Throwable>, Long> exceptionCounts, long notificationRetries) {
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.exceptionCounts = Collections.unmodifiableMap(exceptionCounts);
+        this.notificationRetries = notificationRetries;
+    }
+
+    /**
+     * Retrieves the latencies of an operation.
+     *
+     * @param operation The operation.
+     * @return The latencies of the operation.
+     */
+    public HistogramSnapshot getLatency(LibraryOperation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * Retrieves the number of times an exception of a type was thrown.
+     * Only the exact type is counted, not its subclasses.
+     *
+     * @param type The type of the exception.
+     * @return The number of times it was thrown.
+     */
+    public long getExceptionCount(Class<? extends Throwable> type) {
+        return exceptionCounts.getOrDefault(type, 0L);
+    }
+
+    /**
+     * Retrieves the number of times each type of exception was thrown. Types never thrown are missing.
+     *
+     * @return The number of times each type was thrown.
+     */
+    public Map<Class<? extends Throwable>, Long> getExceptionCounts() {
+        return exceptionCounts;
+    }
+
+    /**
+     * Retrieves the number of notification attempts that failed and were retried.
+     *
+     * @return The number of retries.
+     */
+    public long getNotificationRetries() {
+        return notificationRetries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<LibraryOperation, HistogramSnapshot> latency : latencies.entrySet()) {
+            if (latency.getValue().getCount() > 0) {
+                text.append(latency.getKey()).append(": ").append(latency.getValue()).append('\n');
+            }
+        }
+        for (Map.Entry<Class<? extends Throwable>, Long> exception : exceptionCounts.entrySet()) {
+            text.append(exception.getKey().getSimpleName()).append(": ").append(exception.getValue()).append('\n');
+        }
+        return text.append("notification retries: ").append(notificationRetries).toString();
+    }
+}
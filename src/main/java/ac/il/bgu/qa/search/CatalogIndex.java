@@ -0,0 +1,307 @@
+package ac.il.bgu.qa.search;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.util.LongLongHashMap;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An inverted index over the titles and authors of the books in a catalog.
+ * <p>
+ * Titles and authors are split into words and normalized: letters are lower-cased, accents are dropped,
+ * and apostrophes and dots inside a word are removed, so "O'Brien" and "obrien" are the same word.
+ * Every word has a {@link PostingsList} of the books containing it, and the words are kept sorted,
+ * so a word prefix finds all the words starting with it in one range lookup.
+ * <p>
+ * A query matches the books that contain every word of the query, where the last word may be incomplete,
+ * as while typing. Matches in the title rank above matches in the author, and equally good matches
+ * keep the order the books were added in.
+ * <p>
+ * Books are added incrementally. Any number of searches run concurrently; additions are serialized.
+ */
+public class CatalogIndex {
+
+    // Score of a query word found in the title or in the author of a book. Each query word scores both at most once.
+    private static final long TITLE_MATCH = 2;
+    private static final long AUTHOR_MATCH = 1;
+
+    // Postings by normalized word, for each field.
+    private final TreeMap<String, PostingsList> titleWords = new TreeMap<>();
+    private final TreeMap<String, PostingsList> authorWords = new TreeMap<>();
+    // Indexed books by document number.
+    private Book[] documents = new Book[16];
+    private int size;
+    // Document number by packed ISBN, so a book is indexed once.
+    private final LongLongHashMap documentsByISBN = new LongLongHashMap();
+    // Guards everything above.
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Adds a book to the index.
+     *
+     * @param book The book to be indexed.
+     * @return true if the book was added, false if a book with the same ISBN is already indexed.
+     */
+    public boolean add(Book book) {
+        if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        long key = ISBNCodec.pack(book.getISBN());
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        List<String> title = tokenize(book.getTitle());
+        List<String> author = tokenize(book.getAuthor());
+
+        long stamp = lock.writeLock();
+        try {
+            if (documentsByISBN.putIfAbsent(key, size) != LongLongHashMap.NO_VALUE) {
+                return false;
+            }
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            int document = size++;
+            documents[document] = book;
+            for (String word : title) {
+                titleWords.computeIfAbsent(word, w -> new PostingsList()).add(document);
+            }
+            for (String word : author) {
+                authorWords.computeIfAbsent(word, w -> new PostingsList()).add(document);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds several books to the index.
+     *
+     * @param books The books to be indexed.
+     * @return The number of books added. Books with an ISBN that is already indexed are skipped.
+     */
+    public int addAll(Iterable<Book> books) {
+        int added = 0;
+        for (Book book : books) {
+            if (add(book)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Searches the titles and authors of the indexed books.
+     *
+     * @param query    The words to search for. The last word may be a prefix.
+     * @param page     The page of results to return, starting at 0.
+     * @param pageSize The maximum number of results per page.
+     * @return The requested page of the books matching every word of the query, best match first.
+     */
+    public SearchPage search(String query, int page, int pageSize) {
+        if (query == null) {
+            throw new IllegalArgumentException("Invalid query.");
+        } else if (page < 0 || pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page.");
+        }
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return new SearchPage(new ArrayList<>(), page, pageSize, 0);
+        }
+
+        long stamp = lock.readLock();
+        try {
+            // Score every book matching all the words, starting from the first word.
+            LongLongHashMap scores = null;
+            for (int i = 0; i < words.size() && (scores == null || scores.size() > 0); i++) {
+                boolean prefix = i == words.size() - 1;
+                LongLongHashMap matches = match(words.get(i), prefix);
+                scores = scores == null ? matches : intersect(scores, matches);
+            }
+
+            // Keep the best results up to the end of the requested page.
+            long limit = (long) (page + 1) * pageSize;
+            TopScores top = new TopScores((int) Math.min(limit, scores.size()));
+            scores.forEach(top::offer);
+            long[] ranked = top.sorted();
+
+            List<Book> results = new ArrayList<>();
+            for (long i = (long) page * pageSize; i < ranked.length; i++) {
+                results.add(documents[TopScores.document(ranked[(int) i])]);
+            }
+            return new SearchPage(results, page, pageSize, scores.size());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of indexed books.
+     *
+     * @return The number of books.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Scores the books containing a word, or any word starting with it.
+    private LongLongHashMap match(String word, boolean prefix) {
+        LongLongHashMap matches = new LongLongHashMap();
+        collect(titleWords, word, prefix, TITLE_MATCH, matches);
+        collect(authorWords, word, prefix, AUTHOR_MATCH, matches);
+        return matches;
+    }
+
+    private static void collect(TreeMap<String, PostingsList> words, String word, boolean prefix, long score,
+                                LongLongHashMap matches) {
+        NavigableMap<String, PostingsList> range = prefix
+                ? words.subMap(word, true, word + Character.MAX_VALUE, false)
+                : words.subMap(word, true, word, true);
+        for (Map.Entry<String, PostingsList> entry : range.entrySet()) {
+            entry.getValue().forEach(document -> {
+                long current = matches.get(document);
+                // The scores of the two fields are distinct bits, so a book scores each field once per word.
+                matches.put(document, current == LongLongHashMap.NO_VALUE ? score : current | score);
+            });
+        }
+    }
+
+    // Keeps the books found in both maps, summing their scores.
+    private static LongLongHashMap intersect(LongLongHashMap scores, LongLongHashMap matches) {
+        LongLongHashMap smaller = scores.size() <= matches.size() ? scores : matches;
+        LongLongHashMap larger = smaller == scores ? matches : scores;
+        LongLongHashMap both = new LongLongHashMap(smaller.size());
+        smaller.forEach((document, score) -> {
+            long other = larger.get(document);
+            if (other != LongLongHashMap.NO_VALUE) {
+                both.put(document, score + other);
+            }
+        });
+        return both;
+    }
+
+    /**
+     * Splits a text into normalized words.
+     *
+     * @param text The text, may be null.
+     * @return The words of the text, in order.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (Character.getType(c) == Character.NON_SPACING_MARK || c == '\'' || c == '.') {
+                // Accents and the apostrophes and dots of names and initials do not split a word.
+                continue;
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * A bounded min-heap of the best scored documents.
+     * A document and its score are packed in one long that orders by score, then by earlier document.
+     */
+    private static final class TopScores {
+        private final long[] heap;
+        private int size;
+
+        TopScores(int capacity) {
+            this.heap = new long[capacity];
+        }
+
+        void offer(long document, long score) {
+            if (heap.length == 0) {
+                return;
+            }
+            long entry = (score << 32) | (Integer.MAX_VALUE - document);
+            if (size < heap.length) {
+                heap[size] = entry;
+                siftUp(size++);
+            } else if (entry > heap[0]) {
+                heap[0] = entry;
+                siftDown(0);
+            }
+        }
+
+        // The entries, best first.
+        long[] sorted() {
+            long[] entries = Arrays.copyOf(heap, size);
+            Arrays.sort(entries);
+            for (int i = 0, j = entries.length - 1; i < j; i++, j--) {
+                long swap = entries[i];
+                entries[i] = entries[j];
+                entries[j] = swap;
+            }
+            return entries;
+        }
+
+        static int document(long entry) {
+            return Integer.MAX_VALUE - (int) (entry & 0xFFFFFFFFL);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= heap[i]) {
+                    return;
+                }
+                swap(parent, i);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heap[left] < heap[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && heap[right] < heap[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(smallest, i);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long swap = heap[i];
+            heap[i] = heap[j];
+            heap[j] = swap;
+        }
+    }
+}
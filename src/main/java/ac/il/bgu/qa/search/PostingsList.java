@@ -0,0 +1,73 @@
+package ac.il.bgu.qa.search;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An append-only list of ascending document numbers.
+ * Every document is stored as the gap from the previous one in a variable-length encoding of 7 bits per byte,
+ * so the dense postings of common terms take about a byte per document.
+ */
+final class PostingsList {
+
+    private byte[] bytes = new byte[4];
+    // The number of bytes in use.
+    private int length;
+    // The number of documents.
+    private int count;
+    // The last document added, or -1.
+    private int last = -1;
+
+    /**
+     * Adds a document. Documents must be added in ascending order; a document not above the last one is ignored.
+     *
+     * @param document The document number.
+     */
+    void add(int document) {
+        if (document <= last) {
+            return;
+        }
+        int gap = document - last;
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((gap & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+        last = document;
+        count++;
+    }
+
+    /**
+     * Decodes every document in ascending order.
+     *
+     * @param consumer Receives the documents.
+     */
+    void forEach(IntConsumer consumer) {
+        int document = -1;
+        int i = 0;
+        while (i < length) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[i++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            document += gap;
+            consumer.accept(document);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // The number of bytes the encoded documents take.
+    int byteSize() {
+        return length;
+    }
+}
@@ -0,0 +1,69 @@
+package ac.il.bgu.qa.search;
+
+import ac.il.bgu.qa.Book;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of search results, best match first.
+ */
+public class SearchPage {
+
+    private final List<Book> results;
+    private final int page;
+    private final int pageSize;
+    private final int totalHits;
+
+    SearchPage(List<Book> results, int page, int pageSize, int totalHits) {
+        this.results = Collections.unmodifiableList(results);
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * Retrieves the books on this page.
+     *
+     * @return The books, best match first.
+     */
+    public List<Book> getResults() {
+        return results;
+    }
+
+    /**
+     * Retrieves the number of this page, starting at 0.
+     *
+     * @return The page number.
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Retrieves the maximum number of books on a page.
+     *
+     * @return The page size.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Retrieves the number of books matching the query, on all pages.
+     *
+     * @return The number of matching books.
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Checks whether there are more results after this page.
+     *
+     * @return true if there is a next page, false otherwise.
+     */
+    public boolean hasNext() {
+        return (long) (page + 1) * pageSize < totalHits;
+    }
+}
@@ -0,0 +1,112 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides a non-blocking interface for services responsible for managing the database of books and users.
+ * Every method starts the operation and returns a future for its result instead of waiting for it.
+ * The semantics of each operation are those of the matching {@link DatabaseService} method.
+ */
+public interface AsyncDatabaseService {
+
+    /**
+     * Adds a book to the database.
+     *
+     * @param ISBN The International Standard Book Number identifying the book.
+     * @param book The book to be added.
+     * @return A future that completes once the book is added.
+     */
+    CompletableFuture<Void> addBook(String ISBN, Book book);
+
+    /**
+     * Registers a user with the database.
+     *
+     * @param id   The unique identifier for the user.
+     * @param user The user to be registered.
+     * @return A future that completes once the user is registered.
+     */
+    CompletableFuture<Void> registerUser(String id, User user);
+
+    /**
+     * Fetches a book from the database using its ISBN.
+     *
+     * @param ISBN The International Standard Book Number.
+     * @return A future of the book with the given ISBN, or of null if the book does not exist in the database.
+     */
+    CompletableFuture<Book> getBookByISBN(String ISBN);
+
+    /**
+     * Fetches a user from the database using their ID.
+     *
+     * @param userId The unique identifier for the user.
+     * @return A future of the user with the given ID, or of null if the user is not registered in the database.
+     */
+    CompletableFuture<User> getUserById(String userId);
+
+    /**
+     * Borrows a book identified by its ISBN for a user identified by their userId.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     * @return A future that completes once the loan is recorded.
+     */
+    CompletableFuture<Void> borrowBook(String ISBN, String userId);
+
+    /**
+     * Marks a book identified by its ISBN as returned in the database.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     * @return A future that completes once the return is recorded.
+     */
+    CompletableFuture<Void> returnBook(String ISBN);
+
+    /**
+     * Adapts a blocking database service by running each of its calls on an executor.
+     *
+     * @param databaseService The blocking database service.
+     * @param executor        The executor the blocking calls run on.
+     * @return A non-blocking view of the database service.
+     */
+    static AsyncDatabaseService of(DatabaseService databaseService, Executor executor) {
+        if (databaseService == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor.");
+        }
+        return new AsyncDatabaseService() {
+            @Override
+            public CompletableFuture<Void> addBook(String ISBN, Book book) {
+                return CompletableFuture.runAsync(() -> databaseService.addBook(ISBN, book), executor);
+            }
+
+            @Override
+            public CompletableFuture<Void> registerUser(String id, User user) {
+                return CompletableFuture.runAsync(() -> databaseService.registerUser(id, user), executor);
+            }
+
+            @Override
+            public CompletableFuture<Book> getBookByISBN(String ISBN) {
+                return CompletableFuture.supplyAsync(() -> databaseService.getBookByISBN(ISBN), executor);
+            }
+
+            @Override
+            public CompletableFuture<User> getUserById(String userId) {
+                return CompletableFuture.supplyAsync(() -> databaseService.getUserById(userId), executor);
+            }
+
+            @Override
+            public CompletableFuture<Void> borrowBook(String ISBN, String userId) {
+                return CompletableFuture.runAsync(() -> databaseService.borrowBook(ISBN, userId), executor);
+            }
+
+            @Override
+            public CompletableFuture<Void> returnBook(String ISBN) {
+                return CompletableFuture.runAsync(() -> databaseService.returnBook(ISBN), executor);
+            }
+        };
+    }
+}
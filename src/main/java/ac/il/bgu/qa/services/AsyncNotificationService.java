@@ -0,0 +1,41 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NotificationException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides a non-blocking interface for services responsible for notifying users.
+ */
+public interface AsyncNotificationService {
+
+    /**
+     * Sends a notification message to a specific user.
+     *
+     * @param userId  The unique identifier of the user to be notified.
+     * @param message The content of the notification message.
+     * @return A future that completes once the notification is sent, or completes exceptionally
+     *         with a {@link NotificationException} if there's an issue sending it.
+     */
+    CompletableFuture<Void> notifyUser(String userId, String message);
+
+    /**
+     * Adapts a notification service by running each blocking call on an executor.
+     * A service that already implements this interface is returned as is.
+     *
+     * @param notificationService The notification service.
+     * @param executor            The executor the blocking calls run on.
+     * @return A non-blocking view of the notification service.
+     */
+    static AsyncNotificationService of(NotificationService notificationService, Executor executor) {
+        if (notificationService instanceof AsyncNotificationService) {
+            return (AsyncNotificationService) notificationService;
+        } else if (notificationService == null) {
+            throw new IllegalArgumentException("Invalid notification service.");
+        } else if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor.");
+        }
+        return (userId, message) -> CompletableFuture.runAsync(() -> notificationService.notifyUser(userId, message), executor);
+    }
+}
@@ -0,0 +1,45 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides a non-blocking interface for services that retrieve book reviews.
+ */
+public interface AsyncReviewService {
+
+    /**
+     * Fetches the list of reviews for a book based on its ISBN.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return A future of the reviews associated with the given book's ISBN, which completes exceptionally
+     *         with a {@link ReviewException} if there's an issue fetching the reviews.
+     */
+    CompletableFuture<List<String>> getReviewsForBook(String ISBN);
+
+    /**
+     * Adapts a blocking review service by running each fetch on an executor.
+     * The service is closed after every fetch, as {@link ac.il.bgu.qa.Library} does.
+     *
+     * @param reviewService The blocking review service.
+     * @param executor      The executor the blocking calls run on.
+     * @return A non-blocking view of the review service.
+     */
+    static AsyncReviewService of(ReviewService reviewService, Executor executor) {
+        if (reviewService == null) {
+            throw new IllegalArgumentException("Invalid review service.");
+        } else if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor.");
+        }
+        return ISBN -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return reviewService.getReviewsForBook(ISBN);
+            } finally {
+                reviewService.close();
+            }
+        }, executor);
+    }
+}
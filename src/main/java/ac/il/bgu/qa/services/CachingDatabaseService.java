@@ -0,0 +1,593 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.LoanLedger;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * A bounded read-through cache of books and users in front of another {@link DatabaseService}.
+ * <p>
+ * Books and users are cached in two {@link TinyLfuCache}s of the same size, so a one-off scan of the catalog
+ * does not push out the books every request needs. Lookups that miss are loaded from the backing database and
+ * cached; books and users added through the cache are cached as they are written. Missing books and users are
+ * not cached, so one added directly to the backing database is found on the next lookup.
+ * <p>
+ * Loans are written through to the backing database by default. In write-behind mode {@link #borrowBook} and
+ * {@link #returnBook} only record the write as pending and return at once. A book with several copies may be
+ * borrowed by several users, so the pending writes of a book are kept per user: the net number of copies each
+ * user borrowed, where a borrow and a later return by the same user cancel out, and the number of returns
+ * without a name, which close the book's earliest loans and so are never cancelled against a borrow.
+ * The pending writes are flushed in batches: when the maximum number of pending books is reached, when the
+ * maximum write delay has passed, on {@link #flush()} and on {@link #close()}. Those two limits are the durability
+ * guarantee: if the process dies, at most that many books, or that much time, worth of loans are lost.
+ * A flush that fails keeps the writes it did not get to pending, and drops the ones already written, so a retry
+ * never writes a loan twice; when the buffer is full, further loans fail until the backing database accepts a
+ * flush again.
+ */
+public class CachingDatabaseService implements DatabaseService, AutoCloseable {
+
+    // The database the books and users are loaded from and the loans are written to.
+    private final DatabaseService delegate;
+
+    // The cached books and users, each guarded by itself.
+    private final TinyLfuCache<String, Book> books;
+    private final TinyLfuCache<String, User> users;
+
+    // The maximum number of books with a pending loan write, or 0 to write loans through.
+    private final int maxPendingWrites;
+    // The pending loan writes of every book, in the order first written. Guarded by itself.
+    private final LinkedHashMap<String, PendingLoans> pendingWrites = new LinkedHashMap<>();
+    // Held while a batch is written to the backing database, so batches are written in order.
+    private final Object flushLock = new Object();
+    // Flushes the pending writes every maximum write delay, or null when loans are written through.
+    private final ScheduledExecutorService flusher;
+
+    // Statistics.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+
+    /**
+     * Constructs a new CachingDatabaseService that writes loans through to the backing database.
+     *
+     * @param delegate   The database the books and users are loaded from.
+     * @param maxEntries The maximum number of cached books, and of cached users.
+     */
+    public CachingDatabaseService(DatabaseService delegate, int maxEntries) {
+        this(delegate, maxEntries, 0, null);
+    }
+
+    /**
+     * Constructs a new CachingDatabaseService that writes loans behind.
+     *
+     * @param delegate         The database the books and users are loaded from and the loans are written to.
+     * @param maxEntries       The maximum number of cached books, and of cached users.
+     * @param maxPendingWrites The maximum number of books with a loan not written yet.
+     * @param maxWriteDelay    The maximum time a loan waits before it is written.
+     */
+    public CachingDatabaseService(DatabaseService delegate, int maxEntries, int maxPendingWrites, Duration maxWriteDelay) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid database service.");
+        } else if (maxPendingWrites < 0) {
+            throw new IllegalArgumentException("Invalid number of pending writes.");
+        } else if (maxPendingWrites > 0 && (maxWriteDelay == null || maxWriteDelay.toMillis() < 1)) {
+            throw new IllegalArgumentException("Invalid write delay.");
+        }
+        this.delegate = delegate;
+        this.books = new TinyLfuCache<>(maxEntries);
+        this.users = new TinyLfuCache<>(maxEntries);
+        this.maxPendingWrites = maxPendingWrites;
+        if (maxPendingWrites == 0) {
+            this.flusher = null;
+        } else {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "database-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long delay = maxWriteDelay.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushQuietly, delay, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        delegate.addBook(ISBN, book);
+        synchronized (books) {
+            books.put(ISBN, book);
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        delegate.registerUser(id, user);
+        synchronized (users) {
+            users.put(id, user);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        Book book;
+        synchronized (books) {
+            book = books.get(ISBN);
+        }
+        if (book != null) {
+            hits.increment();
+            return book;
+        }
+        misses.increment();
+        book = delegate.getBookByISBN(ISBN);
+        if (book != null) {
+            synchronized (books) {
+                books.put(ISBN, book);
+            }
+        }
+        return book;
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        User user;
+        synchronized (users) {
+            user = users.get(userId);
+        }
+        if (user != null) {
+            hits.increment();
+            return user;
+        }
+        misses.increment();
+        user = delegate.getUserById(userId);
+        if (user != null) {
+            synchronized (users) {
+                users.put(userId, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Records a loan, in the backing database or, in write-behind mode, in the pending writes.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        if (maxPendingWrites == 0) {
+            delegate.borrowBook(ISBN, userId);
+        } else {
+            write(Collections.singletonList(ISBN), userId, 1);
+        }
+    }
+
+    /**
+     * Records a loan with its due date in the backing database or, in write-behind mode, without it in the
+     * pending writes.
+     *
+     * @param ISBN    The International Standard Book Number of the book to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId, long dueDate) {
+        if (maxPendingWrites == 0) {
+            delegate.borrowBook(ISBN, userId, dueDate);
+        } else {
+            write(Collections.singletonList(ISBN), userId, 1);
+        }
+    }
+
+    /**
+     * Removes the loan of a book, in the backing database or, in write-behind mode, in the pending writes.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        if (maxPendingWrites == 0) {
+            delegate.returnBook(ISBN);
+        } else {
+            write(Collections.singletonList(ISBN), null, -1);
+        }
+    }
+
+    /**
+     * Removes the loan of a book to a user, in the backing database or, in write-behind mode, in the pending
+     * writes, where it cancels a pending borrow by the same user.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     */
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        if (maxPendingWrites == 0) {
+            delegate.returnBook(ISBN, userId);
+        } else {
+            write(Collections.singletonList(ISBN), userId, -1);
+        }
+    }
+
+    /**
+     * Fetches the borrowers of a book from the backing database, after flushing the pending writes.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, earliest loan first, or null if the backing database does not track them.
+     */
+    @Override
+    public List<String> getBorrowerIds(String ISBN) {
+        if (maxPendingWrites > 0) {
+            flush();
+        }
+        return delegate.getBorrowerIds(ISBN);
+    }
+
+    /**
+     * Fetches several books, loading only the ones that are not cached from the backing database, in one call.
+     *
+     * @param ISBNs The International Standard Book Numbers.
+     * @return The books found, by ISBN.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (books) {
+            for (String ISBN : ISBNs) {
+                Book book = books.get(ISBN);
+                if (book != null) {
+                    found.put(ISBN, book);
+                } else {
+                    missing.add(ISBN);
+                }
+            }
+        }
+        hits.add(found.size());
+        misses.add(missing.size());
+        if (!missing.isEmpty()) {
+            Map<String, Book> loaded = delegate.getBooksByISBN(missing);
+            synchronized (books) {
+                for (Map.Entry<String, Book> entry : loaded.entrySet()) {
+                    books.put(entry.getKey(), entry.getValue());
+                }
+            }
+            found.putAll(loaded);
+        }
+        return found;
+    }
+
+    /**
+     * Tells whether the backing database stores due dates. Pending writes carry none, so in write-behind mode
+     * due dates are never stored.
+     *
+     * @return true if the cache writes through to a database that stores due dates, false otherwise.
+     */
+    @Override
+    public boolean storesDueDates() {
+        return maxPendingWrites == 0 && delegate.storesDueDates();
+    }
+
+    /**
+     * Hands every loan of the backing database to a procedure, after flushing the pending writes.
+     *
+     * @param procedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan.
+     * @return true if every loan was handed over, false if the backing database cannot list its loans.
+     */
+    @Override
+    public boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        if (maxPendingWrites > 0) {
+            flush();
+        }
+        return delegate.forEachLoan(procedure);
+    }
+
+    @Override
+    public boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return delegate.forEachKey(ISBNKeys, userKeys);
+    }
+
+    @Override
+    public Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return delegate.trackKeys(ISBNKeys, userKeys);
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> added) {
+        delegate.addBooks(added);
+        synchronized (books) {
+            for (Map.Entry<String, Book> entry : added.entrySet()) {
+                books.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId) {
+        if (maxPendingWrites == 0) {
+            delegate.borrowBooks(ISBNs, userId);
+        } else {
+            write(ISBNs, userId, 1);
+        }
+    }
+
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId, long dueDate) {
+        if (maxPendingWrites == 0) {
+            delegate.borrowBooks(ISBNs, userId, dueDate);
+        } else {
+            write(ISBNs, userId, 1);
+        }
+    }
+
+    @Override
+    public void returnBooks(Collection<String> ISBNs) {
+        if (maxPendingWrites == 0) {
+            delegate.returnBooks(ISBNs);
+        } else {
+            write(ISBNs, null, -1);
+        }
+    }
+
+    /**
+     * Writes every pending loan to the backing database: the borrows in one call per borrower, then the returns.
+     * Loans written while the flush runs wait for the next one.
+     *
+     * @throws RuntimeException If the backing database fails; the loans that were not written stay pending.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            LinkedHashMap<String, PendingLoans> batch;
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>(pendingWrites);
+                pendingWrites.clear();
+            }
+
+            // Group the borrowed copies by borrower.
+            Map<String, List<String>> borrowed = new LinkedHashMap<>();
+            for (Map.Entry<String, PendingLoans> book : batch.entrySet()) {
+                for (Map.Entry<String, Integer> loans : book.getValue().byUser.entrySet()) {
+                    for (int i = 0; i < loans.getValue(); i++) {
+                        borrowed.computeIfAbsent(loans.getKey(), userId -> new ArrayList<>()).add(book.getKey());
+                    }
+                }
+            }
+
+            // Every call that succeeds is taken out of the batch at once, so a failure puts back only the rest.
+            try {
+                for (Map.Entry<String, List<String>> loans : borrowed.entrySet()) {
+                    delegate.borrowBooks(loans.getValue(), loans.getKey());
+                    for (String ISBN : loans.getValue()) {
+                        batch.get(ISBN).add(loans.getKey(), -1);
+                    }
+                }
+                for (Map.Entry<String, PendingLoans> book : batch.entrySet()) {
+                    PendingLoans pending = book.getValue();
+                    for (String userId : new ArrayList<>(pending.byUser.keySet())) {
+                        while (pending.byUser.getOrDefault(userId, 0) < 0) {
+                            delegate.returnBook(book.getKey(), userId);
+                            pending.add(userId, 1);
+                        }
+                    }
+                    while (pending.anonymousReturns > 0) {
+                        delegate.returnBook(book.getKey());
+                        pending.anonymousReturns--;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Put the rest of the batch back ahead of the writes made since, which come after it.
+                synchronized (pendingWrites) {
+                    LinkedHashMap<String, PendingLoans> merged = new LinkedHashMap<>();
+                    for (Map.Entry<String, PendingLoans> book : batch.entrySet()) {
+                        if (!book.getValue().isEmpty()) {
+                            merged.put(book.getKey(), book.getValue());
+                        }
+                    }
+                    for (Map.Entry<String, PendingLoans> book : pendingWrites.entrySet()) {
+                        PendingLoans earlier = merged.get(book.getKey());
+                        if (earlier == null) {
+                            merged.put(book.getKey(), book.getValue());
+                        } else {
+                            earlier.addAll(book.getValue());
+                            if (earlier.isEmpty()) {
+                                merged.remove(book.getKey());
+                            }
+                        }
+                    }
+                    pendingWrites.clear();
+                    pendingWrites.putAll(merged);
+                }
+                failedFlushes.increment();
+                throw e;
+            }
+            flushes.increment();
+        }
+    }
+
+    /**
+     * Stops the background flushes and flushes the pending loans.
+     * Loans written after closing are still written behind, but only flushed by {@link #flush()}.
+     */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * Removes a book from the cache, so the next lookup loads it from the backing database.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     */
+    public void invalidateBook(String ISBN) {
+        synchronized (books) {
+            books.remove(ISBN);
+        }
+    }
+
+    /**
+     * Removes a user from the cache, so the next lookup loads it from the backing database.
+     *
+     * @param userId The Id of the user.
+     */
+    public void invalidateUser(String userId) {
+        synchronized (users) {
+            users.remove(userId);
+        }
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups loaded from the backing database.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of books and users evicted, or refused admission, because the cache was full.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        long evictions;
+        synchronized (books) {
+            evictions = books.evictions();
+        }
+        synchronized (users) {
+            return evictions + users.evictions();
+        }
+    }
+
+    /**
+     * Retrieves the number of books with a loan not written to the backing database yet.
+     *
+     * @return The number of pending writes.
+     */
+    public int getPendingWriteCount() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
+    /**
+     * Retrieves the number of loan writes merged into the pending writes of a book that already had some.
+     *
+     * @return The number of coalesced writes.
+     */
+    public long getCoalescedWriteCount() {
+        return coalescedWrites.sum();
+    }
+
+    /**
+     * Retrieves the number of batches written to the backing database.
+     *
+     * @return The number of flushes.
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * Retrieves the number of batches the backing database failed to write.
+     *
+     * @return The number of failed flushes.
+     */
+    public long getFailedFlushCount() {
+        return failedFlushes.sum();
+    }
+
+    // Records a borrow or a return of some books in the pending writes, flushing first if they would not fit.
+    // A null user Id marks a return without a name. Every key is validated first, so a write the backing database
+    // would reject as invalid never blocks a batch.
+    private void write(Collection<String> ISBNs, String userId, int copies) {
+        for (String ISBN : ISBNs) {
+            if (ISBN == null || !ISBNCodec.isValid(ISBN)) {
+                throw new IllegalArgumentException("Invalid ISBN.");
+            }
+        }
+        if ((userId == null && copies > 0) || (userId != null && !UserIdCodec.isValid(userId))) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        while (true) {
+            synchronized (pendingWrites) {
+                if (pendingWrites.size() + ISBNs.size() <= maxPendingWrites || pendingWrites.isEmpty()) {
+                    for (String ISBN : ISBNs) {
+                        PendingLoans pending = pendingWrites.get(ISBN);
+                        if (pending == null) {
+                            pending = new PendingLoans();
+                            pendingWrites.put(ISBN, pending);
+                        } else {
+                            coalescedWrites.increment();
+                        }
+                        if (userId == null) {
+                            pending.anonymousReturns++;
+                        } else {
+                            pending.add(userId, copies);
+                        }
+                        if (pending.isEmpty()) {
+                            pendingWrites.remove(ISBN);
+                        }
+                    }
+                    return;
+                }
+            }
+            // The buffer is full: write it out on this thread. If that fails, so does this write.
+            flush();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // The writes stay pending for the next flush.
+        }
+    }
+
+    // The pending loan writes of one book: the net number of copies borrowed by every user, negative for returns
+    // in their name, and the number of returns without a name.
+    private static final class PendingLoans {
+        final LinkedHashMap<String, Integer> byUser = new LinkedHashMap<>();
+        int anonymousReturns;
+
+        void add(String userId, int copies) {
+            byUser.merge(userId, copies, (a, b) -> a + b == 0 ? null : a + b);
+        }
+
+        void addAll(PendingLoans later) {
+            later.byUser.forEach(this::add);
+            anonymousReturns += later.anonymousReturns;
+        }
+
+        boolean isEmpty() {
+            return byUser.isEmpty() && anonymousReturns == 0;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NoReviewsFoundException;
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache in front of another {@link ReviewService}.
+ * Review lists are kept for a time-to-live and the least recently used list is evicted once the cache is full.
+ * Books without reviews are cached too, for their own, usually shorter, time-to-live, whether the backing service
+ * answers with an empty list or with a {@link NoReviewsFoundException}.
+ * Concurrent misses for the same ISBN share a single call to the backing service, and failures are never cached.
+ * <p>
+ * The backing service is closed after every call to it, as {@link ac.il.bgu.qa.Library} would have done.
+ * Closing the cache itself does nothing, so callers that close the service after every fetch keep their cache.
+ */
+public class CachingReviewService implements ReviewService {
+
+    // The service the reviews are loaded from.
+    private final ReviewService delegate;
+    // The maximum number of cached ISBNs.
+    private final int maxEntries;
+    // How long a non-empty review list stays cached, in nanoseconds.
+    private final long ttlNanos;
+    // How long a missing or empty review list stays cached, in nanoseconds.
+    private final long negativeTtlNanos;
+    // The clock the time-to-live is measured with.
+    private final LongSupplier nanoClock;
+
+    // The cached review lists in least recently used order. Guarded by itself.
+    private final LinkedHashMap<String, Entry> entries;
+    // The loads currently running, so concurrent misses can wait for them instead of loading again.
+    private final ConcurrentHashMap<String, CompletableFuture<List<String>>> loading = new ConcurrentHashMap<>();
+
+    // Statistics.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a new CachingReviewService.
+     *
+     * @param delegate    The service the reviews are loaded from.
+     * @param maxEntries  The maximum number of cached ISBNs.
+     * @param ttl         How long a non-empty review list stays cached.
+     * @param negativeTtl How long the absence of reviews stays cached.
+     */
+    public CachingReviewService(ReviewService delegate, int maxEntries, Duration ttl, Duration negativeTtl) {
+        this(delegate, maxEntries, ttl, negativeTtl, System::nanoTime);
+    }
+
+    // Constructor with an explicit clock, for tests.
+    CachingReviewService(ReviewService delegate, int maxEntries, Duration ttl, Duration negativeTtl, LongSupplier nanoClock) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid review service.");
+        } else if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid cache size.");
+        } else if (ttl == null || ttl.isNegative() || negativeTtl == null || negativeTtl.isNegative()) {
+            throw new IllegalArgumentException("Invalid time-to-live.");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Fetches the reviews of a book from the cache, loading them from the backing service on a miss.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return An unmodifiable list of the reviews, empty if the book has none.
+     * @throws ReviewException If the backing service fails to fetch the reviews.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        List<String> cached = lookup(ISBN);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        // Join a load that is already running for this ISBN, or start one.
+        CompletableFuture<List<String>> load = new CompletableFuture<>();
+        CompletableFuture<List<String>> running = loading.putIfAbsent(ISBN, load);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // Another load may have finished between the lookup and claiming the load.
+            List<String> reviews = lookup(ISBN);
+            if (reviews == null) {
+                reviews = load(ISBN);
+            }
+            load.complete(reviews);
+            return reviews;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(ISBN, load);
+        }
+    }
+
+    /**
+     * Does nothing: the cache stays usable, and the backing service is already closed after every call to it.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Removes the cached reviews of a book, so the next fetch loads them again.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     */
+    public void invalidate(String ISBN) {
+        synchronized (entries) {
+            entries.remove(ISBN);
+        }
+    }
+
+    /**
+     * Retrieves the number of fetches answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of fetches that were not in the cache, including those that joined a running load.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of calls made to the backing service.
+     *
+     * @return The number of loads.
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Retrieves the number of entries evicted because the cache was full.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Retrieves the fraction of fetches answered from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if nothing was fetched yet.
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Retrieves the number of cached ISBNs, including expired entries not removed yet.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // Returns the cached reviews if they have not expired, removing them if they have.
+    private List<String> lookup(String ISBN) {
+        synchronized (entries) {
+            Entry entry = entries.get(ISBN);
+            if (entry == null) {
+                return null;
+            } else if (nanoClock.getAsLong() - entry.expiresAt >= 0) {
+                entries.remove(ISBN);
+                return null;
+            }
+            return entry.reviews;
+        }
+    }
+
+    // Loads the reviews from the backing service, closing it afterwards, and caches them.
+    private List<String> load(String ISBN) {
+        loads.increment();
+        List<String> loaded;
+        try {
+            loaded = delegate.getReviewsForBook(ISBN);
+        } catch (NoReviewsFoundException e) {
+            loaded = null;
+        } finally {
+            delegate.close();
+        }
+
+        // A book without reviews is cached as an empty list, for the negative time-to-live.
+        boolean empty = loaded == null || loaded.isEmpty();
+        List<String> reviews = empty ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(loaded));
+        long expiresAt = nanoClock.getAsLong() + (empty ? negativeTtlNanos : ttlNanos);
+        synchronized (entries) {
+            entries.put(ISBN, new Entry(reviews, expiresAt));
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return reviews;
+    }
+
+    // Waits for a load started by another caller and rethrows its failure as is.
+    private static List<String> await(CompletableFuture<List<String>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // A cached review list and the time it expires at.
+    private static final class Entry {
+        final List<String> reviews;
+        final long expiresAt;
+
+        Entry(List<String> reviews, long expiresAt) {
+            this.reviews = reviews;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
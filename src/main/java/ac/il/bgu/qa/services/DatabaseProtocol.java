@@ -0,0 +1,52 @@
+package ac.il.bgu.qa.services;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol between a {@link DatabaseServer} and a {@link RemoteDatabaseService}.
+ * <p>
+ * Every message is a frame: its length, then a correlation Id, then a body. A request body is an operation
+ * byte and its arguments, and a response body a status byte and its result. ISBNs and user Ids travel as
+ * packed longs, and books and users as {@link ac.il.bgu.qa.RecordCodec} records. A client may send any
+ * number of requests before reading a response, and matches each response to its request by the
+ * correlation Id.
+ */
+final class DatabaseProtocol {
+
+    // The length and correlation Id in front of every frame.
+    static final int FRAME_HEADER_SIZE = 12;
+    // The largest frame body accepted, in bytes.
+    static final int MAX_FRAME_SIZE = 16 << 20;
+
+    // Operations, followed by their arguments.
+    static final byte ADD_BOOK = 1;        // packed ISBN, book record
+    static final byte REGISTER_USER = 2;   // packed user Id, user record
+    static final byte GET_BOOK = 3;        // packed ISBN
+    static final byte GET_USER = 4;        // packed user Id
+    static final byte BORROW_BOOK = 5;     // packed ISBN, packed user Id
+    static final byte RETURN_BOOK = 6;     // packed ISBN
+    static final byte RETURN_LOAN = 7;     // packed ISBN, packed user Id
+
+    // Statuses, followed by their results.
+    static final byte OK = 0;              // nothing, or a presence byte and a record for lookups
+    static final byte INVALID = 1;         // message of an IllegalArgumentException
+    static final byte FAILED = 2;          // message of any other failure
+    static final byte ALREADY_BORROWED = 3; // message, when no copy of a book to be borrowed is left
+    static final byte NOT_BORROWED = 4;    // message, when no copy of a book to be returned is out
+
+    private DatabaseProtocol() {
+    }
+
+    // Strings are an int length followed by UTF-8 bytes.
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,430 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.RecordCodec;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.errors.BookAlreadyBorrowedException;
+import ac.il.bgu.qa.errors.BookNotBorrowedException;
+import ac.il.bgu.qa.errors.LibraryErrors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Serves any {@link DatabaseService} over TCP to {@link RemoteDatabaseService} clients.
+ * <p>
+ * A single thread runs a non-blocking selector loop: it accepts connections, reads whatever requests have
+ * arrived and writes the responses back. The database is called on a pool of worker threads, so a slow call
+ * stalls only its own connection, and writes from several connections reach the database together, which lets
+ * a {@link DurableDatabaseService} commit them with a single sync. The requests of a connection are answered
+ * one at a time and in the order they arrived, so a client that sends many requests at once gets all their
+ * responses back in order, without a round trip per request. The responses carry the correlation Ids of their
+ * requests.
+ * <p>
+ * Books reach clients as copies, so a client cannot change their borrowed state, and the copy it checked
+ * may be out of date. So when a book is borrowed or returned, the server first claims or releases a copy of the
+ * book it got from the database, the way {@link ac.il.bgu.qa.Library} does for a local database. If no copy is
+ * left to borrow, or none is out to return, nothing is recorded and the client gets a conflict status,
+ * which it throws as a {@link BookAlreadyBorrowedException} or a {@link BookNotBorrowedException}.
+ * Loans and returns of the same book are run one at a time, so two connections cannot both claim the last copy
+ * of a database that hands out copies of its books.
+ * <p>
+ * A {@link NotificationService} cannot be sent, so registered users are given the service a resolver
+ * gives for their Id.
+ */
+public class DatabaseServer implements AutoCloseable {
+
+    // Default number of worker threads. Calls mostly wait for the disk, so there are more than cores.
+    public static final int DEFAULT_WORKERS = 8;
+    // Number of locks the loans and returns of books are spread over.
+    private static final int BOOK_LOCKS = 64;
+
+    // The database served.
+    private final DatabaseService database;
+    // Gives the notification service of every registered user by Id.
+    private final Function<String, NotificationService> notificationServices;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    // Runs the selector loop.
+    private final Thread thread;
+    // Call the database.
+    private final ExecutorService workers;
+    // The connections with responses for the selector loop to write.
+    private final ConcurrentLinkedQueue<SelectionKey> answered = new ConcurrentLinkedQueue<>();
+    // Serialize the loans and returns of the books whose packed ISBNs hash to them.
+    private final Object[] bookLocks = new Object[BOOK_LOCKS];
+    // Whether the server was closed.
+    private volatile boolean closed;
+
+    /**
+     * Starts serving a database on an address with the default number of worker threads.
+     *
+     * @param database             The database to serve.
+     * @param address              The address to listen on. Port 0 picks a free port; see {@link #getAddress()}.
+     * @param notificationServices Gives the notification service of every registered user by Id.
+     * @throws IOException If the address cannot be bound.
+     */
+    public DatabaseServer(DatabaseService database, InetSocketAddress address,
+                          Function<String, NotificationService> notificationServices) throws IOException {
+        this(database, address, notificationServices, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Starts serving a database on an address.
+     *
+     * @param database             The database to serve.
+     * @param address              The address to listen on. Port 0 picks a free port; see {@link #getAddress()}.
+     * @param notificationServices Gives the notification service of every registered user by Id.
+     * @param workers              The number of threads calling the database. A connection uses one at a time.
+     * @throws IOException If the address cannot be bound.
+     */
+    public DatabaseServer(DatabaseService database, InetSocketAddress address,
+                          Function<String, NotificationService> notificationServices, int workers) throws IOException {
+        if (database == null) {
+            throw new IllegalArgumentException("Invalid database.");
+        } else if (address == null) {
+            throw new IllegalArgumentException("Invalid address.");
+        } else if (notificationServices == null) {
+            throw new IllegalArgumentException("Invalid notification service resolver.");
+        } else if (workers < 1) {
+            throw new IllegalArgumentException("Invalid number of workers.");
+        }
+        this.database = database;
+        this.notificationServices = notificationServices;
+        for (int i = 0; i < BOOK_LOCKS; i++) {
+            bookLocks[i] = new Object();
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread worker = new Thread(runnable, "database-server-worker-" + count.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "database-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Retrieves the address the server listens on.
+     *
+     * @return The bound address.
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops serving and closes every connection. Calls already running on the database are completed,
+     * but their responses are not sent.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // The connection broke; its client sees the failure.
+                        closeConnection(key);
+                    }
+                }
+                writeAnswered();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            workers.shutdown();
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Nothing is left to release.
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    // Reads what arrived and hands every whole request to a worker.
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if (channel.read(connection.input) < 0) {
+            closeConnection(key);
+            return;
+        }
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= 4) {
+            int length = input.getInt(input.position());
+            if (length < 8 || length > DatabaseProtocol.MAX_FRAME_SIZE) {
+                closeConnection(key);
+                return;
+            } else if (input.remaining() < 4 + length) {
+                break;
+            }
+            input.getInt();
+            // Copied, as the input buffer is reused once the worker runs.
+            ByteBuffer request = ByteBuffer.allocate(length).put(input.slice(input.position(), length)).flip();
+            input.position(input.position() + length);
+            connection.requests.add(request);
+        }
+        input.compact();
+        if (!input.hasRemaining()) {
+            // A frame larger than the buffer is arriving.
+            connection.input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+        }
+        synchronized (connection) {
+            if (!connection.answering && !connection.requests.isEmpty()) {
+                connection.answering = true;
+                workers.execute(() -> answer(key, connection));
+            }
+        }
+    }
+
+    // Answers the requests of a connection in order until none is left, on a worker thread.
+    private void answer(SelectionKey key, Connection connection) {
+        while (true) {
+            ByteBuffer request;
+            synchronized (connection) {
+                request = connection.requests.poll();
+                if (request == null) {
+                    connection.answering = false;
+                    return;
+                }
+            }
+            long correlationId = request.getLong();
+            connection.responses.add(handle(correlationId, request));
+            answered.add(key);
+            selector.wakeup();
+        }
+    }
+
+    // Queues the responses the workers gave and starts writing them.
+    private void writeAnswered() {
+        SelectionKey key;
+        while ((key = answered.poll()) != null) {
+            if (!key.isValid()) {
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer response;
+            while ((response = connection.responses.poll()) != null) {
+                connection.output.add(response);
+            }
+            try {
+                write(key);
+            } catch (IOException e) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ArrayDeque<ByteBuffer> output = ((Connection) key.attachment()).output;
+        while (!output.isEmpty()) {
+            channel.write(output.peek());
+            if (output.peek().hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            output.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    // Runs a request against the database and returns the whole response frame.
+    private ByteBuffer handle(long correlationId, ByteBuffer body) {
+        try {
+            byte operation = body.get();
+            switch (operation) {
+                case DatabaseProtocol.ADD_BOOK: {
+                    String ISBN = ISBNCodec.toString(body.getLong());
+                    database.addBook(ISBN, RecordCodec.decodeBook(body));
+                    return response(correlationId, DatabaseProtocol.OK, 0);
+                }
+                case DatabaseProtocol.REGISTER_USER: {
+                    String id = UserIdCodec.toString(body.getLong());
+                    database.registerUser(id, RecordCodec.decodeUser(body, notificationServices));
+                    return response(correlationId, DatabaseProtocol.OK, 0);
+                }
+                case DatabaseProtocol.GET_BOOK: {
+                    Book book = database.getBookByISBN(ISBNCodec.toString(body.getLong()));
+                    if (book == null) {
+                        return response(correlationId, DatabaseProtocol.OK, 1).put((byte) 0).flip();
+                    }
+                    ByteBuffer response = response(correlationId, DatabaseProtocol.OK, 1 + RecordCodec.bookSize(book));
+                    response.put((byte) 1);
+                    RecordCodec.encodeBook(book, response);
+                    return response.flip();
+                }
+                case DatabaseProtocol.GET_USER: {
+                    String id = UserIdCodec.toString(body.getLong());
+                    User user = database.getUserById(id);
+                    if (user == null) {
+                        return response(correlationId, DatabaseProtocol.OK, 1).put((byte) 0).flip();
+                    }
+                    // The channel reference of a user is its Id, which the client resolves.
+                    ByteBuffer response = response(correlationId, DatabaseProtocol.OK, 1 + RecordCodec.userSize(user, id));
+                    response.put((byte) 1);
+                    RecordCodec.encodeUser(user, id, response);
+                    return response.flip();
+                }
+                case DatabaseProtocol.BORROW_BOOK: {
+                    long bookKey = body.getLong();
+                    String ISBN = ISBNCodec.toString(bookKey);
+                    String userId = UserIdCodec.toString(body.getLong());
+                    synchronized (bookLock(bookKey)) {
+                        Book book = database.getBookByISBN(ISBN);
+                        if (book != null && !book.tryBorrow()) {
+                            throw LibraryErrors.bookAlreadyBorrowed();
+                        }
+                        try {
+                            database.borrowBook(ISBN, userId);
+                        } catch (RuntimeException e) {
+                            if (book != null) {
+                                book.tryReturn();
+                            }
+                            throw e;
+                        }
+                    }
+                    return response(correlationId, DatabaseProtocol.OK, 0);
+                }
+                case DatabaseProtocol.RETURN_BOOK:
+                case DatabaseProtocol.RETURN_LOAN: {
+                    long bookKey = body.getLong();
+                    String ISBN = ISBNCodec.toString(bookKey);
+                    String userId = operation == DatabaseProtocol.RETURN_LOAN ? UserIdCodec.toString(body.getLong()) : null;
+                    synchronized (bookLock(bookKey)) {
+                        Book book = database.getBookByISBN(ISBN);
+                        if (book != null && !book.tryReturn()) {
+                            throw LibraryErrors.bookNotBorrowed();
+                        }
+                        try {
+                            if (userId == null) {
+                                database.returnBook(ISBN);
+                            } else {
+                                database.returnBook(ISBN, userId);
+                            }
+                        } catch (RuntimeException e) {
+                            if (book != null) {
+                                book.tryBorrow();
+                            }
+                            throw e;
+                        }
+                    }
+                    return response(correlationId, DatabaseProtocol.OK, 0);
+                }
+                default:
+                    throw new IllegalArgumentException("Invalid operation.");
+            }
+        } catch (IllegalArgumentException e) {
+            return error(correlationId, DatabaseProtocol.INVALID, e.getMessage());
+        } catch (BookAlreadyBorrowedException e) {
+            return error(correlationId, DatabaseProtocol.ALREADY_BORROWED, e.getMessage());
+        } catch (BookNotBorrowedException e) {
+            return error(correlationId, DatabaseProtocol.NOT_BORROWED, e.getMessage());
+        } catch (RuntimeException e) {
+            return error(correlationId, DatabaseProtocol.FAILED, String.valueOf(e));
+        }
+    }
+
+    // The lock serializing the loans and returns of a book.
+    private Object bookLock(long bookKey) {
+        return bookLocks[(int) ShardedDatabaseService.mix(bookKey) & (BOOK_LOCKS - 1)];
+    }
+
+    // Allocates a response frame with its header and status written, ready for its result.
+    // A response without a result is returned ready to write.
+    private static ByteBuffer response(long correlationId, byte status, int resultSize) {
+        ByteBuffer response = ByteBuffer.allocate(DatabaseProtocol.FRAME_HEADER_SIZE + 1 + resultSize);
+        response.putInt(8 + 1 + resultSize).putLong(correlationId).put(status);
+        return resultSize == 0 ? response.flip() : response;
+    }
+
+    private static ByteBuffer error(long correlationId, byte status, String message) {
+        ByteBuffer result = ByteBuffer.allocate(4 + 3 * String.valueOf(message).length());
+        DatabaseProtocol.putString(result, message);
+        result.flip();
+        return response(correlationId, status, result.remaining()).put(result).flip();
+    }
+
+    private static void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already broken.
+        }
+    }
+
+    // The buffered input and the queued responses of a connection, used by the selector loop, and the requests
+    // waiting for a worker and the responses it gave, shared with the workers.
+    private static final class Connection {
+        ByteBuffer input = ByteBuffer.allocate(64 << 10);
+        final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        // The requests not answered yet, each its correlation Id and body. Guarded by the connection.
+        final ArrayDeque<ByteBuffer> requests = new ArrayDeque<>();
+        // Whether a worker is answering the requests. Guarded by the connection.
+        boolean answering;
+        final ConcurrentLinkedQueue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    }
+}
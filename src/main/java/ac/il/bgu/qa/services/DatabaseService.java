@@ -1,15 +1,28 @@
 package ac.il.bgu.qa.services;
 
 import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.LoanLedger;
 import ac.il.bgu.qa.User;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
 /**
  * Provides an interface for services responsible for managing the database of books and users.
  */
 public interface DatabaseService {
 
     /**
-     * Adds a book to the database.
+     * Adds a book to the database, or replaces the book with the same ISBN.
+     * Loans are recorded only by {@link #borrowBook} and {@link #returnBook}: the copies borrowed from the given
+     * book are not recorded as loans, a new book starts with none, and a replaced book keeps the loans recorded
+     * for it. A store that counts borrowed copies itself therefore never counts a loan twice when a caller adds
+     * a borrowed book and then records its loans, as when moving it from another store.
      *
      * @param ISBN The International Standard Book Number identifying the book.
      * @param book The book to be added.
@@ -49,6 +62,20 @@ public interface DatabaseService {
      */
     void borrowBook(String ISBN, String userId);
 
+    /**
+     * Borrows a book for a user until a due date.
+     * A store that {@link #storesDueDates() stores due dates} keeps it with the loan, so it survives restarts
+     * and is handed over by {@link #forEachLoan}. The default implementation drops the due date and records
+     * the loan with {@link #borrowBook(String, String)}.
+     *
+     * @param ISBN    The International Standard Book Number of the book to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    default void borrowBook(String ISBN, String userId, long dueDate) {
+        borrowBook(ISBN, userId);
+    }
+
     /**
      * Marks a book identified by its ISBN as returned in the database.
      * This should update the book's status to not being borrowed.
@@ -56,4 +83,192 @@ public interface DatabaseService {
      * @param ISBN The International Standard Book Number of the book to be returned.
      */
     void returnBook(String ISBN);
+
+    /**
+     * Marks the copy of a book borrowed by a user as returned.
+     * A store that tracks its borrowers closes that user's loan, so the loans of other users stay open.
+     * The default implementation cannot tell borrowers apart and closes the earliest loan of the book,
+     * as {@link #returnBook(String)} does.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     * @throws ac.il.bgu.qa.errors.BookNotBorrowedException If the store tracks its borrowers and the user has
+     *                                                     no copy of the book on loan.
+     */
+    default void returnBook(String ISBN, String userId) {
+        returnBook(ISBN);
+    }
+
+    /**
+     * Fetches the Ids of the users currently borrowing copies of a book.
+     * The default implementation does not track borrowers.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, earliest loan first, or null if the store does not track its borrowers.
+     */
+    default List<String> getBorrowerIds(String ISBN) {
+        return null;
+    }
+
+    /**
+     * Fetches several books from the database in one call.
+     * The default implementation looks every ISBN up separately; stores that can do better should override it.
+     *
+     * @param ISBNs The International Standard Book Numbers.
+     * @return The books found, by ISBN. ISBNs of books that do not exist in the database are left out.
+     */
+    default Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> books = new HashMap<>();
+        for (String ISBN : ISBNs) {
+            Book book = getBookByISBN(ISBN);
+            if (book != null) {
+                books.put(ISBN, book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Adds several books to the database in one call.
+     * The default implementation adds every book separately; stores that can do better should override it.
+     *
+     * @param books The books to be added, by International Standard Book Number.
+     */
+    default void addBooks(Map<String, Book> books) {
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            addBook(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Borrows several books for one user in one call.
+     * The batch is applied entirely or not at all: if recording one of the books fails, the loans already
+     * recorded for the others are returned again, in the user's name, before the failure is thrown.
+     * The default implementation records every book separately; stores that can do better should override it.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books to be borrowed.
+     * @param userId The unique identifier for the user borrowing the books.
+     */
+    default void borrowBooks(Collection<String> ISBNs, String userId) {
+        borrowEach(ISBNs, userId, ISBN -> borrowBook(ISBN, userId));
+    }
+
+    /**
+     * Borrows several books for one user until a due date in one call, applied entirely or not at all like
+     * {@link #borrowBooks(Collection, String)}.
+     * The default implementation records every book separately with {@link #borrowBook(String, String, long)}.
+     *
+     * @param ISBNs   The International Standard Book Numbers of the books to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the books.
+     * @param dueDate The time the copies are due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    default void borrowBooks(Collection<String> ISBNs, String userId, long dueDate) {
+        borrowEach(ISBNs, userId, ISBN -> borrowBook(ISBN, userId, dueDate));
+    }
+
+    // Records the loans of a batch one by one; if one fails, returns the ones recorded in the user's name.
+    private void borrowEach(Collection<String> ISBNs, String userId, Consumer<String> borrow) {
+        List<String> recorded = new ArrayList<>(ISBNs.size());
+        try {
+            for (String ISBN : ISBNs) {
+                borrow.accept(ISBN);
+                recorded.add(ISBN);
+            }
+        } catch (RuntimeException e) {
+            for (String ISBN : recorded) {
+                try {
+                    returnBook(ISBN, userId);
+                } catch (RuntimeException undo) {
+                    e.addSuppressed(undo);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Marks several books as returned in one call.
+     * The default implementation records every book separately; stores that can do better should override it.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be returned.
+     */
+    default void returnBooks(Collection<String> ISBNs) {
+        for (String ISBN : ISBNs) {
+            returnBook(ISBN);
+        }
+    }
+
+    /**
+     * Removes a book and its borrowing records from the database, for example once it moved to another store.
+     * The default implementation cannot remove entries and leaves the database unchanged.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true if the book is no longer in the database, false if the database cannot remove entries.
+     */
+    default boolean removeBook(String ISBN) {
+        return false;
+    }
+
+    /**
+     * Removes a user from the database, for example once they moved to another store.
+     * The default implementation cannot remove entries and leaves the database unchanged.
+     *
+     * @param userId The unique identifier for the user.
+     * @return true if the user is no longer in the database, false if the database cannot remove entries.
+     */
+    default boolean removeUser(String userId) {
+        return false;
+    }
+
+    /**
+     * Tells whether the store keeps the due dates given to {@link #borrowBook(String, String, long)}.
+     * The default implementation keeps none.
+     *
+     * @return true if due dates are stored with the loans, false otherwise.
+     */
+    default boolean storesDueDates() {
+        return false;
+    }
+
+    /**
+     * Hands every current loan to a procedure, by packed keys, for example to load a {@link LoanLedger} after a
+     * restart. A book with several copies on loan is handed over once per copy, earliest loan first.
+     * The procedure may be called under the database's lock, so it must be quick and must not call the database.
+     * The default implementation cannot list its loans and hands nothing over.
+     *
+     * @param procedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan,
+     *                  or {@link LoanLedger#NO_DUE_DATE} if it has none.
+     * @return true if every loan was handed over, false if the store cannot list all of its loans.
+     */
+    default boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        return false;
+    }
+
+    /**
+     * Hands the packed ISBN of every book and the packed Id of every user to consumers,
+     * for example to rebuild a summary of the database.
+     * The default implementation cannot enumerate the database and hands nothing over.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return true if every key was handed over, false if the database cannot enumerate its keys.
+     */
+    default boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return false;
+    }
+
+    /**
+     * Hands the packed ISBN of every book and the packed Id of every user to consumers, like
+     * {@link #forEachKey}, and from then on the key of every book and user added, by whichever caller.
+     * A key is handed over before the entry can be found, so a summary built this way never misses an entry.
+     * The consumers may be called under the database's write lock, so they must be quick.
+     * The default implementation cannot track its keys and hands nothing over.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return Stops handing keys over, or null if the database cannot track its keys.
+     */
+    default Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return null;
+    }
 }
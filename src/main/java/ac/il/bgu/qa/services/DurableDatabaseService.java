@@ -0,0 +1,876 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.LoanLedger;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.errors.LibraryErrors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link DatabaseService} that survives restarts without an external database.
+ * <p>
+ * The books, users and loans are held in an {@link InMemoryDatabaseService}, and every change is first appended
+ * to a write-ahead log in a directory of its own. A write returns once its record is forced to disk.
+ * Writes use group commit. A writer appends its record to a shared buffer and then waits. If no one is forcing
+ * the log, the writer becomes the leader: it writes out every record buffered so far and forces them all with
+ * a single fsync. The writers that arrive in the meantime are handled by the next leader. So under load, many
+ * concurrent {@link #borrowBook}, {@link #returnBook}, {@link #addBook} and {@link #registerUser} calls share
+ * each fsync. The batch methods write all their records under a single commit.
+ * <p>
+ * Once the log grows past a threshold, a compacted snapshot of the whole state is written next to it. The
+ * snapshot holds one record per book, user and loan, so a title with several copies out has one loan record per
+ * copy. It is written to a temporary file, forced and renamed into place, and only then is the log emptied.
+ * Writers wait while a snapshot is written.
+ * <p>
+ * Every log has a generation, stored in its header, and a snapshot stores the generation of the log it covers.
+ * Emptying the log starts the next generation. On opening, the snapshot is loaded and the log replayed on top of
+ * it, unless a crash between writing the snapshot and emptying the log left a log the snapshot already covers:
+ * such a log is skipped, so no record is ever applied twice. A record torn by a crash fails its checksum;
+ * the log is cut before it, which loses only writes that had not returned.
+ * Borrowed books are recovered as borrowed, with as many copies out as they had loans, and every loan is
+ * recovered with its due date.
+ * <p>
+ * Changes are applied in memory in log order once they are forced to disk, so memory never runs ahead of the log.
+ * If the disk fails, the changes not yet forced are dropped and the database stops accepting writes.
+ * <p>
+ * A {@link NotificationService} cannot be stored, so users are recovered with the service a resolver gives
+ * for their Id.
+ */
+public class DurableDatabaseService implements DatabaseService, AutoCloseable {
+
+    // Default size the log may grow to before a snapshot is taken, in bytes.
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD = 64L << 20;
+
+    // The names of the files in the directory.
+    private static final String LOG_FILE = "database.log";
+    private static final String SNAPSHOT_FILE = "database.snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "database.snapshot.tmp";
+
+    // Identifies the files, and the version of their format.
+    private static final int MAGIC = 0x4C494244;
+    private static final int VERSION = 3;
+    // The magic number, the version and the generation of the log.
+    private static final int HEADER_SIZE = 16;
+
+    // The length and checksum in front of every record.
+    private static final int RECORD_HEADER_SIZE = 8;
+    // The kinds of records.
+    private static final byte ADD_BOOK = 1;
+    private static final byte REGISTER_USER = 2;
+    private static final byte BORROW_BOOK = 3;
+    private static final byte RETURN_BOOK = 4;
+    private static final byte RETURN_LOAN = 5;
+    // The sizes of the records of a loan, with its due date, of a return by a named user and of a return,
+    // with their length and checksum.
+    private static final int LOAN_SIZE = RECORD_HEADER_SIZE + 25;
+    private static final int RETURN_LOAN_SIZE = RECORD_HEADER_SIZE + 17;
+    private static final int RETURN_SIZE = RECORD_HEADER_SIZE + 9;
+
+    // The state of the database.
+    private final InMemoryDatabaseService memory = new InMemoryDatabaseService();
+    // Gives the notification service of every recovered user by Id.
+    private final Function<String, NotificationService> notificationServices;
+    // The directory of the log and the snapshot.
+    private final Path directory;
+    // The size the log may grow to before a snapshot is taken, in bytes.
+    private final long snapshotThreshold;
+    // The log, positioned at its end.
+    private final FileChannel log;
+
+    // Guards everything below, and keeps the log and the in-memory state in the same order.
+    private final ReentrantLock commitLock = new ReentrantLock();
+    // Signalled whenever a leader finished forcing the log.
+    private final Condition synced = commitLock.newCondition();
+    // The records appended but not written yet, and the buffer the next batch goes to.
+    private ByteBuffer pending = ByteBuffer.allocate(64 << 10);
+    private ByteBuffer spare = ByteBuffer.allocate(64 << 10);
+    // The in-memory changes of the pending records, in log order, and the list the next batch goes to.
+    private List<Runnable> pendingChanges = new ArrayList<>();
+    private List<Runnable> spareChanges = new ArrayList<>();
+    // The number of bytes ever appended to the log, and the number of them forced to disk.
+    private long appended;
+    private long durable;
+    // Whether a leader is writing and forcing a batch.
+    private boolean syncing;
+    // The size of the log file, in bytes.
+    private long logSize;
+    // The generation of the log. The snapshot covers every earlier generation.
+    private long generation;
+    // The failure of the disk, after which no more writes are accepted.
+    private IOException failure;
+    // Whether the database was closed.
+    private boolean closed;
+
+    // Statistics.
+    private long commits;
+    private long syncs;
+    private long snapshots;
+
+    /**
+     * Opens or creates a database in a directory with the default snapshot threshold, recovering its state.
+     *
+     * @param directory            The directory of the log and the snapshot. It is created if it does not exist.
+     * @param notificationServices Gives the notification service of every recovered user by Id.
+     * @throws IOException If the files cannot be read or created, or the snapshot is corrupt.
+     */
+    public DurableDatabaseService(Path directory, Function<String, NotificationService> notificationServices) throws IOException {
+        this(directory, notificationServices, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * Opens or creates a database in a directory, recovering its state.
+     *
+     * @param directory            The directory of the log and the snapshot. It is created if it does not exist.
+     * @param notificationServices Gives the notification service of every recovered user by Id.
+     * @param snapshotThreshold    The size the log may grow to before a snapshot is taken, in bytes.
+     * @throws IOException If the files cannot be read or created, or the snapshot is corrupt.
+     */
+    public DurableDatabaseService(Path directory, Function<String, NotificationService> notificationServices,
+                                  long snapshotThreshold) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Invalid directory.");
+        } else if (notificationServices == null) {
+            throw new IllegalArgumentException("Invalid notification service resolver.");
+        } else if (snapshotThreshold < 1) {
+            throw new IllegalArgumentException("Invalid snapshot threshold.");
+        }
+        this.directory = directory;
+        this.notificationServices = notificationServices;
+        this.snapshotThreshold = snapshotThreshold;
+        Files.createDirectories(directory);
+
+        // Load the snapshot, then replay the log on top of it if the snapshot does not already cover it.
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        long covered = 0;
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                covered = readGeneration(channel);
+                if (replay(channel) != channel.size()) {
+                    throw new IOException("Corrupt snapshot!");
+                }
+            }
+        }
+        this.log = FileChannel.open(directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < HEADER_SIZE || readGeneration(log) <= covered) {
+            // A new log, or one emptied only partly, or one the snapshot was taken of before a crash.
+            resetLog(covered + 1);
+            this.generation = covered + 1;
+            this.logSize = HEADER_SIZE;
+            return;
+        }
+        this.generation = readGeneration(log);
+        long end = replay(log);
+        if (end < log.size()) {
+            // Cut the record torn by a crash and whatever follows it.
+            log.truncate(end);
+            log.force(true);
+        }
+        this.logSize = end;
+        log.position(end);
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long key = requireISBNKey(ISBN);
+        if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        ByteBuffer record = ByteBuffer.allocate(bookSize(book));
+        writeBook(record, key, book);
+        commit(record, () -> memory.addBook(ISBN, book));
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long key = requireUserKey(id);
+        if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        ByteBuffer record = ByteBuffer.allocate(userSize(user));
+        writeUser(record, key, user);
+        commit(record, () -> memory.registerUser(id, user));
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return memory.getBookByISBN(ISBN);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return memory.getUserById(userId);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        borrowBook(ISBN, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId, long dueDate) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        requireDueDate(dueDate);
+        ByteBuffer record = ByteBuffer.allocate(LOAN_SIZE);
+        writeLoan(record, bookKey, userKey, dueDate);
+        commit(record, () -> memory.borrowBook(ISBN, userId, dueDate));
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        long bookKey = requireISBNKey(ISBN);
+        ByteBuffer record = ByteBuffer.allocate(RETURN_SIZE);
+        writeReturn(record, bookKey);
+        commit(record, () -> memory.returnBook(ISBN));
+    }
+
+    /**
+     * Removes the earliest borrowing record of a book to a user.
+     * The loan is checked against the state applied so far; should a concurrent return of the same loan be
+     * committed first, this one is recorded and closes nothing.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     * @throws ac.il.bgu.qa.errors.BookNotBorrowedException If the user has no copy of the book on loan.
+     */
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        if (!memory.getBorrowerIds(ISBN).contains(UserIdCodec.toString(userKey))) {
+            throw LibraryErrors.bookNotBorrowed();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RETURN_LOAN_SIZE);
+        writeReturn(record, bookKey, userKey);
+        commit(record, () -> memory.returnLoan(bookKey, userKey));
+    }
+
+    @Override
+    public List<String> getBorrowerIds(String ISBN) {
+        return memory.getBorrowerIds(ISBN);
+    }
+
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        return memory.getBooksByISBN(ISBNs);
+    }
+
+    /**
+     * Adds several books with a single commit.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param books The books to be added, by International Standard Book Number.
+     */
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        int size = 0;
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            requireISBNKey(entry.getKey());
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Invalid book.");
+            }
+            size += bookSize(entry.getValue());
+        }
+        ByteBuffer records = ByteBuffer.allocate(size);
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            writeBook(records, ISBNCodec.pack(entry.getKey()), entry.getValue());
+        }
+        commit(records, () -> memory.addBooks(books));
+    }
+
+    /**
+     * Records that several books are borrowed by a user with a single commit.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books to be borrowed.
+     * @param userId The unique identifier for the user borrowing the books.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId) {
+        borrowBooks(ISBNs, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that several books are borrowed by a user until a due date with a single commit.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs   The International Standard Book Numbers of the books to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the books.
+     * @param dueDate The time the copies are due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId, long dueDate) {
+        long userKey = requireUserKey(userId);
+        requireDueDate(dueDate);
+        ByteBuffer records = ByteBuffer.allocate(ISBNs.size() * LOAN_SIZE);
+        for (String ISBN : ISBNs) {
+            writeLoan(records, requireISBNKey(ISBN), userKey, dueDate);
+        }
+        commit(records, () -> memory.borrowBooks(ISBNs, userId, dueDate));
+    }
+
+    /**
+     * Removes the borrowing records of several books with a single commit.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be returned.
+     */
+    @Override
+    public void returnBooks(Collection<String> ISBNs) {
+        ByteBuffer records = ByteBuffer.allocate(ISBNs.size() * RETURN_SIZE);
+        for (String ISBN : ISBNs) {
+            writeReturn(records, requireISBNKey(ISBN));
+        }
+        commit(records, () -> memory.returnBooks(ISBNs));
+    }
+
+    /**
+     * Fetches the Id of the user currently borrowing a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower of the earliest loan, or null if the book is not borrowed.
+     */
+    public String getBorrowerId(String ISBN) {
+        return memory.getBorrowerId(ISBN);
+    }
+
+    /**
+     * Retrieves the number of copies of a book currently on loan.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The number of loans of the book.
+     */
+    public int getLoanCount(String ISBN) {
+        return memory.getLoanCount(ISBN);
+    }
+
+    @Override
+    public boolean storesDueDates() {
+        return true;
+    }
+
+    @Override
+    public boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        return memory.forEachLoan(procedure);
+    }
+
+    @Override
+    public boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return memory.forEachKey(ISBNKeys, userKeys);
+    }
+
+    @Override
+    public Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        return memory.trackKeys(ISBNKeys, userKeys);
+    }
+
+    /**
+     * Writes a compacted snapshot of the whole state and empties the log.
+     * This happens automatically once the log outgrows the snapshot threshold; writers wait while it runs.
+     *
+     * @throws UncheckedIOException If the snapshot cannot be written.
+     */
+    public void snapshot() {
+        snapshot(false);
+    }
+
+    /**
+     * Forces every buffered record and closes the log. Later writes fail; reads keep working.
+     *
+     * @throws UncheckedIOException If the log cannot be forced or closed.
+     */
+    @Override
+    public void close() {
+        commitLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (syncing) {
+                synced.awaitUninterruptibly();
+            }
+            closed = true;
+            try {
+                if (failure == null) {
+                    writePending();
+                }
+                log.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of writes committed since the database was opened. A batch counts as one.
+     *
+     * @return The number of commits.
+     */
+    public long getCommitCount() {
+        commitLock.lock();
+        try {
+            return commits;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of times the log was forced to disk since the database was opened.
+     * Under concurrent writes this is lower than the number of commits, as commits share forces.
+     *
+     * @return The number of forces.
+     */
+    public long getSyncCount() {
+        commitLock.lock();
+        try {
+            return syncs;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of snapshots written since the database was opened.
+     *
+     * @return The number of snapshots.
+     */
+    public long getSnapshotCount() {
+        commitLock.lock();
+        try {
+            return snapshots;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // Writes a snapshot and empties the log; if only when due, unless the log is within the threshold by then.
+    // Writers that saw the log outgrow the threshold at the same time thus write a single snapshot between them.
+    private void snapshot(boolean onlyIfDue) {
+        commitLock.lock();
+        try {
+            while (syncing) {
+                synced.awaitUninterruptibly();
+            }
+            if (onlyIfDue && logSize <= snapshotThreshold) {
+                return;
+            }
+            checkWritable();
+            try {
+                // Force whatever is buffered, so the snapshot covers exactly the records in the log.
+                writePending();
+                writeSnapshot();
+                resetLog(generation + 1);
+                generation++;
+                logSize = HEADER_SIZE;
+                snapshots++;
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // Appends records to the log and waits until they are durable; they are applied in memory, in log order,
+    // once they are.
+    private void commit(ByteBuffer records, Runnable apply) {
+        records.flip();
+        boolean snapshotDue;
+        commitLock.lock();
+        try {
+            checkWritable();
+            if (pending.remaining() < records.remaining()) {
+                pending = grow(pending, records.remaining());
+            }
+            pending.put(records);
+            pendingChanges.add(apply);
+            appended += records.limit();
+            logSize += records.limit();
+            commits++;
+            awaitDurable(appended);
+            snapshotDue = logSize > snapshotThreshold;
+        } finally {
+            commitLock.unlock();
+        }
+        if (snapshotDue) {
+            snapshot(true);
+        }
+    }
+
+    // Waits until the log is forced up to a position, leading the next group commit if no one else is.
+    // The caller holds the commit lock, which is released while the leader writes and waits for the disk.
+    private void awaitDurable(long position) {
+        while (durable < position) {
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            } else if (syncing) {
+                synced.awaitUninterruptibly();
+                continue;
+            }
+
+            // Take every record buffered so far as one batch, and let new records go to the spare buffer.
+            syncing = true;
+            ByteBuffer batch = pending;
+            List<Runnable> changes = pendingChanges;
+            pending = spare;
+            pendingChanges = spareChanges;
+            long target = appended;
+            commitLock.unlock();
+            IOException error = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    log.write(batch);
+                }
+                log.force(false);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                commitLock.lock();
+            }
+            try {
+                if (error == null) {
+                    // Apply the batch in memory only now that it is on disk.
+                    changes.forEach(Runnable::run);
+                    durable = target;
+                    syncs++;
+                } else {
+                    failure = error;
+                }
+            } finally {
+                batch.clear();
+                spare = batch;
+                changes.clear();
+                spareChanges = changes;
+                syncing = false;
+                synced.signalAll();
+            }
+        }
+    }
+
+    // Writes and forces the buffered records, then applies them in memory.
+    // The caller holds the commit lock and no leader is syncing.
+    private void writePending() throws IOException {
+        if (pending.position() > 0) {
+            pending.flip();
+            while (pending.hasRemaining()) {
+                log.write(pending);
+            }
+            pending.clear();
+            log.force(false);
+            syncs++;
+        }
+        pendingChanges.forEach(Runnable::run);
+        pendingChanges.clear();
+        durable = appended;
+    }
+
+    // Empties the log and starts a new generation of it. The records are cut before the new generation is written,
+    // so a crash in between leaves an empty log or one the snapshot covers.
+    private void resetLog(long nextGeneration) throws IOException {
+        log.truncate(HEADER_SIZE);
+        if (log.size() < HEADER_SIZE) {
+            log.write(header(0), 0);
+        }
+        log.force(true);
+        log.write(header(nextGeneration), 0);
+        log.force(true);
+        log.position(HEADER_SIZE);
+    }
+
+    // Writes the state to a temporary file, forces it and renames it over the snapshot.
+    private void writeSnapshot() throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header(generation));
+            ByteBuffer[] buffer = {ByteBuffer.allocate(1 << 20)};
+            IOException[] error = new IOException[1];
+            memory.forEach((key, book) -> {
+                buffer[0] = drainIfFull(channel, buffer[0], bookSize(book), error);
+                writeBook(buffer[0], key, book);
+            }, (key, user) -> {
+                buffer[0] = drainIfFull(channel, buffer[0], userSize(user), error);
+                writeUser(buffer[0], key, user);
+            }, (bookKey, userKey, dueDate) -> {
+                buffer[0] = drainIfFull(channel, buffer[0], LOAN_SIZE, error);
+                writeLoan(buffer[0], bookKey, userKey, dueDate);
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            buffer[0].flip();
+            while (buffer[0].hasRemaining()) {
+                channel.write(buffer[0]);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Writes out a snapshot buffer that may not fit the next record, keeping the first failure.
+    private static ByteBuffer drainIfFull(FileChannel channel, ByteBuffer buffer, int needed, IOException[] error) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        buffer.flip();
+        try {
+            while (error[0] == null && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            error[0] = e;
+        }
+        buffer.clear();
+        return buffer.capacity() >= needed ? buffer : ByteBuffer.allocate(needed);
+    }
+
+    // Applies every intact record of a file after its header, and returns the position after the last one.
+    private long replay(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Database file too large!");
+        }
+        ByteBuffer file = ByteBuffer.allocate((int) size);
+        while (file.hasRemaining() && channel.read(file, file.position()) >= 0) {
+            // Keep reading until the buffer is full.
+        }
+        file.flip();
+        if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC || file.getInt() != VERSION) {
+            throw new IOException("Not a database file!");
+        }
+        file.getLong();
+        CRC32C crc = new CRC32C();
+        while (file.remaining() >= RECORD_HEADER_SIZE) {
+            int start = file.position();
+            int length = file.getInt();
+            int checksum = file.getInt();
+            if (length < 1 || length > file.remaining()) {
+                return start;
+            }
+            ByteBuffer body = file.slice(file.position(), length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            apply(body);
+            file.position(file.position() + length);
+        }
+        return file.position();
+    }
+
+    // Reads the generation in the header of a file.
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Keep reading until the header is full.
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a database file!");
+        }
+        return header.getLong();
+    }
+
+    // Applies one recovered record to the in-memory state, marking one copy borrowed for every loan.
+    private void apply(ByteBuffer record) throws IOException {
+        byte type = record.get();
+        switch (type) {
+            case ADD_BOOK: {
+                String ISBN = ISBNCodec.toString(record.getLong());
+                int copies = record.getInt();
+                String title = readString(record);
+                String author = readString(record);
+                memory.addBook(ISBN, new Book(ISBN, title, author, copies));
+                break;
+            }
+            case REGISTER_USER: {
+                String id = UserIdCodec.toString(record.getLong());
+                String name = readString(record);
+                memory.registerUser(id, new User(name, id, notificationServices.apply(id)));
+                break;
+            }
+            case BORROW_BOOK: {
+                String ISBN = ISBNCodec.toString(record.getLong());
+                String userId = UserIdCodec.toString(record.getLong());
+                Book book = memory.getBookByISBN(ISBN);
+                if (book != null) {
+                    book.tryBorrow();
+                }
+                memory.borrowBook(ISBN, userId, record.getLong());
+                break;
+            }
+            case RETURN_BOOK: {
+                String ISBN = ISBNCodec.toString(record.getLong());
+                Book book = memory.getBookByISBN(ISBN);
+                if (book != null && memory.getLoanCount(ISBN) > 0) {
+                    book.tryReturn();
+                }
+                memory.returnBook(ISBN);
+                break;
+            }
+            case RETURN_LOAN: {
+                long bookKey = record.getLong();
+                Book book = memory.getBookByISBN(ISBNCodec.toString(bookKey));
+                if (memory.returnLoan(bookKey, record.getLong()) && book != null) {
+                    book.tryReturn();
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown database record " + type + "!");
+        }
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("Database is closed!");
+        } else if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private static ByteBuffer header(long generation) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+
+    // The largest size of a record for a book or a user, as strings take at most three bytes per char.
+    private static int bookSize(Book book) {
+        return RECORD_HEADER_SIZE + 13 + stringSize(book.getTitle()) + stringSize(book.getAuthor());
+    }
+
+    private static int userSize(User user) {
+        return RECORD_HEADER_SIZE + 9 + stringSize(user.getName());
+    }
+
+    private static void writeBook(ByteBuffer buffer, long key, Book book) {
+        int start = beginRecord(buffer, bookSize(book), ADD_BOOK);
+        buffer.putLong(key).putInt(Math.max(1, book.getCopies()));
+        writeString(buffer, book.getTitle());
+        writeString(buffer, book.getAuthor());
+        endRecord(buffer, start);
+    }
+
+    private static void writeUser(ByteBuffer buffer, long key, User user) {
+        int start = beginRecord(buffer, userSize(user), REGISTER_USER);
+        buffer.putLong(key);
+        writeString(buffer, user.getName());
+        endRecord(buffer, start);
+    }
+
+    private static void writeLoan(ByteBuffer buffer, long bookKey, long userKey, long dueDate) {
+        int start = beginRecord(buffer, LOAN_SIZE, BORROW_BOOK);
+        buffer.putLong(bookKey).putLong(userKey).putLong(dueDate);
+        endRecord(buffer, start);
+    }
+
+    // Writes the return of a loan by a named user.
+    private static void writeReturn(ByteBuffer buffer, long bookKey, long userKey) {
+        int start = beginRecord(buffer, RETURN_LOAN_SIZE, RETURN_LOAN);
+        buffer.putLong(bookKey).putLong(userKey);
+        endRecord(buffer, start);
+    }
+
+    private static void writeReturn(ByteBuffer buffer, long bookKey) {
+        int start = beginRecord(buffer, RETURN_SIZE, RETURN_BOOK);
+        buffer.putLong(bookKey);
+        endRecord(buffer, start);
+    }
+
+    // Leaves room for the length and checksum of a record and writes its type.
+    private static int beginRecord(ByteBuffer buffer, int size, byte type) {
+        if (buffer.remaining() < size) {
+            throw new IllegalStateException("Record buffer too small!");
+        }
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER_SIZE);
+        buffer.put(type);
+        return start;
+    }
+
+    // Fills in the length and checksum of the record that starts at a position.
+    private static void endRecord(ByteBuffer buffer, int start) {
+        int length = buffer.position() - start - RECORD_HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start + RECORD_HEADER_SIZE, length));
+        buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+    }
+
+    // Strings are stored as their UTF-8 length, or -1 for null, followed by the bytes.
+    private static int stringSize(String value) {
+        return 4 + (value == null ? 0 : value.length() * 3);
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static void requireDueDate(long dueDate) {
+        if (dueDate < 0) {
+            throw new IllegalArgumentException("Invalid due date.");
+        }
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,603 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.LoanLedger;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.errors.LibraryErrors;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+/**
+ * An in-memory database of books and users keyed by packed primitive longs.
+ * ISBNs are packed with {@link ISBNCodec} and user Ids with {@link UserIdCodec}, and every table is an
+ * open-addressing map, so an entry costs about 24 bytes on top of the stored object itself,
+ * against roughly 100 bytes for a {@code HashMap<String, ...>} entry with its String key and node.
+ * <p>
+ * Lookups are optimistic reads that take no lock unless a writer is active, so any number of
+ * readers run concurrently. Writers are serialized.
+ * <p>
+ * A book with several copies can be on loan to several users at once. Its loans are kept in the order they were
+ * made. {@link #returnBook(String)} closes the earliest one, and {@link #returnBook(String, String)} the earliest
+ * one of the returning user. Every loan keeps the due date it was borrowed with.
+ */
+public class InMemoryDatabaseService implements DatabaseService {
+
+    // Books by packed ISBN.
+    private final LongObjectHashMap<Book> books;
+    // Users by packed user Id.
+    private final LongObjectHashMap<User> users;
+    // Packed user Ids of the current borrowers by packed ISBN, earliest loan first.
+    // The arrays are replaced rather than changed, so optimistic readers never see one half written.
+    private final LongObjectHashMap<long[]> loans;
+    // The due dates of those loans, in the same order, replaced along with them.
+    private final LongObjectHashMap<long[]> dueDates;
+    // Guards all the tables.
+    private final StampedLock lock = new StampedLock();
+    // Receive the key of every book and user added.
+    private final KeyListeners keyListeners = new KeyListeners();
+
+    /**
+     * Constructs a new, empty database.
+     */
+    public InMemoryDatabaseService() {
+        this(16, 16);
+    }
+
+    /**
+     * Constructs a new, empty database sized for the expected catalog.
+     *
+     * @param expectedBooks The number of books expected in the database.
+     * @param expectedUsers The number of users expected in the database.
+     */
+    public InMemoryDatabaseService(int expectedBooks, int expectedUsers) {
+        this.books = new LongObjectHashMap<>(expectedBooks);
+        this.users = new LongObjectHashMap<>(expectedUsers);
+        this.loans = new LongObjectHashMap<>();
+        this.dueDates = new LongObjectHashMap<>();
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long key = requireISBNKey(ISBN);
+        if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        long stamp = lock.writeLock();
+        try {
+            keyListeners.bookAdded(key);
+            books.put(key, book);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long key = requireUserKey(id);
+        if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        long stamp = lock.writeLock();
+        try {
+            keyListeners.userAdded(key);
+            users.put(key, user);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        return key == ISBNCodec.INVALID ? null : read(books, key);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = UserIdCodec.pack(userId);
+        return key == UserIdCodec.INVALID ? null : read(users, key);
+    }
+
+    /**
+     * Records that a copy of a book is borrowed by a user, after the loans of the other copies.
+     * The borrowed state of the {@link Book} itself is owned by the book and is not changed here.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        borrowBook(ISBN, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that a copy of a book is borrowed by a user until a due date, after the loans of the other copies.
+     *
+     * @param ISBN    The International Standard Book Number of the book to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId, long dueDate) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        requireDueDate(dueDate);
+        long stamp = lock.writeLock();
+        try {
+            addLoan(bookKey, userKey, dueDate);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the earliest borrowing record of a book.
+     * The borrowed state of the {@link Book} itself is owned by the book and is not changed here.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        long bookKey = requireISBNKey(ISBN);
+        long stamp = lock.writeLock();
+        try {
+            removeLoan(bookKey);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the earliest borrowing record of a book to a user.
+     * The borrowed state of the {@link Book} itself is owned by the book and is not changed here.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     * @throws ac.il.bgu.qa.errors.BookNotBorrowedException If the user has no copy of the book on loan.
+     */
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        if (!returnLoan(requireISBNKey(ISBN), requireUserKey(userId))) {
+            throw LibraryErrors.bookNotBorrowed();
+        }
+    }
+
+    /**
+     * Removes a book and every loan of it.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true, as the book is no longer in the database.
+     */
+    @Override
+    public boolean removeBook(String ISBN) {
+        long bookKey = requireISBNKey(ISBN);
+        long stamp = lock.writeLock();
+        try {
+            books.remove(bookKey);
+            loans.remove(bookKey);
+            dueDates.remove(bookKey);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a user. Their loans are kept with the books.
+     *
+     * @param userId The unique identifier for the user.
+     * @return true, as the user is no longer in the database.
+     */
+    @Override
+    public boolean removeUser(String userId) {
+        long userKey = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            users.remove(userKey);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Fetches several books under a single read lock.
+     *
+     * @param ISBNs The International Standard Book Numbers.
+     * @return The books found, by ISBN. Invalid and unknown ISBNs are left out.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> found = new HashMap<>();
+        long stamp = lock.readLock();
+        try {
+            for (String ISBN : ISBNs) {
+                long key = ISBNCodec.pack(ISBN);
+                Book book = key == ISBNCodec.INVALID ? null : books.get(key);
+                if (book != null) {
+                    found.put(ISBN, book);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return found;
+    }
+
+    /**
+     * Adds several books under a single write lock.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param books The books to be added, by International Standard Book Number.
+     */
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        long[] keys = new long[books.size()];
+        Book[] values = new Book[books.size()];
+        int i = 0;
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Invalid book.");
+            }
+            keys[i] = requireISBNKey(entry.getKey());
+            values[i++] = entry.getValue();
+        }
+        long stamp = lock.writeLock();
+        try {
+            for (int j = 0; j < keys.length; j++) {
+                keyListeners.bookAdded(keys[j]);
+                this.books.put(keys[j], values[j]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records that several books are borrowed by a user under a single write lock.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books to be borrowed.
+     * @param userId The unique identifier for the user borrowing the books.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId) {
+        borrowBooks(ISBNs, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that several books are borrowed by a user until a due date under a single write lock.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs   The International Standard Book Numbers of the books to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the books.
+     * @param dueDate The time the copies are due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId, long dueDate) {
+        long userKey = requireUserKey(userId);
+        long[] bookKeys = requireISBNKeys(ISBNs);
+        requireDueDate(dueDate);
+        long stamp = lock.writeLock();
+        try {
+            for (long bookKey : bookKeys) {
+                addLoan(bookKey, userKey, dueDate);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the earliest borrowing record of several books under a single write lock.
+     * Every ISBN is validated before anything is written, so the batch is applied entirely or not at all.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be returned.
+     */
+    @Override
+    public void returnBooks(Collection<String> ISBNs) {
+        long[] bookKeys = requireISBNKeys(ISBNs);
+        long stamp = lock.writeLock();
+        try {
+            for (long bookKey : bookKeys) {
+                removeLoan(bookKey);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Fetches the Id of the user currently borrowing a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower of the earliest loan, or null if the book is not borrowed.
+     */
+    public String getBorrowerId(String ISBN) {
+        long[] borrowers = borrowers(ISBN);
+        return borrowers == null ? null : UserIdCodec.toString(borrowers[0]);
+    }
+
+    /**
+     * Fetches the Ids of the users currently borrowing copies of a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, earliest loan first, or an empty list if the book is not borrowed.
+     */
+    @Override
+    public List<String> getBorrowerIds(String ISBN) {
+        long[] borrowers = borrowers(ISBN);
+        if (borrowers == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(borrowers.length);
+        for (long userKey : borrowers) {
+            ids.add(UserIdCodec.toString(userKey));
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieves the number of copies of a book currently on loan.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The number of loans of the book.
+     */
+    public int getLoanCount(String ISBN) {
+        long[] borrowers = borrowers(ISBN);
+        return borrowers == null ? 0 : borrowers.length;
+    }
+
+    /**
+     * Retrieves the number of books in the database.
+     *
+     * @return The number of books.
+     */
+    public int bookCount() {
+        long stamp = lock.readLock();
+        try {
+            return books.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of users in the database.
+     *
+     * @return The number of users.
+     */
+    public int userCount() {
+        long stamp = lock.readLock();
+        try {
+            return users.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stores the due date of every loan.
+     *
+     * @return true.
+     */
+    @Override
+    public boolean storesDueDates() {
+        return true;
+    }
+
+    /**
+     * Hands every loan with its due date to a procedure under a single read lock.
+     *
+     * @param procedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan.
+     * @return true, as every loan is held in memory.
+     */
+    @Override
+    public boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        long stamp = lock.readLock();
+        try {
+            forEachLoanLocked(procedure);
+            return true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands the key of every book and user to consumers under a single read lock.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return true, as every key is held in memory.
+     */
+    @Override
+    public boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        forEach((key, book) -> ISBNKeys.accept(key), (key, user) -> userKeys.accept(key), (book, user, dueDate) -> {
+        });
+        return true;
+    }
+
+    /**
+     * Hands the key of every book and user to consumers under the write lock, then the key of every one added.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return Stops handing keys over.
+     */
+    @Override
+    public Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        long stamp = lock.writeLock();
+        try {
+            books.forEach((key, book) -> ISBNKeys.accept(key));
+            users.forEach((key, user) -> userKeys.accept(key));
+            return keyListeners.add(ISBNKeys, userKeys);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Hands every book, user and loan to procedures, by packed keys, under a single read lock,
+     * so they see one consistent state. The procedures must not change the database.
+     *
+     * @param bookProcedure Receives the packed ISBN and every book.
+     * @param userProcedure Receives the packed user Id and every user.
+     * @param loanProcedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan,
+     *                      once per copy on loan and earliest loan first.
+     */
+    void forEach(LongObjectHashMap.Procedure<? super Book> bookProcedure, LongObjectHashMap.Procedure<? super User> userProcedure,
+                 LoanLedger.LoanProcedure loanProcedure) {
+        long stamp = lock.readLock();
+        try {
+            books.forEach(bookProcedure);
+            users.forEach(userProcedure);
+            forEachLoanLocked(loanProcedure);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Hands every loan to a procedure. Must hold the lock.
+    private void forEachLoanLocked(LoanLedger.LoanProcedure procedure) {
+        loans.forEach((bookKey, borrowers) -> {
+            long[] due = dueDates.get(bookKey);
+            for (int i = 0; i < borrowers.length; i++) {
+                procedure.apply(bookKey, borrowers[i], due[i]);
+            }
+        });
+    }
+
+    // Appends a loan to those of a book. Must hold the write lock.
+    private void addLoan(long bookKey, long userKey, long dueDate) {
+        long[] borrowers = loans.get(bookKey);
+        if (borrowers == null) {
+            loans.put(bookKey, new long[]{userKey});
+            dueDates.put(bookKey, new long[]{dueDate});
+        } else {
+            long[] grown = Arrays.copyOf(borrowers, borrowers.length + 1);
+            grown[borrowers.length] = userKey;
+            loans.put(bookKey, grown);
+            long[] due = Arrays.copyOf(dueDates.get(bookKey), grown.length);
+            due[borrowers.length] = dueDate;
+            dueDates.put(bookKey, due);
+        }
+    }
+
+    // Removes the earliest loan of a book, if it has one. Must hold the write lock.
+    private void removeLoan(long bookKey) {
+        long[] borrowers = loans.get(bookKey);
+        if (borrowers == null) {
+            return;
+        } else if (borrowers.length == 1) {
+            loans.remove(bookKey);
+            dueDates.remove(bookKey);
+        } else {
+            loans.put(bookKey, Arrays.copyOfRange(borrowers, 1, borrowers.length));
+            dueDates.put(bookKey, Arrays.copyOfRange(dueDates.get(bookKey), 1, borrowers.length));
+        }
+    }
+
+    /**
+     * Removes the earliest borrowing record of a book to a user, if they have one, under the write lock.
+     *
+     * @param bookKey The packed ISBN of the book.
+     * @param userKey The packed Id of the user.
+     * @return true if a loan was removed, false if the user had no copy of the book on loan.
+     */
+    boolean returnLoan(long bookKey, long userKey) {
+        long stamp = lock.writeLock();
+        try {
+            long[] borrowers = loans.get(bookKey);
+            int index = -1;
+            for (int i = 0; borrowers != null && i < borrowers.length; i++) {
+                if (borrowers[i] == userKey) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            } else if (borrowers.length == 1) {
+                loans.remove(bookKey);
+                dueDates.remove(bookKey);
+            } else {
+                loans.put(bookKey, removeAt(borrowers, index));
+                dueDates.put(bookKey, removeAt(dueDates.get(bookKey), index));
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // A copy of an array without one of its elements.
+    private static long[] removeAt(long[] values, int index) {
+        long[] shrunk = new long[values.length - 1];
+        System.arraycopy(values, 0, shrunk, 0, index);
+        System.arraycopy(values, index + 1, shrunk, index, shrunk.length - index);
+        return shrunk;
+    }
+
+    // The packed Ids of the borrowers of a book, or null if it is not borrowed.
+    private long[] borrowers(String ISBN) {
+        long bookKey = ISBNCodec.pack(ISBN);
+        return bookKey == ISBNCodec.INVALID ? null : read(loans, bookKey);
+    }
+
+    // Reads without locking and falls back to a read lock only if a writer interfered.
+    private <V> V read(LongObjectHashMap<V> table, long key) {
+        long stamp = lock.tryOptimisticRead();
+        V value = table.get(key);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return table.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long[] requireISBNKeys(Collection<String> ISBNs) {
+        long[] keys = new long[ISBNs.size()];
+        int i = 0;
+        for (String ISBN : ISBNs) {
+            keys[i++] = requireISBNKey(ISBN);
+        }
+        return keys;
+    }
+
+    private static void requireDueDate(long dueDate) {
+        if (dueDate < 0) {
+            throw new IllegalArgumentException("Invalid due date.");
+        }
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,72 @@
+package ac.il.bgu.qa.services;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * The consumers a database hands the key of every added book and user to, for
+ * {@link DatabaseService#trackKeys(LongConsumer, LongConsumer)}.
+ * <p>
+ * Consumers are added and removed rarely and called on every write, so they are kept in a copy-on-write list
+ * that writers read without locking.
+ */
+final class KeyListeners {
+
+    // The consumers of the keys of books and of users, in pairs.
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a pair of consumers.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book added.
+     * @param userKeys Receives the packed Id of every user added.
+     * @return Removes the consumers again.
+     */
+    Runnable add(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        Listener listener = new Listener(ISBNKeys, userKeys);
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Tells whether no consumers are added.
+     *
+     * @return true if no keys are tracked.
+     */
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    /**
+     * Hands the packed ISBN of a book about to be added to every consumer.
+     *
+     * @param key The packed ISBN.
+     */
+    void bookAdded(long key) {
+        for (Listener listener : listeners) {
+            listener.ISBNKeys.accept(key);
+        }
+    }
+
+    /**
+     * Hands the packed Id of a user about to be added to every consumer.
+     *
+     * @param key The packed user Id.
+     */
+    void userAdded(long key) {
+        for (Listener listener : listeners) {
+            listener.userKeys.accept(key);
+        }
+    }
+
+    // A pair of consumers, compared by identity so the same consumers can be added twice.
+    private static final class Listener {
+        final LongConsumer ISBNKeys;
+        final LongConsumer userKeys;
+
+        Listener(LongConsumer ISBNKeys, LongConsumer userKeys) {
+            this.ISBNKeys = ISBNKeys;
+            this.userKeys = userKeys;
+        }
+    }
+}
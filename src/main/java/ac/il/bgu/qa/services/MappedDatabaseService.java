@@ -0,0 +1,728 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.LoanLedger;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.errors.LibraryErrors;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link DatabaseService} kept in memory-mapped files, which opens in constant time whatever its size.
+ * <p>
+ * Books and users live in two files, each an open-addressing hash table of fixed-size slots addressed by the
+ * packed ISBN or packed user Id. A book slot holds the book's title, author and number of copies, how many
+ * copies are borrowed, and the borrower and due date of its latest loan. A user slot holds the user's name. Opening maps the files
+ * and reads a header, so startup does not depend on the size of the catalog.
+ * The operating system's page cache holds the slots in use, not the Java heap.
+ * <p>
+ * Lookups read straight from the mapping and build a new {@link Book} or {@link User} every time.
+ * A book is built with as many copies borrowed as the database recorded, so the borrowed state a
+ * {@link ac.il.bgu.qa.Library} relies on survives between lookups and restarts. Because every
+ * lookup returns a new object, claiming a copy of one of them does not keep anyone else from claiming the
+ * same copy. So {@link #borrowBook} and {@link #returnBook} check and change the count of borrowed copies
+ * in one step under the write lock, and refuse a loan with no copy left or a return with no copy out.
+ * <p>
+ * Only the latest loan of a book is kept in full, so {@link #forEachLoan} hands over that loan of every book,
+ * which is every loan of the books with a single copy out. The latest borrower is forgotten when a return may
+ * have closed their loan, and a loan whose borrower is forgotten cannot be listed. Files created before due
+ * dates were kept have smaller book slots and keep their loans without due dates.
+ * <p>
+ * Titles and authors are limited to {@value #MAX_TEXT_BYTES} bytes of UTF-8 and names to
+ * {@value #MAX_NAME_BYTES} bytes, and each table is sized when its file is created. Changes reach the files
+ * through the page cache, so they survive the process failing; {@link #force()} also makes them survive the
+ * machine failing. A {@link NotificationService} cannot be stored, so users are built with the service
+ * a resolver gives for their Id.
+ * <p>
+ * Lookups are optimistic reads that take no lock unless a writer is active. Writers are serialized.
+ */
+public class MappedDatabaseService implements DatabaseService, AutoCloseable {
+
+    // The maximum length of a title or an author, and of a name, in UTF-8 bytes.
+    public static final int MAX_TEXT_BYTES = 114;
+    public static final int MAX_NAME_BYTES = 118;
+
+    // The names of the files in the directory.
+    private static final String BOOKS_FILE = "books.map";
+    private static final String USERS_FILE = "users.map";
+
+    // Identifies the files, and the version of their layout.
+    private static final int MAGIC = 0x4C49424D;
+    private static final int VERSION = 2;
+    // Files of the first version have no tombstones, so they are read as they are and upgraded.
+    private static final int FIRST_VERSION = 1;
+    // The header: magic, version, slot size, number of slots and number of entries.
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int SLOTS_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+
+    // Every slot starts with its packed key plus one, so a zeroed slot is empty. A removed entry leaves a tombstone.
+    private static final int KEY = 0;
+    private static final long TOMBSTONE = -1;
+    // The layout of a book slot.
+    private static final int BOOK_SLOT_SIZE = 264;
+    private static final int FIRST_BOOK_SLOT_SIZE = 256;
+    private static final int BORROWER = 8;
+    private static final int COPIES = 16;
+    private static final int BORROWED_COPIES = 20;
+    private static final int TITLE = 24;
+    private static final int AUTHOR = TITLE + 2 + MAX_TEXT_BYTES;
+    private static final int DUE_DATE = AUTHOR + 2 + MAX_TEXT_BYTES;
+    // The layout of a user slot.
+    private static final int USER_SLOT_SIZE = 128;
+    private static final int NAME = 8;
+
+    // Slots stored as a length of -1 hold null.
+    private static final short NULL_LENGTH = -1;
+
+    // The books and the users.
+    private final Table books;
+    private final Table users;
+    // Gives the notification service of every user by Id.
+    private final Function<String, NotificationService> notificationServices;
+    // Guards both tables.
+    private final StampedLock lock = new StampedLock();
+    // Receive the key of every book and user added.
+    private final KeyListeners keyListeners = new KeyListeners();
+
+    /**
+     * Opens a database in a directory, or creates one sized for the expected catalog.
+     * An existing database keeps the size it was created with.
+     *
+     * @param directory            The directory of the files. It is created if it does not exist.
+     * @param notificationServices Gives the notification service of every user by Id.
+     * @param expectedBooks        The number of books a new database must hold.
+     * @param expectedUsers        The number of users a new database must hold.
+     * @throws IOException If the files cannot be mapped or are not database files.
+     */
+    public MappedDatabaseService(Path directory, Function<String, NotificationService> notificationServices,
+                                 int expectedBooks, int expectedUsers) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Invalid directory.");
+        } else if (notificationServices == null) {
+            throw new IllegalArgumentException("Invalid notification service resolver.");
+        } else if (expectedBooks < 1) {
+            throw new IllegalArgumentException("Invalid number of books.");
+        } else if (expectedUsers < 1) {
+            throw new IllegalArgumentException("Invalid number of users.");
+        }
+        this.notificationServices = notificationServices;
+        Files.createDirectories(directory);
+        this.books = Table.open(directory.resolve(BOOKS_FILE), FIRST_BOOK_SLOT_SIZE, BOOK_SLOT_SIZE, expectedBooks);
+        this.users = Table.open(directory.resolve(USERS_FILE), USER_SLOT_SIZE, USER_SLOT_SIZE, expectedUsers);
+    }
+
+    /**
+     * Adds a book, or replaces the title, author and copies of a book with the same ISBN.
+     * Following {@link DatabaseService#addBook}, the copies borrowed from the given book are not recorded:
+     * a new book starts with none borrowed, and a replaced book keeps the loans recorded for it with
+     * {@link #borrowBook}, up to its new number of copies.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @param book The book.
+     * @throws IllegalStateException If the database is full.
+     */
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long key = requireISBNKey(ISBN);
+        if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        byte[] title = encode(book.getTitle(), MAX_TEXT_BYTES, "Invalid title.");
+        byte[] author = encode(book.getAuthor(), MAX_TEXT_BYTES, "Invalid author.");
+        int copies = Math.max(1, book.getCopies());
+        long stamp = lock.writeLock();
+        try {
+            keyListeners.bookAdded(key);
+            int slot = books.insert(key);
+            MappedByteBuffer map = books.map;
+            map.putInt(slot + COPIES, copies);
+            map.putInt(slot + BORROWED_COPIES, Math.min(copies, map.getInt(slot + BORROWED_COPIES)));
+            putBytes(map, slot + TITLE, title);
+            putBytes(map, slot + AUTHOR, author);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a user, or replaces the name of a user with the same Id.
+     *
+     * @param id   The unique identifier of the user.
+     * @param user The user.
+     * @throws IllegalStateException If the database is full.
+     */
+    @Override
+    public void registerUser(String id, User user) {
+        long key = requireUserKey(id);
+        if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        byte[] name = encode(user.getName(), MAX_NAME_BYTES, "Invalid name.");
+        long stamp = lock.writeLock();
+        try {
+            keyListeners.userAdded(key);
+            int slot = users.insert(key);
+            putBytes(users.map, slot + NAME, name);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        BookSlot slot = readBook(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = readBook(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot == null) {
+            return null;
+        }
+        Book book = new Book(ISBNCodec.toString(key), slot.title, slot.author, slot.copies);
+        for (int i = 0; i < slot.borrowedCopies; i++) {
+            book.tryBorrow();
+        }
+        return book;
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        int slot = users.find(key);
+        String name = slot < 0 ? null : getString(users.map, slot + NAME, MAX_NAME_BYTES);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = users.find(key);
+                name = slot < 0 ? null : getString(users.map, slot + NAME, MAX_NAME_BYTES);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0) {
+            return null;
+        }
+        String id = UserIdCodec.toString(key);
+        return new User(name, id, notificationServices.apply(id));
+    }
+
+    /**
+     * Records that a copy of a book is borrowed by a user, if a copy is left.
+     * A book that is not in the database cannot be borrowed, so it is ignored.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     * @throws ac.il.bgu.qa.errors.BookAlreadyBorrowedException If every copy of the book is borrowed.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        borrowBook(ISBN, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that a copy of a book is borrowed by a user until a due date, if a copy is left.
+     * A book that is not in the database cannot be borrowed, so it is ignored.
+     *
+     * @param ISBN    The International Standard Book Number of the book to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     * @throws ac.il.bgu.qa.errors.BookAlreadyBorrowedException If every copy of the book is borrowed.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId, long dueDate) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        if (dueDate < 0) {
+            throw new IllegalArgumentException("Invalid due date.");
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = books.find(bookKey);
+            if (slot >= 0) {
+                MappedByteBuffer map = books.map;
+                int borrowedCopies = map.getInt(slot + BORROWED_COPIES);
+                if (borrowedCopies >= map.getInt(slot + COPIES)) {
+                    throw LibraryErrors.bookAlreadyBorrowed();
+                }
+                map.putInt(slot + BORROWED_COPIES, borrowedCopies + 1);
+                map.putLong(slot + BORROWER, userKey + 1);
+                if (books.slotSize > DUE_DATE) {
+                    map.putLong(slot + DUE_DATE, dueDate);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records that the earliest loan of a book is returned. The latest borrower is forgotten once no copy is
+     * borrowed.
+     * A book that is not in the database cannot be returned, so it is ignored.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     * @throws ac.il.bgu.qa.errors.BookNotBorrowedException If no copy of the book is borrowed.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        long bookKey = requireISBNKey(ISBN);
+        long stamp = lock.writeLock();
+        try {
+            int slot = books.find(bookKey);
+            if (slot >= 0) {
+                MappedByteBuffer map = books.map;
+                int borrowedCopies = map.getInt(slot + BORROWED_COPIES) - 1;
+                if (borrowedCopies < 0) {
+                    throw LibraryErrors.bookNotBorrowed();
+                }
+                map.putInt(slot + BORROWED_COPIES, borrowedCopies);
+                if (borrowedCopies == 0) {
+                    map.putLong(slot + BORROWER, 0);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records that a copy of a book borrowed by a user is returned. The latest borrower is forgotten if it was
+     * this user, as the copy returned may have been that of their latest loan.
+     * A book that is not in the database cannot be returned, so it is ignored.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     * @throws ac.il.bgu.qa.errors.BookNotBorrowedException If no copy of the book is borrowed, or its only loan is
+     *                                                     known to be another user's.
+     */
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            int slot = books.find(bookKey);
+            if (slot >= 0) {
+                MappedByteBuffer map = books.map;
+                int borrowedCopies = map.getInt(slot + BORROWED_COPIES) - 1;
+                long borrower = map.getLong(slot + BORROWER);
+                if (borrowedCopies < 0 || (borrowedCopies == 0 && borrower != 0 && borrower != userKey + 1)) {
+                    throw LibraryErrors.bookNotBorrowed();
+                }
+                map.putInt(slot + BORROWED_COPIES, borrowedCopies);
+                if (borrowedCopies == 0 || borrower == userKey + 1) {
+                    map.putLong(slot + BORROWER, 0);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a book and its loans, leaving a marker in its slot so probes for other books continue past it.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return true, as the book is no longer in the database.
+     */
+    @Override
+    public boolean removeBook(String ISBN) {
+        long key = requireISBNKey(ISBN);
+        long stamp = lock.writeLock();
+        try {
+            books.remove(key);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a user, leaving a marker in their slot so probes for other users continue past it.
+     *
+     * @param userId The unique identifier for the user.
+     * @return true, as the user is no longer in the database.
+     */
+    @Override
+    public boolean removeUser(String userId) {
+        long key = requireUserKey(userId);
+        long stamp = lock.writeLock();
+        try {
+            users.remove(key);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Fetches the Id of the user who last borrowed a copy of a book that is still borrowed.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Id of the borrower, or null if the book is unknown, not borrowed or its latest borrower was
+     *         forgotten.
+     */
+    public String getBorrowerId(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            return null;
+        }
+        long stamp = lock.readLock();
+        try {
+            int slot = books.find(key);
+            long borrower = slot < 0 ? 0 : books.map.getLong(slot + BORROWER);
+            return borrower == 0 ? null : UserIdCodec.toString(borrower - 1);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stores the due date of the latest loan of every book, unless the file was created before due dates were kept.
+     *
+     * @return true if the book slots have room for a due date, false otherwise.
+     */
+    @Override
+    public boolean storesDueDates() {
+        return books.slotSize > DUE_DATE;
+    }
+
+    /**
+     * Hands the latest loan of every book whose latest borrower is known to a procedure, by scanning the book
+     * table under a single read lock.
+     *
+     * @param procedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan.
+     * @return true if those were all the loans, false if some book has loans whose borrower is not known.
+     */
+    @Override
+    public boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        boolean[] complete = {true};
+        long stamp = lock.readLock();
+        try {
+            MappedByteBuffer map = books.map;
+            books.forEachSlot(slot -> {
+                int borrowedCopies = map.getInt(slot + BORROWED_COPIES);
+                long borrower = map.getLong(slot + BORROWER);
+                if (borrower != 0) {
+                    long dueDate = books.slotSize > DUE_DATE ? map.getLong(slot + DUE_DATE) : LoanLedger.NO_DUE_DATE;
+                    procedure.apply(map.getLong(slot + KEY) - 1, borrower - 1, dueDate);
+                }
+                if (borrowedCopies > (borrower != 0 ? 1 : 0)) {
+                    complete[0] = false;
+                }
+            });
+            return complete[0];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands the key of every book and user to consumers by scanning the tables under a single read lock.
+     * This reads every slot, so it takes time in proportion to the size of the files.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return true, as the tables hold every key.
+     */
+    @Override
+    public boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        long stamp = lock.readLock();
+        try {
+            books.forEachKey(ISBNKeys);
+            users.forEachKey(userKeys);
+            return true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands the key of every book and user to consumers by scanning the tables under the write lock,
+     * then the key of every one added.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return Stops handing keys over.
+     */
+    @Override
+    public Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        long stamp = lock.writeLock();
+        try {
+            books.forEachKey(ISBNKeys);
+            users.forEachKey(userKeys);
+            return keyListeners.add(ISBNKeys, userKeys);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of books in the database.
+     *
+     * @return The number of books.
+     */
+    public int bookCount() {
+        long stamp = lock.readLock();
+        try {
+            return books.count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the number of users in the database.
+     *
+     * @return The number of users.
+     */
+    public int userCount() {
+        long stamp = lock.readLock();
+        try {
+            return users.count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes every change to the disk, so it survives the machine failing.
+     */
+    public void force() {
+        long stamp = lock.readLock();
+        try {
+            books.map.force();
+            users.map.force();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes every change to the disk. The mappings are released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    // Reads a book slot into a holder, clamping lengths so a read torn by a writer cannot fail.
+    private BookSlot readBook(long key) {
+        int slot = books.find(key);
+        if (slot < 0) {
+            return null;
+        }
+        MappedByteBuffer map = books.map;
+        BookSlot book = new BookSlot();
+        book.copies = Math.max(1, map.getInt(slot + COPIES));
+        book.borrowedCopies = Math.max(0, Math.min(book.copies, map.getInt(slot + BORROWED_COPIES)));
+        book.title = getString(map, slot + TITLE, MAX_TEXT_BYTES);
+        book.author = getString(map, slot + AUTHOR, MAX_TEXT_BYTES);
+        return book;
+    }
+
+    private static byte[] encode(String value, int maxBytes, String error) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException(error);
+        }
+        return bytes;
+    }
+
+    // Strings are stored as their UTF-8 length, or -1 for null, followed by the bytes.
+    private static void putBytes(MappedByteBuffer map, int offset, byte[] bytes) {
+        if (bytes == null) {
+            map.putShort(offset, NULL_LENGTH);
+        } else {
+            map.putShort(offset, (short) bytes.length);
+            map.put(offset + 2, bytes);
+        }
+    }
+
+    private static String getString(MappedByteBuffer map, int offset, int maxBytes) {
+        int length = map.getShort(offset);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[Math.max(0, Math.min(maxBytes, length))];
+        map.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+
+    // The fields of a book slot, read before they are validated.
+    private static final class BookSlot {
+        int copies;
+        int borrowedCopies;
+        String title;
+        String author;
+    }
+
+    /**
+     * A mapped file holding a header and an open-addressing hash table of fixed-size slots, probed linearly.
+     * A removed entry leaves a tombstone, so a probe ends at the first empty slot and continues past tombstones,
+     * and a new entry reuses the first tombstone on its probe.
+     */
+    private static final class Table {
+        final MappedByteBuffer map;
+        final int slotSize;
+        final int mask;
+        // The number of entries, mirrored in the header.
+        int count;
+
+        private Table(MappedByteBuffer map, int slotSize, int slots, int count) {
+            this.map = map;
+            this.slotSize = slotSize;
+            this.mask = slots - 1;
+            this.count = count;
+        }
+
+        // Maps an existing table with slots of a size between the two given, or creates one with the larger slots
+        // and room for the expected entries at two-thirds load.
+        static Table open(Path path, int minSlotSize, int slotSize, int expectedEntries) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() == 0) {
+                    int slots = Integer.highestOneBit(Math.max(16, (int) Math.min(1 << 30, expectedEntries * 3L / 2)) - 1) << 1;
+                    long size = HEADER_SIZE + (long) slots * slotSize;
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Invalid number of entries.");
+                    }
+                    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    map.putInt(SLOT_SIZE_OFFSET, slotSize);
+                    map.putInt(SLOTS_OFFSET, slots);
+                    map.putInt(COUNT_OFFSET, 0);
+                    map.putInt(4, VERSION);
+                    // The magic goes last, so a file cut short while being created is not taken for a table.
+                    map.putInt(0, MAGIC);
+                    return new Table(map, slotSize, slots, 0);
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                int slots = map.getInt(SLOTS_OFFSET);
+                int version = map.getInt(4);
+                int fileSlotSize = map.getInt(SLOT_SIZE_OFFSET);
+                if (map.getInt(0) != MAGIC || (version != VERSION && version != FIRST_VERSION)
+                        || fileSlotSize < minSlotSize || fileSlotSize > slotSize
+                        || Integer.bitCount(slots) != 1 || channel.size() != HEADER_SIZE + (long) slots * fileSlotSize) {
+                    throw new IOException("Not a database file!");
+                }
+                map.putInt(4, VERSION);
+                return new Table(map, fileSlotSize, slots, map.getInt(COUNT_OFFSET));
+            }
+        }
+
+        // Returns the offset of the slot of a key, or -1 if the key is not in the table.
+        int find(long key) {
+            long stored = key + 1;
+            int i = slot(key, mask);
+            for (int probes = 0; probes <= mask; probes++) {
+                int offset = HEADER_SIZE + i * slotSize;
+                long k = map.getLong(offset + KEY);
+                if (k == stored) {
+                    return offset;
+                } else if (k == 0) {
+                    return -1;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        // Hands the key of every used slot to a consumer.
+        void forEachKey(LongConsumer consumer) {
+            forEachSlot(offset -> consumer.accept(map.getLong(offset + KEY) - 1));
+        }
+
+        // Hands the offset of every used slot to a consumer.
+        void forEachSlot(IntConsumer consumer) {
+            for (int i = 0; i <= mask; i++) {
+                int offset = HEADER_SIZE + i * slotSize;
+                long stored = map.getLong(offset + KEY);
+                if (stored != 0 && stored != TOMBSTONE) {
+                    consumer.accept(offset);
+                }
+            }
+        }
+
+        // Returns the offset of the slot of a key, claiming an empty slot if the key is new.
+        int insert(long key) {
+            int offset = find(key);
+            if (offset >= 0) {
+                return offset;
+            } else if ((count + 1) * 3L > (mask + 1) * 2L) {
+                throw new IllegalStateException("Database is full!");
+            }
+            int i = slot(key, mask);
+            long stored;
+            while ((stored = map.getLong(offset = HEADER_SIZE + i * slotSize)) != 0 && stored != TOMBSTONE) {
+                i = (i + 1) & mask;
+            }
+            // A reused slot is cleared, so nothing of the removed entry shows through.
+            map.put(offset, new byte[slotSize]);
+            map.putLong(offset + KEY, key + 1);
+            map.putInt(COUNT_OFFSET, ++count);
+            return offset;
+        }
+
+        // Replaces the entry of a key with a tombstone, if the key is in the table.
+        void remove(long key) {
+            int offset = find(key);
+            if (offset >= 0) {
+                map.putLong(offset + KEY, TOMBSTONE);
+                map.putInt(COUNT_OFFSET, --count);
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key & mask;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link StreamingReviewService} over a backend that serves the reviews of a book a page at a time.
+ * <p>
+ * A stream of reviews fetches its next page only once it consumed the previous one, so it holds a single
+ * page however many reviews the book has, and a caller that stops early fetches no further pages.
+ * A page of reviews at any offset is fetched directly, without reading the reviews before it.
+ */
+public class PagedReviewService implements StreamingReviewService {
+
+    // Default number of reviews fetched per page.
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * A backend that serves the reviews of a book a page at a time.
+     */
+    @FunctionalInterface
+    public interface PageSource {
+
+        /**
+         * Fetches one page of the reviews of a book.
+         *
+         * @param ISBN   The International Standard Book Number (ISBN) of the book.
+         * @param offset The number of reviews to skip.
+         * @param limit  The maximum number of reviews to return.
+         * @return The reviews of the page, fewer than the limit or empty at the end of the reviews.
+         * @throws ReviewException If there's an issue fetching the reviews.
+         */
+        List<String> fetchPage(String ISBN, int offset, int limit) throws ReviewException;
+    }
+
+    // The backend of the reviews.
+    private final PageSource source;
+    // The number of reviews fetched per page.
+    private final int pageSize;
+
+    /**
+     * Constructs a new PagedReviewService with the default page size.
+     *
+     * @param source The backend of the reviews.
+     */
+    public PagedReviewService(PageSource source) {
+        this(source, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a new PagedReviewService.
+     *
+     * @param source   The backend of the reviews.
+     * @param pageSize The number of reviews fetched per page.
+     */
+    public PagedReviewService(PageSource source, int pageSize) {
+        if (source == null) {
+            throw new IllegalArgumentException("Invalid page source.");
+        } else if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size.");
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public Stream<String> streamReviewsForBook(String ISBN) throws ReviewException {
+        return StreamSupport.stream(new PageSpliterator(ISBN), false);
+    }
+
+    /**
+     * Fetches one page of the reviews of a book straight from the backend.
+     *
+     * @param ISBN   The International Standard Book Number (ISBN) of the book.
+     * @param offset The number of reviews to skip.
+     * @param limit  The maximum number of reviews to return.
+     * @return The reviews of the page, fewer than the limit or empty at the end of the reviews.
+     * @throws ReviewException If there's an issue fetching the reviews.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN, int offset, int limit) throws ReviewException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset.");
+        } else if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit.");
+        }
+        List<String> page = source.fetchPage(ISBN, offset, limit);
+        return page == null ? List.of() : page;
+    }
+
+    /**
+     * Does nothing: every page is fetched by its own call to the backend.
+     */
+    @Override
+    public void close() {
+    }
+
+    // Fetches the next page once the previous one is consumed. A short or empty page ends the reviews.
+    private final class PageSpliterator extends Spliterators.AbstractSpliterator<String> {
+        private final String ISBN;
+        private List<String> page = List.of();
+        private int index;
+        private int offset;
+        private boolean last;
+
+        PageSpliterator(String ISBN) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.ISBN = ISBN;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (index == page.size()) {
+                if (last) {
+                    return false;
+                }
+                List<String> next = source.fetchPage(ISBN, offset, pageSize);
+                page = next == null ? List.of() : next;
+                index = 0;
+                offset += page.size();
+                last = page.size() < pageSize;
+                if (page.isEmpty()) {
+                    return false;
+                }
+            }
+            action.accept(page.get(index++));
+            return true;
+        }
+    }
+}
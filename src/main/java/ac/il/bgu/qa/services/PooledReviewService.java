@@ -0,0 +1,238 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NoReviewsFoundException;
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ReviewService} that keeps a pool of open sessions to another review service and reuses them.
+ * Every fetch leases a session, uses it and returns it to the pool, so connection setup is paid once per
+ * session instead of once per fetch.
+ * <p>
+ * At most a fixed number of sessions are leased at a time; further fetches wait for one to be returned.
+ * Idle sessions are reused most recently returned first, so rarely needed sessions age out:
+ * sessions idle for longer than the idle timeout are closed, sessions failing the health check when leased
+ * are closed, and sessions whose fetch failed are closed instead of returned. A book without reviews is an answer,
+ * not a failure, so its session is returned.
+ * <p>
+ * {@link #close()} does nothing, so callers that close the service after every fetch keep the pool;
+ * {@link #shutdown()} closes every idle session and stops the pool.
+ */
+public class PooledReviewService implements ReviewService {
+
+    // Opens new sessions.
+    private final Supplier<? extends ReviewService> factory;
+    // Checks that an idle session is still usable before it is leased.
+    private final Predicate<? super ReviewService> healthCheck;
+    // How long a session may stay idle before it is closed, in nanoseconds.
+    private final long idleTimeoutNanos;
+    // How long a fetch waits for a session when all are leased, in nanoseconds.
+    private final long leaseTimeoutNanos;
+    // The clock idle time is measured with.
+    private final LongSupplier nanoClock;
+
+    // One permit per session that may be leased at the same time.
+    private final Semaphore permits;
+    // The idle sessions, most recently returned first.
+    private final ConcurrentLinkedDeque<IdleSession> idle = new ConcurrentLinkedDeque<>();
+    // Whether the pool was shut down.
+    private volatile boolean shutdown;
+
+    // Statistics.
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+
+    /**
+     * Constructs a new PooledReviewService.
+     *
+     * @param factory      Opens a new session to the review service.
+     * @param maxSessions  The maximum number of sessions leased at the same time.
+     * @param idleTimeout  How long a session may stay idle before it is closed.
+     * @param leaseTimeout How long a fetch waits for a session when all are leased.
+     * @param healthCheck  Checks that an idle session is still usable before it is leased.
+     */
+    public PooledReviewService(Supplier<? extends ReviewService> factory, int maxSessions, Duration idleTimeout,
+                               Duration leaseTimeout, Predicate<? super ReviewService> healthCheck) {
+        this(factory, maxSessions, idleTimeout, leaseTimeout, healthCheck, System::nanoTime);
+    }
+
+    // Constructor with an explicit clock, for tests.
+    PooledReviewService(Supplier<? extends ReviewService> factory, int maxSessions, Duration idleTimeout,
+                        Duration leaseTimeout, Predicate<? super ReviewService> healthCheck, LongSupplier nanoClock) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Invalid session factory.");
+        } else if (maxSessions < 1) {
+            throw new IllegalArgumentException("Invalid pool size.");
+        } else if (idleTimeout == null || idleTimeout.isNegative() || leaseTimeout == null || leaseTimeout.isNegative()) {
+            throw new IllegalArgumentException("Invalid timeout.");
+        } else if (healthCheck == null) {
+            throw new IllegalArgumentException("Invalid health check.");
+        }
+        this.factory = factory;
+        this.healthCheck = healthCheck;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.leaseTimeoutNanos = leaseTimeout.toNanos();
+        this.nanoClock = nanoClock;
+        this.permits = new Semaphore(maxSessions, true);
+    }
+
+    /**
+     * Fetches the reviews of a book on a pooled session.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return A list of reviews associated with the given book's ISBN.
+     * @throws ReviewException If no session becomes available in time, or the session fails to fetch the reviews.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        acquire();
+        try {
+            ReviewService session = lease();
+            List<String> reviews;
+            try {
+                reviews = session.getReviewsForBook(ISBN);
+            } catch (NoReviewsFoundException e) {
+                // An answer, not a failure: the session works and goes back to the pool.
+                release(session);
+                throw e;
+            } catch (RuntimeException e) {
+                // A session that failed may be broken, so it is not reused.
+                discard(session);
+                throw e;
+            }
+            release(session);
+            return reviews;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Does nothing: sessions stay open in the pool for the next fetch.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Closes every idle session and stops leasing new ones. Sessions leased at the time are closed when returned.
+     */
+    public void shutdown() {
+        shutdown = true;
+        IdleSession session;
+        while ((session = idle.pollFirst()) != null) {
+            discard(session.service);
+        }
+    }
+
+    /**
+     * Closes every session that has been idle for longer than the idle timeout.
+     * This also happens whenever a session is returned, so calling it is only needed for pools that fall quiet.
+     */
+    public void evictIdle() {
+        long now = nanoClock.getAsLong();
+        IdleSession eldest;
+        while ((eldest = idle.peekLast()) != null && now - eldest.idleSince > idleTimeoutNanos) {
+            if (idle.removeLastOccurrence(eldest)) {
+                discard(eldest.service);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of idle sessions in the pool.
+     *
+     * @return The number of idle sessions.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Retrieves the number of sessions opened since the pool was created.
+     *
+     * @return The number of opened sessions.
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Retrieves the number of sessions closed since the pool was created.
+     *
+     * @return The number of closed sessions.
+     */
+    public long getClosedCount() {
+        return closed.get();
+    }
+
+    private void acquire() {
+        if (shutdown) {
+            throw new ReviewException("Review service pool is shut down!");
+        }
+        try {
+            if (!permits.tryAcquire(leaseTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new ReviewException("No review session available!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewException("Interrupted while waiting for a review session!");
+        }
+    }
+
+    // Takes the most recently used healthy idle session, or opens a new one.
+    private ReviewService lease() {
+        long now = nanoClock.getAsLong();
+        IdleSession session;
+        while ((session = idle.pollFirst()) != null) {
+            if (now - session.idleSince <= idleTimeoutNanos && healthCheck.test(session.service)) {
+                return session.service;
+            }
+            discard(session.service);
+        }
+        ReviewService opened = factory.get();
+        if (opened == null) {
+            throw new ReviewException("Could not open a review session!");
+        }
+        this.opened.incrementAndGet();
+        return opened;
+    }
+
+    private void release(ReviewService session) {
+        if (shutdown) {
+            discard(session);
+            return;
+        }
+        idle.offerFirst(new IdleSession(session, nanoClock.getAsLong()));
+        evictIdle();
+    }
+
+    private void discard(ReviewService session) {
+        closed.incrementAndGet();
+        try {
+            session.close();
+        } catch (RuntimeException e) {
+            // The session is dropped either way.
+        }
+    }
+
+    // An idle session and the time it was returned at.
+    private static final class IdleSession {
+        final ReviewService service;
+        final long idleSince;
+
+        IdleSession(ReviewService service, long idleSince) {
+            this.service = service;
+            this.idleSince = idleSince;
+        }
+    }
+}
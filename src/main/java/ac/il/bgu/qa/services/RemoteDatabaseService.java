@@ -0,0 +1,454 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.RecordCodec;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.errors.BookAlreadyBorrowedException;
+import ac.il.bgu.qa.errors.BookNotBorrowedException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link DatabaseService} served by a {@link DatabaseServer} in another process, over a single connection.
+ * <p>
+ * Requests are pipelined: a request is written as soon as it is made, without waiting for the responses
+ * of earlier ones, and a reader thread hands each response to its request by correlation Id. Any number of
+ * threads share the connection, and the asynchronous methods let a single caller overlap several requests,
+ * such as looking up a book and a user at the same time. The batch methods send all their requests before
+ * waiting for any response, so they take a single round trip.
+ * <p>
+ * Books and users are copies of the server's. Use {@link #borrowBook} and {@link #returnBook} to change
+ * whether a book is borrowed, as changing a copy does not reach the server. A {@link NotificationService}
+ * cannot be sent, so users are given the service a resolver gives for their Id.
+ * <p>
+ * Failures of the database are thrown again as an {@link IllegalArgumentException} for invalid arguments,
+ * a {@link BookAlreadyBorrowedException} for a loan of a book with no copy left, a {@link BookNotBorrowedException}
+ * for a return of a book with no copy out, and an {@link IllegalStateException} otherwise. Once the connection fails, every request throws an
+ * {@link UncheckedIOException}.
+ */
+public class RemoteDatabaseService implements DatabaseService, AutoCloseable {
+
+    // Gives the notification service of every user by Id.
+    private final Function<String, NotificationService> notificationServices;
+    // The connection, written by callers under the write lock and read by the reader thread.
+    private final SocketChannel channel;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Reads the responses.
+    private final Thread reader;
+    // The correlation Id of the last request.
+    private final AtomicLong lastCorrelationId = new AtomicLong();
+    // The requests waiting for their responses, by correlation Id.
+    private final ConcurrentHashMap<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    // The failure of the connection, after which no more requests are sent.
+    private volatile IOException failure;
+
+    /**
+     * Connects to a database server.
+     *
+     * @param address              The address of the server.
+     * @param notificationServices Gives the notification service of every user by Id.
+     * @throws IOException If the server cannot be reached.
+     */
+    public RemoteDatabaseService(InetSocketAddress address, Function<String, NotificationService> notificationServices)
+            throws IOException {
+        if (address == null) {
+            throw new IllegalArgumentException("Invalid address.");
+        } else if (notificationServices == null) {
+            throw new IllegalArgumentException("Invalid notification service resolver.");
+        }
+        this.notificationServices = notificationServices;
+        this.channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        this.reader = new Thread(this::readResponses, "database-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        await(addBookAsync(ISBN, book));
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        await(registerUserAsync(id, user));
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return await(getBookByISBNAsync(ISBN));
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return await(getUserByIdAsync(userId));
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        await(borrowBookAsync(ISBN, userId));
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        await(returnBookAsync(ISBN));
+    }
+
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        await(returnBookAsync(ISBN, userId));
+    }
+
+    /**
+     * Fetches several books in a single round trip.
+     *
+     * @param ISBNs The International Standard Book Numbers.
+     * @return The books found, by ISBN. Invalid and unknown ISBNs are left out.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, CompletableFuture<Book>> requests = new HashMap<>();
+        for (String ISBN : ISBNs) {
+            requests.put(ISBN, getBookByISBNAsync(ISBN));
+        }
+        Map<String, Book> books = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<Book>> request : requests.entrySet()) {
+            Book book = await(request.getValue());
+            if (book != null) {
+                books.put(request.getKey(), book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Records that several books are borrowed by a user in a single round trip.
+     * Every ISBN is validated before anything is sent, and if the server rejects any of the loans,
+     * the ones it recorded are returned again by the user before the failure is thrown, so loans of the same
+     * books by other users stay open.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books to be borrowed.
+     * @param userId The unique identifier for the user borrowing the books.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId) {
+        requireUserKey(userId);
+        ISBNs.forEach(RemoteDatabaseService::requireISBNKey);
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (String ISBN : ISBNs) {
+            requests.add(borrowBookAsync(ISBN, userId));
+        }
+
+        // If the server rejects any of the loans, return the ones it recorded, so the batch is all or nothing.
+        RuntimeException failure = null;
+        List<String> recorded = new ArrayList<>();
+        int i = 0;
+        for (String ISBN : ISBNs) {
+            try {
+                await(requests.get(i++));
+                recorded.add(ISBN);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        List<CompletableFuture<Void>> undo = new ArrayList<>();
+        for (String ISBN : recorded) {
+            undo.add(returnBookAsync(ISBN, userId));
+        }
+        for (CompletableFuture<Void> request : undo) {
+            try {
+                await(request);
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Removes the borrowing records of several books in a single round trip.
+     * Every ISBN is validated before anything is sent.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be returned.
+     */
+    @Override
+    public void returnBooks(Collection<String> ISBNs) {
+        ISBNs.forEach(RemoteDatabaseService::requireISBNKey);
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (String ISBN : ISBNs) {
+            requests.add(returnBookAsync(ISBN));
+        }
+        requests.forEach(RemoteDatabaseService::await);
+    }
+
+    /**
+     * Sends a request to add a book without waiting for it.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @param book The book.
+     * @return Completes once the book is added.
+     */
+    public CompletableFuture<Void> addBookAsync(String ISBN, Book book) {
+        long key = requireISBNKey(ISBN);
+        if (book == null) {
+            throw new IllegalArgumentException("Invalid book.");
+        }
+        return send(DatabaseProtocol.ADD_BOOK, 8 + RecordCodec.bookSize(book), request -> {
+            request.putLong(key);
+            RecordCodec.encodeBook(book, request);
+        }).thenApply(RemoteDatabaseService::toVoid);
+    }
+
+    /**
+     * Sends a request to register a user without waiting for it.
+     *
+     * @param id   The unique identifier of the user.
+     * @param user The user.
+     * @return Completes once the user is registered.
+     */
+    public CompletableFuture<Void> registerUserAsync(String id, User user) {
+        long key = requireUserKey(id);
+        if (user == null) {
+            throw new IllegalArgumentException("Invalid user.");
+        }
+        // The channel reference of a user is its Id, which the server resolves.
+        return send(DatabaseProtocol.REGISTER_USER, 8 + RecordCodec.userSize(user, id), request -> {
+            request.putLong(key);
+            RecordCodec.encodeUser(user, id, request);
+        }).thenApply(RemoteDatabaseService::toVoid);
+    }
+
+    /**
+     * Sends a request to look up a book without waiting for it. Invalid ISBNs are answered without a request.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return Completes with the book, or with null if there is no such book.
+     */
+    public CompletableFuture<Book> getBookByISBNAsync(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(DatabaseProtocol.GET_BOOK, 8, request -> request.putLong(key))
+                .thenApply(result -> result.get() == 0 ? null : RecordCodec.decodeBook(result));
+    }
+
+    /**
+     * Sends a request to look up a user without waiting for it. Invalid Ids are answered without a request.
+     *
+     * @param userId The unique identifier of the user.
+     * @return Completes with the user, or with null if there is no such user.
+     */
+    public CompletableFuture<User> getUserByIdAsync(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(DatabaseProtocol.GET_USER, 8, request -> request.putLong(key))
+                .thenApply(result -> result.get() == 0 ? null : RecordCodec.decodeUser(result, notificationServices));
+    }
+
+    /**
+     * Sends a request to record that a book is borrowed by a user without waiting for it.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     * @return Completes once the loan is recorded, or with a {@link BookAlreadyBorrowedException} if no copy is left.
+     */
+    public CompletableFuture<Void> borrowBookAsync(String ISBN, String userId) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        return send(DatabaseProtocol.BORROW_BOOK, 16, request -> request.putLong(bookKey).putLong(userKey))
+                .thenApply(RemoteDatabaseService::toVoid);
+    }
+
+    /**
+     * Sends a request to remove the borrowing record of a book without waiting for it.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     * @return Completes once the return is recorded, or with a {@link BookNotBorrowedException} if no copy is out.
+     */
+    public CompletableFuture<Void> returnBookAsync(String ISBN) {
+        long bookKey = requireISBNKey(ISBN);
+        return send(DatabaseProtocol.RETURN_BOOK, 8, request -> request.putLong(bookKey))
+                .thenApply(RemoteDatabaseService::toVoid);
+    }
+
+    /**
+     * Sends a request to mark the copy of a book borrowed by a user as returned without waiting for it.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     * @return Completes once the return is recorded, or with a {@link BookNotBorrowedException} if no copy is out,
+     * or if the server's database tracks its borrowers and the user has none on loan.
+     */
+    public CompletableFuture<Void> returnBookAsync(String ISBN, String userId) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        return send(DatabaseProtocol.RETURN_LOAN, 16, request -> request.putLong(bookKey).putLong(userKey))
+                .thenApply(RemoteDatabaseService::toVoid);
+    }
+
+    /**
+     * Closes the connection. Requests still waiting fail.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            reader.join();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes a request frame and returns the result of its response, after the status.
+    private CompletableFuture<ByteBuffer> send(byte operation, int argumentsSize, Consumer<ByteBuffer> arguments) {
+        long correlationId = lastCorrelationId.incrementAndGet();
+        ByteBuffer request = ByteBuffer.allocate(DatabaseProtocol.FRAME_HEADER_SIZE + 1 + argumentsSize);
+        request.putInt(8 + 1 + argumentsSize).putLong(correlationId).put(operation);
+        arguments.accept(request);
+        request.flip();
+
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        pending.put(correlationId, response);
+        writeLock.lock();
+        try {
+            if (failure == null) {
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            writeLock.unlock();
+        }
+        // The reader may have failed every pending request before this one was added.
+        if (failure != null) {
+            pending.remove(correlationId);
+            response.completeExceptionally(new UncheckedIOException(failure));
+        }
+        return response.thenApply(RemoteDatabaseService::checkStatus);
+    }
+
+    // Reads response frames until the connection closes, completing their requests.
+    private void readResponses() {
+        ByteBuffer header = ByteBuffer.allocate(DatabaseProtocol.FRAME_HEADER_SIZE);
+        try {
+            while (true) {
+                header.clear();
+                readFully(header);
+                int length = header.getInt(0);
+                long correlationId = header.getLong(4);
+                if (length < 9 || length > DatabaseProtocol.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid response frame!");
+                }
+                ByteBuffer body = ByteBuffer.allocate(length - 8);
+                readFully(body);
+                CompletableFuture<ByteBuffer> response = pending.remove(correlationId);
+                if (response != null) {
+                    response.complete(body.flip());
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed!");
+            }
+        }
+    }
+
+    // Fails the connection and every request waiting on it.
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        for (Long correlationId : pending.keySet()) {
+            CompletableFuture<ByteBuffer> response = pending.remove(correlationId);
+            if (response != null) {
+                response.completeExceptionally(new UncheckedIOException(failure));
+            }
+        }
+    }
+
+    // Throws the failure a response carries, or returns its result.
+    private static ByteBuffer checkStatus(ByteBuffer response) {
+        byte status = response.get();
+        if (status == DatabaseProtocol.INVALID) {
+            throw new IllegalArgumentException(DatabaseProtocol.getString(response));
+        } else if (status == DatabaseProtocol.ALREADY_BORROWED) {
+            throw new BookAlreadyBorrowedException(DatabaseProtocol.getString(response));
+        } else if (status == DatabaseProtocol.NOT_BORROWED) {
+            throw new BookNotBorrowedException(DatabaseProtocol.getString(response));
+        } else if (status != DatabaseProtocol.OK) {
+            throw new IllegalStateException(DatabaseProtocol.getString(response));
+        }
+        return response;
+    }
+
+    private static Void toVoid(ByteBuffer result) {
+        return null;
+    }
+
+    // Waits for a request, throwing its failure as it was thrown.
+    private static <T> T await(CompletableFuture<T> request) {
+        try {
+            return request.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+}
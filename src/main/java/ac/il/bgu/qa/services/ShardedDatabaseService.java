@@ -0,0 +1,1024 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.ISBNCodec;
+import ac.il.bgu.qa.LoanLedger;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.UserIdCodec;
+import ac.il.bgu.qa.util.LongLongHashMap;
+import ac.il.bgu.qa.util.LongObjectHashMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link DatabaseService} that spreads books and users over several shards, each itself a database service.
+ * <p>
+ * Books are placed by ISBN and users by Id on a consistent hash ring. Every shard owns many points of the ring,
+ * its virtual nodes, so the keys spread evenly and adding or removing a shard only moves the keys of the ring
+ * segments it gains or loses, about 1/N of them.
+ * <p>
+ * Shards can be added and removed while the database is in use. A change plans to move only the keys whose
+ * owner changed, and {@link #rebalance(int)} migrates them in small batches. Until a key is migrated, its reads
+ * and writes keep going to its old shard, so it stays readable and no write lands on a shard that lacks the
+ * entry. Migrating a key copies its entry, and its loans, over whatever the new shard held, then removes it from
+ * the old shard with {@link DatabaseService#removeBook} or {@link DatabaseService#removeUser}; a shard that
+ * cannot remove entries keeps a stale copy, which is never read. The next change first completes the pending
+ * migration.
+ * <p>
+ * The router keeps a directory of the packed keys and the loans of every entry, so a change can tell which keys
+ * move without asking the shards. A shard added with entries of its own hands them over with
+ * {@link DatabaseService#forEachKey} and {@link DatabaseService#forEachLoan}; the ones the router did not know
+ * join the directory and, if the ring places them elsewhere, are migrated from that shard like any other key.
+ * A shard that cannot list its entries must be added empty, and one that holds books must be able to list their
+ * loans, or they would be lost when the books move. While such a shard is in the ring the router cannot vouch
+ * for its directory, so {@link #forEachKey} and {@link #trackKeys} hand nothing over.
+ * <p>
+ * A loan is stored on the shard of the book, even when the borrower lives on another shard:
+ * the router checks the borrower on the user's shard and records the loan with the book.
+ */
+public class ShardedDatabaseService implements DatabaseService {
+
+    // Default number of ring points per shard.
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    // Salts keeping the positions of books and users independent of each other.
+    private static final long BOOK_SALT = 0x2545F4914F6CDD1DL;
+    private static final long USER_SALT = 0x9E3779B97F4A7C15L;
+
+    // Number of ring points per shard.
+    private final int virtualNodes;
+    // The current ring and, while a migration is pending, the ring before the last change.
+    private volatile Routing routing = new Routing(Ring.EMPTY, null);
+
+    // Taken for reading by every write and by reads during a migration, and for writing by ring changes and
+    // migration batches, so no access lands between reading an entry from its old shard and copying it to the new one.
+    private final ReentrantReadWriteLock migrationLock = new ReentrantReadWriteLock();
+    // The keys to migrate after the last change, and how far the migration got.
+    private long[] pendingBooks = new long[0];
+    private long[] pendingUsers = new long[0];
+    private int migrated;
+    // The shard every key still to migrate is on. Guarded by the migration lock.
+    private final LongObjectHashMap<DatabaseService> movingBooks = new LongObjectHashMap<>();
+    private final LongObjectHashMap<DatabaseService> movingUsers = new LongObjectHashMap<>();
+
+    // The directory of every key written through the router, with the borrowers of every borrowed book,
+    // earliest loan first, and the due dates of those loans in the same order. The arrays are replaced
+    // rather than changed.
+    private final LongLongHashMap books = new LongLongHashMap();
+    private final LongLongHashMap users = new LongLongHashMap();
+    private final LongObjectHashMap<long[]> loans = new LongObjectHashMap<>();
+    private final LongObjectHashMap<long[]> dueDates = new LongObjectHashMap<>();
+    // Guards the directory.
+    private final StampedLock directoryLock = new StampedLock();
+    // Receive the key of every book and user added through the router, or brought in by an added shard.
+    private final KeyListeners keyListeners = new KeyListeners();
+    // The names of the shards in the ring that could not list their keys. Guarded by the migration lock.
+    private final Set<String> unlistedShards = new HashSet<>();
+    // Whether the directory holds every key, that is whether no shard in the ring could not list its keys.
+    private volatile boolean keysListed = true;
+
+    /**
+     * Constructs a new ShardedDatabaseService without shards and the default number of virtual nodes per shard.
+     */
+    public ShardedDatabaseService() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Constructs a new ShardedDatabaseService without shards.
+     *
+     * @param virtualNodes The number of ring points per shard. More points spread the keys more evenly.
+     */
+    public ShardedDatabaseService(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Invalid number of virtual nodes.");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a shard. The keys it now owns are migrated to it by {@link #rebalance(int)}, and the entries it already
+     * held that the router did not know join the directory, are handed to the consumers of {@link #trackKeys},
+     * and are migrated to the shards the ring places them on.
+     *
+     * @param name  The unique name of the shard. Its ring points are derived from the name.
+     * @param shard The database service of the shard.
+     * @throws IllegalArgumentException If the shard holds books whose loans it cannot list, or cannot list its
+     *                                  keys while they are tracked.
+     */
+    public void addShard(String name, DatabaseService shard) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid shard name.");
+        } else if (shard == null) {
+            throw new IllegalArgumentException("Invalid shard.");
+        }
+        migrationLock.writeLock().lock();
+        try {
+            Map<String, DatabaseService> shards = new LinkedHashMap<>(routing.current.shards);
+            if (shards.containsKey(name)) {
+                throw new IllegalArgumentException("Shard already exists.");
+            }
+            shards.put(name, shard);
+            rebalance(Integer.MAX_VALUE);
+            Entries entries = newEntries(shard);
+            if (entries == null) {
+                if (!keyListeners.isEmpty()) {
+                    throw new IllegalArgumentException("Shard cannot list its keys.");
+                }
+                unlistedShards.add(name);
+                keysListed = false;
+                entries = new Entries();
+            }
+            // Handed over before the ring is installed, as a tracked key must be known before it can be found.
+            entries.books.forEach((key, value) -> keyListeners.bookAdded(key));
+            entries.users.forEach((key, value) -> keyListeners.userAdded(key));
+            changeRing(shards, shard, entries);
+        } finally {
+            migrationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a shard. Its keys are migrated to the remaining shards by {@link #rebalance(int)},
+     * and it is read from and written to until then.
+     *
+     * @param name The name of the shard.
+     */
+    public void removeShard(String name) {
+        migrationLock.writeLock().lock();
+        try {
+            Map<String, DatabaseService> shards = new LinkedHashMap<>(routing.current.shards);
+            if (shards.remove(name) == null) {
+                throw new IllegalArgumentException("Shard not found.");
+            } else if (shards.isEmpty() && (books.size() > 0 || users.size() > 0)) {
+                throw new IllegalStateException("Cannot remove the last shard.");
+            }
+            changeRing(shards, null, new Entries());
+            // The keys only the removed shard knew are no longer reachable, so the directory may be whole again.
+            unlistedShards.remove(name);
+            keysListed = unlistedShards.isEmpty();
+        } finally {
+            migrationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Migrates the next keys moved by the last shard change. Writes wait while a batch runs,
+     * so small batches keep the database responsive.
+     *
+     * @param maxKeys The maximum number of keys to check in this batch.
+     * @return The number of keys still to check; 0 once the migration is complete.
+     */
+    public int rebalance(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("Invalid batch size.");
+        }
+        migrationLock.writeLock().lock();
+        try {
+            Routing routing = this.routing;
+            if (routing.previous == null) {
+                return 0;
+            }
+            int total = pendingBooks.length + pendingUsers.length;
+            int end = (int) Math.min(total, (long) migrated + maxKeys);
+            for (; migrated < end; migrated++) {
+                if (migrated < pendingBooks.length) {
+                    long key = pendingBooks[migrated];
+                    migrateBook(routing, key, movingBooks.get(key));
+                    movingBooks.remove(key);
+                } else {
+                    long key = pendingUsers[migrated - pendingBooks.length];
+                    migrateUser(routing, key, movingUsers.get(key));
+                    movingUsers.remove(key);
+                }
+            }
+            if (migrated == total) {
+                this.routing = new Routing(routing.current, null);
+                pendingBooks = new long[0];
+                pendingUsers = new long[0];
+                movingBooks.clear();
+                movingUsers.clear();
+                migrated = 0;
+            }
+            return total - migrated;
+        } finally {
+            migrationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether keys moved by the last shard change are still being migrated.
+     *
+     * @return true if a migration is pending, false otherwise.
+     */
+    public boolean isRebalancing() {
+        return routing.previous != null;
+    }
+
+    /**
+     * Retrieves the names of the shards, in the order they were added.
+     *
+     * @return The shard names.
+     */
+    public Set<String> getShardNames() {
+        return Collections.unmodifiableSet(routing.current.shards.keySet());
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long key = requireISBNKey(ISBN);
+        migrationLock.readLock().lock();
+        try {
+            keyListeners.bookAdded(key);
+            bookOwner(key).addBook(ISBN, book);
+            long stamp = directoryLock.writeLock();
+            try {
+                books.put(key, 0);
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long key = requireUserKey(id);
+        migrationLock.readLock().lock();
+        try {
+            keyListeners.userAdded(key);
+            userOwner(key).registerUser(id, user);
+            long stamp = directoryLock.writeLock();
+            try {
+                users.put(key, 0);
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fetches a book from its shard. Outside a migration this takes no lock; a miss while the ring changed
+     * underneath is looked up again under the migration lock, as the book may have just moved.
+     *
+     * @param ISBN The International Standard Book Number.
+     * @return The book with the given ISBN or null if the book does not exist in the database.
+     */
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            return null;
+        }
+        Routing routing = this.routing;
+        if (routing.previous == null) {
+            Book book = routing.current.owner(bookHash(key)).getBookByISBN(ISBN);
+            if (book != null || this.routing == routing) {
+                return book;
+            }
+        }
+        migrationLock.readLock().lock();
+        try {
+            return bookOwner(key).getBookByISBN(ISBN);
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fetches a user from their shard. Outside a migration this takes no lock; a miss while the ring changed
+     * underneath is looked up again under the migration lock, as the user may have just moved.
+     *
+     * @param userId The unique identifier for the user.
+     * @return The user with the given ID or null if the user is not registered in the database.
+     */
+    @Override
+    public User getUserById(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            return null;
+        }
+        Routing routing = this.routing;
+        if (routing.previous == null) {
+            User user = routing.current.owner(userHash(key)).getUserById(userId);
+            if (user != null || this.routing == routing) {
+                return user;
+            }
+        }
+        migrationLock.readLock().lock();
+        try {
+            return userOwner(key).getUserById(userId);
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that a book is borrowed by a user.
+     * The loan is stored on the shard of the book, after checking that the user is registered on its own shard.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        borrowBook(ISBN, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that a book is borrowed by a user until a due date, like {@link #borrowBook(String, String)}.
+     *
+     * @param ISBN    The International Standard Book Number of the book to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the book.
+     * @param dueDate The time the copy is due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId, long dueDate) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        if (getUserById(userId) == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        migrationLock.readLock().lock();
+        try {
+            bookOwner(bookKey).borrowBook(ISBN, userId, dueDate);
+            long stamp = directoryLock.writeLock();
+            try {
+                addLoan(bookKey, userKey, dueDate);
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        long key = requireISBNKey(ISBN);
+        migrationLock.readLock().lock();
+        try {
+            bookOwner(key).returnBook(ISBN);
+            long stamp = directoryLock.writeLock();
+            try {
+                removeLoan(key);
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the copy of a book borrowed by a user as returned, on the shard of the book.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be returned.
+     * @param userId The unique identifier for the user returning the book.
+     */
+    @Override
+    public void returnBook(String ISBN, String userId) {
+        long bookKey = requireISBNKey(ISBN);
+        long userKey = requireUserKey(userId);
+        migrationLock.readLock().lock();
+        try {
+            bookOwner(bookKey).returnBook(ISBN, userId);
+            long stamp = directoryLock.writeLock();
+            try {
+                removeLoan(bookKey, userKey);
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fetches the Ids of the users currently borrowing copies of a book, from the directory.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The Ids of the borrowers, earliest loan first.
+     */
+    @Override
+    public List<String> getBorrowerIds(String ISBN) {
+        long key = requireISBNKey(ISBN);
+        long[] borrowers;
+        long stamp = directoryLock.readLock();
+        try {
+            borrowers = loans.get(key);
+        } finally {
+            directoryLock.unlockRead(stamp);
+        }
+        List<String> ids = new ArrayList<>();
+        if (borrowers != null) {
+            for (long userKey : borrowers) {
+                ids.add(UserIdCodec.toString(userKey));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Fetches several books with one bulk call per shard.
+     *
+     * @param ISBNs The International Standard Book Numbers.
+     * @return The books found, by ISBN. Invalid and unknown ISBNs are left out.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Routing routing = this.routing;
+        if (routing.previous != null) {
+            migrationLock.readLock().lock();
+            try {
+                return findBooks(ISBNs);
+            } finally {
+                migrationLock.readLock().unlock();
+            }
+        }
+        Map<String, Book> found = findBooks(ISBNs);
+
+        // Books that moved while the ring changed underneath are looked up again.
+        if (this.routing != routing && found.size() < ISBNs.size()) {
+            for (String ISBN : ISBNs) {
+                if (!found.containsKey(ISBN)) {
+                    Book book = getBookByISBN(ISBN);
+                    if (book != null) {
+                        found.put(ISBN, book);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds several books with one bulk call per shard.
+     *
+     * @param books The books to be added, by International Standard Book Number.
+     */
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        long[] keys = new long[books.size()];
+        int i = 0;
+        for (String ISBN : books.keySet()) {
+            keys[i++] = requireISBNKey(ISBN);
+        }
+        migrationLock.readLock().lock();
+        try {
+            for (long key : keys) {
+                keyListeners.bookAdded(key);
+            }
+            Map<DatabaseService, Map<String, Book>> byOwner = new IdentityHashMap<>();
+            i = 0;
+            for (Map.Entry<String, Book> entry : books.entrySet()) {
+                byOwner.computeIfAbsent(bookOwner(keys[i++]), owner -> new HashMap<>())
+                        .put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<DatabaseService, Map<String, Book>> batch : byOwner.entrySet()) {
+                batch.getKey().addBooks(batch.getValue());
+            }
+            long stamp = directoryLock.writeLock();
+            try {
+                for (long key : keys) {
+                    this.books.put(key, 0);
+                }
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that several books are borrowed by a user with one bulk call per shard of the books.
+     * If a shard fails, the loans recorded by the other shards are returned again, in the user's name,
+     * before the failure is thrown.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books to be borrowed.
+     * @param userId The unique identifier for the user borrowing the books.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId) {
+        borrowBooks(ISBNs, userId, LoanLedger.NO_DUE_DATE);
+    }
+
+    /**
+     * Records that several books are borrowed by a user until a due date, like
+     * {@link #borrowBooks(Collection, String)}.
+     *
+     * @param ISBNs   The International Standard Book Numbers of the books to be borrowed.
+     * @param userId  The unique identifier for the user borrowing the books.
+     * @param dueDate The time the copies are due back, in epoch milliseconds, or {@link LoanLedger#NO_DUE_DATE}.
+     */
+    @Override
+    public void borrowBooks(Collection<String> ISBNs, String userId, long dueDate) {
+        long userKey = requireUserKey(userId);
+        long[] keys = requireISBNKeys(ISBNs);
+        if (getUserById(userId) == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        migrationLock.readLock().lock();
+        try {
+            // If a shard rejects its batch, return the batches the other shards recorded, so the whole is all or nothing.
+            List<Map.Entry<DatabaseService, List<String>>> recorded = new ArrayList<>();
+            for (Map.Entry<DatabaseService, List<String>> batch : groupByOwner(ISBNs, keys).entrySet()) {
+                try {
+                    batch.getKey().borrowBooks(batch.getValue(), userId, dueDate);
+                } catch (RuntimeException e) {
+                    for (Map.Entry<DatabaseService, List<String>> undo : recorded) {
+                        for (String ISBN : undo.getValue()) {
+                            try {
+                                undo.getKey().returnBook(ISBN, userId);
+                            } catch (RuntimeException undoFailure) {
+                                e.addSuppressed(undoFailure);
+                            }
+                        }
+                    }
+                    throw e;
+                }
+                recorded.add(batch);
+            }
+            long stamp = directoryLock.writeLock();
+            try {
+                for (long key : keys) {
+                    addLoan(key, userKey, dueDate);
+                }
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the borrowing records of several books with one bulk call per shard.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be returned.
+     */
+    @Override
+    public void returnBooks(Collection<String> ISBNs) {
+        long[] keys = requireISBNKeys(ISBNs);
+        migrationLock.readLock().lock();
+        try {
+            for (Map.Entry<DatabaseService, List<String>> batch : groupByOwner(ISBNs, keys).entrySet()) {
+                batch.getKey().returnBooks(batch.getValue());
+            }
+            long stamp = directoryLock.writeLock();
+            try {
+                for (long key : keys) {
+                    removeLoan(key);
+                }
+            } finally {
+                directoryLock.unlockWrite(stamp);
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    // The shard a book is placed on, for tests.
+    DatabaseService shardOfBook(String ISBN) {
+        return routing.current.owner(bookHash(requireISBNKey(ISBN)));
+    }
+
+    // The shard a user is placed on, for tests.
+    DatabaseService shardOfUser(String userId) {
+        return routing.current.owner(userHash(requireUserKey(userId)));
+    }
+
+    /**
+     * Tells whether every shard stores due dates.
+     *
+     * @return true if every shard, including one still being migrated from, stores due dates.
+     */
+    @Override
+    public boolean storesDueDates() {
+        Routing routing = this.routing;
+        for (DatabaseService shard : routing.current.shards.values()) {
+            if (!shard.storesDueDates()) {
+                return false;
+            }
+        }
+        if (routing.previous != null) {
+            for (DatabaseService shard : routing.previous.shards.values()) {
+                if (!shard.storesDueDates()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands every loan in the directory to a procedure, without asking the shards.
+     *
+     * @param procedure Receives the packed ISBN, the packed Id of the borrower and the due date of every loan.
+     * @return true, as the directory holds every loan.
+     */
+    @Override
+    public boolean forEachLoan(LoanLedger.LoanProcedure procedure) {
+        long stamp = directoryLock.readLock();
+        try {
+            loans.forEach((bookKey, borrowers) -> {
+                long[] due = dueDates.get(bookKey);
+                for (int i = 0; i < borrowers.length; i++) {
+                    procedure.apply(bookKey, borrowers[i], due[i]);
+                }
+            });
+            return true;
+        } finally {
+            directoryLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands the key of every book and user in the router's directory to consumers, without asking the shards.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return true if every key was handed over, false if a shard in the ring could not list its keys,
+     * in which case nothing is handed over.
+     */
+    @Override
+    public boolean forEachKey(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        if (!keysListed) {
+            return false;
+        }
+        long stamp = directoryLock.readLock();
+        try {
+            books.forEach((key, shard) -> ISBNKeys.accept(key));
+            users.forEach((key, shard) -> userKeys.accept(key));
+            return true;
+        } finally {
+            directoryLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Hands the key of every book and user in the router's directory to consumers, then the key of every one
+     * added through it or brought in by an added shard. Writes wait while the directory is read.
+     *
+     * @param ISBNKeys Receives the packed ISBN of every book.
+     * @param userKeys Receives the packed Id of every user.
+     * @return Stops handing keys over, or null if a shard in the ring could not list its keys.
+     */
+    @Override
+    public Runnable trackKeys(LongConsumer ISBNKeys, LongConsumer userKeys) {
+        migrationLock.writeLock().lock();
+        try {
+            if (!forEachKey(ISBNKeys, userKeys)) {
+                return null;
+            }
+            return keyListeners.add(ISBNKeys, userKeys);
+        } finally {
+            migrationLock.writeLock().unlock();
+        }
+    }
+
+    // Collects the entries a shard holds that are not in the directory, with the loans of its new books,
+    // or returns null if the shard cannot list its keys. Called under the migration write lock.
+    private Entries newEntries(DatabaseService shard) {
+        Entries entries = new Entries();
+        if (!shard.forEachKey(key -> entries.books.put(key, 0), key -> entries.users.put(key, 0))) {
+            return null;
+        }
+        long stamp = directoryLock.readLock();
+        try {
+            books.forEach((key, value) -> entries.books.remove(key));
+            users.forEach((key, value) -> entries.users.remove(key));
+        } finally {
+            directoryLock.unlockRead(stamp);
+        }
+        if (entries.books.size() > 0 && !shard.forEachLoan((bookKey, userKey, dueDate) -> {
+            if (entries.books.containsKey(bookKey)) {
+                entries.loans.add(new long[]{bookKey, userKey, dueDate});
+            }
+        })) {
+            throw new IllegalArgumentException("Shard cannot list its loans.");
+        }
+        return entries;
+    }
+
+    // Installs a ring over the given shards and plans the migration of the keys whose owner changed, and of the
+    // new entries of an added shard that the ring places elsewhere. Called under the migration write lock.
+    private void changeRing(Map<String, DatabaseService> shards, DatabaseService added, Entries entries) {
+        // Complete the pending migration first, so every key is on a single shard.
+        rebalance(Integer.MAX_VALUE);
+        Ring current = routing.current;
+        Ring next = new Ring(shards, virtualNodes);
+        migrated = 0;
+        long stamp = directoryLock.writeLock();
+        try {
+            entries.books.forEach((key, value) -> books.put(key, 0));
+            entries.users.forEach((key, value) -> users.put(key, 0));
+            for (long[] loan : entries.loans) {
+                addLoan(loan[0], loan[1], loan[2]);
+            }
+            if (current.shards.isEmpty()) {
+                // The first shard owns every key, including the ones it held.
+                routing = new Routing(next, null);
+                return;
+            }
+            pendingBooks = movedKeys(books, current, next, BOOK_SALT, movingBooks, added, entries.books);
+            pendingUsers = movedKeys(users, current, next, USER_SALT, movingUsers, added, entries.users);
+        } finally {
+            directoryLock.unlockWrite(stamp);
+        }
+        boolean empty = pendingBooks.length == 0 && pendingUsers.length == 0;
+        routing = new Routing(next, empty ? null : current);
+    }
+
+    // Copies a book and its loans over whatever its new shard holds, then removes it from the shard it was on.
+    private void migrateBook(Routing routing, long key, DatabaseService from) {
+        long hash = bookHash(key);
+        DatabaseService to = routing.current.owner(hash);
+        String ISBN = ISBNCodec.toString(key);
+        Book book = from.getBookByISBN(ISBN);
+        if (book == null) {
+            return;
+        }
+        // A stale copy left on the new shard by an earlier move must not keep its loans.
+        to.removeBook(ISBN);
+        to.addBook(ISBN, book);
+        long[] borrowers;
+        long[] due;
+        long stamp = directoryLock.readLock();
+        try {
+            borrowers = loans.get(key);
+            due = dueDates.get(key);
+        } finally {
+            directoryLock.unlockRead(stamp);
+        }
+        for (int i = 0; borrowers != null && i < borrowers.length; i++) {
+            to.borrowBook(ISBN, UserIdCodec.toString(borrowers[i]), due[i]);
+        }
+        from.removeBook(ISBN);
+    }
+
+    // Copies a user over whatever their new shard holds, then removes them from the shard they were on.
+    private void migrateUser(Routing routing, long key, DatabaseService from) {
+        long hash = userHash(key);
+        DatabaseService to = routing.current.owner(hash);
+        String userId = UserIdCodec.toString(key);
+        User user = from.getUserById(userId);
+        if (user == null) {
+            return;
+        }
+        to.registerUser(userId, user);
+        from.removeUser(userId);
+    }
+
+    // The shard a book is on: the shard it moves from until it is migrated, its current one after.
+    // Called under the migration lock.
+    private DatabaseService bookOwner(long key) {
+        DatabaseService from = routing.previous != null ? movingBooks.get(key) : null;
+        return from != null ? from : routing.current.owner(bookHash(key));
+    }
+
+    // The shard a user is on: the shard they move from until they are migrated, their current one after.
+    // Called under the migration lock.
+    private DatabaseService userOwner(long key) {
+        DatabaseService from = routing.previous != null ? movingUsers.get(key) : null;
+        return from != null ? from : routing.current.owner(userHash(key));
+    }
+
+    // Fetches books with one bulk call per shard. Called under the migration lock during a migration.
+    private Map<String, Book> findBooks(Collection<String> ISBNs) {
+        Map<DatabaseService, List<String>> byOwner = new IdentityHashMap<>();
+        for (String ISBN : ISBNs) {
+            long key = ISBNCodec.pack(ISBN);
+            if (key != ISBNCodec.INVALID) {
+                byOwner.computeIfAbsent(bookOwner(key), owner -> new ArrayList<>()).add(ISBN);
+            }
+        }
+        Map<String, Book> found = new HashMap<>();
+        for (Map.Entry<DatabaseService, List<String>> batch : byOwner.entrySet()) {
+            found.putAll(batch.getKey().getBooksByISBN(batch.getValue()));
+        }
+        return found;
+    }
+
+    // Called under the migration lock.
+    private Map<DatabaseService, List<String>> groupByOwner(Collection<String> ISBNs, long[] keys) {
+        Map<DatabaseService, List<String>> byOwner = new IdentityHashMap<>();
+        int i = 0;
+        for (String ISBN : ISBNs) {
+            byOwner.computeIfAbsent(bookOwner(keys[i++]), owner -> new ArrayList<>()).add(ISBN);
+        }
+        return byOwner;
+    }
+
+    // Appends a loan to the directory. Must hold the directory write lock.
+    private void addLoan(long bookKey, long userKey, long dueDate) {
+        long[] borrowers = loans.get(bookKey);
+        if (borrowers == null) {
+            loans.put(bookKey, new long[]{userKey});
+            dueDates.put(bookKey, new long[]{dueDate});
+        } else {
+            long[] grown = Arrays.copyOf(borrowers, borrowers.length + 1);
+            grown[borrowers.length] = userKey;
+            loans.put(bookKey, grown);
+            long[] due = Arrays.copyOf(dueDates.get(bookKey), grown.length);
+            due[borrowers.length] = dueDate;
+            dueDates.put(bookKey, due);
+        }
+    }
+
+    // Removes the earliest loan of a book from the directory, as its shard does. Must hold the directory write lock.
+    private void removeLoan(long bookKey) {
+        long[] borrowers = loans.get(bookKey);
+        if (borrowers == null) {
+            return;
+        } else if (borrowers.length == 1) {
+            loans.remove(bookKey);
+            dueDates.remove(bookKey);
+        } else {
+            loans.put(bookKey, Arrays.copyOfRange(borrowers, 1, borrowers.length));
+            dueDates.put(bookKey, Arrays.copyOfRange(dueDates.get(bookKey), 1, borrowers.length));
+        }
+    }
+
+    // Removes the earliest loan of a book to a user from the directory, as its shard does.
+    // Must hold the directory write lock.
+    private void removeLoan(long bookKey, long userKey) {
+        long[] borrowers = loans.get(bookKey);
+        for (int i = 0; borrowers != null && i < borrowers.length; i++) {
+            if (borrowers[i] == userKey) {
+                if (borrowers.length == 1) {
+                    loans.remove(bookKey);
+                    dueDates.remove(bookKey);
+                } else {
+                    loans.put(bookKey, removeAt(borrowers, i));
+                    dueDates.put(bookKey, removeAt(dueDates.get(bookKey), i));
+                }
+                return;
+            }
+        }
+    }
+
+    // A copy of an array without one of its elements.
+    private static long[] removeAt(long[] values, int index) {
+        long[] shrunk = new long[values.length - 1];
+        System.arraycopy(values, 0, shrunk, 0, index);
+        System.arraycopy(values, index + 1, shrunk, index, shrunk.length - index);
+        return shrunk;
+    }
+
+    // The keys of a directory whose owner in the next ring is not the shard they are on, also marked as moving
+    // from that shard. The new keys of an added shard are on it, the others on their owner in the current ring.
+    private static long[] movedKeys(LongLongHashMap directory, Ring current, Ring next, long salt,
+                                    LongObjectHashMap<DatabaseService> moving, DatabaseService added,
+                                    LongLongHashMap addedKeys) {
+        moving.clear();
+        directory.forEach((key, value) -> {
+            long hash = mix(key ^ salt);
+            DatabaseService from = addedKeys.containsKey(key) ? added : current.owner(hash);
+            if (from != next.owner(hash)) {
+                moving.put(key, from);
+            }
+        });
+        long[] keys = new long[moving.size()];
+        int[] i = {0};
+        moving.forEach((key, from) -> keys[i[0]++] = key);
+        return keys;
+    }
+
+    private static long bookHash(long key) {
+        return mix(key ^ BOOK_SALT);
+    }
+
+    private static long userHash(long key) {
+        return mix(key ^ USER_SALT);
+    }
+
+    // The SplitMix64 finalizer: every bit of the input affects every bit of the output.
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long requireISBNKey(String ISBN) {
+        long key = ISBNCodec.pack(ISBN);
+        if (key == ISBNCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long[] requireISBNKeys(Collection<String> ISBNs) {
+        long[] keys = new long[ISBNs.size()];
+        int i = 0;
+        for (String ISBN : ISBNs) {
+            keys[i++] = requireISBNKey(ISBN);
+        }
+        return keys;
+    }
+
+    private static long requireUserKey(String userId) {
+        long key = UserIdCodec.pack(userId);
+        if (key == UserIdCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+
+    // The entries an added shard held that were not in the directory: the packed keys of its books and users,
+    // and the packed ISBN, packed user Id and due date of every loan of those books.
+    private static final class Entries {
+        final LongLongHashMap books = new LongLongHashMap();
+        final LongLongHashMap users = new LongLongHashMap();
+        final List<long[]> loans = new ArrayList<>();
+    }
+
+    // The current ring and the previous one while a migration is pending. Replaced as a whole.
+    private static final class Routing {
+        final Ring current;
+        final Ring previous;
+
+        Routing(Ring current, Ring previous) {
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * An immutable consistent hash ring: the sorted ring points and the shard owning each of them.
+     * A key belongs to the shard of the first point at or after its hash, wrapping around.
+     */
+    private static final class Ring {
+        static final Ring EMPTY = new Ring(new LinkedHashMap<>(), 1);
+
+        final Map<String, DatabaseService> shards;
+        final long[] points;
+        final DatabaseService[] owners;
+
+        Ring(Map<String, DatabaseService> shards, int virtualNodes) {
+            this.shards = Collections.unmodifiableMap(shards);
+            int size = shards.size() * virtualNodes;
+            DatabaseService[] services = shards.values().toArray(new DatabaseService[0]);
+            long[] unsortedPoints = new long[size];
+            int i = 0;
+            for (String name : shards.keySet()) {
+                long seed = mix(nameHash(name));
+                for (int node = 0; node < virtualNodes; node++) {
+                    unsortedPoints[i++] = mix(seed + node);
+                }
+            }
+            // Sort the point indexes by point, so the owners can be laid out in the same order.
+            Integer[] order = new Integer[size];
+            for (int j = 0; j < size; j++) {
+                order[j] = j;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(unsortedPoints[a], unsortedPoints[b]));
+            this.points = new long[size];
+            this.owners = new DatabaseService[size];
+            for (int j = 0; j < size; j++) {
+                points[j] = unsortedPoints[order[j]];
+                owners[j] = services[order[j] / virtualNodes];
+            }
+        }
+
+        // The 64-bit FNV-1a hash of the UTF-8 bytes of a shard name, so names that share a String hash code
+        // still get ring points of their own.
+        private static long nameHash(String name) {
+            long hash = 0xCBF29CE484222325L;
+            for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+            return hash;
+        }
+
+        DatabaseService owner(long hash) {
+            if (points.length == 0) {
+                throw new IllegalStateException("No shards.");
+            }
+            int i = Arrays.binarySearch(points, hash);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return owners[i == points.length ? 0 : i];
+        }
+    }
+}
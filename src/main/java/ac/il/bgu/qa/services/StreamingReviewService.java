@@ -0,0 +1,105 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ReviewService} that can stream the reviews of a book instead of returning them all in one list,
+ * so a caller only holds the reviews it is using.
+ * <p>
+ * {@link ac.il.bgu.qa.Library} streams the reviews of services that implement this interface, so the
+ * notification it builds never needs the whole list.
+ */
+public interface StreamingReviewService extends ReviewService {
+
+    /**
+     * Opens a stream of the reviews of a book. The reviews are fetched as the stream is consumed, and a
+     * failure to fetch them is thrown from the stream as a {@link ReviewException}.
+     * The stream should be closed after use.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return The reviews of the book, empty if it has none.
+     * @throws ReviewException If there's an issue opening the reviews.
+     */
+    Stream<String> streamReviewsForBook(String ISBN) throws ReviewException;
+
+    /**
+     * Fetches the list of reviews for a book by collecting its stream.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return A list of reviews associated with the given book's ISBN.
+     * @throws ReviewException If there's an issue fetching the reviews.
+     */
+    @Override
+    default List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        try (Stream<String> reviews = streamReviewsForBook(ISBN)) {
+            return reviews.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Fetches one page of the reviews of a book.
+     * The default implementation skips through the stream; services that can fetch a page directly should override it.
+     *
+     * @param ISBN   The International Standard Book Number (ISBN) of the book.
+     * @param offset The number of reviews to skip.
+     * @param limit  The maximum number of reviews to return.
+     * @return The reviews of the page, fewer than the limit or empty at the end of the reviews.
+     * @throws ReviewException If there's an issue fetching the reviews.
+     */
+    default List<String> getReviewsForBook(String ISBN, int offset, int limit) throws ReviewException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset.");
+        } else if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit.");
+        }
+        try (Stream<String> reviews = streamReviewsForBook(ISBN)) {
+            return reviews.skip(offset).limit(limit).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Selects the best reviews of a book in one pass over its stream, holding no more than {@code n} of them.
+     *
+     * @param ISBN    The International Standard Book Number (ISBN) of the book.
+     * @param n       The number of reviews to select.
+     * @param ranking Orders the reviews from best to worst.
+     * @return The best reviews, best first.
+     * @throws ReviewException If there's an issue fetching the reviews.
+     */
+    default List<String> getTopReviewsForBook(String ISBN, int n, Comparator<? super String> ranking) throws ReviewException {
+        if (n < 0) {
+            throw new IllegalArgumentException("Invalid number of reviews.");
+        } else if (ranking == null) {
+            throw new IllegalArgumentException("Invalid ranking.");
+        }
+        // Keep the best n reviews seen so far, with the worst of them on top so it is the one replaced.
+        PriorityQueue<String> best = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)), ranking.reversed());
+        try (Stream<String> reviews = streamReviewsForBook(ISBN)) {
+            Iterator<String> iterator = reviews.iterator();
+            while (n > 0 && iterator.hasNext()) {
+                String review = iterator.next();
+                if (best.size() < n) {
+                    best.add(review);
+                } else if (ranking.compare(review, best.peek()) < 0) {
+                    best.poll();
+                    best.add(review);
+                }
+            }
+        }
+        List<String> top = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            top.add(best.poll());
+        }
+        Collections.reverse(top);
+        return top;
+    }
+}
@@ -0,0 +1,300 @@
+package ac.il.bgu.qa.services;
+
+import java.util.HashMap;
+
+/**
+ * A bounded map that keeps the entries most likely to be used again, with W-TinyLFU admission.
+ * <p>
+ * New entries go to a small window ordered by recency, about 1% of the capacity. An entry leaving the window
+ * may only enter the main area by evicting the entry the main area would drop next, and only if it was used
+ * more often recently. Use is estimated by a count-min sketch of 4-bit counters that all halve every
+ * ten times the capacity uses, so old popularity fades. The main area is a segmented LRU: entries used
+ * again while on probation move to the protected segment, which takes 80% of it.
+ * <p>
+ * A burst of keys used once therefore passes through the window without flushing the popular entries,
+ * while a key that becomes popular still gets in. Every operation takes constant time.
+ * <p>
+ * The cache is not thread safe.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+class TinyLfuCache<K, V> {
+
+    // The segments an entry can be in.
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    // The maximum number of entries.
+    private final int maxEntries;
+    // The maximum number of entries of the window and of the protected segment.
+    private final int maxWindow;
+    private final int maxProtected;
+
+    // The entries by key.
+    private final HashMap<K, Node<K, V>> nodes = new HashMap<>();
+    // The entries of every segment, least recently used first.
+    private final Segment<K, V> window = new Segment<>();
+    private final Segment<K, V> probation = new Segment<>();
+    private final Segment<K, V> protectedSegment = new Segment<>();
+    // Estimates how often every key was used recently.
+    private final FrequencySketch sketch;
+
+    // Statistics.
+    private long evictions;
+
+    /**
+     * Constructs a new TinyLfuCache.
+     *
+     * @param maxEntries The maximum number of entries.
+     */
+    TinyLfuCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid cache size.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWindow = Math.max(1, maxEntries / 100);
+        this.maxProtected = (int) ((maxEntries - maxWindow) * 8L / 10);
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * Fetches the value of a key, and counts the use of the key.
+     *
+     * @param key The key to look up.
+     * @return The value, or null if the key is not cached.
+     */
+    V get(K key) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        touch(node);
+        return node.value;
+    }
+
+    /**
+     * Caches the value of a key, replacing its previous value. The use of the key is counted.
+     * A new key may evict another entry, or be evicted itself once it leaves the window.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    void put(K key, V value) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = nodes.get(key);
+        if (node != null) {
+            node.value = value;
+            touch(node);
+            return;
+        }
+        node = new Node<>(key, value);
+        nodes.put(key, node);
+        window.addLast(node, WINDOW);
+        if (window.size > maxWindow) {
+            // The eldest window entry becomes a candidate for the main area.
+            Node<K, V> candidate = window.removeFirst();
+            probation.addLast(candidate, PROBATION);
+            if (nodes.size() > maxEntries) {
+                evict(candidate);
+            }
+        }
+    }
+
+    /**
+     * Updates the value of a key if it is cached, without counting a use.
+     *
+     * @param key   The key.
+     * @param value The new value.
+     */
+    void replace(K key, V value) {
+        Node<K, V> node = nodes.get(key);
+        if (node != null) {
+            node.value = value;
+        }
+    }
+
+    /**
+     * Removes a key from the cache.
+     *
+     * @param key The key to remove.
+     */
+    void remove(K key) {
+        Node<K, V> node = nodes.remove(key);
+        if (node != null) {
+            segment(node.segment).remove(node);
+        }
+    }
+
+    /**
+     * @return The number of cached entries.
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return The number of entries evicted or refused because the cache was full.
+     */
+    long evictions() {
+        return evictions;
+    }
+
+    // Drops either a candidate that just left the window or the next victim of the main area,
+    // whichever was used less often recently. Ties keep the victim, so a scan cannot flush the cache.
+    private void evict(Node<K, V> candidate) {
+        Node<K, V> victim = probation.first != candidate ? probation.first : protectedSegment.first;
+        Node<K, V> dropped = candidate;
+        if (victim != null && victim != candidate
+                && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+            dropped = victim;
+        }
+        segment(dropped.segment).remove(dropped);
+        nodes.remove(dropped.key);
+        evictions++;
+    }
+
+    // Records a hit: window and protected entries become the most recent of their segment,
+    // and a probation entry is promoted, demoting the least recent protected entry if that segment is full.
+    private void touch(Node<K, V> node) {
+        if (node.segment == PROBATION) {
+            probation.remove(node);
+            protectedSegment.addLast(node, PROTECTED);
+            if (protectedSegment.size > maxProtected) {
+                probation.addLast(protectedSegment.removeFirst(), PROBATION);
+            }
+        } else {
+            Segment<K, V> segment = segment(node.segment);
+            segment.remove(node);
+            segment.addLast(node, node.segment);
+        }
+    }
+
+    private Segment<K, V> segment(int segment) {
+        return segment == WINDOW ? window : segment == PROBATION ? probation : protectedSegment;
+    }
+
+    // A cached entry, linked into the list of its segment.
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int segment;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // A doubly linked list of entries, least recently used first.
+    private static final class Segment<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+        int size;
+
+        void addLast(Node<K, V> node, int segment) {
+            node.segment = segment;
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        Node<K, V> removeFirst() {
+            Node<K, V> node = first;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, sixteen to a long.
+     * Every key has one counter in each of four rows; its estimate is the smallest of them.
+     * Once ten times the cache size uses were counted, every counter is halved.
+     */
+    static final class FrequencySketch {
+
+        // Keeps the low three bits of every counter after a shift right.
+        private static final long HALF_MASK = 0x7777777777777777L;
+        // Seeds of the four rows.
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            int size = Integer.highestOneBit(Math.max(16, Math.min(maxEntries, 1 << 26)) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * maxEntries);
+        }
+
+        // Counts one use of a key, unless every counter of the key is saturated.
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                long h = spread(hash, row);
+                int index = (int) (h >>> 40) & (table.length - 1);
+                int shift = (int) (h & 15) << 2;
+                if (((table[index] >>> shift) & 15) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        // Estimates how often a key was used recently, between 0 and 15.
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                long h = spread(hash, row);
+                int index = (int) (h >>> 40) & (table.length - 1);
+                int shift = (int) (h & 15) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 15));
+            }
+            return frequency;
+        }
+
+        // Halves every counter, so popularity fades with time.
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & HALF_MASK;
+            }
+            additions /= 2;
+        }
+
+        private static long spread(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return h ^ (h >>> 29);
+        }
+    }
+}
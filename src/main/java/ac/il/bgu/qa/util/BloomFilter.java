@@ -0,0 +1,112 @@
+package ac.il.bgu.qa.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of primitive long keys: a set that may report keys it does not hold, but never misses one.
+ * <p>
+ * Each key sets {@code k} bits out of {@code m}, chosen by double hashing of one 64-bit mix of the key.
+ * For {@code n} expected keys and a false positive rate {@code p}, {@code m = -n ln p / (ln 2)^2} and
+ * {@code k = m / n ln 2}, so 1% costs about 9.6 bits and 7 probes per key, whatever the key.
+ * Holding more keys than expected raises the false positive rate, but never causes false negatives.
+ * <p>
+ * The filter is thread safe. Adding a key sets its bits with compare-and-set, and a lookup running
+ * concurrently with the addition of its key may miss it.
+ */
+public class BloomFilter {
+
+    // The bits, 64 to a long.
+    private final AtomicLongArray bits;
+    // The number of bits, a multiple of 64.
+    private final long bitCount;
+    // The number of bits set by every key.
+    private final int hashCount;
+
+    /**
+     * Constructs a new, empty BloomFilter.
+     *
+     * @param expectedKeys      The number of keys the filter is sized for.
+     * @param falsePositiveRate The rate of keys not added that a lookup reports as present,
+     *                          once the expected number of keys is added. Between 0 and 1, exclusive.
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("Invalid number of keys.");
+        } else if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Invalid false positive rate.");
+        }
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long words = Math.max(1, (long) Math.ceil(expectedKeys * bitsPerKey / 64));
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of keys.");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.bitCount = words * 64;
+        this.hashCount = (int) Math.max(1, Math.min(30, Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key The key to add.
+     */
+    public void add(long key) {
+        long hash1 = mix(key);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a key may have been added.
+     *
+     * @param key The key to look up.
+     * @return false if the key was certainly never added, true if it probably was.
+     */
+    public boolean mightContain(long key) {
+        long hash1 = mix(key);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the number of bits of the filter.
+     *
+     * @return The number of bits, a multiple of 64.
+     */
+    public long bitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Retrieves the number of bits every key sets.
+     *
+     * @return The number of hash functions.
+     */
+    public int hashCount() {
+        return hashCount;
+    }
+
+    // The finalizer of MurmurHash3, so nearby keys such as consecutive ISBNs set unrelated bits.
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
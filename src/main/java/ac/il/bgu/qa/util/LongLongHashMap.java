@@ -0,0 +1,263 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from non-negative primitive long keys to non-negative primitive long values.
+ * Keys and values live in two parallel arrays probed linearly, so an entry costs 16 bytes of table
+ * and nothing else. With the table kept between 1/3 and 2/3 full that is 24 to 48 bytes per entry.
+ * <p>
+ * The map is not thread safe. A {@link #get(long)} racing with a writer never throws or loops,
+ * but its result may be inconsistent, so callers doing optimistic reads must validate them.
+ */
+public class LongLongHashMap {
+
+    // Marks an unused slot. Keys are never negative.
+    private static final long EMPTY = -1L;
+
+    // Returned by lookups of keys that have no value. Values are never negative.
+    public static final long NO_VALUE = -1L;
+
+    // Maximum fill ratio of the table before it doubles, expressed as a fraction of 3.
+    private static final int MAX_FILL_THIRDS = 2;
+
+    // The keys and values, swapped as one object so a reader never sees arrays of different sizes.
+    private Table table;
+    // The number of entries in the map.
+    private int size;
+    // The number of entries after which the table doubles.
+    private int threshold;
+
+    /**
+     * Constructs a new map sized for a default number of entries.
+     */
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs a new map sized to hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The number of entries expected in the map.
+     */
+    public LongLongHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid expected size.");
+        }
+        allocate(LongObjectHashMap.capacityFor(expectedSize));
+    }
+
+    /**
+     * Fetches the value mapped to a key.
+     *
+     * @param key The key to look up.
+     * @return The value mapped to the key, or {@link #NO_VALUE} if there is none.
+     */
+    public long get(long key) {
+        Table t = table;
+        long[] keys = t.keys;
+        int mask = keys.length - 1;
+        for (int i = LongObjectHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return t.values[i];
+            } else if (k == EMPTY) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a key is mapped.
+     *
+     * @param key The key to look up.
+     * @return true if the key has a value, otherwise false.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     *
+     * @param key   The non-negative key.
+     * @param value The non-negative value.
+     * @return The previous value of the key, or {@link #NO_VALUE} if there was none.
+     */
+    public long put(long key, long value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Maps a key to a value only if the key has no value yet.
+     *
+     * @param key   The non-negative key.
+     * @param value The non-negative value.
+     * @return The current value of the key, or {@link #NO_VALUE} if the new value was stored.
+     */
+    public long putIfAbsent(long key, long value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Removes the value mapped to a key.
+     *
+     * @param key The key to remove.
+     * @return The removed value, or {@link #NO_VALUE} if the key had no value.
+     */
+    public long remove(long key) {
+        long[] keys = table.keys;
+        long[] values = table.values;
+        int mask = keys.length - 1;
+        int i = LongObjectHashMap.slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return NO_VALUE;
+            }
+            i = (i + 1) & mask;
+        }
+        long removed = values[i];
+
+        // Shift later entries of the probe chain back so no lookup stops early at the hole.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == EMPTY) {
+                break;
+            }
+            int home = LongObjectHashMap.slot(k, mask);
+            boolean reachable = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!reachable) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = NO_VALUE;
+        keys[i] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Retrieves the number of entries in the map.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries from the map, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(table.keys, EMPTY);
+        Arrays.fill(table.values, NO_VALUE);
+        size = 0;
+    }
+
+    /**
+     * Calls a procedure once for every entry in the map, in no particular order.
+     *
+     * @param procedure The procedure to call with every key and value.
+     */
+    public void forEach(Procedure procedure) {
+        long[] keys = table.keys;
+        long[] values = table.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                procedure.apply(keys[i], values[i]);
+            }
+        }
+    }
+
+    private long put(long key, long value, boolean replace) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid key.");
+        } else if (value < 0) {
+            throw new IllegalArgumentException("Invalid value.");
+        }
+
+        long[] keys = table.keys;
+        long[] values = table.values;
+        int mask = keys.length - 1;
+        for (int i = LongObjectHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                long previous = values[i];
+                if (replace) {
+                    values[i] = value;
+                }
+                return previous;
+            } else if (k == EMPTY) {
+                // Publish the value before the key so a racing reader never sees a key without its value.
+                values[i] = value;
+                keys[i] = key;
+                if (++size > threshold) {
+                    rehash(keys.length << 1);
+                }
+                return NO_VALUE;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = table.keys;
+        long[] oldValues = table.values;
+        long[] keys = new long[capacity];
+        long[] values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, NO_VALUE);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != EMPTY) {
+                int i = LongObjectHashMap.slot(key, mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+        table = new Table(keys, values);
+        threshold = capacity / 3 * MAX_FILL_THIRDS;
+    }
+
+    private void allocate(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        long[] values = new long[capacity];
+        Arrays.fill(values, NO_VALUE);
+        table = new Table(keys, values);
+        threshold = capacity / 3 * MAX_FILL_THIRDS;
+    }
+
+    // The parallel key and value arrays of the table.
+    private static final class Table {
+        final long[] keys;
+        final long[] values;
+
+        Table(long[] keys, long[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A procedure called with the entries of the map.
+     */
+    @FunctionalInterface
+    public interface Procedure {
+
+        /**
+         * Handles one entry of the map.
+         *
+         * @param key   The key of the entry.
+         * @param value The value of the entry.
+         */
+        void apply(long key, long value);
+    }
+}
@@ -0,0 +1,283 @@
+package ac.il.bgu.qa.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from non-negative primitive long keys to objects.
+ * Keys and values live in two parallel arrays probed linearly, so an entry costs one array slot
+ * of each (12 bytes with compressed references) instead of a boxed key and a map node.
+ * With the table kept between 1/3 and 2/3 full that is 18 to 36 bytes per entry, about 24 on average.
+ * <p>
+ * The map is not thread safe. A {@link #get(long)} racing with a writer never throws or loops,
+ * but its result may be inconsistent, so callers doing optimistic reads must validate them.
+ *
+ * @param <V> The type of the values.
+ */
+public class LongObjectHashMap<V> {
+
+    // Marks an unused slot. Keys are never negative.
+    private static final long EMPTY = -1L;
+
+    // Maximum fill ratio of the table before it doubles, expressed as a fraction of 3.
+    private static final int MAX_FILL_THIRDS = 2;
+
+    // The keys and values, swapped as one object so a reader never sees arrays of different sizes.
+    private Table table;
+    // The number of entries in the map.
+    private int size;
+    // The number of entries after which the table doubles.
+    private int threshold;
+
+    /**
+     * Constructs a new map sized for a default number of entries.
+     */
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs a new map sized to hold the expected number of entries without resizing.
+     *
+     * @param expectedSize The number of entries expected in the map.
+     */
+    public LongObjectHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid expected size.");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Fetches the value mapped to a key.
+     *
+     * @param key The key to look up.
+     * @return The value mapped to the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        long[] keys = t.keys;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return (V) t.values[i];
+            } else if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a key is mapped.
+     *
+     * @param key The key to look up.
+     * @return true if the key has a value, otherwise false.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     *
+     * @param key   The non-negative key.
+     * @param value The non-null value.
+     * @return The previous value of the key, or null if there was none.
+     */
+    public V put(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Maps a key to a value only if the key has no value yet.
+     *
+     * @param key   The non-negative key.
+     * @param value The non-null value.
+     * @return The current value of the key, or null if the new value was stored.
+     */
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Removes the value mapped to a key.
+     *
+     * @param key The key to remove.
+     * @return The removed value, or null if the key had no value.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        V removed = (V) values[i];
+
+        // Shift later entries of the probe chain back so no lookup stops early at the hole.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == EMPTY) {
+                break;
+            }
+            int home = slot(k, mask);
+            boolean reachable = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!reachable) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+        keys[i] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Retrieves the number of entries in the map.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries from the map, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(table.keys, EMPTY);
+        Arrays.fill(table.values, null);
+        size = 0;
+    }
+
+    /**
+     * Calls a procedure once for every entry in the map, in no particular order.
+     *
+     * @param procedure The procedure to call with every key and value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Procedure<? super V> procedure) {
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                procedure.apply(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean replace) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid key.");
+        } else if (value == null) {
+            throw new IllegalArgumentException("Invalid value.");
+        }
+
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                V previous = (V) values[i];
+                if (replace) {
+                    values[i] = value;
+                }
+                return previous;
+            } else if (k == EMPTY) {
+                // Publish the value before the key so a racing reader never sees a key without its value.
+                values[i] = value;
+                keys[i] = key;
+                if (++size > threshold) {
+                    rehash(keys.length << 1);
+                }
+                return null;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = table.keys;
+        Object[] oldValues = table.values;
+        long[] keys = new long[capacity];
+        Object[] values = new Object[capacity];
+        Arrays.fill(keys, EMPTY);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != EMPTY) {
+                int i = slot(key, mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+        table = new Table(keys, values);
+        threshold = capacity / 3 * MAX_FILL_THIRDS;
+    }
+
+    private void allocate(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        table = new Table(keys, new Object[capacity]);
+        threshold = capacity / 3 * MAX_FILL_THIRDS;
+    }
+
+    // Smallest power of two that holds the expected entries below the fill threshold.
+    static int capacityFor(int expectedSize) {
+        long needed = Math.max(4L, (long) expectedSize * 3 / MAX_FILL_THIRDS + 1);
+        if (needed > 1 << 30) {
+            throw new IllegalArgumentException("Expected size too large.");
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    // Spreads keys that differ only in their low decimal digits over the whole table.
+    static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    // The parallel key and value arrays of the table.
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(long[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A procedure called with the entries of the map.
+     *
+     * @param <V> The type of the values.
+     */
+    @FunctionalInterface
+    public interface Procedure<V> {
+
+        /**
+         * Handles one entry of the map.
+         *
+         * @param key   The key of the entry.
+         * @param value The value of the entry.
+         */
+        void apply(long key, V value);
+    }
+}
@@ -0,0 +1,234 @@
+package ac.il.bgu.qa.util;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel: schedules payloads to expire at a deadline, in constant time per timeout.
+ * <p>
+ * Time advances in ticks of a fixed length. The wheel has ten levels of 64 slots,
+ * and a slot of level {@code i} spans {@code 64^i} ticks. A timeout goes to the level of the highest
+ * base-64 digit in which its deadline tick differs from the current tick, in the slot of that digit.
+ * Every time the current tick reaches the start of a slot of a higher level, the timeouts of that slot
+ * move down to the level of their next differing digit, so each timeout moves at most once per level
+ * before it expires from level 0. Scheduling and cancelling unlink or link a single list node.
+ * <p>
+ * Deadlines are plain longs in any unit, typically epoch milliseconds. A deadline is rounded up to a tick,
+ * so a timeout never expires before its deadline, and expires at the first {@link #advance} on or after it.
+ * <p>
+ * The wheel is not thread safe.
+ *
+ * @param <T> The type of the payloads.
+ */
+public class TimingWheel<T> {
+
+    // Number of bits of the tick in every level.
+    private static final int SLOT_BITS = 6;
+    // Number of slots of every level.
+    private static final int SLOTS = 1 << SLOT_BITS;
+    // Number of levels, enough for any tick below 2^60.
+    private static final int LEVELS = 10;
+
+    // Length of a tick, in the unit of the deadlines.
+    private final long tickLength;
+    // The first node of every slot, by level and slot, or null for an empty slot.
+    private final Timeout<?>[][] slots = new Timeout<?>[LEVELS][SLOTS];
+    // The last tick that was processed. Timeouts of later ticks are pending.
+    private long currentTick;
+    // The number of pending timeouts.
+    private int size;
+
+    /**
+     * Constructs a new TimingWheel.
+     *
+     * @param tickLength The length of a tick, in the unit of the deadlines.
+     * @param now        The current time, in the unit of the deadlines.
+     */
+    public TimingWheel(long tickLength, long now) {
+        if (tickLength < 1) {
+            throw new IllegalArgumentException("Invalid tick length.");
+        } else if (now < 0) {
+            throw new IllegalArgumentException("Invalid time.");
+        }
+        this.tickLength = tickLength;
+        this.currentTick = now / tickLength;
+    }
+
+    /**
+     * Schedules a payload to expire at a deadline.
+     * A deadline that has already passed expires at the next {@link #advance}.
+     *
+     * @param deadline The time to expire at, in the unit of the deadlines.
+     * @param payload  The payload handed back when the timeout expires.
+     * @return The timeout, for cancelling it.
+     */
+    public Timeout<T> schedule(long deadline, T payload) {
+        long tick = deadline / tickLength + (deadline % tickLength == 0 ? 0 : 1);
+        if (deadline < 0 || tick >= 1L << (SLOT_BITS * LEVELS)) {
+            throw new IllegalArgumentException("Invalid deadline.");
+        }
+        Timeout<T> timeout = new Timeout<>(deadline, Math.max(tick, currentTick), payload);
+        link(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancels a pending timeout.
+     *
+     * @param timeout The timeout to cancel.
+     * @return true if the timeout was cancelled, false if it had already expired or been cancelled.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel to a point in time and hands every timeout whose deadline has passed to a consumer,
+     * in the order of their ticks. The consumer may schedule and cancel timeouts.
+     *
+     * @param now     The current time, in the unit of the deadlines. Going back in time does nothing.
+     * @param expired Receives the payloads of the expired timeouts.
+     * @return The number of expired timeouts.
+     */
+    public int advance(long now, Consumer<? super T> expired) {
+        long targetTick = now / tickLength;
+
+        // Timeouts scheduled for the current tick or earlier wait in its level 0 slot.
+        int count = expire((int) currentTick & (SLOTS - 1), expired);
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                // Nothing to cascade or expire on the way.
+                currentTick = targetTick;
+                break;
+            }
+            long tick = ++currentTick;
+
+            // Move the timeouts of every higher level slot starting at this tick down, highest level first,
+            // so they reach the lower level slots that are processed next.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                }
+            }
+
+            // Every timeout left in the level 0 slot of this tick expires now.
+            count += expire((int) tick & (SLOTS - 1), expired);
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the number of pending timeouts.
+     *
+     * @return The number of timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    // Expires every timeout of a level 0 slot, including the ones the consumer schedules into it.
+    private int expire(int slot, Consumer<? super T> expired) {
+        int count = 0;
+        Timeout<?> timeout;
+        while ((timeout = slots[0][slot]) != null) {
+            unlink(timeout);
+            size--;
+            count++;
+            @SuppressWarnings("unchecked")
+            T payload = (T) timeout.payload;
+            expired.accept(payload);
+        }
+        return count;
+    }
+
+    // Moves every timeout of a slot to the level its deadline tick now belongs to.
+    private void cascade(int level, int slot) {
+        Timeout<?> timeout = slots[level][slot];
+        slots[level][slot] = null;
+        while (timeout != null) {
+            Timeout<?> next = timeout.next;
+            link(timeout);
+            timeout = next;
+        }
+    }
+
+    // Adds a timeout to the slot of the highest digit its tick differs from the current tick in.
+    private void link(Timeout<?> timeout) {
+        long difference = timeout.tick ^ currentTick;
+        int level = difference == 0 ? 0 : (63 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+        int slot = (int) (timeout.tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        Timeout<?> head = slots[level][slot];
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.previous = null;
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        slots[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout<?> timeout) {
+        if (timeout.previous == null) {
+            slots[timeout.level][timeout.slot] = timeout.next;
+        } else {
+            timeout.previous.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    /**
+     * A payload scheduled on a {@link TimingWheel}.
+     *
+     * @param <T> The type of the payload.
+     */
+    public static final class Timeout<T> {
+        // The deadline as scheduled.
+        private final long deadline;
+        // The tick the timeout expires at.
+        private final long tick;
+        private final T payload;
+        // The position in the wheel, with level -1 once the timeout expired or was cancelled.
+        private int level;
+        private int slot;
+        private Timeout<?> previous;
+        private Timeout<?> next;
+
+        Timeout(long deadline, long tick, T payload) {
+            this.deadline = deadline;
+            this.tick = tick;
+            this.payload = payload;
+        }
+
+        /**
+         * @return The deadline the timeout was scheduled for.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return The payload of the timeout.
+         */
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return true if the timeout has neither expired nor been cancelled, otherwise false.
+         */
+        public boolean isPending() {
+            return level >= 0;
+        }
+    }
+}
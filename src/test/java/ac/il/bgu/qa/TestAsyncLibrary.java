@@ -0,0 +1,215 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.events.*;
+import ac.il.bgu.qa.metrics.*;
+import ac.il.bgu.qa.services.*;
+
+public class TestAsyncLibrary {
+
+    @Mock
+    AsyncDatabaseService mockDatabase;
+    @Mock
+    AsyncReviewService mockReviewService;
+    @Mock
+    NotificationService mockNotificationService;
+
+    private Book book;
+    private User user;
+    private AsyncLibrary library;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        book = new Book("9780306406157", "Some Title", "Some Author");
+        user = new User("Some Name", "123456789012", mockNotificationService);
+        library = new AsyncLibrary(mockDatabase, mockReviewService, Runnable::run);
+    }
+
+    @Test
+    public void givenPendingLookups_whenBorrowBook_thenBookAndUserAreLookedUpConcurrently() {
+        // Arrange
+        CompletableFuture<Book> bookLookup = new CompletableFuture<>();
+        CompletableFuture<User> userLookup = new CompletableFuture<>();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(bookLookup);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(userLookup);
+        when(mockDatabase.borrowBook("9780306406157", "123456789012")).thenReturn(CompletableFuture.completedFuture(null));
+
+        // Act
+        CompletableFuture<Void> borrowed = library.borrowBook("978-0-306-40615-7", "123456789012");
+
+        // Assert
+        verify(mockDatabase, times(1)).getBookByISBN("9780306406157");
+        verify(mockDatabase, times(1)).getUserById("123456789012");
+        Assertions.assertFalse(borrowed.isDone());
+        userLookup.complete(user);
+        bookLookup.complete(book);
+        borrowed.join();
+        Assertions.assertTrue(book.isBorrowed());
+    }
+
+    @Test
+    public void givenInvalidISBN_whenBorrowBook_thenFutureFailsWithIllegalArgumentException() {
+        // Act
+        CompletableFuture<Void> borrowed = library.borrowBook("123", "123456789012");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, borrowed::join);
+        Assertions.assertEquals("Invalid ISBN.", thrown.getCause().getMessage());
+        verify(mockDatabase, never()).getBookByISBN(anyString());
+    }
+
+    @Test
+    public void givenMissingBookAndInvalidUserId_whenBorrowBook_thenFutureFailsWithBookNotFoundException() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(null));
+
+        // Act
+        CompletableFuture<Void> borrowed = library.borrowBook("9780306406157", "123");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, borrowed::join);
+        Assertions.assertTrue(thrown.getCause() instanceof BookNotFoundException);
+        verify(mockDatabase, never()).getUserById(anyString());
+    }
+
+    @Test
+    public void givenExistingBookAndInvalidUserId_whenBorrowBook_thenFutureFailsWithIllegalArgumentException() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+
+        // Act
+        CompletableFuture<Void> borrowed = library.borrowBook("9780306406157", "123");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, borrowed::join);
+        Assertions.assertEquals("Invalid user Id.", thrown.getCause().getMessage());
+        Assertions.assertFalse(book.isBorrowed());
+        Assertions.assertEquals(1, library.getMetrics().snapshot().getExceptionCount(IllegalArgumentException.class));
+    }
+
+    @Test
+    public void givenBorrowAndReturn_whenCompleted_thenLedgerEventsAndMetricsAreRecorded() {
+        // Arrange
+        EventSubscription subscription = library.getEventBus().subscribe();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.getUserById("123456789012")).thenReturn(CompletableFuture.completedFuture(user));
+        when(mockDatabase.borrowBook("9780306406157", "123456789012")).thenReturn(CompletableFuture.completedFuture(null));
+        when(mockDatabase.returnBook("9780306406157")).thenReturn(CompletableFuture.completedFuture(null));
+
+        // Act
+        library.borrowBook("9780306406157", "123456789012").join();
+        String borrowerId = library.getLoanLedger().getBorrowerId("9780306406157");
+        library.returnBook("9780306406157").join();
+
+        // Assert
+        Assertions.assertEquals("123456789012", borrowerId);
+        Assertions.assertNull(library.getLoanLedger().getBorrowerId("9780306406157"));
+        List<LibraryEvent> events = subscription.poll(10);
+        Assertions.assertEquals(2, events.size());
+        Assertions.assertEquals(LibraryEvent.Type.BOOK_BORROWED, events.get(0).getType());
+        Assertions.assertEquals(LibraryEvent.Type.BOOK_RETURNED, events.get(1).getType());
+        Assertions.assertEquals("123456789012", events.get(1).getUserId());
+        MetricsSnapshot snapshot = library.getMetrics().snapshot();
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.BORROW_BOOK).getCount());
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.RETURN_BOOK).getCount());
+    }
+
+    @Test
+    public void givenDatabaseFailure_whenBorrowBook_thenReleaseBook() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.getUserById("123456789012")).thenReturn(CompletableFuture.completedFuture(user));
+        when(mockDatabase.borrowBook("9780306406157", "123456789012"))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("fail")));
+
+        // Act
+        CompletableFuture<Void> borrowed = library.borrowBook("9780306406157", "123456789012");
+
+        // Assert
+        Assertions.assertThrows(CompletionException.class, borrowed::join);
+        Assertions.assertFalse(book.isBorrowed());
+    }
+
+    @Test
+    public void givenBorrowedBook_whenReturnBook_thenRecordAndRelease() {
+        // Arrange
+        book.borrow();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.returnBook("9780306406157")).thenReturn(CompletableFuture.completedFuture(null));
+
+        // Act
+        library.returnBook("9780306406157").join();
+
+        // Assert
+        Assertions.assertFalse(book.isBorrowed());
+        verify(mockDatabase, times(1)).returnBook("9780306406157");
+    }
+
+    @Test
+    public void givenReviewsAndFlakyNotifications_whenNotifyUserWithBookReviews_thenRetryUntilSent() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.getUserById("123456789012")).thenReturn(CompletableFuture.completedFuture(user));
+        when(mockReviewService.getReviewsForBook("9780306406157"))
+            .thenReturn(CompletableFuture.completedFuture(Arrays.asList("Great", "Fine")));
+        doThrow(new NotificationException("fail"))
+            .doNothing()
+            .when(mockNotificationService).notifyUser(anyString(), anyString());
+
+        // Act
+        library.notifyUserWithBookReviews("9780306406157", "123456789012").join();
+
+        // Assert
+        verify(mockNotificationService, times(2)).notifyUser("123456789012", "Reviews for 'Some Title':\nGreat\nFine");
+    }
+
+    @Test
+    public void givenReviewFailure_whenNotifyUserWithBookReviews_thenFutureFailsWithReviewServiceUnavailableException() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.getUserById("123456789012")).thenReturn(CompletableFuture.completedFuture(user));
+        when(mockReviewService.getReviewsForBook("9780306406157"))
+            .thenReturn(CompletableFuture.failedFuture(new ReviewException("fail")));
+
+        // Act
+        CompletableFuture<Void> notified = library.notifyUserWithBookReviews("9780306406157", "123456789012");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, notified::join);
+        Assertions.assertTrue(thrown.getCause() instanceof ReviewServiceUnavailableException);
+        verify(mockNotificationService, never()).notifyUser(anyString(), anyString());
+    }
+
+    @Test
+    public void givenPendingNotification_whenGetBookByISBN_thenCompleteWithBookFirst() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(CompletableFuture.completedFuture(book));
+        when(mockDatabase.getUserById("123456789012")).thenReturn(new CompletableFuture<>());
+
+        // Act
+        Book found = library.getBookByISBN("9780306406157", "123456789012").join();
+
+        // Assert
+        Assertions.assertSame(book, found);
+        verify(mockReviewService, never()).getReviewsForBook(anyString());
+    }
+}
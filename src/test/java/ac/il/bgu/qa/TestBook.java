@@ -0,0 +1,184 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Mockito
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.services.*;
+
+public class TestBook {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void givenAvailableBook_whenBorrowTwice_thenSecondBorrowThrowsIllegalStateException() {
+        // Arrange
+        Book book = new Book("9780306406157", "Some Title", "Some Author");
+
+        // Act
+        book.borrow();
+
+        // Assert
+        Assertions.assertTrue(book.isBorrowed());
+        Assertions.assertThrows(IllegalStateException.class, book::borrow);
+    }
+
+    @Test
+    public void givenBorrowedBook_whenReturnTwice_thenSecondReturnFails() {
+        // Arrange
+        Book book = new Book("9780306406157", "Some Title", "Some Author");
+        book.borrow();
+
+        // Act & Assert
+        Assertions.assertTrue(book.tryReturn());
+        Assertions.assertFalse(book.tryReturn());
+        Assertions.assertThrows(IllegalStateException.class, book::returnBook);
+    }
+
+    @Test
+    public void givenManyConcurrentBorrowers_whenBorrowBook_thenExactlyOneWins() throws Exception {
+        // Arrange
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, mock(ReviewService.class));
+        Book book = new Book("9780306406157", "Some Title", "Some Author");
+        library.addBook(book);
+        for (int i = 0; i < THREADS; i++) {
+            library.registerUser(new User("User " + i, UserIdCodec.toString(i), mock(NotificationService.class)));
+        }
+        AtomicInteger winners = new AtomicInteger();
+        AtomicInteger losers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+        // Act
+        try {
+            for (int round = 0; round < 200; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    String userId = UserIdCodec.toString(i);
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        try {
+                            library.borrowBook("9780306406157", userId);
+                            winners.incrementAndGet();
+                        } catch (BookAlreadyBorrowedException e) {
+                            losers.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                library.returnBook("9780306406157");
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Assert
+        Assertions.assertEquals(200, winners.get());
+        Assertions.assertEquals(200 * (THREADS - 1), losers.get());
+        Assertions.assertFalse(book.isBorrowed());
+        Assertions.assertNull(database.getBorrowerId("9780306406157"));
+    }
+
+    @Test
+    public void givenBookWithCopies_whenBorrowEveryCopy_thenOnlyThenIsBorrowed() {
+        // Arrange
+        Book book = new Book("9780306406157", "Some Title", "Some Author", 3);
+
+        // Act
+        book.borrow();
+        book.borrow();
+
+        // Assert
+        Assertions.assertFalse(book.isBorrowed());
+        Assertions.assertTrue(book.hasBorrowedCopies());
+        Assertions.assertEquals(1, book.getAvailableCopies());
+        book.borrow();
+        Assertions.assertTrue(book.isBorrowed());
+        Assertions.assertThrows(IllegalStateException.class, book::borrow);
+        Assertions.assertTrue(book.tryReturn());
+        Assertions.assertTrue(book.tryReturn());
+        Assertions.assertTrue(book.tryReturn());
+        Assertions.assertFalse(book.tryReturn());
+        Assertions.assertEquals(3, book.getAvailableCopies());
+    }
+
+    @Test
+    public void givenInvalidCopyCount_whenConstructBook_thenThrowIllegalArgumentException() {
+        // Act & Assert
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new Book("9780306406157", "Some Title", "Some Author", 0));
+    }
+
+    @Test
+    public void givenManyConcurrentBorrowersOfHotTitle_whenBorrowBook_thenOneWinnerPerCopy() throws Exception {
+        // Arrange
+        int copies = 50;
+        int borrowers = 400;
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, mock(ReviewService.class));
+        Book book = new Book("9780306406157", "Some Title", "Some Author", copies);
+        library.addBook(book);
+        for (int i = 0; i < borrowers; i++) {
+            library.registerUser(new User("User " + i, UserIdCodec.toString(i), mock(NotificationService.class)));
+        }
+        AtomicInteger winners = new AtomicInteger();
+        AtomicInteger losers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < borrowers; i++) {
+                String userId = UserIdCodec.toString(i);
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        library.borrowBook("9780306406157", userId);
+                        winners.incrementAndGet();
+                    } catch (BookAlreadyBorrowedException e) {
+                        losers.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Assert
+        Assertions.assertEquals(copies, winners.get());
+        Assertions.assertEquals(borrowers - copies, losers.get());
+        Assertions.assertTrue(book.isBorrowed());
+        Assertions.assertEquals(copies, library.getLoanLedger().getBorrowerIds("9780306406157").size());
+        for (int i = 0; i < copies; i++) {
+            library.returnBook("9780306406157");
+        }
+        Assertions.assertEquals(copies, book.getAvailableCopies());
+        Assertions.assertEquals(0, library.getLoanLedger().size());
+        Assertions.assertThrows(BookNotBorrowedException.class, () -> library.returnBook("9780306406157"));
+    }
+}
@@ -0,0 +1,107 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Your classes
+import ac.il.bgu.qa.services.*;
+
+public class TestCatalogImporter {
+
+    private InMemoryDatabaseService database;
+
+    @BeforeEach
+    public void init() {
+        database = new InMemoryDatabaseService();
+    }
+
+    @Test
+    public void givenMixedCatalog_whenImportCatalog_thenAddValidBooksAndReportRejectedRecords() throws Exception {
+        // Arrange
+        database.addBook("9780201633610", new Book("9780201633610", "Design Patterns", "Erich Gamma"));
+        String catalog = String.join("\n",
+            "ISBN,title,author",
+            "9780306406157,Some Title,Some Author",
+            "978-0-13-468599-1,\"Effective Java, Third Edition\",Joshua Bloch",
+            "",
+            "9780306406158,Bad Check Digit,Some Author",
+            "9780262033848,,Thomas Cormen",
+            "9780596009205,Head First Java,John--Doe",
+            "9780306406157,Duplicate In File,Some Author",
+            "9780201633610,Duplicate In Store,Erich Gamma",
+            "9780596009205,Too,Many,Fields",
+            "9780596009205,\"Unterminated,Some Author");
+        CatalogImporter importer = new CatalogImporter(database, ForkJoinPool.commonPool(), 3);
+
+        // Act
+        ImportReport report = importer.importCatalog(new StringReader(catalog));
+
+        // Assert
+        Assertions.assertEquals(2, report.getImported());
+        Assertions.assertEquals("Effective Java, Third Edition", database.getBookByISBN("9780134685991").getTitle());
+        Assertions.assertNotNull(database.getBookByISBN("9780306406157"));
+        List<String> reasons = Arrays.asList(
+            "Invalid ISBN.", "Invalid title.", "Invalid author.",
+            "Book already exists.", "Book already exists.", "Invalid record.", "Invalid record.");
+        Assertions.assertEquals(reasons.size(), report.getRejected().size());
+        for (int i = 0; i < reasons.size(); i++) {
+            RejectedRecord rejected = report.getRejected().get(i);
+            Assertions.assertEquals(reasons.get(i), rejected.getReason());
+            Assertions.assertEquals(i + 5, rejected.getLineNumber());
+        }
+    }
+
+    @Test
+    public void givenManyRejectedRecords_whenImportCatalog_thenCountAllButKeepOnlyTheFirstSamples() throws Exception {
+        // Arrange
+        StringBuilder catalog = new StringBuilder("9780306406157,Some Title,Some Author\n");
+        for (int i = 0; i < 50; i++) {
+            catalog.append("9780306406157,Duplicate,Some Author\n");
+            catalog.append("not an isbn,Some Title,Some Author\n");
+        }
+        CatalogImporter importer = new CatalogImporter(database, ForkJoinPool.commonPool(), 8, 5);
+
+        // Act
+        ImportReport report = importer.importCatalog(new StringReader(catalog.toString()));
+
+        // Assert
+        Assertions.assertEquals(1, report.getImported());
+        Assertions.assertEquals(100, report.getRejectedCount());
+        Assertions.assertEquals(50, report.getRejectedCounts().get("Book already exists."));
+        Assertions.assertEquals(50, report.getRejectedCounts().get("Invalid ISBN."));
+        Assertions.assertEquals(5, report.getRejected().size());
+        Assertions.assertEquals(2, report.getRejected().get(0).getLineNumber());
+    }
+
+    @Test
+    public void givenLargeCatalog_whenImportCatalog_thenImportEveryRecord() throws Exception {
+        // Arrange
+        StringBuilder catalog = new StringBuilder();
+        for (long n = 0; n < 20_000; n++) {
+            long body = 978_000_000_000L + n;
+            for (int check = 0; check < 10; check++) {
+                if (ISBNCodec.isValid(Long.toString(body * 10 + check))) {
+                    catalog.append(body * 10 + check).append(",Title ").append(n).append(",Some Author\n");
+                    break;
+                }
+            }
+        }
+        CatalogImporter importer = new CatalogImporter(database);
+
+        // Act
+        ImportReport report = importer.importCatalog(new StringReader(catalog.toString()));
+
+        // Assert
+        Assertions.assertEquals(20_000, report.getImported());
+        Assertions.assertTrue(report.getRejected().isEmpty());
+        Assertions.assertEquals(20_000, database.bookCount());
+    }
+}
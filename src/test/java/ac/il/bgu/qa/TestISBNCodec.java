@@ -0,0 +1,74 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class TestISBNCodec {
+
+    @ParameterizedTest
+    @NullSource
+    @ValueSource(strings = {
+        "",                        // empty
+        "123",                     // too short
+        "97803064A06157",          // contains a letter
+        "9780306406158",           // 13 digits, wrong check digit
+        "978-0-306-40615-X",       // hyphen + invalid character
+        "97803064061570",          // 14 digits
+        "978 0306406157"           // contains a space
+    })
+    public void givenInvalidISBN_whenPack_thenReturnInvalid(String invalidISBN) {
+        // Act & Assert
+        Assertions.assertEquals(ISBNCodec.INVALID, ISBNCodec.pack(invalidISBN));
+        Assertions.assertFalse(ISBNCodec.isValid(invalidISBN));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "9780306406157",
+        "978-0-306-40615-7",
+        "978-0306406157-"
+    })
+    public void givenValidISBN_whenPack_thenReturnDigitsAsLong(String validISBN) {
+        // Act & Assert
+        Assertions.assertEquals(9780306406157L, ISBNCodec.pack(validISBN));
+        Assertions.assertTrue(ISBNCodec.isValid(validISBN));
+    }
+
+    @Test
+    public void givenISBNWithLeadingZero_whenRoundTrip_thenKeepAllDigits() {
+        // Arrange
+        String isbn = "0000000000000";
+
+        // Act
+        long key = ISBNCodec.pack(isbn);
+
+        // Assert
+        Assertions.assertEquals(0L, key);
+        Assertions.assertEquals(isbn, ISBNCodec.toString(key));
+    }
+
+    @Test
+    public void givenHyphenatedISBN_whenCanonical_thenReturnPlainDigits() {
+        // Arrange
+        String isbn = "978-0-306-40615-7";
+
+        // Act
+        String canonical = ISBNCodec.canonical(isbn, ISBNCodec.pack(isbn));
+
+        // Assert
+        Assertions.assertEquals("9780306406157", canonical);
+    }
+
+    @Test
+    public void givenPlainISBN_whenCanonical_thenReturnSameInstance() {
+        // Arrange
+        String isbn = "9780306406157";
+
+        // Act & Assert
+        Assertions.assertSame(isbn, ISBNCodec.canonical(isbn, ISBNCodec.pack(isbn)));
+    }
+}
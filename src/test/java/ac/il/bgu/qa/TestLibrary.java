@@ -9,9 +9,13 @@ import org.junit.jupiter.params.provider.NullSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 // Java standard library
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 // Mockito
 import org.mockito.Mock;
@@ -553,6 +557,19 @@ public class TestLibrary {
 
 
 
+    @Test
+    public void givenDatabaseFailure_whenReturnBook_thenCopyStaysBorrowed(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book borrowed = new Book("9780306406157", "Some Title", "Some Author");
+        borrowed.borrow();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(borrowed);
+        doThrow(new IllegalStateException("fail")).when(mockDatabase).returnBook("9780306406157");
+        // Act & Assert
+        Assertions.assertThrows(IllegalStateException.class, () -> library.returnBook("9780306406157"));
+        Assertions.assertTrue(borrowed.isBorrowed());
+    }
+
     // notifyUserWithBookReviews tests
     @ParameterizedTest
     @NullSource
@@ -836,4 +853,286 @@ public class TestLibrary {
         Book returnedBook = library.getBookByISBN("9780306406157", "123456789012");
         Assertions.assertEquals(mockBook, returnedBook);
     }
+
+    // borrowBooks tests
+    @Test
+    public void givenUnregisteredUser_whenBorrowBooks_thenThrowUserNotRegisteredException(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(null);
+        // Act & Assert
+        UserNotRegisteredException thrown = Assertions.assertThrows(
+            UserNotRegisteredException.class,
+            () -> library.borrowBooks(Arrays.asList("9780306406157"), "123456789012")
+        );
+        Assertions.assertEquals("User not found!", thrown.getMessage());
+        verify(mockDatabase, never()).borrowBooks(anyCollection(), anyString());
+    }
+
+    @Test
+    public void givenMixedBatch_whenBorrowBooks_thenReportEachOutcomeAndWriteOnce(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book available = new Book("9780306406157", "Some Title", "Some Author");
+        Book borrowed = new Book("9780134685991", "Other Title", "Other Author");
+        borrowed.borrow();
+        Map<String, Book> books = new HashMap<>();
+        books.put("9780306406157", available);
+        books.put("9780134685991", borrowed);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockDatabase.getBooksByISBN(anyCollection())).thenReturn(books);
+        List<String> batch = Arrays.asList("978-0-306-40615-7", "9780134685991", "9780262033848", "123");
+        // Act
+        BatchResult result = library.borrowBooks(batch, "123456789012");
+        // Assert
+        Assertions.assertEquals(
+            Arrays.asList(LoanOutcome.SUCCESS, LoanOutcome.ALREADY_BORROWED, LoanOutcome.BOOK_NOT_FOUND, LoanOutcome.INVALID_ISBN),
+            result.getOutcomes());
+        Assertions.assertTrue(available.isBorrowed());
+        verify(mockDatabase, times(1)).getUserById("123456789012");
+        verify(mockDatabase, times(1)).borrowBooks(Arrays.asList("9780306406157"), "123456789012");
+        verify(mockDatabase, never()).borrowBook(anyString(), anyString());
+    }
+
+    @Test
+    public void givenDatabaseFailure_whenBorrowBooks_thenReleaseBooksAndReportFailed(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book available = new Book("9780306406157", "Some Title", "Some Author");
+        RuntimeException failure = new RuntimeException("fail");
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockDatabase.getBooksByISBN(anyCollection())).thenReturn(Map.of("9780306406157", available));
+        doThrow(failure).when(mockDatabase).borrowBooks(anyCollection(), anyString());
+        // Act
+        BatchResult result = library.borrowBooks(Arrays.asList("9780306406157"), "123456789012");
+        // Assert
+        Assertions.assertEquals(LoanOutcome.FAILED, result.getOutcome("9780306406157"));
+        Assertions.assertSame(failure, result.getFailure());
+        Assertions.assertFalse(available.isBorrowed());
+    }
+
+    @Test
+    public void givenDatabaseFailingMidBatch_whenBorrowBooks_thenEarlierLoansAreReturnedInDatabase(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book first = new Book("9780306406157", "Some Title", "Some Author");
+        Book second = new Book("9780134685991", "Other Title", "Other Author");
+        Map<String, Book> books = new HashMap<>();
+        books.put("9780306406157", first);
+        books.put("9780134685991", second);
+        RuntimeException failure = new RuntimeException("fail");
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockDatabase.getBooksByISBN(anyCollection())).thenReturn(books);
+        doCallRealMethod().when(mockDatabase).borrowBooks(anyCollection(), anyString());
+        doThrow(failure).when(mockDatabase).borrowBook("9780134685991", "123456789012");
+        // Act
+        BatchResult result = library.borrowBooks(Arrays.asList("9780306406157", "9780134685991"), "123456789012");
+        // Assert
+        Assertions.assertEquals(Arrays.asList(LoanOutcome.FAILED, LoanOutcome.FAILED), result.getOutcomes());
+        Assertions.assertSame(failure, result.getFailure());
+        Assertions.assertFalse(first.isBorrowed());
+        Assertions.assertFalse(second.isBorrowed());
+        verify(mockDatabase, times(1)).borrowBook("9780306406157", "123456789012");
+        verify(mockDatabase, times(1)).returnBook("9780306406157", "123456789012");
+        verify(mockDatabase, never()).returnBook(eq("9780134685991"), anyString());
+    }
+
+    // returnBooks tests
+    @Test
+    public void givenMixedBatch_whenReturnBooks_thenReportEachOutcomeAndWriteOnce(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book borrowed = new Book("9780306406157", "Some Title", "Some Author");
+        borrowed.borrow();
+        Book available = new Book("9780134685991", "Other Title", "Other Author");
+        Map<String, Book> books = new HashMap<>();
+        books.put("9780306406157", borrowed);
+        books.put("9780134685991", available);
+        when(mockDatabase.getBooksByISBN(anyCollection())).thenReturn(books);
+        List<String> batch = Arrays.asList("9780306406157", "9780306406157", "9780134685991", "9780262033848");
+        // Act
+        BatchResult result = library.returnBooks(batch);
+        // Assert
+        Assertions.assertEquals(
+            Arrays.asList(LoanOutcome.SUCCESS, LoanOutcome.NOT_BORROWED, LoanOutcome.NOT_BORROWED, LoanOutcome.BOOK_NOT_FOUND),
+            result.getOutcomes());
+        Assertions.assertFalse(borrowed.isBorrowed());
+        verify(mockDatabase, times(1)).returnBooks(Arrays.asList("9780306406157"));
+        verify(mockDatabase, never()).returnBook(anyString());
+    }
+
+    @Test
+    public void givenTwoCopiesOnLoan_whenReturnBooksListsBookTwice_thenReturnBothCopies(){
+        // Arrange
+        Library library = new Library(new InMemoryDatabaseService(), mockReviewService);
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author", 3));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        library.registerUser(new User("Other Name", "210987654321", mockNotificationService));
+        library.borrowBook("9780306406157", "123456789012");
+        library.borrowBook("9780306406157", "210987654321");
+        // Act
+        BatchResult result = library.returnBooks(Arrays.asList("9780306406157", "9780306406157", "9780306406157"));
+        // Assert
+        Assertions.assertEquals(
+            Arrays.asList(LoanOutcome.SUCCESS, LoanOutcome.SUCCESS, LoanOutcome.NOT_BORROWED), result.getOutcomes());
+        Assertions.assertEquals(0, library.getLoanLedger().size());
+    }
+
+    @Test
+    public void givenDatabaseFailure_whenReturnBooks_thenKeepCopiesAndLoans(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book borrowed = new Book("9780306406157", "Some Title", "Some Author", 2);
+        borrowed.borrow();
+        library.getLoanLedger().recordLoan("9780306406157", "123456789012", 2);
+        Map<String, Book> books = new HashMap<>();
+        books.put("9780306406157", borrowed);
+        when(mockDatabase.getBooksByISBN(anyCollection())).thenReturn(books);
+        doThrow(new IllegalStateException("fail")).when(mockDatabase).returnBooks(anyCollection());
+        // Act
+        BatchResult result = library.returnBooks(Arrays.asList("9780306406157"));
+        // Assert
+        Assertions.assertEquals(Arrays.asList(LoanOutcome.FAILED), result.getOutcomes());
+        Assertions.assertEquals(1, borrowed.getAvailableCopies());
+        Assertions.assertEquals("123456789012", library.getLoanLedger().getBorrowerId("9780306406157"));
+    }
+
+    // tryBorrowBook / tryReturnBook tests
+    @Test
+    public void givenBorrowedBook_whenTryBorrowBook_thenReturnAlreadyBorrowedWithoutException(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockBook.isBorrowed()).thenReturn(true);
+        // Act
+        LoanOutcome outcome = library.tryBorrowBook("9780306406157", "123456789012");
+        // Assert
+        Assertions.assertEquals(LoanOutcome.ALREADY_BORROWED, outcome);
+        verify(mockBook, never()).borrow();
+        verify(mockDatabase, never()).borrowBook(anyString(), anyString());
+    }
+
+    @Test
+    public void givenInvalidRequests_whenTryBorrowBook_thenReturnMatchingOutcome(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        // Act & Assert
+        Assertions.assertEquals(LoanOutcome.INVALID_ISBN, library.tryBorrowBook("123", "123456789012"));
+        Assertions.assertEquals(LoanOutcome.BOOK_NOT_FOUND, library.tryBorrowBook("9780134685991", "123456789012"));
+        Assertions.assertEquals(LoanOutcome.INVALID_USER_ID, library.tryBorrowBook("9780306406157", "123"));
+        Assertions.assertEquals(LoanOutcome.USER_NOT_REGISTERED, library.tryBorrowBook("9780306406157", "123456789012"));
+    }
+
+    @Test
+    public void givenDatabaseFailure_whenTryBorrowBook_thenReturnFailedAndReleaseBook(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book available = new Book("9780306406157", "Some Title", "Some Author");
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(available);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        doThrow(new RuntimeException("fail")).when(mockDatabase).borrowBook("9780306406157", "123456789012");
+        // Act
+        LoanOutcome outcome = library.tryBorrowBook("9780306406157", "123456789012");
+        // Assert
+        Assertions.assertEquals(LoanOutcome.FAILED, outcome);
+        Assertions.assertFalse(available.isBorrowed());
+    }
+
+    @Test
+    public void givenBorrowedBook_whenTryReturnBookTwice_thenSucceedThenReturnNotBorrowed(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book borrowed = new Book("9780306406157", "Some Title", "Some Author");
+        borrowed.borrow();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(borrowed);
+        // Act & Assert
+        Assertions.assertEquals(LoanOutcome.SUCCESS, library.tryReturnBook("9780306406157"));
+        Assertions.assertEquals(LoanOutcome.NOT_BORROWED, library.tryReturnBook("9780306406157"));
+        verify(mockDatabase, times(1)).returnBook("9780306406157");
+    }
+
+    @Test
+    public void givenMembershipFilters_whenUnknownBookIsBorrowed_thenDatabaseIsNotRead(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        when(mockDatabase.trackKeys(any(), any())).thenAnswer(invocation -> {
+            LongConsumer books = invocation.getArgument(0);
+            books.accept(9780306406157L);
+            return (Runnable) () -> {
+            };
+        });
+        Book available = new Book("9780306406157", "Some Title", "Some Author");
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(available);
+        // Act
+        boolean enabled = library.enableMembershipFilters(1_000, 1_000, 0.001);
+        LoanOutcome unknownBook = library.tryBorrowBook("9780134685991", "123456789012");
+        LoanOutcome unknownUser = library.tryBorrowBook("9780306406157", "123456789012");
+        // Assert
+        Assertions.assertTrue(enabled);
+        Assertions.assertEquals(LoanOutcome.BOOK_NOT_FOUND, unknownBook);
+        Assertions.assertEquals(LoanOutcome.USER_NOT_REGISTERED, unknownUser);
+        verify(mockDatabase, never()).getBookByISBN("9780134685991");
+        verify(mockDatabase, never()).getUserById(anyString());
+    }
+
+    @Test
+    public void givenMembershipFilters_whenBookAndUserAreAddedBypassingLibrary_thenTheyAreFound() throws Exception {
+        // Arrange
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, mockReviewService);
+        boolean enabled = library.enableMembershipFilters(1_000, 1_000, 0.001);
+        // Act
+        new CatalogImporter(database).importCatalog(new StringReader("9780306406157,Some Title,Some Author"));
+        database.registerUser("123456789012", new User("Some Name", "123456789012", mockNotificationService));
+        LoanOutcome outcome = library.tryBorrowBook("9780306406157", "123456789012");
+        // Assert
+        Assertions.assertTrue(enabled);
+        Assertions.assertEquals(LoanOutcome.SUCCESS, outcome);
+        IllegalArgumentException duplicate = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> library.addBook(new Book("9780306406157", "Other Title", "Other Author")));
+        Assertions.assertEquals("Book already exists.", duplicate.getMessage());
+    }
+
+    @Test
+    public void givenDatabaseThatCannotTrackKeys_whenEnableMembershipFilters_thenLookupsStillReadDatabase(){
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        // Act
+        boolean enabled = library.enableMembershipFilters(1_000, 1_000, 0.001);
+        library.tryBorrowBook("9780306406157", "123456789012");
+        // Assert
+        Assertions.assertFalse(enabled);
+        verify(mockDatabase).getBookByISBN("9780306406157");
+    }
+
+    @Test
+    public void givenThousandsOfStreamedReviews_whenNotifyUserWithBookReviews_thenSendBoundedDigest(){
+        // Arrange
+        List<Integer> offsets = new ArrayList<>();
+        ReviewService streamingReviews = new PagedReviewService((ISBN, offset, limit) -> {
+            offsets.add(offset);
+            List<String> page = new ArrayList<>();
+            for (int i = offset; i < Math.min(offset + limit, 50_000); i++) {
+                page.add("Review " + i);
+            }
+            return page;
+        }, 10);
+        Library library = new Library(mockDatabase, streamingReviews);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockBook.getTitle()).thenReturn("title");
+        // Act
+        library.notifyUserWithBookReviews("9780306406157", "123456789012");
+        // Assert
+        StringBuilder expected = new StringBuilder("Reviews for 'title':");
+        for (int i = 0; i < 20; i++) {
+            expected.append("\nReview ").append(i);
+        }
+        expected.append("\n(more reviews not shown)");
+        verify(mockUser, times(1)).sendNotification(expected.toString());
+        Assertions.assertEquals(Arrays.asList(0, 10, 20), offsets);
+    }
 }
@@ -0,0 +1,229 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.events.*;
+import ac.il.bgu.qa.services.*;
+
+public class TestLoanLedger {
+
+    @Mock
+    ReviewService mockReviewService;
+    @Mock
+    NotificationService mockNotificationService;
+
+    private LoanLedger ledger;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        ledger = new LoanLedger();
+    }
+
+    @Test
+    public void givenLoans_whenGetLoans_thenReturnBooksOfUserInBorrowOrder() {
+        // Arrange
+        ledger.recordLoan("9780306406157", "123456789012");
+        ledger.recordLoan("9780134685991", "123456789012");
+        ledger.recordLoan("9780262033848", "210987654321");
+
+        // Act & Assert
+        Assertions.assertEquals(Arrays.asList("9780306406157", "9780134685991"), ledger.getLoans("123456789012"));
+        Assertions.assertEquals(1, ledger.getLoanCount("210987654321"));
+        Assertions.assertEquals("210987654321", ledger.getBorrowerId("9780262033848"));
+        Assertions.assertEquals(3, ledger.size());
+    }
+
+    @Test
+    public void givenBookOnLoan_whenRecordLoanAgain_thenRejectSecondLoan() {
+        // Arrange
+        ledger.recordLoan("9780306406157", "123456789012");
+
+        // Act
+        boolean recorded = ledger.recordLoan("9780306406157", "210987654321");
+
+        // Assert
+        Assertions.assertFalse(recorded);
+        Assertions.assertEquals("123456789012", ledger.getBorrowerId("9780306406157"));
+        Assertions.assertEquals(0, ledger.getLoanCount("210987654321"));
+    }
+
+    @Test
+    public void givenLoan_whenRecordReturn_thenReturnBorrowerAndClearBothIndexes() {
+        // Arrange
+        ledger.recordLoan("9780306406157", "123456789012");
+        ledger.recordLoan("9780134685991", "123456789012");
+
+        // Act
+        String borrower = ledger.recordReturn("9780306406157");
+
+        // Assert
+        Assertions.assertEquals("123456789012", borrower);
+        Assertions.assertNull(ledger.getBorrowerId("9780306406157"));
+        Assertions.assertEquals(Collections.singletonList("9780134685991"), ledger.getLoans("123456789012"));
+        Assertions.assertNull(ledger.recordReturn("9780306406157"));
+    }
+
+    @Test
+    public void givenHyphenatedISBN_whenRecordLoan_thenLookUpByCanonicalISBN() {
+        // Act
+        ledger.recordLoan("978-0-306-40615-7", "123456789012");
+
+        // Assert
+        Assertions.assertEquals("123456789012", ledger.getBorrowerId("9780306406157"));
+        Assertions.assertEquals(Collections.singletonList("9780306406157"), ledger.getLoans("123456789012"));
+    }
+
+    @Test
+    public void givenLibrary_whenBorrowAndReturnBooks_thenLedgerFollowsLoans() {
+        // Arrange
+        Library library = new Library(new InMemoryDatabaseService(), mockReviewService);
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author"));
+        library.addBook(new Book("9780134685991", "Other Title", "Other Author"));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+
+        // Act
+        library.borrowBook("9780306406157", "123456789012");
+        library.borrowBooks(Arrays.asList("9780134685991"), "123456789012");
+        library.returnBook("9780306406157");
+
+        // Assert
+        LoanLedger loans = library.getLoanLedger();
+        Assertions.assertEquals(Collections.singletonList("9780134685991"), loans.getLoans("123456789012"));
+        Assertions.assertNull(loans.getBorrowerId("9780306406157"));
+        library.returnBooks(Arrays.asList("9780134685991"));
+        Assertions.assertEquals(0, loans.size());
+    }
+
+    @Test
+    public void givenBookWithCopies_whenRecordLoansAndReturns_thenEveryBorrowerIsTracked() {
+        // Arrange
+        ledger.recordLoan("9780306406157", "123456789012", 2);
+        ledger.recordLoan("9780306406157", "210987654321", 2);
+
+        // Act
+        boolean third = ledger.recordLoan("9780306406157", "111111111111", 2);
+        boolean returned = ledger.recordReturn("9780306406157", "123456789012");
+
+        // Assert
+        Assertions.assertFalse(third);
+        Assertions.assertTrue(returned);
+        Assertions.assertEquals(Collections.singletonList("210987654321"), ledger.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals("210987654321", ledger.getBorrowerId("9780306406157"));
+        Assertions.assertEquals(0, ledger.getLoanCount("123456789012"));
+        Assertions.assertEquals(1, ledger.size());
+    }
+
+    @Test
+    public void givenLibraryWithCopies_whenReturnBookByUser_thenThatUsersLoanIsClosed() {
+        // Arrange
+        Library library = new Library(new InMemoryDatabaseService(), mockReviewService);
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author", 2));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        library.registerUser(new User("Other Name", "210987654321", mockNotificationService));
+        library.borrowBook("9780306406157", "123456789012");
+        library.borrowBook("9780306406157", "210987654321");
+
+        // Act
+        library.returnBook("9780306406157", "210987654321");
+
+        // Assert
+        LoanLedger loans = library.getLoanLedger();
+        Assertions.assertEquals(Collections.singletonList("123456789012"), loans.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(0, loans.getLoanCount("210987654321"));
+    }
+
+    @Test
+    public void givenUserWithoutLoan_whenReturnBookByUser_thenThrowBookNotBorrowedAndKeepOtherLoan() {
+        // Arrange
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, mockReviewService);
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author", 2));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        library.registerUser(new User("Other Name", "210987654321", mockNotificationService));
+        library.borrowBook("9780306406157", "123456789012");
+        EventSubscription events = library.getEventBus().subscribe();
+
+        // Act & Assert
+        Assertions.assertThrows(BookNotBorrowedException.class,
+            () -> library.returnBook("9780306406157", "210987654321"));
+        Assertions.assertEquals(Collections.singletonList("123456789012"),
+            library.getLoanLedger().getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(Collections.singletonList("123456789012"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertTrue(events.poll(10).isEmpty());
+    }
+
+    @Test
+    public void givenLoanMadeThroughAnotherLibrary_whenReturnBookByUser_thenDatabaseLoanIsClosed() {
+        // Arrange
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library before = new Library(database, mockReviewService);
+        before.addBook(new Book("9780306406157", "Some Title", "Some Author", 2));
+        before.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        before.registerUser(new User("Other Name", "210987654321", mockNotificationService));
+        before.borrowBook("9780306406157", "123456789012");
+        before.borrowBook("9780306406157", "210987654321");
+        Library after = new Library(database, mockReviewService);
+
+        // Act
+        after.returnBook("9780306406157", "210987654321");
+
+        // Assert
+        Assertions.assertEquals(Collections.singletonList("123456789012"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(1, database.getBookByISBN("9780306406157").getAvailableCopies());
+    }
+
+    @Test
+    public void givenUserHoldingCopy_whenSecondBorrowFailsInDatabase_thenKeepEarlierLoan() {
+        // Arrange
+        InMemoryDatabaseService database = spy(new InMemoryDatabaseService());
+        Library library = new Library(database, mockReviewService);
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author", 2));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        library.borrowBook("9780306406157", "123456789012");
+        long dueDate = library.getLoanLedger().getDueDate("9780306406157", "123456789012");
+        library.setLoanPeriod(Duration.ofDays(100));
+        doThrow(new IllegalStateException("fail")).when(database).borrowBook(eq("9780306406157"), eq("123456789012"), anyLong());
+
+        // Act
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> library.borrowBook("9780306406157", "123456789012"));
+
+        // Assert
+        Assertions.assertEquals(1, library.getLoanLedger().getLoanCount("123456789012"));
+        Assertions.assertEquals(dueDate, library.getLoanLedger().getDueDate("9780306406157", "123456789012"));
+    }
+
+    @Test
+    public void givenTwoLoansOfOneUser_whenCancelLoan_thenOnlyLatestIsTakenBack() {
+        // Arrange
+        ledger.recordLoan("9780306406157", "123456789012", 3, 1000);
+        ledger.recordLoan("9780306406157", "210987654321", 3, 2000);
+        ledger.recordLoan("9780306406157", "123456789012", 3, 3000);
+
+        // Act
+        boolean cancelled = ledger.cancelLoan("9780306406157", "123456789012");
+
+        // Assert
+        Assertions.assertTrue(cancelled);
+        Assertions.assertEquals(Arrays.asList("123456789012", "210987654321"), ledger.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(1000, ledger.getDueDate("9780306406157", "123456789012"));
+        Assertions.assertEquals(2, ledger.size());
+    }
+}
@@ -0,0 +1,147 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.services.*;
+
+public class TestNotificationDispatcher {
+
+    @Mock
+    DatabaseService mockDatabase;
+    @Mock
+    ReviewService mockReviewService;
+    @Mock
+    Book mockBook;
+    @Mock
+    User mockUser;
+
+    private ExecutorService executor;
+    private NotificationDispatcher dispatcher;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        executor = Executors.newFixedThreadPool(2);
+        dispatcher = new NotificationDispatcher(executor, 3, Duration.ofMillis(1), Duration.ofMillis(4));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dispatcher.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void givenTransientFailures_whenDispatch_thenRetryUntilDelivered() {
+        // Arrange
+        doThrow(new NotificationException("fail"))
+            .doThrow(new NotificationException("fail"))
+            .doNothing()
+            .when(mockUser).sendNotification("Hello");
+
+        // Act
+        dispatcher.dispatch(mockUser, "Hello").join();
+
+        // Assert
+        verify(mockUser, times(3)).sendNotification("Hello");
+    }
+
+    @Test
+    public void givenPermanentFailure_whenDispatch_thenFutureFailsAfterMaxAttempts() {
+        // Arrange
+        doThrow(new NotificationException("fail")).when(mockUser).sendNotification(anyString());
+
+        // Act
+        CompletableFuture<Void> delivery = dispatcher.dispatch(mockUser, "Hello");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, delivery::join);
+        Assertions.assertTrue(thrown.getCause() instanceof NotificationException);
+        Assertions.assertEquals("Notification failed!", thrown.getCause().getMessage());
+        verify(mockUser, times(3)).sendNotification("Hello");
+    }
+
+    @Test
+    public void givenDelay_whenBackingOff_thenDelayGrowsAndStaysWithinBounds() {
+        // Arrange
+        NotificationDispatcher backoff = new NotificationDispatcher(executor, 10, Duration.ofMillis(10), Duration.ofMillis(40));
+
+        // Act & Assert
+        try {
+            for (int i = 0; i < 100; i++) {
+                long first = backoff.delay(1);
+                long third = backoff.delay(3);
+                long tenth = backoff.delay(10);
+                Assertions.assertTrue(first >= Duration.ofMillis(5).toNanos() && first <= Duration.ofMillis(10).toNanos());
+                Assertions.assertTrue(third >= Duration.ofMillis(20).toNanos() && third <= Duration.ofMillis(40).toNanos());
+                Assertions.assertTrue(tenth >= Duration.ofMillis(20).toNanos() && tenth <= Duration.ofMillis(40).toNanos());
+            }
+        } finally {
+            backoff.close();
+        }
+    }
+
+    @Test
+    public void givenSlowNotificationService_whenGetBookByISBNWithDispatcher_thenReturnBeforeDelivery() throws Exception {
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService, dispatcher);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch delivered = new CountDownLatch(1);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockBook.getTitle()).thenReturn("Some Title");
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great"));
+        doAnswer(invocation -> {
+            release.await();
+            delivered.countDown();
+            return null;
+        }).when(mockUser).sendNotification(anyString());
+
+        // Act
+        Book book = library.getBookByISBN("9780306406157", "123456789012");
+
+        // Assert
+        Assertions.assertSame(mockBook, book);
+        Assertions.assertEquals(1, delivered.getCount());
+        release.countDown();
+        Assertions.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        verify(mockUser, times(1)).sendNotification("Reviews for 'Some Title':\nGreat");
+    }
+
+    @Test
+    public void givenUnknownBook_whenNotifyUserWithBookReviewsAsync_thenFutureFailsWithBookNotFoundException() {
+        // Arrange
+        Library library = new Library(mockDatabase, mockReviewService, dispatcher);
+        when(mockDatabase.getBookByISBN(anyString())).thenReturn(null);
+
+        // Act
+        CompletableFuture<Void> delivery = library.notifyUserWithBookReviewsAsync("9780306406157", "123456789012");
+
+        // Assert
+        CompletionException thrown = Assertions.assertThrows(CompletionException.class, delivery::join);
+        Assertions.assertTrue(thrown.getCause() instanceof BookNotFoundException);
+        verify(mockUser, never()).sendNotification(anyString());
+    }
+}
@@ -0,0 +1,135 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+
+// Mockito
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.events.EventSubscription;
+import ac.il.bgu.qa.events.LibraryEvent;
+import ac.il.bgu.qa.services.*;
+
+public class TestOverdueScheduler {
+
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    @Mock
+    ReviewService mockReviewService;
+    @Mock
+    NotificationService mockNotificationService;
+
+    private InMemoryDatabaseService database;
+    private Library library;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        database = new InMemoryDatabaseService();
+        library = new Library(database, mockReviewService);
+        library.setLoanPeriod(Duration.ofDays(14));
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author"));
+        library.addBook(new Book("9780134685991", "Other Title", "Other Author"));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+    }
+
+    @Test
+    public void givenLoans_whenAdvancePastReminderAndDueDate_thenNotifyOncePerUserForEach() {
+        // Arrange
+        long start = System.currentTimeMillis();
+        OverdueScheduler scheduler = new OverdueScheduler(library, database, null, Duration.ofDays(2), Duration.ofSeconds(1));
+        library.borrowBook("9780306406157", "123456789012");
+        library.borrowBook("9780134685991", "123456789012");
+
+        // Act
+        int early = scheduler.advance(start + 11 * DAY);
+        int reminded = scheduler.advance(start + 13 * DAY);
+        int overdue = scheduler.advance(start + 15 * DAY);
+
+        // Assert
+        Assertions.assertEquals(0, early);
+        Assertions.assertEquals(2, reminded);
+        Assertions.assertEquals(2, overdue);
+        Assertions.assertEquals(2, scheduler.getReminderCount());
+        Assertions.assertEquals(2, scheduler.getOverdueCount());
+        Assertions.assertEquals(0, scheduler.getScheduledCount());
+        ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+        verify(mockNotificationService, times(2)).notifyUser(eq("123456789012"), messages.capture());
+        Assertions.assertTrue(messages.getAllValues().get(0).contains("'Some Title' is due on"));
+        Assertions.assertTrue(messages.getAllValues().get(0).contains("'Other Title' is due on"));
+        Assertions.assertTrue(messages.getAllValues().get(1).contains("'Other Title' is overdue since"));
+    }
+
+    @Test
+    public void givenReturnedBook_whenAdvancePastDueDate_thenNoNotice() {
+        // Arrange
+        long start = System.currentTimeMillis();
+        OverdueScheduler scheduler = new OverdueScheduler(library, database, null, Duration.ZERO, Duration.ofSeconds(1));
+        library.borrowBook("9780306406157", "123456789012");
+        scheduler.advance(start);
+        EventSubscription events = library.getEventBus().subscribe();
+
+        // Act
+        library.returnBook("9780306406157");
+        int fired = scheduler.advance(start + 15 * DAY);
+
+        // Assert
+        Assertions.assertEquals(0, fired);
+        Assertions.assertEquals(0, scheduler.getScheduledCount());
+        Assertions.assertEquals(1, events.poll(10).size());
+        verify(mockNotificationService, never()).notifyUser(anyString(), anyString());
+    }
+
+    @Test
+    public void givenLoansMadeBeforeSchedulerExisted_whenConstructed_thenRebuildFromLedger() {
+        // Arrange
+        long start = System.currentTimeMillis();
+        library.borrowBook("9780306406157", "123456789012");
+        library.borrowBook("9780134685991", "123456789012");
+        library.returnBook("9780134685991");
+        EventSubscription events = library.getEventBus().subscribe();
+
+        // Act
+        OverdueScheduler scheduler = new OverdueScheduler(library, database, null, Duration.ZERO, Duration.ofSeconds(1));
+        int fired = scheduler.advance(start + 15 * DAY);
+
+        // Assert
+        Assertions.assertEquals(1, fired);
+        LibraryEvent event = events.poll(10).get(0);
+        Assertions.assertEquals(LibraryEvent.Type.LOAN_OVERDUE, event.getType());
+        Assertions.assertEquals("9780306406157", event.getISBN());
+        Assertions.assertEquals("123456789012", event.getUserId());
+    }
+
+    @Test
+    public void givenLoansKeptByDatabase_whenLibraryIsRestarted_thenSchedulerPicksThemUpWithTheirDueDates() {
+        // Arrange
+        long start = System.currentTimeMillis();
+        library.borrowBook("9780306406157", "123456789012");
+        Library restarted = new Library(database, mockReviewService);
+        restarted.setLoanPeriod(Duration.ofDays(100));
+        EventSubscription events = restarted.getEventBus().subscribe();
+
+        // Act
+        OverdueScheduler scheduler = new OverdueScheduler(restarted, database, null, Duration.ZERO, Duration.ofSeconds(1));
+        int fired = scheduler.advance(start + 15 * DAY);
+
+        // Assert
+        Assertions.assertEquals(1, fired);
+        LibraryEvent event = events.poll(10).get(0);
+        Assertions.assertEquals(LibraryEvent.Type.LOAN_OVERDUE, event.getType());
+        Assertions.assertEquals("9780306406157", event.getISBN());
+        Assertions.assertEquals(library.getLoanLedger().getDueDate("9780306406157", "123456789012"),
+            restarted.getLoanLedger().getDueDate("9780306406157", "123456789012"));
+    }
+}
@@ -0,0 +1,92 @@
+package ac.il.bgu.qa;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+// Your classes
+import ac.il.bgu.qa.services.NotificationService;
+
+public class TestRecordCodec {
+
+    @Mock
+    NotificationService mockNotificationService;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void givenBookAndUser_whenEncodedAndDecoded_thenFieldsAreKept() {
+        // Arrange
+        Book book = new Book("9780306406157", "Títle 📚", null, 3);
+        book.tryBorrow();
+        User user = new User("Some User", "123456789012", mockNotificationService);
+        ByteBuffer buffer = ByteBuffer.allocate(RecordCodec.bookSize(book) + RecordCodec.userSize(user, "email"));
+
+        // Act
+        RecordCodec.encodeBook(book, buffer);
+        RecordCodec.encodeUser(user, "email", buffer);
+        buffer.flip();
+        byte firstKind = RecordCodec.kind(buffer);
+        Book decodedBook = RecordCodec.decodeBook(buffer);
+        User decodedUser = RecordCodec.decodeUser(buffer, channel -> "email".equals(channel) ? mockNotificationService : null);
+
+        // Assert
+        Assertions.assertFalse(buffer.hasRemaining());
+        Assertions.assertEquals(RecordCodec.BOOK, firstKind);
+        Assertions.assertEquals("9780306406157", decodedBook.getISBN());
+        Assertions.assertEquals("Títle 📚", decodedBook.getTitle());
+        Assertions.assertNull(decodedBook.getAuthor());
+        Assertions.assertEquals(3, decodedBook.getCopies());
+        Assertions.assertEquals(2, decodedBook.getAvailableCopies());
+        Assertions.assertEquals("123456789012", decodedUser.getId());
+        Assertions.assertEquals("Some User", decodedUser.getName());
+        Assertions.assertSame(mockNotificationService, decodedUser.getNotificationService());
+    }
+
+    @Test
+    public void givenRecordOfNewerVersion_whenDecoded_thenUnknownFieldsAreSkipped() {
+        // Arrange
+        User user = new User("Some User", "123456789012", mockNotificationService);
+        ByteBuffer encoded = ByteBuffer.allocate(RecordCodec.userSize(user, null));
+        RecordCodec.encodeUser(user, null, encoded);
+        byte[] v1 = encoded.array();
+        ByteBuffer buffer = ByteBuffer.allocate(v1.length + 3 + v1.length);
+        buffer.put(RecordCodec.USER).put((byte) 2).put((byte) (v1[2] + 3));
+        buffer.put(v1, 3, v1.length - 3).put(new byte[]{1, 2, 3});
+        buffer.put(v1);
+        buffer.flip();
+
+        // Act
+        User newer = RecordCodec.decodeUser(buffer, channel -> null);
+        User older = RecordCodec.decodeUser(buffer, channel -> null);
+
+        // Assert
+        Assertions.assertEquals("Some User", newer.getName());
+        Assertions.assertEquals("123456789012", older.getId());
+        Assertions.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void givenTooSmallBuffer_whenBookIsEncoded_thenBufferIsUnchanged() {
+        // Arrange
+        Book book = new Book("9780306406157", "Some Title", "Some Author");
+        ByteBuffer buffer = ByteBuffer.allocate(RecordCodec.bookSize(book) - 1);
+
+        // Act & Assert
+        Assertions.assertThrows(BufferOverflowException.class, () -> RecordCodec.encodeBook(book, buffer));
+        Assertions.assertEquals(0, buffer.position());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RecordCodec.decodeBook(buffer));
+    }
+}
@@ -0,0 +1,99 @@
+package ac.il.bgu.qa.errors;
+
+// JUnit 5
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.*;
+
+public class TestLibraryErrors {
+
+    @Mock
+    DatabaseService mockDatabase;
+    @Mock
+    ReviewService mockReviewService;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        LibraryErrors.setStackless(false);
+    }
+
+    @Test
+    public void givenDefaultMode_whenBookNotFound_thenNewExceptionWithStackTrace() {
+        // Act
+        BookNotFoundException first = LibraryErrors.bookNotFound();
+        BookNotFoundException second = LibraryErrors.bookNotFound();
+
+        // Assert
+        Assertions.assertNotSame(first, second);
+        Assertions.assertTrue(first.getStackTrace().length > 0);
+        Assertions.assertEquals("Book not found!", first.getMessage());
+    }
+
+    @Test
+    public void givenStacklessMode_whenBookNotFound_thenSharedExceptionWithoutStackTrace() {
+        // Arrange
+        LibraryErrors.setStackless(true);
+
+        // Act
+        BookNotFoundException first = LibraryErrors.bookNotFound();
+        BookNotFoundException second = LibraryErrors.bookNotFound();
+
+        // Assert
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(0, first.getStackTrace().length);
+        Assertions.assertEquals("Book not found!", first.getMessage());
+    }
+
+    @Test
+    public void givenStacklessMode_whenSharedExceptionIsModified_thenItStaysUnchanged() {
+        // Arrange
+        LibraryErrors.setStackless(true);
+        BookNotBorrowedException shared = LibraryErrors.bookNotBorrowed();
+
+        // Act
+        shared.addSuppressed(new RuntimeException("other"));
+        shared.setStackTrace(new Throwable().getStackTrace());
+
+        // Assert
+        Assertions.assertEquals(0, shared.getSuppressed().length);
+        Assertions.assertEquals(0, shared.getStackTrace().length);
+        Assertions.assertThrows(IllegalStateException.class, () -> shared.initCause(new RuntimeException("cause")));
+    }
+
+    @Test
+    public void givenStacklessMode_whenBorrowBorrowedBook_thenLibraryThrowsSharedException() {
+        // Arrange
+        LibraryErrors.setStackless(true);
+        Library library = new Library(mockDatabase, mockReviewService);
+        Book borrowed = new Book("9780306406157", "Some Title", "Some Author");
+        borrowed.borrow();
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(borrowed);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mock(User.class));
+
+        // Act
+        BookAlreadyBorrowedException thrown = Assertions.assertThrows(BookAlreadyBorrowedException.class,
+                () -> library.borrowBook("9780306406157", "123456789012"));
+
+        // Assert
+        Assertions.assertSame(LibraryErrors.bookAlreadyBorrowed(), thrown);
+        Assertions.assertEquals("Book is already borrowed!", thrown.getMessage());
+    }
+}
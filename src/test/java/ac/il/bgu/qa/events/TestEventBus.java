@@ -0,0 +1,132 @@
+package ac.il.bgu.qa.events;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Mockito
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.*;
+
+public class TestEventBus {
+
+    @Test
+    public void givenPublishedEvents_whenPollInBatches_thenEventsArriveInOrder() {
+        // Arrange
+        EventBus bus = new EventBus(16);
+        EventSubscription subscription = bus.subscribe();
+        for (int i = 0; i < 5; i++) {
+            bus.publish(LibraryEvent.Type.BOOK_ADDED, "978030640615" + i, null);
+        }
+
+        // Act
+        List<LibraryEvent> first = subscription.poll(3);
+        List<LibraryEvent> second = subscription.poll(3);
+
+        // Assert
+        Assertions.assertEquals(3, first.size());
+        Assertions.assertEquals(2, second.size());
+        Assertions.assertEquals(0, first.get(0).getSequence());
+        Assertions.assertEquals(4, second.get(1).getSequence());
+        Assertions.assertEquals(0, subscription.getLag());
+        Assertions.assertTrue(subscription.poll(3).isEmpty());
+    }
+
+    @Test
+    public void givenTwoSubscribers_whenOnePolls_thenTheOtherKeepsItsOwnCursor() {
+        // Arrange
+        EventBus bus = new EventBus(16);
+        EventSubscription fast = bus.subscribe();
+        EventSubscription slow = bus.subscribe();
+        bus.publish(LibraryEvent.Type.USER_REGISTERED, null, "123456789012");
+
+        // Act
+        fast.poll(10);
+
+        // Assert
+        Assertions.assertEquals(0, fast.getLag());
+        Assertions.assertEquals(1, slow.getLag());
+        Assertions.assertEquals(LibraryEvent.Type.USER_REGISTERED, slow.poll(10).get(0).getType());
+    }
+
+    @Test
+    public void givenSlowSubscriber_whenRingWraps_thenPublisherDoesNotWaitAndSubscriberSkipsAhead() {
+        // Arrange
+        EventBus bus = new EventBus(8);
+        EventSubscription slow = bus.subscribe();
+
+        // Act
+        for (int i = 0; i < 20; i++) {
+            bus.publish(LibraryEvent.Type.BOOK_RETURNED, "9780306406157", null);
+        }
+        List<LibraryEvent> events = slow.poll(100);
+
+        // Assert
+        Assertions.assertEquals(8, events.size());
+        Assertions.assertEquals(12, events.get(0).getSequence());
+        Assertions.assertEquals(12, slow.getDropped());
+    }
+
+    @Test
+    public void givenConcurrentPublishers_whenSubscriberPolls_thenEverySequenceIsReadOnce() throws Exception {
+        // Arrange
+        EventBus bus = new EventBus(1 << 16);
+        EventSubscription subscription = bus.subscribe();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        // Act
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    bus.publish(LibraryEvent.Type.BOOK_BORROWED, "9780306406157", "123456789012");
+                }
+            });
+        }
+        List<LibraryEvent> events = new ArrayList<>();
+        while (events.size() < 40_000) {
+            events.addAll(subscription.poll(1000, Duration.ofSeconds(5)));
+        }
+        pool.shutdown();
+        Assertions.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        // Assert
+        for (int i = 0; i < events.size(); i++) {
+            Assertions.assertEquals(i, events.get(i).getSequence());
+        }
+        Assertions.assertEquals(0, subscription.getDropped());
+    }
+
+    @Test
+    public void givenLibrary_whenMutate_thenEventsArePublished() {
+        // Arrange
+        Library library = new Library(new InMemoryDatabaseService(), mock(ReviewService.class));
+        EventSubscription subscription = library.getEventBus().subscribe();
+
+        // Act
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author"));
+        library.registerUser(new User("Some Name", "123456789012", mock(NotificationService.class)));
+        library.borrowBook("9780306406157", "123456789012");
+        library.tryBorrowBook("9780306406157", "123456789012");
+        library.returnBook("9780306406157");
+
+        // Assert
+        List<LibraryEvent.Type> types = new ArrayList<>();
+        subscription.poll(10, event -> types.add(event.getType()));
+        Assertions.assertEquals(Arrays.asList(LibraryEvent.Type.BOOK_ADDED, LibraryEvent.Type.USER_REGISTERED,
+                LibraryEvent.Type.BOOK_BORROWED, LibraryEvent.Type.BOOK_RETURNED), types);
+    }
+}
@@ -0,0 +1,171 @@
+package ac.il.bgu.qa.metrics;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.services.*;
+
+public class TestLibraryMetrics {
+
+    @Mock
+    DatabaseService mockDatabase;
+    @Mock
+    ReviewService mockReviewService;
+    @Mock
+    Book mockBook;
+    @Mock
+    User mockUser;
+
+    private LibraryMetrics metrics;
+    private Library library;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        metrics = new LibraryMetrics();
+        library = new Library(mockDatabase, mockReviewService, null, metrics);
+    }
+
+    @Test
+    public void givenRecordedLatencies_whenSnapshot_thenPercentilesAreWithinBucketPrecision() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10_000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        // Act
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        // Assert
+        Assertions.assertEquals(10_000, snapshot.getCount());
+        Assertions.assertEquals(5000.5, snapshot.getMean(), 0.001);
+        Assertions.assertEquals(10_000, snapshot.getMax());
+        Assertions.assertEquals(5000, snapshot.getPercentile(50), 5000 / 16.0);
+        Assertions.assertEquals(9900, snapshot.getPercentile(99), 9900 / 16.0);
+        Assertions.assertEquals(10_000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void givenAnyLatency_whenIndexed_thenItFallsWithinItsBucket() {
+        // Arrange
+        long[] latencies = {0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, LatencyHistogram.MAX_TRACKED};
+
+        // Act & Assert
+        for (long nanos : latencies) {
+            int index = LatencyHistogram.index(nanos);
+            Assertions.assertTrue(LatencyHistogram.lowestValue(index) <= nanos);
+            Assertions.assertTrue(LatencyHistogram.highestValue(index) >= nanos);
+        }
+        Assertions.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void givenMissingBook_whenBorrowBook_thenLatencyAndExceptionAreRecorded() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(null);
+
+        // Act
+        Assertions.assertThrows(BookNotFoundException.class, () -> library.borrowBook("9780306406157", "123456789012"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> library.borrowBook("invalid", "123456789012"));
+
+        // Assert
+        MetricsSnapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(2, snapshot.getLatency(LibraryOperation.BORROW_BOOK).getCount());
+        Assertions.assertEquals(1, snapshot.getExceptionCount(BookNotFoundException.class));
+        Assertions.assertEquals(1, snapshot.getExceptionCount(IllegalArgumentException.class));
+        Assertions.assertEquals(0, snapshot.getExceptionCount(UserNotRegisteredException.class));
+    }
+
+    @Test
+    public void givenFlakyNotificationService_whenGetBookByISBN_thenStagesAndRetriesAreRecorded() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockBook.getTitle()).thenReturn("Some Title");
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great"));
+        doThrow(new NotificationException("fail"))
+            .doThrow(new NotificationException("fail"))
+            .doNothing()
+            .when(mockUser).sendNotification(anyString());
+
+        // Act
+        library.getBookByISBN("9780306406157", "123456789012");
+
+        // Assert
+        MetricsSnapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.GET_BOOK_BY_ISBN).getCount());
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.NOTIFY_USER_WITH_BOOK_REVIEWS).getCount());
+        Assertions.assertEquals(2, snapshot.getLatency(LibraryOperation.VALIDATION).getCount());
+        Assertions.assertEquals(2, snapshot.getLatency(LibraryOperation.DATABASE_LOOKUP).getCount());
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.REVIEW_FETCH).getCount());
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.NOTIFICATION).getCount());
+        Assertions.assertEquals(2, snapshot.getNotificationRetries());
+        Assertions.assertTrue(snapshot.getExceptionCounts().isEmpty());
+    }
+
+    @Test
+    public void givenFailingNotificationService_whenNotifyUserWithBookReviews_thenOnlyRetriedAttemptsAreCounted() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockBook.getTitle()).thenReturn("Some Title");
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great"));
+        doThrow(new NotificationException("fail")).when(mockUser).sendNotification(anyString());
+
+        // Act
+        Assertions.assertThrows(NotificationException.class,
+            () -> library.notifyUserWithBookReviews("9780306406157", "123456789012"));
+
+        // Assert
+        verify(mockUser, times(5)).sendNotification(anyString());
+        Assertions.assertEquals(4, metrics.snapshot().getNotificationRetries());
+    }
+
+    @Test
+    public void givenUnavailableReviewService_whenGetBookByISBN_thenSwallowedExceptionIsStillCounted() {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenThrow(new ReviewException("fail"));
+
+        // Act
+        library.getBookByISBN("9780306406157", "123456789012");
+
+        // Assert
+        MetricsSnapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.getExceptionCount(ReviewServiceUnavailableException.class));
+        Assertions.assertEquals(1, snapshot.getLatency(LibraryOperation.REVIEW_FETCH).getCount());
+    }
+
+    @Test
+    public void givenReporter_whenReport_thenReporterReceivesSnapshot() {
+        // Arrange
+        AtomicReference<MetricsSnapshot> reported = new AtomicReference<>();
+        metrics.recordNotificationRetry();
+
+        // Act
+        library.getMetrics().report(reported::set);
+
+        // Assert
+        Assertions.assertNotNull(reported.get());
+        Assertions.assertEquals(1, reported.get().getNotificationRetries());
+    }
+}
@@ -0,0 +1,146 @@
+package ac.il.bgu.qa.search;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Your classes
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.services.*;
+
+public class TestCatalogIndex {
+
+    private CatalogIndex index;
+
+    @BeforeEach
+    public void init() {
+        index = new CatalogIndex();
+        index.add(new Book("9780306406157", "The Lord of the Rings", "J.R.R. Tolkien"));
+        index.add(new Book("9780134685991", "Effective Java", "Joshua Bloch"));
+        index.add(new Book("9780262033848", "Introduction to Algorithms", "Thomas Cormen"));
+        index.add(new Book("9780201633610", "Design Patterns", "Erich Gamma"));
+        index.add(new Book("9780596009205", "Head First Java", "Kathy Sierra"));
+    }
+
+    @Test
+    public void givenPrefixOfLastWord_whenSearch_thenMatchBooksContainingEveryWord() {
+        // Act
+        SearchPage page = index.search("java he", 0, 10);
+
+        // Assert
+        Assertions.assertEquals(1, page.getTotalHits());
+        Assertions.assertEquals("9780596009205", page.getResults().get(0).getISBN());
+    }
+
+    @Test
+    public void givenAccentsCaseAndPunctuation_whenSearch_thenMatchNormalizedWords() {
+        // Arrange
+        index.add(new Book("9780140449136", "Crime and Punishment", "Fyodor Dosto\u00e9vsky"));
+
+        // Act & Assert
+        Assertions.assertEquals(1, index.search("DOSTOEVSKY", 0, 10).getTotalHits());
+        Assertions.assertEquals(1, index.search("jrr tolk", 0, 10).getTotalHits());
+        Assertions.assertEquals(0, index.search("rings lord tolkiens", 0, 10).getTotalHits());
+    }
+
+    @Test
+    public void givenTitleAndAuthorMatches_whenSearch_thenTitleMatchesRankFirst() {
+        // Arrange
+        index.add(new Book("9780140449136", "Notes", "Java Smith"));
+
+        // Act
+        SearchPage page = index.search("java", 0, 10);
+
+        // Assert
+        List<String> ISBNs = new ArrayList<>();
+        for (Book book : page.getResults()) {
+            ISBNs.add(book.getISBN());
+        }
+        Assertions.assertEquals(Arrays.asList("9780134685991", "9780596009205", "9780140449136"), ISBNs);
+    }
+
+    @Test
+    public void givenManyMatches_whenSearchPages_thenPagesAreDisjointAndInOrder() {
+        // Arrange
+        CatalogIndex large = new CatalogIndex();
+        for (int i = 0; i < 25; i++) {
+            large.add(new Book(isbn(i), "Volume " + i, "Some Author"));
+        }
+
+        // Act
+        SearchPage first = large.search("vol", 0, 10);
+        SearchPage third = large.search("vol", 2, 10);
+        SearchPage beyond = large.search("vol", 3, 10);
+
+        // Assert
+        Assertions.assertEquals(25, first.getTotalHits());
+        Assertions.assertEquals(10, first.getResults().size());
+        Assertions.assertEquals(isbn(0), first.getResults().get(0).getISBN());
+        Assertions.assertTrue(first.hasNext());
+        Assertions.assertEquals(5, third.getResults().size());
+        Assertions.assertEquals(isbn(20), third.getResults().get(0).getISBN());
+        Assertions.assertFalse(third.hasNext());
+        Assertions.assertTrue(beyond.getResults().isEmpty());
+    }
+
+    @Test
+    public void givenSameISBNTwice_whenAdd_thenBookIsIndexedOnce() {
+        // Act
+        boolean added = index.add(new Book("9780306406157", "The Hobbit", "J.R.R. Tolkien"));
+
+        // Assert
+        Assertions.assertFalse(added);
+        Assertions.assertEquals(5, index.size());
+        Assertions.assertEquals(0, index.search("hobbit", 0, 10).getTotalHits());
+    }
+
+    @Test
+    public void givenLargeGaps_whenAddToPostingsList_thenDocumentsDecodeInOrder() {
+        // Arrange
+        PostingsList postings = new PostingsList();
+        int[] documents = {0, 1, 127, 128, 16_384, 2_000_000, Integer.MAX_VALUE - 1};
+
+        // Act
+        for (int document : documents) {
+            postings.add(document);
+        }
+        postings.add(5);
+        List<Integer> decoded = new ArrayList<>();
+        postings.forEach(decoded::add);
+
+        // Assert
+        Assertions.assertEquals(documents.length, postings.size());
+        Assertions.assertEquals(Arrays.asList(0, 1, 127, 128, 16_384, 2_000_000, Integer.MAX_VALUE - 1), decoded);
+    }
+
+    @Test
+    public void givenLibrary_whenAddBook_thenBookIsSearchable() {
+        // Arrange
+        Library library = new Library(new InMemoryDatabaseService(), null);
+
+        // Act
+        library.addBook(new Book("9780134685991", "Effective Java", "Joshua Bloch"));
+
+        // Assert
+        SearchPage page = library.search("bloch eff", 0, 10);
+        Assertions.assertEquals(1, page.getTotalHits());
+        Assertions.assertEquals("Effective Java", page.getResults().get(0).getTitle());
+    }
+
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,187 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+// Mockito
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.*;
+
+public class TestCachingDatabaseService {
+
+    @Mock
+    DatabaseService mockDatabase;
+    @Mock
+    Book mockBook;
+    @Mock
+    User mockUser;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void givenCachedBookAndUser_whenLookedUpAgain_thenBackendIsCalledOnce() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenReturn(mockBook);
+        when(mockDatabase.getUserById("123456789012")).thenReturn(mockUser);
+
+        // Act
+        cache.getBookByISBN("9780306406157");
+        cache.getUserById("123456789012");
+        Book book = cache.getBookByISBN("9780306406157");
+        User user = cache.getUserById("123456789012");
+
+        // Assert
+        Assertions.assertSame(mockBook, book);
+        Assertions.assertSame(mockUser, user);
+        verify(mockDatabase, times(1)).getBookByISBN("9780306406157");
+        verify(mockDatabase, times(1)).getUserById("123456789012");
+        Assertions.assertEquals(2, cache.getHitCount());
+        Assertions.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void givenPopularBooks_whenCatalogIsScanned_thenPopularBooksStayCached() {
+        // Arrange
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        for (int i = 0; i < 1_000; i++) {
+            String ISBN = isbn(i);
+            database.addBook(ISBN, new Book(ISBN, "Title " + i, "Some Author"));
+        }
+        CachingDatabaseService cache = new CachingDatabaseService(database, 100);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.getBookByISBN(isbn(i));
+            }
+        }
+
+        // Act
+        for (int i = 50; i < 1_000; i++) {
+            cache.getBookByISBN(isbn(i));
+        }
+        long missesBefore = cache.getMissCount();
+        for (int i = 0; i < 50; i++) {
+            cache.getBookByISBN(isbn(i));
+        }
+
+        // Assert
+        // A least recently used cache would have lost every popular book to the scan.
+        Assertions.assertTrue(cache.getMissCount() - missesBefore <= 5);
+        Assertions.assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void givenWriteBehind_whenSameBookIsWrittenTwice_thenWritesAreFlushedInOneBatchPerBorrower() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100, 10, Duration.ofHours(1));
+
+        // Act
+        cache.borrowBook("9780306406157", "123456789012");
+        cache.returnBook("9780306406157");
+        cache.borrowBook("9780134685991", "123456789012");
+        verifyNoInteractions(mockDatabase);
+        cache.close();
+
+        // Assert
+        Assertions.assertEquals(1, cache.getCoalescedWriteCount());
+        Assertions.assertEquals(0, cache.getPendingWriteCount());
+        InOrder inOrder = inOrder(mockDatabase);
+        inOrder.verify(mockDatabase).borrowBooks(Arrays.asList("9780306406157", "9780134685991"), "123456789012");
+        inOrder.verify(mockDatabase).returnBook("9780306406157");
+        verify(mockDatabase, never()).borrowBook(anyString(), anyString());
+    }
+
+    @Test
+    public void givenWriteBehind_whenTwoUsersBorrowTheSameBook_thenBothLoansAreFlushed() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100, 10, Duration.ofHours(1));
+
+        // Act
+        cache.borrowBook("9780306406157", "123456789012");
+        cache.borrowBook("9780306406157", "210987654321");
+        cache.flush();
+
+        // Assert
+        verify(mockDatabase).borrowBooks(Collections.singletonList("9780306406157"), "123456789012");
+        verify(mockDatabase).borrowBooks(Collections.singletonList("9780306406157"), "210987654321");
+    }
+
+    @Test
+    public void givenWriteBehind_whenUserBorrowsAndReturnsBook_thenNothingIsWritten() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100, 10, Duration.ofHours(1));
+
+        // Act
+        cache.borrowBook("9780306406157", "210987654321");
+        cache.returnBook("9780306406157", "210987654321");
+        cache.flush();
+
+        // Assert
+        Assertions.assertEquals(0, cache.getPendingWriteCount());
+        verifyNoInteractions(mockDatabase);
+    }
+
+    @Test
+    public void givenFlushFailingAfterFirstBorrower_whenFlushedAgain_thenOnlyUnwrittenLoansAreWritten() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100, 10, Duration.ofHours(1));
+        cache.borrowBook("9780306406157", "123456789012");
+        cache.borrowBook("9780134685991", "210987654321");
+        cache.returnBook("9780306406157", "123456789013");
+        doThrow(new RuntimeException("down")).doNothing()
+                .when(mockDatabase).borrowBooks(anyCollection(), eq("210987654321"));
+
+        // Act
+        Assertions.assertThrows(RuntimeException.class, cache::flush);
+        cache.flush();
+
+        // Assert
+        verify(mockDatabase).borrowBooks(Collections.singletonList("9780306406157"), "123456789012");
+        verify(mockDatabase, times(2)).borrowBooks(Collections.singletonList("9780134685991"), "210987654321");
+        verify(mockDatabase).returnBook("9780306406157", "123456789013");
+        Assertions.assertEquals(0, cache.getPendingWriteCount());
+    }
+
+    @Test
+    public void givenFullBufferAndFailingBackend_whenBorrowBook_thenWriteFailsAndPendingWritesAreKept() {
+        // Arrange
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 100, 2, Duration.ofHours(1));
+        cache.borrowBooks(Arrays.asList("9780306406157", "9780134685991"), "123456789012");
+        doThrow(new RuntimeException("down")).when(mockDatabase).borrowBooks(anyCollection(), anyString());
+
+        // Act & Assert
+        Assertions.assertThrows(RuntimeException.class, () -> cache.borrowBook("9780262033848", "123456789012"));
+        Assertions.assertEquals(2, cache.getPendingWriteCount());
+        Assertions.assertEquals(1, cache.getFailedFlushCount());
+        doNothing().when(mockDatabase).borrowBooks(anyCollection(), anyString());
+        cache.borrowBook("9780262033848", "123456789012");
+        Assertions.assertEquals(1, cache.getPendingWriteCount());
+        Assertions.assertEquals(1, cache.getFlushCount());
+    }
+
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,189 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+
+public class TestCachingReviewService {
+
+    @Mock
+    ReviewService mockReviewService;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private CachingReviewService cache;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        cache = new CachingReviewService(mockReviewService, 2, Duration.ofMinutes(10), Duration.ofMinutes(1), clock::get);
+    }
+
+    @Test
+    public void givenCachedReviews_whenGetReviewsForBookAgain_thenBackendIsCalledOnce() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great", "Fine"));
+
+        // Act
+        List<String> first = cache.getReviewsForBook("9780306406157");
+        List<String> second = cache.getReviewsForBook("9780306406157");
+
+        // Assert
+        Assertions.assertEquals(Arrays.asList("Great", "Fine"), first);
+        Assertions.assertEquals(first, second);
+        verify(mockReviewService, times(1)).getReviewsForBook("9780306406157");
+        verify(mockReviewService, times(1)).close();
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void givenExpiredReviews_whenGetReviewsForBook_thenReloadFromBackend() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great"));
+        cache.getReviewsForBook("9780306406157");
+
+        // Act
+        clock.addAndGet(Duration.ofMinutes(10).toNanos());
+        cache.getReviewsForBook("9780306406157");
+
+        // Assert
+        verify(mockReviewService, times(2)).getReviewsForBook("9780306406157");
+    }
+
+    @Test
+    public void givenBookWithoutReviews_whenGetReviewsForBook_thenCacheEmptyListForNegativeTtl() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(null);
+
+        // Act
+        List<String> first = cache.getReviewsForBook("9780306406157");
+        List<String> second = cache.getReviewsForBook("9780306406157");
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        cache.getReviewsForBook("9780306406157");
+
+        // Assert
+        Assertions.assertTrue(first.isEmpty());
+        Assertions.assertTrue(second.isEmpty());
+        verify(mockReviewService, times(2)).getReviewsForBook("9780306406157");
+    }
+
+    @Test
+    public void givenBackendThrowsNoReviewsFound_whenGetReviewsForBook_thenCacheEmptyListForNegativeTtl() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenThrow(new NoReviewsFoundException("none"));
+
+        // Act
+        List<String> first = cache.getReviewsForBook("9780306406157");
+        List<String> second = cache.getReviewsForBook("9780306406157");
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        cache.getReviewsForBook("9780306406157");
+
+        // Assert
+        Assertions.assertTrue(first.isEmpty());
+        Assertions.assertTrue(second.isEmpty());
+        Assertions.assertEquals(1, cache.getHitCount());
+        verify(mockReviewService, times(2)).getReviewsForBook("9780306406157");
+        verify(mockReviewService, times(2)).close();
+    }
+
+    @Test
+    public void givenFullCache_whenGetReviewsForNewBook_thenEvictLeastRecentlyUsed() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook(anyString())).thenReturn(Arrays.asList("Great"));
+        cache.getReviewsForBook("9780306406157");
+        cache.getReviewsForBook("9780134685991");
+        cache.getReviewsForBook("9780306406157");
+
+        // Act
+        cache.getReviewsForBook("9780262033848");
+        cache.getReviewsForBook("9780306406157");
+        cache.getReviewsForBook("9780134685991");
+
+        // Assert
+        Assertions.assertEquals(2, cache.size());
+        verify(mockReviewService, times(1)).getReviewsForBook("9780306406157");
+        verify(mockReviewService, times(2)).getReviewsForBook("9780134685991");
+        Assertions.assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void givenBackendFailure_whenGetReviewsForBook_thenFailureIsNotCached() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157"))
+            .thenThrow(new ReviewException("fail"))
+            .thenReturn(Arrays.asList("Great"));
+
+        // Act & Assert
+        Assertions.assertThrows(ReviewException.class, () -> cache.getReviewsForBook("9780306406157"));
+        Assertions.assertEquals(Arrays.asList("Great"), cache.getReviewsForBook("9780306406157"));
+        verify(mockReviewService, times(2)).close();
+    }
+
+    @Test
+    public void givenConcurrentMisses_whenGetReviewsForBook_thenBackendIsCalledOnce() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenAnswer(invocation -> {
+            release.await();
+            return Arrays.asList("Great");
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<List<String>>> futures = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(() -> cache.getReviewsForBook("9780306406157")));
+            }
+            while (cache.getMissCount() + cache.getHitCount() < 8) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<List<String>> future : futures) {
+                Assertions.assertEquals(Arrays.asList("Great"), future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Assert
+        verify(mockReviewService, times(1)).getReviewsForBook("9780306406157");
+        Assertions.assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test
+    public void givenCachingReviewService_whenLibraryClosesIt_thenCacheIsKept() {
+        // Arrange
+        when(mockReviewService.getReviewsForBook("9780306406157")).thenReturn(Arrays.asList("Great"));
+        cache.getReviewsForBook("9780306406157");
+
+        // Act
+        cache.close();
+        cache.getReviewsForBook("9780306406157");
+
+        // Assert
+        verify(mockReviewService, times(1)).getReviewsForBook("9780306406157");
+    }
+}
@@ -0,0 +1,240 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Java standard library
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+// Your classes
+import ac.il.bgu.qa.*;
+import ac.il.bgu.qa.errors.*;
+
+public class TestDurableDatabaseService {
+
+    @Mock
+    NotificationService mockNotificationService;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void givenBooksUsersAndLoans_whenReopenedAfterSnapshot_thenStateIsRecovered() throws Exception {
+        // Arrange
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(1), new Book(isbn(1), "First Title", "Some Author"));
+            database.addBook(isbn(2), new Book(isbn(2), "Second Title", "Another Author", 3));
+            database.registerUser("123456789012", new User("Some User", "123456789012", mockNotificationService));
+            database.borrowBook(isbn(1), "123456789012");
+            database.snapshot();
+            database.borrowBook(isbn(2), "123456789012");
+            database.returnBook(isbn(2));
+        }
+
+        // Act
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            Book first = database.getBookByISBN(isbn(1));
+            Book second = database.getBookByISBN(isbn(2));
+            User user = database.getUserById("123456789012");
+
+            // Assert
+            Assertions.assertEquals("First Title", first.getTitle());
+            Assertions.assertTrue(first.isBorrowed());
+            Assertions.assertEquals(3, second.getCopies());
+            Assertions.assertFalse(second.isBorrowed());
+            Assertions.assertEquals("Some User", user.getName());
+            Assertions.assertSame(mockNotificationService, user.getNotificationService());
+            Assertions.assertEquals("123456789012", database.getBorrowerId(isbn(1)));
+            Assertions.assertNull(database.getBorrowerId(isbn(2)));
+        }
+    }
+
+    @Test
+    public void givenTornLogTail_whenReopened_thenIntactRecordsAreKept() throws Exception {
+        // Arrange
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(1), new Book(isbn(1), "First Title", "Some Author"));
+            database.addBook(isbn(2), new Book(isbn(2), "Second Title", "Some Author"));
+        }
+        try (FileChannel log = FileChannel.open(directory.resolve("database.log"), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 3);
+        }
+
+        // Act
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(3), new Book(isbn(3), "Third Title", "Some Author"));
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+
+            // Assert
+            Assertions.assertNotNull(database.getBookByISBN(isbn(1)));
+            Assertions.assertNull(database.getBookByISBN(isbn(2)));
+            Assertions.assertNotNull(database.getBookByISBN(isbn(3)));
+        }
+    }
+
+    @Test
+    public void givenSeveralCopiesOnLoan_whenReopened_thenEveryLoanIsRecovered() throws Exception {
+        // Arrange
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(1), new Book(isbn(1), "First Title", "Some Author", 3));
+            database.addBook(isbn(2), new Book(isbn(2), "Second Title", "Some Author", 3));
+            database.borrowBook(isbn(1), "123456789012");
+            database.borrowBook(isbn(1), "210987654321");
+            database.snapshot();
+            database.borrowBook(isbn(2), "123456789012");
+            database.borrowBook(isbn(2), "210987654321");
+            database.returnBook(isbn(2));
+        }
+
+        // Act
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+
+            // Assert
+            Assertions.assertEquals(2, database.getLoanCount(isbn(1)));
+            Assertions.assertEquals(1, database.getBookByISBN(isbn(1)).getAvailableCopies());
+            Assertions.assertEquals(1, database.getLoanCount(isbn(2)));
+            Assertions.assertEquals(2, database.getBookByISBN(isbn(2)).getAvailableCopies());
+            Assertions.assertEquals("210987654321", database.getBorrowerId(isbn(2)));
+        }
+    }
+
+    @Test
+    public void givenReturnByNamedUser_whenReopened_thenOnlyTheirLoanIsClosed() throws Exception {
+        // Arrange
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            Book book = new Book(isbn(1), "First Title", "Some Author", 3);
+            database.addBook(isbn(1), book);
+            book.borrow();
+            database.borrowBook(isbn(1), "123456789012");
+            book.borrow();
+            database.borrowBook(isbn(1), "210987654321");
+            book.returnBook();
+            database.returnBook(isbn(1), "210987654321");
+            Assertions.assertThrows(BookNotBorrowedException.class,
+                () -> database.returnBook(isbn(1), "210987654321"));
+        }
+
+        // Act
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+
+            // Assert
+            Assertions.assertEquals(Collections.singletonList("123456789012"), database.getBorrowerIds(isbn(1)));
+            Assertions.assertEquals(2, database.getBookByISBN(isbn(1)).getAvailableCopies());
+        }
+    }
+
+    @Test
+    public void givenCrashBeforeLogIsEmptiedAfterSnapshot_whenReopened_thenLogIsNotReplayedAgain() throws Exception {
+        // Arrange
+        Path logFile = directory.resolve("database.log");
+        byte[] logBeforeSnapshot;
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(1), new Book(isbn(1), "First Title", "Some Author", 2));
+            database.borrowBook(isbn(1), "123456789012");
+            database.borrowBook(isbn(1), "210987654321");
+            logBeforeSnapshot = Files.readAllBytes(logFile);
+            database.snapshot();
+        }
+        // The snapshot was renamed into place, but the crash came before the log was emptied.
+        Files.write(logFile, logBeforeSnapshot);
+
+        // Act
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.returnBook(isbn(1));
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+
+            // Assert
+            Assertions.assertEquals(1, database.getLoanCount(isbn(1)));
+            Assertions.assertEquals(1, database.getBookByISBN(isbn(1)).getAvailableCopies());
+            Assertions.assertEquals("210987654321", database.getBorrowerId(isbn(1)));
+        }
+    }
+
+    @Test
+    public void givenConcurrentWriters_whenBooksAreAdded_thenForcesAreShared() throws Exception {
+        // Arrange
+        int threads = 8;
+        int booksPerThread = 50;
+        List<Thread> writers = new ArrayList<>();
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService, 4_096)) {
+            for (int t = 0; t < threads; t++) {
+                int first = t * booksPerThread;
+                Thread writer = new Thread(() -> {
+                    for (int i = first; i < first + booksPerThread; i++) {
+                        database.addBook(isbn(i), new Book(isbn(i), "Title " + i, "Some Author"));
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+
+            // Act
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            // Assert
+            Assertions.assertEquals(threads * booksPerThread, database.getCommitCount());
+            Assertions.assertTrue(database.getSyncCount() <= database.getCommitCount());
+            Assertions.assertTrue(database.getSnapshotCount() > 0);
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            for (int i = 0; i < threads * booksPerThread; i++) {
+                Assertions.assertEquals("Title " + i, database.getBookByISBN(isbn(i)).getTitle());
+            }
+        }
+    }
+
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    @Test
+    public void givenLoansWithDueDates_whenReopenedAfterSnapshot_thenEveryDueDateIsRecovered() throws Exception {
+        // Arrange
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            database.addBook(isbn(1), new Book(isbn(1), "First Title", "Some Author", 2));
+            database.borrowBook(isbn(1), "123456789012", 1000);
+            database.snapshot();
+            database.borrowBooks(Collections.singletonList(isbn(1)), "210987654321", 2000);
+        }
+
+        // Act
+        List<String> loans = new ArrayList<>();
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, id -> mockNotificationService)) {
+            boolean complete = database.forEachLoan((ISBNKey, userKey, dueDate) ->
+                loans.add(ISBNCodec.toString(ISBNKey) + " " + UserIdCodec.toString(userKey) + " " + dueDate));
+
+            // Assert
+            Assertions.assertTrue(complete);
+            Assertions.assertTrue(database.storesDueDates());
+        }
+        Assertions.assertEquals(List.of(isbn(1) + " 123456789012 1000", isbn(1) + " 210987654321 2000"), loans);
+    }
+}
@@ -0,0 +1,154 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+// Your classes
+import ac.il.bgu.qa.*;
+import ac.il.bgu.qa.errors.*;
+
+public class TestInMemoryDatabaseService {
+
+    @Mock
+    Book mockBook;
+    @Mock
+    User mockUser;
+
+    private InMemoryDatabaseService database;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        database = new InMemoryDatabaseService();
+    }
+
+    @Test
+    public void givenAddedBook_whenGetBookByISBN_thenReturnBookForAnyISBNForm() {
+        // Act
+        database.addBook("9780306406157", mockBook);
+
+        // Assert
+        Assertions.assertSame(mockBook, database.getBookByISBN("9780306406157"));
+        Assertions.assertSame(mockBook, database.getBookByISBN("978-0-306-40615-7"));
+        Assertions.assertEquals(1, database.bookCount());
+    }
+
+    @Test
+    public void givenUnknownOrInvalidISBN_whenGetBookByISBN_thenReturnNull() {
+        // Act & Assert
+        Assertions.assertNull(database.getBookByISBN("9780306406157"));
+        Assertions.assertNull(database.getBookByISBN("123"));
+        Assertions.assertNull(database.getBookByISBN(null));
+    }
+
+    @Test
+    public void givenInvalidISBN_whenAddBook_thenThrowIllegalArgumentException() {
+        // Act & Assert
+        IllegalArgumentException thrown = Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> database.addBook("9780306406158", mockBook)
+        );
+        Assertions.assertEquals("Invalid ISBN.", thrown.getMessage());
+    }
+
+    @Test
+    public void givenRegisteredUser_whenGetUserById_thenReturnUser() {
+        // Act
+        database.registerUser("123456789012", mockUser);
+
+        // Assert
+        Assertions.assertSame(mockUser, database.getUserById("123456789012"));
+        Assertions.assertNull(database.getUserById("123456789013"));
+        Assertions.assertNull(database.getUserById("12345678901A"));
+    }
+
+    @Test
+    public void givenBorrowedBook_whenReturnBook_thenBorrowerIsCleared() {
+        // Arrange
+        database.borrowBook("9780306406157", "123456789012");
+        Assertions.assertEquals("123456789012", database.getBorrowerId("9780306406157"));
+
+        // Act
+        database.returnBook("9780306406157");
+
+        // Assert
+        Assertions.assertNull(database.getBorrowerId("9780306406157"));
+    }
+
+    @Test
+    public void givenSeveralCopiesOnLoan_whenReturnBook_thenEarliestLoanIsClosedAndOthersKept() {
+        // Arrange
+        database.borrowBook("9780306406157", "123456789012");
+        database.borrowBook("9780306406157", "210987654321");
+
+        // Act
+        List<String> before = database.getBorrowerIds("9780306406157");
+        database.returnBook("9780306406157");
+
+        // Assert
+        Assertions.assertEquals(Arrays.asList("123456789012", "210987654321"), before);
+        Assertions.assertEquals(Collections.singletonList("210987654321"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(1, database.getLoanCount("9780306406157"));
+        database.returnBook("9780306406157");
+        Assertions.assertEquals(0, database.getLoanCount("9780306406157"));
+        Assertions.assertNull(database.getBorrowerId("9780306406157"));
+    }
+
+    @Test
+    public void givenSeveralCopiesOnLoan_whenReturnBookByUser_thenOnlyTheirLoanIsClosed() {
+        // Arrange
+        database.borrowBook("9780306406157", "123456789012");
+        database.borrowBook("9780306406157", "210987654321");
+
+        // Act
+        database.returnBook("9780306406157", "210987654321");
+
+        // Assert
+        Assertions.assertEquals(Collections.singletonList("123456789012"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertThrows(BookNotBorrowedException.class,
+            () -> database.returnBook("9780306406157", "210987654321"));
+        Assertions.assertEquals(1, database.getLoanCount("9780306406157"));
+    }
+
+    @Test
+    public void givenManyLoans_whenHalfAreReturned_thenRemainingLoansAreStillFound() {
+        // Arrange
+        for (long user = 0; user < 10_000; user++) {
+            database.borrowBook(isbnFor(user), UserIdCodec.toString(user));
+        }
+
+        // Act
+        for (long user = 0; user < 10_000; user += 2) {
+            database.returnBook(isbnFor(user));
+        }
+
+        // Assert
+        for (long user = 0; user < 10_000; user++) {
+            String expected = user % 2 == 0 ? null : UserIdCodec.toString(user);
+            Assertions.assertEquals(expected, database.getBorrowerId(isbnFor(user)));
+        }
+    }
+
+    // Builds a valid ISBN-13 with the given number in its body digits.
+    private static String isbnFor(long n) {
+        long body = 978_000_000_000L + n;
+        long key = body * 10;
+        for (int check = 0; check < 10; check++) {
+            if (ISBNCodec.pack(Long.toString(key + check)) != ISBNCodec.INVALID) {
+                return Long.toString(key + check);
+            }
+        }
+        throw new AssertionError();
+    }
+}
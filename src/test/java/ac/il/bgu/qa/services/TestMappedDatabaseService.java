@@ -0,0 +1,254 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Java standard library
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+// Your classes
+import ac.il.bgu.qa.*;
+import ac.il.bgu.qa.errors.*;
+
+public class TestMappedDatabaseService {
+
+    @Mock
+    NotificationService mockNotificationService;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void givenBooksUsersAndLoans_whenReopened_thenStateIsReadFromFiles() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 100, 100)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+            database.addBook("9781861972712", new Book("9781861972712", "Another Title", null, 3));
+            database.registerUser("123456789012", new User("Some User", "123456789012", mockNotificationService));
+            database.borrowBook("9780306406157", "123456789012");
+            database.borrowBook("9781861972712", "123456789012");
+        }
+
+        // Act
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 1, 1)) {
+            Book single = database.getBookByISBN("9780306406157");
+            Book multiple = database.getBookByISBN("9781861972712");
+            User user = database.getUserById("123456789012");
+
+            // Assert
+            Assertions.assertEquals("Some Title", single.getTitle());
+            Assertions.assertTrue(single.isBorrowed());
+            Assertions.assertNull(multiple.getAuthor());
+            Assertions.assertEquals(2, multiple.getAvailableCopies());
+            Assertions.assertEquals("Some User", user.getName());
+            Assertions.assertSame(mockNotificationService, user.getNotificationService());
+            Assertions.assertEquals("123456789012", database.getBorrowerId("9780306406157"));
+            Assertions.assertEquals(2, database.bookCount());
+            Assertions.assertEquals(1, database.userCount());
+            Assertions.assertNull(database.getBookByISBN("9780140449136"));
+        }
+    }
+
+    @Test
+    public void givenBorrowedBook_whenReturned_thenBookIsAvailableAndBorrowerIsForgotten() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+            database.borrowBook("9780306406157", "123456789012");
+
+            // Act
+            database.returnBook("9780306406157");
+
+            // Assert
+            Assertions.assertFalse(database.getBookByISBN("9780306406157").isBorrowed());
+            Assertions.assertNull(database.getBorrowerId("9780306406157"));
+        }
+    }
+
+    @Test
+    public void givenConcurrentBorrowersOfLastCopy_whenBorrowBook_thenOnlyOneSucceeds() throws Exception {
+        // Arrange
+        int threads = 8;
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> borrowers = new ArrayList<>();
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+            Library library = new Library(database, null);
+            for (int t = 0; t < threads; t++) {
+                String userId = String.format("1234567890%02d", t);
+                database.registerUser(userId, new User("Some User", userId, mockNotificationService));
+                Thread borrower = new Thread(() -> {
+                    try {
+                        start.await();
+                        library.borrowBook("9780306406157", userId);
+                        borrowed.incrementAndGet();
+                    } catch (BookAlreadyBorrowedException e) {
+                        refused.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                borrowers.add(borrower);
+                borrower.start();
+            }
+
+            // Act
+            start.countDown();
+            for (Thread borrower : borrowers) {
+                borrower.join();
+            }
+
+            // Assert
+            Assertions.assertEquals(1, borrowed.get());
+            Assertions.assertEquals(threads - 1, refused.get());
+            Assertions.assertTrue(database.getBookByISBN("9780306406157").isBorrowed());
+            Assertions.assertThrows(BookAlreadyBorrowedException.class,
+                    () -> database.borrowBook("9780306406157", "123456789012"));
+        }
+    }
+
+    @Test
+    public void givenBookNotBorrowed_whenReturnBook_thenBookNotBorrowedExceptionIsThrown() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+
+            // Act & Assert
+            Assertions.assertThrows(BookNotBorrowedException.class, () -> database.returnBook("9780306406157"));
+            Assertions.assertFalse(database.getBookByISBN("9780306406157").isBorrowed());
+        }
+    }
+
+    @Test
+    public void givenBookWithBorrowedCopies_whenAddBook_thenOnlyLoansRecordedLaterCount() throws Exception {
+        // Arrange
+        Book book = new Book("9780306406157", "Some Title", "Some Author", 2);
+        book.borrow();
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+
+            // Act
+            database.addBook("9780306406157", book);
+            database.borrowBook("9780306406157", "123456789012");
+            database.addBook("9780306406157", book);
+
+            // Assert
+            Assertions.assertEquals(1, database.getBookByISBN("9780306406157").getAvailableCopies());
+        }
+    }
+
+    @Test
+    public void givenRemovedBook_whenLookedUpAndAddedAgain_thenItIsGoneAndComesBackWithoutLoans() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+            for (int i = 0; i < 8; i++) {
+                String ISBN = "97803064061" + i;
+                ISBN = ISBN + checkDigit(ISBN);
+                database.addBook(ISBN, new Book(ISBN, "Title " + i, "Author"));
+            }
+            database.borrowBook("9780306406157", "123456789012");
+            List<Long> keys = new ArrayList<>();
+
+            // Act
+            boolean removed = database.removeBook("9780306406157");
+            database.forEachKey(keys::add, key -> { });
+
+            // Assert
+            Assertions.assertTrue(removed);
+            Assertions.assertNull(database.getBookByISBN("9780306406157"));
+            Assertions.assertEquals(7, database.bookCount());
+            Assertions.assertEquals(7, keys.size());
+            for (int i = 0; i < 8; i++) {
+                String ISBN = "97803064061" + i;
+                ISBN = ISBN + checkDigit(ISBN);
+                Assertions.assertEquals(!ISBN.equals("9780306406157"), database.getBookByISBN(ISBN) != null);
+            }
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+            Assertions.assertFalse(database.getBookByISBN("9780306406157").isBorrowed());
+            Assertions.assertNull(database.getBorrowerId("9780306406157"));
+            Assertions.assertEquals(8, database.bookCount());
+        }
+    }
+
+    @Test
+    public void givenTitleLongerThanSlot_whenBookIsAdded_thenIllegalArgumentExceptionIsThrown() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 10, 10)) {
+            Book book = new Book("9780306406157", "x".repeat(MappedDatabaseService.MAX_TEXT_BYTES + 1), "Some Author");
+
+            // Act & Assert
+            IllegalArgumentException exception = Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> database.addBook("9780306406157", book));
+            Assertions.assertEquals("Invalid title.", exception.getMessage());
+            Assertions.assertNull(database.getBookByISBN("9780306406157"));
+        }
+    }
+
+    private static int checkDigit(String digits) {
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    @Test
+    public void givenLoanWithDueDate_whenReopened_thenLatestLoanIsListedWithIt() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 100, 10)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+            database.borrowBook("9780306406157", "123456789012", 1000);
+        }
+
+        // Act
+        List<String> loans = new ArrayList<>();
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 1, 1)) {
+            boolean complete = database.forEachLoan((ISBNKey, userKey, dueDate) ->
+                loans.add(ISBNCodec.toString(ISBNKey) + " " + UserIdCodec.toString(userKey) + " " + dueDate));
+
+            // Assert
+            Assertions.assertTrue(complete);
+            Assertions.assertThrows(BookNotBorrowedException.class,
+                () -> database.returnBook("9780306406157", "210987654321"));
+        }
+        Assertions.assertEquals(List.of("9780306406157 123456789012 1000"), loans);
+    }
+
+    @Test
+    public void givenLatestBorrowerReturnedOneOfSeveralCopies_whenForEachLoan_thenLoansAreIncomplete() throws Exception {
+        // Arrange
+        try (MappedDatabaseService database = new MappedDatabaseService(directory, id -> mockNotificationService, 100, 10)) {
+            database.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author", 3));
+            database.borrowBook("9780306406157", "123456789012", 1000);
+            database.borrowBook("9780306406157", "210987654321", 2000);
+            database.returnBook("9780306406157", "210987654321");
+
+            // Act
+            List<String> loans = new ArrayList<>();
+            boolean complete = database.forEachLoan((ISBNKey, userKey, dueDate) -> loans.add(UserIdCodec.toString(userKey)));
+
+            // Assert
+            Assertions.assertFalse(complete);
+            Assertions.assertTrue(loans.isEmpty());
+            Assertions.assertEquals(2, database.getBookByISBN("9780306406157").getAvailableCopies());
+        }
+    }
+}
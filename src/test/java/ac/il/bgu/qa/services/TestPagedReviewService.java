@@ -0,0 +1,61 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestPagedReviewService {
+
+    @Test
+    public void givenManyReviews_whenStreamIsCutShort_thenOnlyConsumedPagesAreFetched() {
+        // Arrange
+        AtomicInteger fetches = new AtomicInteger();
+        PagedReviewService service = new PagedReviewService((ISBN, offset, limit) -> {
+            fetches.incrementAndGet();
+            return reviews(offset, Math.min(limit, 100_000 - offset));
+        }, 10);
+
+        // Act
+        List<String> first;
+        try (Stream<String> reviews = service.streamReviewsForBook("9780306406157")) {
+            first = reviews.limit(25).collect(Collectors.toList());
+        }
+        List<String> page = service.getReviewsForBook("9780306406157", 50_000, 3);
+
+        // Assert
+        Assertions.assertEquals(reviews(0, 25), first);
+        Assertions.assertEquals(reviews(50_000, 3), page);
+        Assertions.assertEquals(4, fetches.get());
+    }
+
+    @Test
+    public void givenReviews_whenTopReviewsAreSelected_thenBestAreReturnedBestFirst() {
+        // Arrange
+        PagedReviewService service = new PagedReviewService((ISBN, offset, limit) ->
+                reviews(offset, Math.max(0, Math.min(limit, 95 - offset))), 10);
+
+        // Act
+        List<String> top = service.getTopReviewsForBook("9780306406157", 3, Comparator.reverseOrder());
+        List<String> all = service.getReviewsForBook("9780306406157");
+
+        // Assert
+        Assertions.assertEquals(List.of("Review 94", "Review 93", "Review 92"), top);
+        Assertions.assertEquals(95, all.size());
+    }
+
+    private static List<String> reviews(int offset, int count) {
+        List<String> reviews = new ArrayList<>();
+        for (int i = offset; i < offset + count; i++) {
+            reviews.add("Review " + i);
+        }
+        return reviews;
+    }
+}
@@ -0,0 +1,156 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Mockito
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.errors.*;
+
+public class TestPooledReviewService {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<ReviewService> sessions = new ArrayList<>();
+
+    // Opens a new mock session that returns one review for every book.
+    private ReviewService openSession() {
+        ReviewService session = mock(ReviewService.class);
+        when(session.getReviewsForBook(anyString())).thenReturn(Arrays.asList("Great"));
+        sessions.add(session);
+        return session;
+    }
+
+    private PooledReviewService newPool(int maxSessions, Duration leaseTimeout) {
+        return new PooledReviewService(this::openSession, maxSessions, Duration.ofMinutes(1), leaseTimeout,
+            session -> true, clock::get);
+    }
+
+    @Test
+    public void givenSequentialFetches_whenGetReviewsForBook_thenReuseOneSession() {
+        // Arrange
+        PooledReviewService pool = newPool(4, Duration.ofSeconds(1));
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            pool.getReviewsForBook("9780306406157");
+            pool.close();
+        }
+
+        // Assert
+        Assertions.assertEquals(1, pool.getOpenedCount());
+        verify(sessions.get(0), times(10)).getReviewsForBook("9780306406157");
+        verify(sessions.get(0), never()).close();
+    }
+
+    @Test
+    public void givenFailingSession_whenGetReviewsForBook_thenDiscardIt() {
+        // Arrange
+        PooledReviewService pool = newPool(4, Duration.ofSeconds(1));
+        pool.getReviewsForBook("9780306406157");
+        when(sessions.get(0).getReviewsForBook(anyString())).thenThrow(new ReviewException("fail"));
+
+        // Act & Assert
+        Assertions.assertThrows(ReviewException.class, () -> pool.getReviewsForBook("9780306406157"));
+        verify(sessions.get(0), times(1)).close();
+        Assertions.assertEquals(0, pool.getIdleCount());
+        pool.getReviewsForBook("9780306406157");
+        Assertions.assertEquals(2, pool.getOpenedCount());
+    }
+
+    @Test
+    public void givenBookWithoutReviews_whenGetReviewsForBook_thenKeepSession() {
+        // Arrange
+        PooledReviewService pool = newPool(4, Duration.ofSeconds(1));
+        pool.getReviewsForBook("9780306406157");
+        when(sessions.get(0).getReviewsForBook("210987654321")).thenThrow(new NoReviewsFoundException("none"));
+
+        // Act & Assert
+        Assertions.assertThrows(NoReviewsFoundException.class, () -> pool.getReviewsForBook("210987654321"));
+        verify(sessions.get(0), never()).close();
+        Assertions.assertEquals(1, pool.getIdleCount());
+        pool.getReviewsForBook("9780306406157");
+        Assertions.assertEquals(1, pool.getOpenedCount());
+    }
+
+    @Test
+    public void givenIdleSessionPastTimeout_whenEvictIdle_thenCloseIt() {
+        // Arrange
+        PooledReviewService pool = newPool(4, Duration.ofSeconds(1));
+        pool.getReviewsForBook("9780306406157");
+
+        // Act
+        clock.addAndGet(Duration.ofMinutes(2).toNanos());
+        pool.evictIdle();
+
+        // Assert
+        Assertions.assertEquals(0, pool.getIdleCount());
+        verify(sessions.get(0), times(1)).close();
+    }
+
+    @Test
+    public void givenUnhealthyIdleSession_whenGetReviewsForBook_thenReplaceIt() {
+        // Arrange
+        PooledReviewService pool = new PooledReviewService(this::openSession, 4, Duration.ofMinutes(1),
+            Duration.ofSeconds(1), session -> session != sessions.get(0), clock::get);
+        pool.getReviewsForBook("9780306406157");
+
+        // Act
+        pool.getReviewsForBook("9780306406157");
+
+        // Assert
+        Assertions.assertEquals(2, pool.getOpenedCount());
+        verify(sessions.get(0), times(1)).close();
+    }
+
+    @Test
+    public void givenAllSessionsLeased_whenGetReviewsForBook_thenFailAfterLeaseTimeout() throws Exception {
+        // Arrange
+        CountDownLatch leased = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReviewService slow = mock(ReviewService.class);
+        when(slow.getReviewsForBook(anyString())).thenAnswer(invocation -> {
+            leased.countDown();
+            release.await();
+            return Arrays.asList("Great");
+        });
+        PooledReviewService pool = new PooledReviewService(() -> slow, 1, Duration.ofMinutes(1),
+            Duration.ofMillis(10), session -> true);
+        Thread holder = new Thread(() -> pool.getReviewsForBook("9780306406157"));
+        holder.start();
+        leased.await();
+
+        // Act & Assert
+        ReviewException thrown = Assertions.assertThrows(
+            ReviewException.class,
+            () -> pool.getReviewsForBook("9780306406157")
+        );
+        Assertions.assertEquals("No review session available!", thrown.getMessage());
+        release.countDown();
+        holder.join();
+    }
+
+    @Test
+    public void givenShutdownPool_whenGetReviewsForBook_thenCloseSessionsAndThrow() {
+        // Arrange
+        PooledReviewService pool = newPool(4, Duration.ofSeconds(1));
+        pool.getReviewsForBook("9780306406157");
+
+        // Act
+        pool.shutdown();
+
+        // Assert
+        verify(sessions.get(0), times(1)).close();
+        Assertions.assertThrows(ReviewException.class, () -> pool.getReviewsForBook("9780306406157"));
+    }
+}
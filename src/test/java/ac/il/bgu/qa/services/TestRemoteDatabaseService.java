@@ -0,0 +1,228 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.*;
+import ac.il.bgu.qa.errors.*;
+
+public class TestRemoteDatabaseService {
+
+    @Mock
+    DatabaseService mockDatabase;
+    @Mock
+    NotificationService mockNotificationService;
+
+    InMemoryDatabaseService database;
+    DatabaseServer server;
+    RemoteDatabaseService client;
+
+    @BeforeEach
+    public void init() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        database = new InMemoryDatabaseService();
+        server = new DatabaseServer(database, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), id -> mockNotificationService);
+        client = new RemoteDatabaseService(server.getAddress(), id -> mockNotificationService);
+    }
+
+    @AfterEach
+    public void close() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void givenRemoteDatabase_whenBookIsBorrowedAndReturned_thenServerStateFollows() {
+        // Arrange
+        client.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+        client.registerUser("123456789012", new User("Some User", "123456789012", mockNotificationService));
+
+        // Act
+        client.borrowBook("9780306406157", "123456789012");
+        Book borrowed = client.getBookByISBN("9780306406157");
+        User user = client.getUserById("123456789012");
+        client.returnBook("9780306406157");
+
+        // Assert
+        Assertions.assertTrue(borrowed.isBorrowed());
+        Assertions.assertEquals("Some Title", borrowed.getTitle());
+        Assertions.assertEquals("Some User", user.getName());
+        Assertions.assertSame(mockNotificationService, user.getNotificationService());
+        Assertions.assertFalse(database.getBookByISBN("9780306406157").isBorrowed());
+        Assertions.assertNull(database.getBorrowerId("9780306406157"));
+        Assertions.assertNull(client.getBookByISBN("9780140449136"));
+        Assertions.assertNull(client.getUserById("invalid"));
+    }
+
+    @Test
+    public void givenTwoClientsRacingForOneCopy_whenBothBorrow_thenOnlyOneLoanIsRecorded() throws Exception {
+        // Arrange
+        client.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+        try (RemoteDatabaseService other = new RemoteDatabaseService(server.getAddress(), id -> mockNotificationService)) {
+
+            // Act
+            CompletableFuture<Void> first = client.borrowBookAsync("9780306406157", "123456789012");
+            CompletableFuture<Void> second = other.borrowBookAsync("9780306406157", "210987654321");
+            List<Throwable> failures = new ArrayList<>();
+            for (CompletableFuture<Void> request : List.of(first, second)) {
+                try {
+                    request.join();
+                } catch (CompletionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+
+            // Assert
+            Assertions.assertEquals(1, failures.size());
+            Assertions.assertInstanceOf(BookAlreadyBorrowedException.class, failures.get(0));
+            Assertions.assertEquals(1, database.getLoanCount("9780306406157"));
+            String winner = first.isCompletedExceptionally() ? "210987654321" : "123456789012";
+            Assertions.assertEquals(winner, database.getBorrowerId("9780306406157"));
+            Assertions.assertTrue(database.getBookByISBN("9780306406157").isBorrowed());
+        }
+    }
+
+    @Test
+    public void givenBookNotBorrowed_whenReturnBook_thenBookNotBorrowedExceptionIsThrownByClient() {
+        // Arrange
+        client.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+
+        // Act & Assert
+        Assertions.assertThrows(BookNotBorrowedException.class, () -> client.returnBook("9780306406157"));
+        Assertions.assertFalse(database.getBookByISBN("9780306406157").isBorrowed());
+    }
+
+    @Test
+    public void givenTwoBorrowersOfOneTitle_whenOneReturnsByName_thenTheOtherLoanStaysOpen() {
+        // Arrange
+        client.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author", 2));
+        client.borrowBook("9780306406157", "123456789012");
+        client.borrowBook("9780306406157", "210987654321");
+
+        // Act
+        client.returnBook("9780306406157", "210987654321");
+
+        // Assert
+        Assertions.assertEquals(List.of("123456789012"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(1, database.getBookByISBN("9780306406157").getAvailableCopies());
+        Assertions.assertThrows(BookNotBorrowedException.class, () -> client.returnBook("9780306406157", "210987654321"));
+        Assertions.assertEquals(1, database.getBookByISBN("9780306406157").getAvailableCopies());
+    }
+
+    @Test
+    public void givenCopyHeldByAnotherUser_whenBatchBorrowFails_thenOnlyTheBatchLoansAreUndone() {
+        // Arrange
+        client.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author", 2));
+        client.addBook("9780140449136", new Book("9780140449136", "Other Title", "Other Author"));
+        client.borrowBook("9780306406157", "123456789012");
+        client.borrowBook("9780140449136", "123456789012");
+
+        // Act
+        Assertions.assertThrows(BookAlreadyBorrowedException.class,
+                () -> client.borrowBooks(List.of("9780306406157", "9780140449136"), "210987654321"));
+
+        // Assert
+        Assertions.assertEquals(List.of("123456789012"), database.getBorrowerIds("9780306406157"));
+        Assertions.assertEquals(1, database.getBookByISBN("9780306406157").getAvailableCopies());
+    }
+
+    @Test
+    public void givenSlowDatabaseCall_whenAnotherClientSendsRequest_thenItIsAnsweredMeanwhile() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockDatabase.getBookByISBN("9780306406157")).thenAnswer(invocation -> {
+            release.await();
+            return new Book("9780306406157", "Slow Title", "Some Author");
+        });
+        when(mockDatabase.getBookByISBN("9780140449136")).thenReturn(new Book("9780140449136", "Other Title", "Other Author"));
+        try (DatabaseServer slowServer = new DatabaseServer(mockDatabase,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), id -> mockNotificationService);
+             RemoteDatabaseService slowClient = new RemoteDatabaseService(slowServer.getAddress(), id -> mockNotificationService);
+             RemoteDatabaseService otherClient = new RemoteDatabaseService(slowServer.getAddress(), id -> mockNotificationService)) {
+
+            // Act
+            CompletableFuture<Book> slow = slowClient.getBookByISBNAsync("9780306406157");
+            CompletableFuture<Book> queued = slowClient.getBookByISBNAsync("9780140449136");
+            Book other = otherClient.getBookByISBNAsync("9780140449136").get(5, TimeUnit.SECONDS);
+
+            // Assert
+            Assertions.assertEquals("Other Title", other.getTitle());
+            Assertions.assertFalse(slow.isDone());
+            Assertions.assertFalse(queued.isDone());
+            release.countDown();
+            Assertions.assertEquals("Slow Title", slow.get(5, TimeUnit.SECONDS).getTitle());
+            Assertions.assertEquals("Other Title", queued.get(5, TimeUnit.SECONDS).getTitle());
+        }
+    }
+
+    @Test
+    public void givenManyPipelinedRequests_whenAwaited_thenEachGetsItsOwnResponse() {
+        // Arrange
+        List<CompletableFuture<Void>> additions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            additions.add(client.addBookAsync(isbn(i), new Book(isbn(i), "Title " + i, "Some Author")));
+        }
+        additions.forEach(CompletableFuture::join);
+
+        // Act
+        List<CompletableFuture<Book>> lookups = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lookups.add(client.getBookByISBNAsync(isbn(i)));
+        }
+
+        // Assert
+        for (int i = 0; i < 500; i++) {
+            Assertions.assertEquals("Title " + i, lookups.get(i).join().getTitle());
+        }
+        Assertions.assertEquals(500, database.bookCount());
+    }
+
+    @Test
+    public void givenFailingDatabase_whenBookIsRequested_thenFailureIsThrownByClient() throws Exception {
+        // Arrange
+        when(mockDatabase.getBookByISBN("9780306406157")).thenThrow(new IllegalStateException("Database down!"));
+        doThrow(new IllegalArgumentException("Invalid book.")).when(mockDatabase).returnBook("9781861972712");
+        try (DatabaseServer failingServer = new DatabaseServer(mockDatabase,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), id -> mockNotificationService);
+             RemoteDatabaseService failingClient = new RemoteDatabaseService(failingServer.getAddress(), id -> mockNotificationService)) {
+
+            // Act & Assert
+            IllegalStateException failure = Assertions.assertThrows(IllegalStateException.class,
+                    () -> failingClient.getBookByISBN("9780306406157"));
+            Assertions.assertTrue(failure.getMessage().contains("Database down!"));
+            IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> failingClient.returnBook("9781861972712"));
+            Assertions.assertEquals("Invalid book.", invalid.getMessage());
+        }
+    }
+
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
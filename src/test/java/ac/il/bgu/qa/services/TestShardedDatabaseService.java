@@ -0,0 +1,401 @@
+package ac.il.bgu.qa.services;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Java standard library
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Mockito
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.*;
+
+// Your classes
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+
+public class TestShardedDatabaseService {
+
+    @Mock
+    NotificationService mockNotificationService;
+    @Mock
+    ReviewService mockReviewService;
+
+    @TempDir
+    Path directory;
+
+    private ShardedDatabaseService sharded;
+    private InMemoryDatabaseService first;
+    private InMemoryDatabaseService second;
+    private InMemoryDatabaseService third;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        sharded = new ShardedDatabaseService();
+        first = new InMemoryDatabaseService();
+        second = new InMemoryDatabaseService();
+        third = new InMemoryDatabaseService();
+        sharded.addShard("first", first);
+        sharded.addShard("second", second);
+    }
+
+    @Test
+    public void givenManyBooks_whenAddBook_thenBooksAreSpreadOverShardsAndFound() {
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            sharded.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+        }
+
+        // Assert
+        Assertions.assertEquals(1000, first.bookCount() + second.bookCount());
+        Assertions.assertTrue(first.bookCount() > 350 && second.bookCount() > 350);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertNotNull(sharded.getBookByISBN(isbn(i)));
+        }
+    }
+
+    @Test
+    public void givenNewShard_whenRebalance_thenOnlyAFractionMovesAndEverythingStaysReadable() {
+        // Arrange
+        for (int i = 0; i < 1000; i++) {
+            sharded.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+        }
+
+        // Act
+        sharded.addShard("third", third);
+        boolean readableWhileRebalancing = true;
+        for (int i = 0; i < 1000; i++) {
+            readableWhileRebalancing &= sharded.getBookByISBN(isbn(i)) != null;
+        }
+        int remaining = sharded.rebalance(100);
+        while (remaining > 0) {
+            remaining = sharded.rebalance(100);
+        }
+
+        // Assert
+        Assertions.assertTrue(readableWhileRebalancing);
+        Assertions.assertFalse(sharded.isRebalancing());
+        Assertions.assertTrue(third.bookCount() > 200 && third.bookCount() < 450);
+        for (int i = 0; i < 1000; i++) {
+            Book book = sharded.getBookByISBN(isbn(i));
+            Assertions.assertNotNull(book);
+            Assertions.assertSame(sharded.shardOfBook(isbn(i)).getBookByISBN(isbn(i)), book);
+        }
+    }
+
+    @Test
+    public void givenRemovedShard_whenRebalance_thenItsBooksAndLoansMoveToRemainingShard() {
+        // Arrange
+        sharded.registerUser("123456789012", new User("Some Name", "123456789012", mockNotificationService));
+        for (int i = 0; i < 200; i++) {
+            sharded.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+            sharded.borrowBook(isbn(i), "123456789012");
+        }
+
+        // Act
+        sharded.removeShard("second");
+        sharded.rebalance(Integer.MAX_VALUE);
+
+        // Assert
+        Assertions.assertEquals(200, first.bookCount());
+        Assertions.assertEquals(1, first.userCount());
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals("123456789012", first.getBorrowerId(isbn(i)));
+        }
+    }
+
+    @Test
+    public void givenNewShard_whenRebalance_thenMovedEntriesAreRemovedFromTheirOldShard() {
+        // Arrange
+        for (int i = 0; i < 1000; i++) {
+            sharded.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+        }
+        int before = first.bookCount();
+
+        // Act
+        sharded.addShard("third", third);
+        int toMove = sharded.rebalance(1);
+        sharded.rebalance(Integer.MAX_VALUE);
+
+        // Assert
+        Assertions.assertEquals(1000, first.bookCount() + second.bookCount() + third.bookCount());
+        Assertions.assertTrue(first.bookCount() < before);
+        Assertions.assertEquals(third.bookCount() - 1, toMove);
+        for (int i = 0; i < 1000; i++) {
+            DatabaseService owner = sharded.shardOfBook(isbn(i));
+            Assertions.assertEquals(owner == first, first.getBookByISBN(isbn(i)) != null);
+            Assertions.assertEquals(owner == second, second.getBookByISBN(isbn(i)) != null);
+            Assertions.assertEquals(owner == third, third.getBookByISBN(isbn(i)) != null);
+        }
+    }
+
+    @Test
+    public void givenBookNotMigratedYet_whenBorrowedAndReturned_thenLoansFollowItToItsNewShard() {
+        // Arrange
+        sharded.registerUser("123456789012", new User("Some Name", "123456789012", mockNotificationService));
+        sharded.registerUser("210987654321", new User("Other Name", "210987654321", mockNotificationService));
+        for (int i = 0; i < 100; i++) {
+            sharded.addBook(isbn(i), new Book(isbn(i), "Title", "Author", 3));
+        }
+        sharded.addShard("third", third);
+        String ISBN = null;
+        for (int i = 0; ISBN == null; i++) {
+            if (sharded.shardOfBook(isbn(i)) == third) {
+                ISBN = isbn(i);
+            }
+        }
+
+        // Act
+        sharded.borrowBook(ISBN, "123456789012");
+        sharded.borrowBook(ISBN, "210987654321");
+        sharded.rebalance(Integer.MAX_VALUE);
+        sharded.returnBook(ISBN);
+        sharded.removeShard("third");
+        sharded.rebalance(Integer.MAX_VALUE);
+
+        // Assert
+        InMemoryDatabaseService owner = (InMemoryDatabaseService) sharded.shardOfBook(ISBN);
+        Assertions.assertEquals(0, third.bookCount());
+        Assertions.assertNull(third.getBorrowerId(ISBN));
+        Assertions.assertEquals(List.of("210987654321"), owner.getBorrowerIds(ISBN));
+        Assertions.assertNotNull(sharded.getBookByISBN(ISBN));
+    }
+
+    @Test
+    public void givenShardNamesWithTheSameStringHashCode_whenBooksAreAdded_thenBothShardsGetBooks() {
+        // Arrange
+        ShardedDatabaseService colliding = new ShardedDatabaseService();
+        InMemoryDatabaseService aa = new InMemoryDatabaseService();
+        InMemoryDatabaseService bb = new InMemoryDatabaseService();
+        colliding.addShard("Aa", aa);
+        colliding.addShard("BB", bb);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            colliding.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+        }
+
+        // Assert
+        Assertions.assertEquals("Aa".hashCode(), "BB".hashCode());
+        Assertions.assertTrue(aa.bookCount() > 350 && bb.bookCount() > 350);
+    }
+
+    @Test
+    public void givenBookAndUserOnDifferentShards_whenBorrowBook_thenLoanIsRecordedWithTheBook() {
+        // Arrange
+        sharded.registerUser("123456789012", new User("Some Name", "123456789012", mockNotificationService));
+        DatabaseService userShard = sharded.shardOfUser("123456789012");
+        String ISBN = null;
+        for (int i = 0; ISBN == null; i++) {
+            if (sharded.shardOfBook(isbn(i)) != userShard) {
+                ISBN = isbn(i);
+            }
+        }
+        sharded.addBook(ISBN, new Book(ISBN, "Title", "Author"));
+        InMemoryDatabaseService bookShard = (InMemoryDatabaseService) sharded.shardOfBook(ISBN);
+
+        // Act
+        sharded.borrowBook(ISBN, "123456789012");
+
+        // Assert
+        Assertions.assertEquals("123456789012", bookShard.getBorrowerId(ISBN));
+        Assertions.assertNull(bookShard.getUserById("123456789012"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sharded.borrowBook(isbn(1), "210987654321"));
+    }
+
+    @Test
+    public void givenBooksOnSeveralShards_whenGetBooksByISBN_thenReturnAllFound() {
+        // Arrange
+        Map<String, Book> books = new HashMap<>();
+        List<String> ISBNs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            books.put(isbn(i), new Book(isbn(i), "Title", "Author"));
+            ISBNs.add(isbn(i));
+        }
+        sharded.addBooks(books);
+        ISBNs.add(isbn(999));
+
+        // Act
+        Map<String, Book> found = sharded.getBooksByISBN(ISBNs);
+
+        // Assert
+        Assertions.assertEquals(50, found.size());
+        Assertions.assertTrue(first.bookCount() > 0 && second.bookCount() > 0);
+    }
+
+    @Test
+    public void givenShardedDatabase_whenUsedByLibrary_thenBorrowAndReturnWork() {
+        // Arrange
+        Library library = new Library(sharded, mockReviewService);
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        library.addBook(new Book("9780306406157", "Some Title", "Some Author"));
+
+        // Act
+        library.borrowBook("9780306406157", "123456789012");
+        sharded.addShard("third", third);
+        sharded.rebalance(Integer.MAX_VALUE);
+        library.returnBook("9780306406157");
+
+        // Assert
+        Assertions.assertFalse(sharded.getBookByISBN("9780306406157").isBorrowed());
+    }
+
+    @Test
+    public void givenMappedShards_whenShardWithBorrowedBooksIsRemoved_thenEveryLoanIsCountedOnce() throws Exception {
+        // Arrange
+        try (MappedDatabaseService a = new MappedDatabaseService(directory.resolve("a"), id -> mockNotificationService, 100, 10);
+             MappedDatabaseService b = new MappedDatabaseService(directory.resolve("b"), id -> mockNotificationService, 100, 10)) {
+            ShardedDatabaseService mapped = new ShardedDatabaseService();
+            mapped.addShard("a", a);
+            mapped.addShard("b", b);
+            Library library = new Library(mapped, mockReviewService);
+            library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+            for (int i = 0; i < 50; i++) {
+                library.addBook(new Book(isbn(i), "Title", "Author", 2));
+                library.borrowBook(isbn(i), "123456789012");
+            }
+
+            // Act
+            mapped.removeShard("b");
+            mapped.rebalance(Integer.MAX_VALUE);
+
+            // Assert
+            Assertions.assertEquals(50, a.bookCount());
+            Assertions.assertEquals(0, b.bookCount());
+            for (int i = 0; i < 50; i++) {
+                Assertions.assertEquals(1, a.getBookByISBN(isbn(i)).getAvailableCopies());
+            }
+        }
+    }
+
+    @Test
+    public void givenShardWithEntriesOfItsOwn_whenAddedAndRebalanced_thenEveryEntryAndLoanIsReachable() {
+        // Arrange
+        third.registerUser("123456789012", new User("Some Name", "123456789012", mockNotificationService));
+        for (int i = 0; i < 300; i++) {
+            third.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+            third.borrowBook(isbn(i), "123456789012", 1000 + i);
+        }
+
+        // Act
+        sharded.addShard("third", third);
+        sharded.rebalance(Integer.MAX_VALUE);
+
+        // Assert
+        Assertions.assertEquals(300, first.bookCount() + second.bookCount() + third.bookCount());
+        Assertions.assertTrue(third.bookCount() < 200);
+        Assertions.assertNotNull(sharded.getUserById("123456789012"));
+        for (int i = 0; i < 300; i++) {
+            Assertions.assertNotNull(sharded.getBookByISBN(isbn(i)));
+            Assertions.assertEquals(Collections.singletonList("123456789012"), sharded.getBorrowerIds(isbn(i)));
+            Assertions.assertEquals(Collections.singletonList("123456789012"), sharded.shardOfBook(isbn(i)).getBorrowerIds(isbn(i)));
+        }
+        long[] dueDates = new long[1];
+        sharded.forEachLoan((ISBNKey, userKey, dueDate) -> dueDates[0] += dueDate);
+        Assertions.assertEquals(300 * 1000 + 299 * 300 / 2, dueDates[0]);
+    }
+
+    @Test
+    public void givenShardWithBooksWhoseLoansCannotBeListed_whenAdded_thenIllegalArgumentExceptionIsThrown() {
+        // Arrange
+        DatabaseService unlisted = spy(new InMemoryDatabaseService());
+        unlisted.addBook(isbn(1), new Book(isbn(1), "Title", "Author"));
+        doReturn(false).when(unlisted).forEachLoan(any());
+
+        // Act & Assert
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sharded.addShard("third", unlisted));
+        Assertions.assertEquals(2, sharded.getShardNames().size());
+        Assertions.assertNull(sharded.getBookByISBN(isbn(1)));
+    }
+
+    @Test
+    public void givenMembershipFiltersEnabled_whenShardWithBooksOfItsOwnIsAdded_thenLibraryFindsThem() {
+        // Arrange
+        Library library = new Library(sharded, mockReviewService);
+        Assertions.assertTrue(library.enableMembershipFilters(1000, 1000, 0.01));
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+        for (int i = 0; i < 100; i++) {
+            third.addBook(isbn(i), new Book(isbn(i), "Title", "Author"));
+        }
+
+        // Act
+        sharded.addShard("third", third);
+
+        // Assert
+        for (int i = 0; i < 100; i++) {
+            library.borrowBook(isbn(i), "123456789012");
+            Assertions.assertTrue(sharded.getBookByISBN(isbn(i)).isBorrowed());
+        }
+    }
+
+    @Test
+    public void givenShardWithBooksOfItsOwn_whenMembershipFiltersEnabled_thenLibraryFindsThem() {
+        // Arrange
+        first.addBook("9780306406157", new Book("9780306406157", "Some Title", "Some Author"));
+        ShardedDatabaseService prefilled = new ShardedDatabaseService();
+        prefilled.addShard("first", first);
+        prefilled.addShard("second", second);
+        Library library = new Library(prefilled, mockReviewService);
+        library.registerUser(new User("Some Name", "123456789012", mockNotificationService));
+
+        // Act
+        boolean enabled = library.enableMembershipFilters(1000, 1000, 0.01);
+        library.borrowBook("9780306406157", "123456789012");
+
+        // Assert
+        Assertions.assertTrue(enabled);
+        Assertions.assertTrue(prefilled.getBookByISBN("9780306406157").isBorrowed());
+    }
+
+    @Test
+    public void givenShardThatCannotListItsKeys_whenAdded_thenKeysAreNeitherListedNorTrackedUntilItIsRemoved() {
+        // Arrange
+        DatabaseService unlisted = spy(new InMemoryDatabaseService());
+        doReturn(false).when(unlisted).forEachKey(any(), any());
+
+        // Act
+        sharded.addShard("third", unlisted);
+        boolean listed = sharded.forEachKey(key -> {}, key -> {});
+        Runnable stopTracking = sharded.trackKeys(key -> {}, key -> {});
+        sharded.removeShard("third");
+
+        // Assert
+        Assertions.assertFalse(listed);
+        Assertions.assertNull(stopTracking);
+        Assertions.assertTrue(sharded.forEachKey(key -> {}, key -> {}));
+    }
+
+    @Test
+    public void givenTrackedKeys_whenShardThatCannotListItsKeysIsAdded_thenIllegalArgumentExceptionIsThrown() {
+        // Arrange
+        DatabaseService unlisted = spy(new InMemoryDatabaseService());
+        doReturn(false).when(unlisted).forEachKey(any(), any());
+        sharded.trackKeys(key -> {}, key -> {});
+
+        // Act & Assert
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sharded.addShard("third", unlisted));
+        Assertions.assertEquals(2, sharded.getShardNames().size());
+    }
+
+    private static String isbn(int n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,40 @@
+package ac.il.bgu.qa.util;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestBloomFilter {
+
+    @Test
+    public void givenAddedKeys_whenLookedUp_thenNoneIsMissedAndFewOthersMatch() {
+        // Arrange
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long key = 0; key < 10_000; key++) {
+            filter.add(9780000000000L + key * 10);
+        }
+
+        // Act
+        int falsePositives = 0;
+        for (long key = 0; key < 10_000; key++) {
+            if (filter.mightContain(9780000000000L + key * 10 + 1)) {
+                falsePositives++;
+            }
+        }
+
+        // Assert
+        for (long key = 0; key < 10_000; key++) {
+            Assertions.assertTrue(filter.mightContain(9780000000000L + key * 10));
+        }
+        Assertions.assertTrue(falsePositives < 200, "False positives: " + falsePositives);
+        Assertions.assertEquals(7, filter.hashCount());
+    }
+
+    @Test
+    public void givenInvalidFalsePositiveRate_whenConstructed_thenIllegalArgumentExceptionIsThrown() {
+        // Act & Assert
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+    }
+}
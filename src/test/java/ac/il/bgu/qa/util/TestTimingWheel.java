@@ -0,0 +1,61 @@
+package ac.il.bgu.qa.util;
+
+// JUnit 5
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+// Java standard library
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestTimingWheel {
+
+    @Test
+    public void givenDeadlinesAcrossLevels_whenAdvance_thenEachExpiresOnTimeAndNeverEarly() {
+        // Arrange
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 1_000);
+        Random random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            long deadline = 1_000 + (long) (Math.pow(10, random.nextInt(8)) * random.nextDouble());
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        List<Long> expired = new ArrayList<>();
+
+        // Act & Assert
+        for (long now = 1_000; now <= 1_000 + 100_000_000L; now += 1 + now / 3) {
+            long time = now;
+            wheel.advance(time, deadline -> {
+                Assertions.assertTrue(deadline <= time);
+                expired.add(deadline);
+            });
+            long due = deadlines.stream().filter(deadline -> (deadline + 9) / 10 <= time / 10).count();
+            Assertions.assertEquals(due, expired.size());
+        }
+        Assertions.assertEquals(deadlines.size(), expired.size());
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void givenCancelledTimeout_whenAdvance_thenItDoesNotExpire() {
+        // Arrange
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        TimingWheel.Timeout<String> cancelled = wheel.schedule(5_000, "cancelled");
+        wheel.schedule(5_000, "kept");
+        List<String> expired = new ArrayList<>();
+
+        // Act
+        boolean removed = wheel.cancel(cancelled);
+        wheel.advance(4_999, expired::add);
+        int early = expired.size();
+        wheel.advance(5_000, expired::add);
+
+        // Assert
+        Assertions.assertTrue(removed);
+        Assertions.assertFalse(wheel.cancel(cancelled));
+        Assertions.assertEquals(0, early);
+        Assertions.assertEquals(List.of("kept"), expired);
+    }
+}